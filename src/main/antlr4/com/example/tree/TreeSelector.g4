@@ -12,6 +12,8 @@ grammar TreeSelector;
 // - Relative paths: /Root/Child1/../Child2 (navigate to siblings via parent)
 // - Attribute selectors: /Root/[wildcard]{type=component} (filter by attributes)
 // - Multiple attribute filters: /Root/[wildcard]{type=component,variant=primary}
+// - Version ranges: /Root/[wildcard]{version>=2.1}, {version=^2.0.0}, {version=~2.1}, {version=2.[wildcard]}
+// - String matching: {variant^=button}, {variant$=alt}, {variant[wildcard]=tton}, {name%='Grand?hild[wildcard]'}, {name~='^Child[0-9]$'}
 // - Multiple selectors: /Root/Child1|/Root/Child2 (combine results)
 //
 // where [wildcard] = *, [deep] = **, [placeholder] = ~~
@@ -106,14 +108,48 @@ attributeSelector
     : '{' attributeExpr (',' attributeExpr)* '}'
     ;
 
-// Attribute expression with name and value
+// Attribute expression with name and value, or a version comparison
 // Examples:
 // - type=component
 // - variant=primary
 // - version=2.0.0
 // - type=[wildcard]
+// - version>=2.1 (at or above 2.1.0)
+// - version<3 (below 3.0.0)
+// - variant^=button (starting with button)
 attributeExpr
     : attributeName '=' attributeValue
+    | attributeName versionOperator VERSION
+    | attributeName stringOperator stringValue
+    ;
+
+// Operators comparing versions, missing segments of the version count as wildcards
+// Examples: >=, >, <=, <
+versionOperator
+    : '>='
+    | '>'
+    | '<='
+    | '<'
+    ;
+
+// Operators matching a part of the value or a pattern
+// - ^= starts with, $= ends with, [wildcard]= contains
+// - %= glob pattern matching the whole value, [wildcard] for any characters and ? for one character
+// - ~= regular expression found anywhere in the value, anchored with ^ and $
+stringOperator
+    : '^='
+    | '$='
+    | '*='
+    | '%='
+    | '~='
+    ;
+
+// Value of a string operator, quoted strings can contain any pattern
+// Examples: button, 'button-', 2.1, '^[a-z]+$'
+stringValue
+    : IDENTIFIER
+    | STRING
+    | VERSION
     ;
 
 // Attribute name, can be regular identifier or quoted string
@@ -125,19 +161,30 @@ attributeName
     | STRING
     ;
 
-// Attribute value, can be identifier, quoted string, version number, or wildcard
+// Attribute value, can be identifier, quoted string, version number, version range, or wildcard
 // Examples:
 // - component
 // - 'component'
 // - 2.0.0
+// - 2.[wildcard] (any 2.x version)
+// - ^2.1.0 (compatible versions, 2.1.0 up to below 3.0.0)
 // - [wildcard]
 attributeValue
     : IDENTIFIER
     | STRING
     | VERSION
+    | versionRange
     | wildcard  // Allow wildcard as an attribute value
     ;
 
+// Caret (^) and tilde (~) version ranges
+// Examples:
+// - ^2.1.0 (2.1.0 up to below 3.0.0, for 0.x versions up to the next minor)
+// - ~2.1.0 (2.1.0 up to below 2.2.0)
+versionRange
+    : ('^' | '~') VERSION
+    ;
+
 // Lexer rules
 
 // Identifier for node names and attribute names/values
@@ -146,10 +193,10 @@ IDENTIFIER
     : [a-zA-Z_][a-zA-Z0-9_]*
     ;
 
-// Version number in semantic versioning format
-// Examples: 1.0.0, 2.1, 3, 4.5.2
+// Version number in semantic versioning format, segments after the first may be wildcards
+// Examples: 1.0.0, 2.1, 3, 4.5.2, 2.*, 2.1.x
 VERSION
-    : [0-9]+ ('.' [0-9]+)* // Matches version numbers like 1.0.0, 2.1, etc.
+    : [0-9]+ ('.' ([0-9]+ | [*xX]))* // Matches version numbers like 1.0.0, 2.1, 2.*, etc.
     ;
 
 // Quoted string for attribute names and values
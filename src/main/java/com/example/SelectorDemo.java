@@ -58,6 +58,7 @@ public class SelectorDemo {
 
 		for (String expression : expressions) {
 			System.out.println("\nSelecting with expression: " + expression);
+			System.out.println(selector.compile(expression).explain());
 			List<TreeNode> result = selector.select(expression);
 
 			System.out.println("Result nodes (" + result.size() + "):");
@@ -0,0 +1,332 @@
+package com.example.tree;
+
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * An immutable attribute filter of a compiled selector step, e.g. {@code type=component} or
+ * {@code version>=3.0}. Quotes have already been stripped from the name and value when the predicate
+ * is created.
+ * <p>
+ * Version ranges, i.e. the comparison operators and unquoted values like {@code version=3.*}, are parsed into an
+ * interval of {@link VersionKey packed version keys} once, when the predicate is created. Likewise,
+ * glob patterns and regular expressions are compiled once, so a selector does not compile them again
+ * for every node.
+ */
+public final class AttributePredicate {
+
+	/**
+	 * The operators comparing an attribute with the value of a predicate.
+	 */
+	public enum Operator {
+		/**
+		 * The attribute equals the value, or for an unquoted value like {@code version=3.*} is a version
+		 * in its range
+		 */
+		EQUALS("="),
+		/** The attribute is a version at or above the value, e.g. {@code version>=3} */
+		GREATER_OR_EQUAL(">="),
+		/** The attribute is a version above the value, e.g. {@code version>3.1} for 3.2.0 and above */
+		GREATER(">"),
+		/** The attribute is a version at or below the value, e.g. {@code version<=3.1} for below 3.2.0 */
+		LESS_OR_EQUAL("<="),
+		/** The attribute is a version below the value, e.g. {@code version<3} */
+		LESS("<"),
+		/** The attribute is a version compatible with the value, e.g. {@code version=^3.1} for 3.1.0 to below 4.0.0 */
+		CARET("=^"),
+		/** The attribute is a version close to the value, e.g. {@code version=~3.1} for 3.1.0 to below 3.2.0 */
+		TILDE("=~"),
+		/** The attribute starts with the value, e.g. {@code variant^=button} */
+		PREFIX("^="),
+		/** The attribute ends with the value, e.g. {@code variant$=alt} */
+		SUFFIX("$="),
+		/** The attribute contains the value, e.g. {@code variant*=tton} */
+		CONTAINS("*="),
+		/**
+		 * The whole attribute matches a glob pattern, where {@code *} stands for any characters,
+		 * {@code ?} for one character and a backslash escapes the next character, e.g. {@code name%='Child?'}
+		 */
+		GLOB("%="),
+		/** A regular expression is found in the attribute, e.g. {@code name~='^Child[0-9]+$'} */
+		REGEX("~=");
+
+		private final String symbol;
+
+		Operator(String symbol) {
+			this.symbol = symbol;
+		}
+
+		/**
+		 * @return the operator as written between the name and the value
+		 */
+		public String getSymbol() {
+			return symbol;
+		}
+	}
+
+	private final String name;
+	private final Operator operator;
+	private final String value;
+	private final boolean wildcard;
+	private final boolean versionRange;
+	/** The inclusive lower and exclusive upper version key of a version range */
+	private final long versionFrom;
+	private final long versionTo;
+	/** The compiled pattern of a glob or regular expression */
+	private final Pattern pattern;
+	/** The characters every matching attribute starts with, for a prefix or glob predicate */
+	private final String literalPrefix;
+
+	public AttributePredicate(String name, String value) {
+		this(name, Operator.EQUALS, value);
+	}
+
+	/**
+	 * Create a predicate with a value as written without quotes, so {@code version} with the value
+	 * {@code 3.*} matches the versions in its range.
+	 *
+	 * @param name the attribute name
+	 * @param operator the operator
+	 * @param value the value, a version for the version operators
+	 * @throws IllegalArgumentException if the operator compares versions and the value is not one, or
+	 * the value is not a valid regular expression
+	 */
+	public AttributePredicate(String name, Operator operator, String value) {
+		this(name, operator, value, false);
+	}
+
+	/**
+	 * @param quoted whether the value was quoted in the expression, in which case a value like
+	 * {@code '3.*'} only matches the same text
+	 */
+	AttributePredicate(String name, Operator operator, String value, boolean quoted) {
+		this.name = name;
+		this.operator = Objects.requireNonNull(operator, "The operator cannot be null");
+		this.value = value;
+		this.wildcard = operator == Operator.EQUALS && "*".equals(value);
+		this.versionRange = switch (operator) {
+			case EQUALS -> !quoted && isVersionPattern(name, value);
+			case PREFIX, SUFFIX, CONTAINS, GLOB, REGEX -> false;
+			default -> true;
+		};
+		long[] range = versionRange ? VersionKey.range(operator, value) : null;
+		if (versionRange && range == null) {
+			throw new IllegalArgumentException("Not a version: " + value);
+		}
+		this.versionFrom = range != null ? range[0] : 0;
+		this.versionTo = range != null ? range[1] : 0;
+		this.pattern = switch (operator) {
+			case GLOB -> Pattern.compile(globToRegex(value), Pattern.DOTALL);
+			case REGEX -> Pattern.compile(value);
+			default -> null;
+		};
+		this.literalPrefix = switch (operator) {
+			case PREFIX -> value;
+			case GLOB -> globPrefix(value);
+			default -> null;
+		};
+	}
+
+	/**
+	 * @return true if an unquoted value compared with the equals operator stands for a version range
+	 */
+	private static boolean isVersionPattern(String name, String value) {
+		return "version".equals(name) && VersionKey.isPattern(value);
+	}
+
+	private static String globToRegex(String glob) {
+		StringBuilder regex = new StringBuilder(glob.length() + 8);
+		StringBuilder literal = new StringBuilder();
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			if (c == '*' || c == '?') {
+				regex.append(quote(literal)).append(c == '*' ? ".*" : ".");
+				literal.setLength(0);
+			} else {
+				literal.append(c == '\\' && i + 1 < glob.length() ? glob.charAt(++i) : c);
+			}
+		}
+		return regex.append(quote(literal)).toString();
+	}
+
+	private static String globPrefix(String glob) {
+		StringBuilder prefix = new StringBuilder();
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			if (c == '*' || c == '?') {
+				break;
+			}
+			prefix.append(c == '\\' && i + 1 < glob.length() ? glob.charAt(++i) : c);
+		}
+		return prefix.toString();
+	}
+
+	private static String quote(CharSequence literal) {
+		return literal.isEmpty() ? "" : Pattern.quote(literal.toString());
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Operator getOperator() {
+		return operator;
+	}
+
+	public String getValue() {
+		return value;
+	}
+
+	/**
+	 * @return true if the value is "*", in which case the predicate matches every node
+	 */
+	public boolean isWildcard() {
+		return wildcard;
+	}
+
+	/**
+	 * @return true if the predicate matches exactly the attributes equal to its value
+	 */
+	public boolean isExact() {
+		return operator == Operator.EQUALS && !wildcard && !versionRange;
+	}
+
+	/**
+	 * @return true if the predicate matches the attributes which are versions in a range
+	 */
+	public boolean isVersionRange() {
+		return versionRange;
+	}
+
+	/**
+	 * @return the characters every matching attribute starts with, for a prefix or glob predicate,
+	 * otherwise null
+	 */
+	String getLiteralPrefix() {
+		return literalPrefix;
+	}
+
+	/**
+	 * @return the inclusive lower version key of a version range
+	 */
+	long getVersionFrom() {
+		return versionFrom;
+	}
+
+	/**
+	 * @return the exclusive upper version key of a version range
+	 */
+	long getVersionTo() {
+		return versionTo;
+	}
+
+	/**
+	 * Check whether a node satisfies this predicate.
+	 * The built-in properties type, variant and version are checked first,
+	 * then the generic attribute map of the node.
+	 *
+	 * @param node the node to check
+	 * @return true if the node matches
+	 */
+	public boolean matches(TreeNode node) {
+		if (wildcard) {
+			return true;
+		}
+		if (versionRange) {
+			long builtIn = switch (name) {
+				case "version" -> node.getVersionKey();
+				case "type" -> VersionKey.of(node.getType());
+				case "variant" -> VersionKey.of(node.getVariant());
+				default -> VersionKey.NONE;
+			};
+			return inRange(builtIn) || inRange(VersionKey.of(node.getAttribute(name)));
+		}
+		if (operator != Operator.EQUALS) {
+			String builtIn = switch (name) {
+				case "type" -> node.getType();
+				case "variant" -> node.getVariant();
+				case "version" -> node.getVersion();
+				default -> null;
+			};
+			return matchesValue(builtIn) || matchesValue(node.getAttribute(name));
+		}
+
+		if ("type".equals(name) && value.equals(node.getType())) {
+			return true;
+		} else if ("variant".equals(name) && value.equals(node.getVariant())) {
+			return true;
+		} else if ("version".equals(name) && value.equals(node.getVersion())) {
+			return true;
+		}
+		return value.equals(node.getAttribute(name));
+	}
+
+	/**
+	 * Check whether a single value satisfies this predicate, e.g. a value of a flat tree.
+	 *
+	 * @param candidate the value, or null
+	 * @return true if the value matches
+	 */
+	boolean matchesValue(String candidate) {
+		if (wildcard) {
+			return true;
+		} else if (versionRange) {
+			return inRange(VersionKey.of(candidate));
+		} else if (candidate == null) {
+			return false;
+		}
+		return switch (operator) {
+			case PREFIX -> candidate.startsWith(value);
+			case SUFFIX -> candidate.endsWith(value);
+			case CONTAINS -> candidate.contains(value);
+			case GLOB -> pattern.matcher(candidate).matches();
+			case REGEX -> pattern.matcher(candidate).find();
+			default -> value.equals(candidate);
+		};
+	}
+
+	private boolean inRange(long versionKey) {
+		return versionKey >= versionFrom && versionKey < versionTo;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof AttributePredicate other)) {
+			return false;
+		}
+		return name.equals(other.name) && operator == other.operator && value.equals(other.value)
+				&& versionRange == other.versionRange;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(name, operator, value);
+	}
+
+	/**
+	 * @return the predicate in selector syntax, with the name and value quoted unless they are tokens
+	 */
+	@Override
+	public String toString() {
+		boolean literalPattern = operator == Operator.EQUALS && !versionRange && isVersionPattern(name, value);
+		boolean plainValue = !literalPattern && (wildcard || isIdentifier(value) || VersionKey.isVersionToken(value));
+		return (isIdentifier(name) ? name : "'" + name + "'") + operator.getSymbol()
+				+ (plainValue ? value : "'" + value + "'");
+	}
+
+	private static boolean isIdentifier(String text) {
+		if (text.isEmpty() || Character.isDigit(text.charAt(0))) {
+			return false;
+		}
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (!(c >= 'a' && c <= 'z') && !(c >= 'A' && c <= 'Z') && !(c >= '0' && c <= '9') && c != '_') {
+				return false;
+			}
+		}
+		return true;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,393 @@
+package com.example.tree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The branches of many independent selectors merged into one prefix trie of steps, evaluated in a
+ * single pre-order walk which routes every matching node to all selectors accepting it.
+ * <p>
+ * Unlike the {@link SelectorAutomaton} of a single selector, which tests each node against every live
+ * state, a batch may have thousands of states live at the same node, e.g. the second steps of
+ * {@code /Root/A|/Root/B|...} or the first steps of {@code **}{@code /A|**}{@code /B|...}. The live set is
+ * therefore kept as groups of states: the children of a matched state, or a placeholder which stays live
+ * below the node it was live at. A group looks up the states to test at a node by the name of the node,
+ * so the cost of visiting a node grows with the number of steps naming it or matching any name, not with
+ * the number of selectors.
+ * <p>
+ * Branches with a parent step cannot be evaluated top-down; they are evaluated step by step for their
+ * selector after the walk, as by {@link SelectorInterpreter}.
+ */
+final class BatchAutomaton {
+
+	/** The virtual state whose children are the first steps tested at the root */
+	private static final int ROOT = 0;
+	/** The virtual state whose children are placeholder first steps, live at the children of the root */
+	private static final int ROOT_CHILDREN = 1;
+	/** The virtual state whose children are the first steps of deep paths, live at every node */
+	private static final int DEEP = 2;
+	private static final int[] NO_STATES = new int[0];
+
+	private final List<CompiledSelector> selectors;
+	/** The step tested by each state, null for the virtual states */
+	private final SelectorStep[] steps;
+	/** Per state, the selectors accepting a node matching it */
+	private final int[][] acceptors;
+	/** Per state, whether it has child states */
+	private final boolean[] inner;
+	/**
+	 * The groups of states: group {@code s} holds the children of state {@code s}, group
+	 * {@code steps.length + p} holds placeholder state {@code p} alone, null for other states
+	 */
+	private final Group[] groups;
+	/** Whether any state is live at every node */
+	private final boolean deep;
+
+	private BatchAutomaton(List<CompiledSelector> selectors, SelectorStep[] steps, int[][] acceptors,
+						   boolean[] inner, Group[] groups) {
+		this.selectors = selectors;
+		this.steps = steps;
+		this.acceptors = acceptors;
+		this.inner = inner;
+		this.groups = groups;
+		this.deep = groups[DEEP].size() > 0;
+	}
+
+	/**
+	 * Build the automaton for a batch of selectors.
+	 *
+	 * @param selectors the valid compiled selectors, numbered by their position
+	 * @return the automaton
+	 */
+	static BatchAutomaton build(List<CompiledSelector> selectors) {
+		TrieNode[] levels = {new TrieNode(null), new TrieNode(null), new TrieNode(null)};
+		for (int id = 0; id < selectors.size(); id++) {
+			for (SelectorPath path : selectors.get(id).getPaths()) {
+				List<SelectorStep> pathSteps = path.getSteps();
+				if (!SelectorAutomaton.isTopDown(pathSteps)) {
+					continue;
+				}
+				TrieNode node;
+				if (path.isDeep()) {
+					node = levels[DEEP];
+				} else if (pathSteps.get(0).getKind() == SelectorStep.Kind.PLACEHOLDER) {
+					node = levels[ROOT_CHILDREN];
+				} else {
+					node = levels[ROOT];
+				}
+				for (SelectorStep step : pathSteps) {
+					node = node.children.computeIfAbsent(step, TrieNode::new);
+				}
+				if (node.acceptors.isEmpty() || node.acceptors.get(node.acceptors.size() - 1) != id) {
+					node.acceptors.add(id);
+				}
+			}
+		}
+
+		List<TrieNode> states = new ArrayList<>(Arrays.asList(levels));
+		for (int i = 0; i < states.size(); i++) {
+			TrieNode state = states.get(i);
+			state.id = i;
+			states.addAll(state.children.values());
+		}
+
+		int count = states.size();
+		SelectorStep[] steps = new SelectorStep[count];
+		int[][] acceptors = new int[count][];
+		boolean[] inner = new boolean[count];
+		Group[] groups = new Group[2 * count];
+		for (TrieNode state : states) {
+			int id = state.id;
+			steps[id] = state.step;
+			acceptors[id] = state.acceptors.stream().mapToInt(Integer::intValue).toArray();
+			inner[id] = !state.children.isEmpty();
+			groups[id] = Group.of(state.children.values());
+			if (state.step != null && state.step.getKind() == SelectorStep.Kind.PLACEHOLDER) {
+				groups[count + id] = new Group(null, new int[]{id});
+			}
+		}
+		return new BatchAutomaton(selectors, steps, acceptors, inner, groups);
+	}
+
+	/**
+	 * @return the number of states, i.e. of distinct step prefixes of all selectors
+	 */
+	int getStateCount() {
+		// Without the virtual states
+		return steps.length - 3;
+	}
+
+	/**
+	 * Evaluate all selectors of the batch.
+	 *
+	 * @param rootNode the root node of the tree
+	 * @param index the structural index of the tree used by branches with a parent step, or null
+	 * @return the matching nodes of each selector in document order, in the order of the selectors
+	 */
+	List<List<TreeNode>> evaluate(TreeNode rootNode, TreeIndex index) {
+		List<List<TreeNode>> results = new ArrayList<>(selectors.size());
+		for (int i = 0; i < selectors.size(); i++) {
+			results.add(new ArrayList<>());
+		}
+		new Walker(results).walk(rootNode);
+
+		for (int i = 0; i < selectors.size(); i++) {
+			SelectorAutomaton automaton = selectors.get(i).getAutomaton();
+			results.set(i, SelectorInterpreter.addResidualPaths(automaton, rootNode, index, results.get(i)));
+		}
+		return results;
+	}
+
+	/**
+	 * The states of a group by the name they test.
+	 */
+	private static final class Group {
+
+		private static final Group EMPTY = new Group(null, NO_STATES);
+
+		/** The states with a name step, or null if there are none */
+		private final Map<String, int[]> byName;
+		/** The states matching any name, i.e. wildcards and placeholders */
+		private final int[] anyName;
+
+		private Group(Map<String, int[]> byName, int[] anyName) {
+			this.byName = byName;
+			this.anyName = anyName;
+		}
+
+		private static Group of(Iterable<TrieNode> states) {
+			Map<String, int[]> byName = new HashMap<>();
+			int[] anyName = NO_STATES;
+			for (TrieNode state : states) {
+				if (state.step.getKind() == SelectorStep.Kind.NAME) {
+					byName.merge(state.step.getName(), new int[]{state.id}, Group::concat);
+				} else {
+					anyName = concat(anyName, new int[]{state.id});
+				}
+			}
+			if (byName.isEmpty() && anyName.length == 0) {
+				return EMPTY;
+			}
+			return new Group(byName.isEmpty() ? null : byName, anyName);
+		}
+
+		private static int[] concat(int[] first, int[] second) {
+			int[] states = Arrays.copyOf(first, first.length + second.length);
+			System.arraycopy(second, 0, states, first.length, second.length);
+			return states;
+		}
+
+		private int size() {
+			return anyName.length + (byName == null ? 0 : byName.size());
+		}
+	}
+
+	/**
+	 * A walk over one tree with an explicit stack, so deep trees cannot overflow the call stack. Like the
+	 * walk of a single selector, it descends through the child lists of the {@link TreeNode#getWalkRoot()
+	 * walk root} and maps each match back to the children of the root it was given.
+	 */
+	private final class Walker {
+
+		private final List<List<TreeNode>> results;
+
+		/** The root the matches are mapped back to, if the walk runs on a different one */
+		private TreeNode resultRoot;
+		private TreeNode[] frameNodes = new TreeNode[16];
+		private int[] frameChildIndexes = new int[16];
+		/** The nodes of the frames mapped back to the result root, valid for the first frames only */
+		private TreeNode[] mappedFrames = new TreeNode[16];
+		private int mappedDepth;
+		/** The frame of the parent of the visited node, or -1 at the root */
+		private int visitedTop;
+		/** The visited node mapped back to the result root, or null if it is not mapped yet */
+		private TreeNode visitedMatch;
+		/** Start of the live groups of the children of each frame in {@link #live} */
+		private int[] frameGroups = new int[16];
+		private int depth;
+
+		private int[] live = new int[32];
+		private int liveSize;
+
+		/** Per group and per state, the visit number which last added or tested it */
+		private final int[] addedGroups = new int[groups.length];
+		private final int[] testedStates = new int[steps.length];
+		private int visit = 1;
+
+		private Walker(List<List<TreeNode>> results) {
+			this.results = results;
+		}
+
+		private void walk(TreeNode rootNode) {
+			TreeNode root = rootNode.getWalkRoot();
+			resultRoot = rootNode;
+			int childGroups = liveSize;
+			visitedTop = -1;
+			visit(root, 0, 0, ROOT);
+			pushGroup(ROOT_CHILDREN);
+			descend(root, childGroups);
+
+			while (depth > 0) {
+				int top = depth - 1;
+				List<TreeNode> children = frameNodes[top].getChildren();
+				int childIndex = frameChildIndexes[top];
+				if (childIndex >= children.size()) {
+					depth--;
+					mappedDepth = Math.min(mappedDepth, depth);
+					liveSize = frameGroups[depth];
+					frameNodes[depth] = null;
+					continue;
+				}
+				frameChildIndexes[top] = childIndex + 1;
+				TreeNode node = children.get(childIndex);
+				childGroups = liveSize;
+				visitedTop = top;
+				// The live groups of this level are the topmost ones, the children pushed nothing yet
+				visit(node, frameGroups[top], childGroups, -1);
+				descend(node, childGroups);
+			}
+		}
+
+		/**
+		 * Test a node against the live groups of its level and the deep states, pushing the groups which
+		 * are live at its children.
+		 *
+		 * @param from the start of the live groups of the node
+		 * @param to the end of the live groups of the node
+		 * @param extraGroup a group tested at the node besides the live ones, or -1
+		 */
+		private void visit(TreeNode node, int from, int to, int extraGroup) {
+			if (++visit == 0) {
+				// Visit numbers wrapped around, forget the old ones
+				Arrays.fill(addedGroups, 0);
+				Arrays.fill(testedStates, 0);
+				visit = 1;
+			}
+			visitedMatch = null;
+			for (int i = from; i < to; i++) {
+				test(node, live[i]);
+			}
+			if (extraGroup >= 0) {
+				test(node, extraGroup);
+			}
+			test(node, DEEP);
+		}
+
+		private void descend(TreeNode node, int childGroups) {
+			if ((liveSize > childGroups || deep) && !node.getChildren().isEmpty()) {
+				if (depth == frameNodes.length) {
+					frameNodes = Arrays.copyOf(frameNodes, depth * 2);
+					frameChildIndexes = Arrays.copyOf(frameChildIndexes, depth * 2);
+					frameGroups = Arrays.copyOf(frameGroups, depth * 2);
+					mappedFrames = Arrays.copyOf(mappedFrames, depth * 2);
+				}
+				mappedDepth = Math.min(mappedDepth, depth);
+				frameNodes[depth] = node;
+				frameChildIndexes[depth] = 0;
+				frameGroups[depth] = childGroups;
+				depth++;
+			} else {
+				liveSize = childGroups;
+			}
+		}
+
+		private void test(TreeNode node, int group) {
+			Group states = groups[group];
+			if (states.byName != null) {
+				int[] named = states.byName.get(node.getName());
+				if (named != null) {
+					for (int state : named) {
+						testState(node, state);
+					}
+				}
+			}
+			for (int state : states.anyName) {
+				testState(node, state);
+			}
+		}
+
+		/**
+		 * Test a node whose name already matches the step of a state.
+		 */
+		private void testState(TreeNode node, int state) {
+			if (testedStates[state] == visit) {
+				return;
+			}
+			testedStates[state] = visit;
+			SelectorStep step = steps[state];
+			if (step.getKind() == SelectorStep.Kind.PLACEHOLDER) {
+				// The placeholder stays live for all descendants
+				pushGroup(steps.length + state);
+			}
+			if (!step.matchesFilters(node)) {
+				return;
+			}
+			if (acceptors[state].length > 0 && visitedMatch == null) {
+				visitedMatch = map(node);
+			}
+			for (int id : acceptors[state]) {
+				List<TreeNode> result = results.get(id);
+				if (result.isEmpty() || result.get(result.size() - 1) != visitedMatch) {
+					result.add(visitedMatch);
+				}
+			}
+			if (inner[state]) {
+				pushGroup(state);
+			}
+		}
+
+		/**
+		 * Map the visited node back to the result root. The frames above it are mapped once and kept
+		 * until they are popped, so a walk maps every node at most once.
+		 *
+		 * @return the node callers see for the visited node
+		 */
+		private TreeNode map(TreeNode node) {
+			if (visitedTop < 0) {
+				return resultRoot;
+			}
+			if (resultRoot == frameNodes[0]) {
+				return node;
+			}
+			if (mappedDepth == 0) {
+				mappedFrames[0] = resultRoot;
+				mappedDepth = 1;
+			}
+			for (; mappedDepth <= visitedTop; mappedDepth++) {
+				mappedFrames[mappedDepth] = mappedFrames[mappedDepth - 1].getChildren()
+						.get(frameChildIndexes[mappedDepth - 1] - 1);
+			}
+			return mappedFrames[visitedTop].getChildren().get(frameChildIndexes[visitedTop] - 1);
+		}
+
+		private void pushGroup(int group) {
+			if (addedGroups[group] == visit) {
+				return;
+			}
+			addedGroups[group] = visit;
+			if (liveSize == live.length) {
+				live = Arrays.copyOf(live, liveSize * 2);
+			}
+			live[liveSize++] = group;
+		}
+	}
+
+	/**
+	 * A node of the prefix trie used while building the automaton.
+	 */
+	private static final class TrieNode {
+
+		private final SelectorStep step;
+		private final Map<SelectorStep, TrieNode> children = new LinkedHashMap<>();
+		private final List<Integer> acceptors = new ArrayList<>();
+		private int id;
+
+		private TrieNode(SelectorStep step) {
+			this.step = step;
+		}
+	}
+}
\ No newline at end of file
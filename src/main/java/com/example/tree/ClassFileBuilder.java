@@ -0,0 +1,422 @@
+package com.example.tree;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal class file assembler, just big enough for the code emitted by {@link SelectorClassGenerator}.
+ * <p>
+ * Classes are written with class file version 49, for which the JVM infers the types of locals
+ * and stack slots during verification. This means no StackMapTable has to be computed for the
+ * branches and loops of the generated methods.
+ */
+final class ClassFileBuilder {
+
+	static final int ACC_PUBLIC = 0x0001;
+	static final int ACC_PRIVATE = 0x0002;
+	static final int ACC_STATIC = 0x0008;
+	static final int ACC_FINAL = 0x0010;
+	static final int ACC_SUPER = 0x0020;
+
+	static final int ICONST_0 = 0x03;
+	static final int ICONST_1 = 0x04;
+	static final int LCONST_0 = 0x09;
+	static final int BIPUSH = 0x10;
+	static final int SIPUSH = 0x11;
+	static final int ILOAD = 0x15;
+	static final int LLOAD = 0x16;
+	static final int ALOAD = 0x19;
+	static final int LALOAD = 0x2f;
+	static final int AALOAD = 0x32;
+	static final int ISTORE = 0x36;
+	static final int LSTORE = 0x37;
+	static final int ASTORE = 0x3a;
+	static final int LASTORE = 0x50;
+	static final int AASTORE = 0x53;
+	static final int POP = 0x57;
+	static final int IADD = 0x60;
+	static final int ISUB = 0x64;
+	static final int ISHL = 0x78;
+	static final int LAND = 0x7f;
+	static final int LOR = 0x81;
+	static final int IINC = 0x84;
+	static final int LCMP = 0x94;
+	static final int IFEQ = 0x99;
+	static final int IFNE = 0x9a;
+	static final int IFLT = 0x9b;
+	static final int IF_ICMPGE = 0xa2;
+	static final int IF_ICMPLE = 0xa4;
+	static final int GOTO = 0xa7;
+	static final int IRETURN = 0xac;
+	static final int RETURN = 0xb1;
+	static final int GETSTATIC = 0xb2;
+	static final int INVOKEVIRTUAL = 0xb6;
+	static final int INVOKESPECIAL = 0xb7;
+	static final int INVOKESTATIC = 0xb8;
+	static final int INVOKEINTERFACE = 0xb9;
+	static final int NEWARRAY = 0xbc;
+	static final int ANEWARRAY = 0xbd;
+	static final int ARRAYLENGTH = 0xbe;
+	static final int CHECKCAST = 0xc0;
+
+	/** The array type code of long for {@link #NEWARRAY} */
+	static final int T_LONG = 11;
+
+	private static final int CLASS_FILE_MAJOR_VERSION = 49;
+
+	private final ByteArrayOutputStream constantPool = new ByteArrayOutputStream();
+	private final DataOutputStream constantPoolOut = new DataOutputStream(constantPool);
+	private final Map<String, Integer> constantIndexes = new HashMap<>();
+	private int constantCount = 1;
+
+	private final String thisClass;
+	private final int thisClassIndex;
+	private final int superClassIndex;
+	private final int[] interfaceIndexes;
+	private final List<int[]> fields = new ArrayList<>();
+	private final List<MethodBuilder> methods = new ArrayList<>();
+	private final int codeAttributeName;
+
+	/**
+	 * @param thisClass the internal name of the class, e.g. "com/example/tree/Generated"
+	 * @param superClass the internal name of the super class
+	 * @param interfaces the internal names of the implemented interfaces
+	 */
+	ClassFileBuilder(String thisClass, String superClass, String... interfaces) {
+		this.thisClass = thisClass;
+		this.thisClassIndex = classRef(thisClass);
+		this.superClassIndex = classRef(superClass);
+		this.interfaceIndexes = new int[interfaces.length];
+		for (int i = 0; i < interfaces.length; i++) {
+			interfaceIndexes[i] = classRef(interfaces[i]);
+		}
+		this.codeAttributeName = utf8("Code");
+	}
+
+	String getThisClass() {
+		return thisClass;
+	}
+
+	int utf8(String value) {
+		return constant("U" + value, out -> {
+			out.writeByte(1);
+			out.writeUTF(value);
+		});
+	}
+
+	int classRef(String internalName) {
+		int nameIndex = utf8(internalName);
+		return constant("C" + internalName, out -> {
+			out.writeByte(7);
+			out.writeShort(nameIndex);
+		});
+	}
+
+	int string(String value) {
+		int valueIndex = utf8(value);
+		return constant("S" + value, out -> {
+			out.writeByte(8);
+			out.writeShort(valueIndex);
+		});
+	}
+
+	int longConstant(long value) {
+		return constant("J" + value, 2, out -> {
+			out.writeByte(5);
+			out.writeLong(value);
+		});
+	}
+
+	int methodRef(String owner, String name, String descriptor, boolean isInterface) {
+		int classIndex = classRef(owner);
+		int nameIndex = utf8(name);
+		int descriptorIndex = utf8(descriptor);
+		int nameAndTypeIndex = constant("N" + name + ' ' + descriptor, out -> {
+			out.writeByte(12);
+			out.writeShort(nameIndex);
+			out.writeShort(descriptorIndex);
+		});
+		return constant((isInterface ? "I" : "M") + owner + '.' + name + descriptor, out -> {
+			out.writeByte(isInterface ? 11 : 10);
+			out.writeShort(classIndex);
+			out.writeShort(nameAndTypeIndex);
+		});
+	}
+
+	int fieldRef(String owner, String name, String descriptor) {
+		int classIndex = classRef(owner);
+		int nameIndex = utf8(name);
+		int descriptorIndex = utf8(descriptor);
+		int nameAndTypeIndex = constant("N" + name + ' ' + descriptor, out -> {
+			out.writeByte(12);
+			out.writeShort(nameIndex);
+			out.writeShort(descriptorIndex);
+		});
+		return constant("F" + owner + '.' + name + ':' + descriptor, out -> {
+			out.writeByte(9);
+			out.writeShort(classIndex);
+			out.writeShort(nameAndTypeIndex);
+		});
+	}
+
+	private int constant(String key, ConstantWriter writer) {
+		return constant(key, 1, writer);
+	}
+
+	/**
+	 * @param entries the number of constant pool entries taken by the constant, 2 for long and double
+	 */
+	private int constant(String key, int entries, ConstantWriter writer) {
+		Integer index = constantIndexes.get(key);
+		if (index != null) {
+			return index;
+		}
+		try {
+			writer.write(constantPoolOut);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		int newIndex = constantCount;
+		constantCount += entries;
+		constantIndexes.put(key, newIndex);
+		return newIndex;
+	}
+
+	/**
+	 * Add a field without initial value.
+	 *
+	 * @param access the access flags
+	 * @param name the field name
+	 * @param descriptor the field descriptor
+	 */
+	void field(int access, String name, String descriptor) {
+		fields.add(new int[]{access, utf8(name), utf8(descriptor)});
+	}
+
+	/**
+	 * Start a new method. The code is added through the returned builder.
+	 *
+	 * @param access the access flags
+	 * @param name the method name
+	 * @param descriptor the method descriptor
+	 * @param maxStack the maximum operand stack depth of the code
+	 * @param maxLocals the number of local variable slots including the parameters
+	 * @return the method builder
+	 */
+	MethodBuilder method(int access, String name, String descriptor, int maxStack, int maxLocals) {
+		MethodBuilder method = new MethodBuilder(access, utf8(name), utf8(descriptor), maxStack, maxLocals);
+		methods.add(method);
+		return method;
+	}
+
+	byte[] toByteArray() {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(CLASS_FILE_MAJOR_VERSION);
+			out.writeShort(constantCount);
+			constantPoolOut.flush();
+			constantPool.writeTo(out);
+			out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisClassIndex);
+			out.writeShort(superClassIndex);
+			out.writeShort(interfaceIndexes.length);
+			for (int interfaceIndex : interfaceIndexes) {
+				out.writeShort(interfaceIndex);
+			}
+			out.writeShort(fields.size());
+			for (int[] field : fields) {
+				out.writeShort(field[0]);
+				out.writeShort(field[1]);
+				out.writeShort(field[2]);
+				out.writeShort(0); // field attributes
+			}
+			out.writeShort(methods.size());
+			for (MethodBuilder method : methods) {
+				method.writeTo(out);
+			}
+			out.writeShort(0); // class attributes
+			out.flush();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@FunctionalInterface
+	private interface ConstantWriter {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	/**
+	 * A branch target inside a method.
+	 */
+	static final class Label {
+		private int position = -1;
+	}
+
+	/**
+	 * Collects the bytecode of one method.
+	 */
+	final class MethodBuilder {
+
+		private final int access;
+		private final int nameIndex;
+		private final int descriptorIndex;
+		private final int maxStack;
+		private final int maxLocals;
+		private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+		private final List<int[]> branchFixups = new ArrayList<>();
+		private final List<Label> branchLabels = new ArrayList<>();
+
+		private MethodBuilder(int access, int nameIndex, int descriptorIndex, int maxStack, int maxLocals) {
+			this.access = access;
+			this.nameIndex = nameIndex;
+			this.descriptorIndex = descriptorIndex;
+			this.maxStack = maxStack;
+			this.maxLocals = maxLocals;
+		}
+
+		void op(int opcode) {
+			code.write(opcode);
+		}
+
+		void var(int opcode, int slot) {
+			code.write(opcode);
+			code.write(slot);
+		}
+
+		void iinc(int slot, int delta) {
+			code.write(IINC);
+			code.write(slot);
+			code.write(delta);
+		}
+
+		/**
+		 * Push an int constant with the shortest instruction.
+		 */
+		void push(int value) {
+			if (value >= -1 && value <= 5) {
+				code.write(ICONST_0 + value);
+			} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+				code.write(BIPUSH);
+				code.write(value);
+			} else {
+				code.write(SIPUSH);
+				writeShort(value);
+			}
+		}
+
+		void ldc(long value) {
+			code.write(0x14);
+			writeShort(longConstant(value));
+		}
+
+		void field(int opcode, String owner, String name, String descriptor) {
+			code.write(opcode);
+			writeShort(fieldRef(owner, name, descriptor));
+		}
+
+		void ldc(String value) {
+			int index = string(value);
+			if (index < 256) {
+				code.write(0x12);
+				code.write(index);
+			} else {
+				code.write(0x13);
+				writeShort(index);
+			}
+		}
+
+		void invoke(int opcode, String owner, String name, String descriptor) {
+			boolean isInterface = opcode == INVOKEINTERFACE;
+			code.write(opcode);
+			writeShort(methodRef(owner, name, descriptor, isInterface));
+			if (isInterface) {
+				code.write(argumentSlots(descriptor) + 1);
+				code.write(0);
+			}
+		}
+
+		void type(int opcode, String internalName) {
+			code.write(opcode);
+			writeShort(classRef(internalName));
+		}
+
+		void newArray(int typeCode) {
+			code.write(NEWARRAY);
+			code.write(typeCode);
+		}
+
+		void jump(int opcode, Label target) {
+			branchFixups.add(new int[]{code.size(), code.size() + 1});
+			branchLabels.add(target);
+			code.write(opcode);
+			writeShort(0);
+		}
+
+		void mark(Label label) {
+			label.position = code.size();
+		}
+
+		private void writeShort(int value) {
+			code.write((value >>> 8) & 0xFF);
+			code.write(value & 0xFF);
+		}
+
+		private void writeTo(DataOutputStream out) throws IOException {
+			byte[] bytecode = code.toByteArray();
+			for (int i = 0; i < branchFixups.size(); i++) {
+				int[] fixup = branchFixups.get(i);
+				Label label = branchLabels.get(i);
+				if (label.position < 0) {
+					throw new IllegalStateException("Unbound label in generated method");
+				}
+				int offset = label.position - fixup[0];
+				bytecode[fixup[1]] = (byte) (offset >>> 8);
+				bytecode[fixup[1] + 1] = (byte) offset;
+			}
+
+			out.writeShort(access);
+			out.writeShort(nameIndex);
+			out.writeShort(descriptorIndex);
+			out.writeShort(1); // attributes: Code
+			out.writeShort(codeAttributeName);
+			out.writeInt(12 + bytecode.length);
+			out.writeShort(maxStack);
+			out.writeShort(maxLocals);
+			out.writeInt(bytecode.length);
+			out.write(bytecode);
+			out.writeShort(0); // exception table
+			out.writeShort(0); // code attributes
+		}
+	}
+
+	/**
+	 * Count the argument slots of a method descriptor. Only supports the reference and
+	 * int parameter types used by the generated code.
+	 */
+	private static int argumentSlots(String descriptor) {
+		int slots = 0;
+		int i = 1;
+		while (descriptor.charAt(i) != ')') {
+			char c = descriptor.charAt(i);
+			if (c == 'L') {
+				i = descriptor.indexOf(';', i);
+			} else if (c == 'J' || c == 'D') {
+				slots++;
+			}
+			slots++;
+			i++;
+		}
+		return slots;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,317 @@
+package com.example.tree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * An immutable, pre-parsed selector expression.
+ * A compiled selector keeps no parser state and can be shared between threads and
+ * evaluated against any number of trees.
+ */
+public final class CompiledSelector {
+
+	private final String expression;
+	private final List<SelectorPath> paths;
+	private final String errorMessage;
+	private final SelectorAutomaton automaton;
+	private volatile SelectorProgram program;
+
+	private CompiledSelector(String expression, List<SelectorPath> paths, String errorMessage) {
+		this.expression = expression;
+		this.paths = paths;
+		this.errorMessage = errorMessage;
+		this.automaton = SelectorAutomaton.build(paths);
+	}
+
+	static CompiledSelector valid(String expression, List<SelectorPath> paths) {
+		return new CompiledSelector(expression, List.copyOf(paths), null);
+	}
+
+	static CompiledSelector invalid(String expression, String errorMessage) {
+		return new CompiledSelector(expression, List.of(), errorMessage);
+	}
+
+	/**
+	 * Compile a selector expression without using any cache.
+	 *
+	 * @param selectorExpression the selector expression (e.g. "/Root/Child2" or "/Root/Child1|/Root/Child2")
+	 * @return the compiled selector, which is invalid if the expression could not be parsed
+	 * @throws NullPointerException if selectorExpression is null
+	 */
+	public static CompiledSelector compile(String selectorExpression) {
+		if (selectorExpression == null) {
+			throw new NullPointerException("Selector expression cannot be null");
+		}
+		return SelectorCompiler.compile(selectorExpression);
+	}
+
+	public String getExpression() {
+		return expression;
+	}
+
+	/**
+	 * @return the branches of the selector, empty for invalid selectors
+	 */
+	public List<SelectorPath> getPaths() {
+		return paths;
+	}
+
+	public boolean isValid() {
+		return errorMessage == null;
+	}
+
+	/**
+	 * @return the parse error of an invalid selector, null for valid selectors
+	 */
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+
+	/**
+	 * Evaluate this selector against a tree.
+	 *
+	 * @param rootNode the root node of the tree
+	 * @return a list of matching nodes in document order, empty for invalid selectors
+	 */
+	public List<TreeNode> select(TreeNode rootNode) {
+		return select(rootNode, SelectorEngine.INTERPRETER);
+	}
+
+	/**
+	 * Evaluate this selector against a tree with the given engine.
+	 *
+	 * @param rootNode the root node of the tree
+	 * @param engine the engine used for the evaluation
+	 * @return a list of matching nodes in document order, empty for invalid selectors
+	 */
+	public List<TreeNode> select(TreeNode rootNode, SelectorEngine engine) {
+		return select(rootNode, null, engine);
+	}
+
+	/**
+	 * Evaluate this selector against a tree, using its structural index if there is one.
+	 *
+	 * @param index the index of the tree of the root node, or null
+	 */
+	List<TreeNode> select(TreeNode rootNode, TreeIndex index, SelectorEngine engine) {
+		if (!isValid()) {
+			return new ArrayList<>();
+		}
+		if (engine == SelectorEngine.BYTECODE && SelectorClassGenerator.canGenerate(getAutomaton())) {
+			List<TreeNode> result = new ArrayList<>();
+			getProgram().evaluate(rootNode, result);
+			return SelectorInterpreter.addResidualPaths(getAutomaton(), rootNode, index, result);
+		}
+		return SelectorInterpreter.evaluate(this, rootNode, index);
+	}
+
+	/**
+	 * Evaluate this selector with the interpreter, splitting the walk over the tree into fork/join tasks.
+	 *
+	 * @param index the index of the tree of the root node, which provides the subtree sizes
+	 * @param pool the pool running the tasks
+	 * @param minSubtreeSize the number of nodes below which a part of the tree is walked serially
+	 */
+	List<TreeNode> select(TreeNode rootNode, TreeIndex index, ForkJoinPool pool, int minSubtreeSize) {
+		if (!isValid()) {
+			return new ArrayList<>();
+		}
+		return SelectorInterpreter.evaluate(this, rootNode, index, pool, minSubtreeSize);
+	}
+
+	/**
+	 * Evaluate this selector up to a maximum number of matches. The walk over the tree stops as soon
+	 * as the limit is reached, also inside deep ({@code **}) and placeholder ({@code ~~}) steps.
+	 *
+	 * @param rootNode the root node of the tree
+	 * @param limit the maximum number of nodes to return
+	 * @return the first matching nodes in document order, empty for invalid selectors
+	 * @throws IllegalArgumentException if limit is negative
+	 */
+	public List<TreeNode> select(TreeNode rootNode, int limit) {
+		return select(rootNode, null, limit);
+	}
+
+	List<TreeNode> select(TreeNode rootNode, TreeIndex index, int limit) {
+		if (limit < 0) {
+			throw new IllegalArgumentException("Limit cannot be negative: " + limit);
+		}
+		if (!isValid() || limit == 0) {
+			return new ArrayList<>();
+		}
+		if (!automaton.getResidualPaths().isEmpty()) {
+			List<TreeNode> result = select(rootNode, index, SelectorEngine.INTERPRETER);
+			return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+		}
+		List<TreeNode> result = new ArrayList<>(Math.min(limit, 16));
+		automaton.evaluate(rootNode, index, result, limit);
+		return result;
+	}
+
+	/**
+	 * Find the first node matched by this selector, stopping the walk at the first match.
+	 *
+	 * @param rootNode the root node of the tree
+	 * @return the first matching node, empty if there is none or the selector is invalid
+	 */
+	public Optional<TreeNode> selectFirst(TreeNode rootNode) {
+		return selectFirst(rootNode, null);
+	}
+
+	Optional<TreeNode> selectFirst(TreeNode rootNode, TreeIndex index) {
+		List<TreeNode> result = select(rootNode, index, 1);
+		return result.isEmpty() ? Optional.empty() : Optional.of(result.get(0));
+	}
+
+	/**
+	 * Check whether this selector matches any node, stopping the walk at the first match.
+	 *
+	 * @param rootNode the root node of the tree
+	 * @return true if at least one node matches
+	 */
+	public boolean exists(TreeNode rootNode) {
+		return selectFirst(rootNode, null).isPresent();
+	}
+
+	/**
+	 * Count the nodes matched by this selector without collecting them in a list.
+	 *
+	 * @param rootNode the root node of the tree
+	 * @return the number of matching nodes, 0 for invalid selectors
+	 */
+	public int count(TreeNode rootNode) {
+		return count(rootNode, null);
+	}
+
+	int count(TreeNode rootNode, TreeIndex index) {
+		if (!isValid()) {
+			return 0;
+		}
+		if (!automaton.getResidualPaths().isEmpty()) {
+			return select(rootNode, index, SelectorEngine.INTERPRETER).size();
+		}
+		return automaton.count(rootNode, index);
+	}
+
+	/**
+	 * Evaluate this selector lazily. Matches are produced one at a time in document order while the
+	 * tree is walked, so only the path to the current node is kept in memory and a short-circuiting
+	 * operation like {@link Stream#findFirst()} stops the walk early.
+	 * <p>
+	 * Branches with a parent step that cannot be rewritten (e.g. {@code /Root/../*}) need the complete
+	 * result of their previous steps; if the selector has such a branch, the stream is backed by the
+	 * result of {@link #select(TreeNode)}.
+	 *
+	 * @param rootNode the root node of the tree
+	 * @return a sequential stream of the matching nodes, empty for invalid selectors
+	 */
+	public Stream<TreeNode> stream(TreeNode rootNode) {
+		return stream(rootNode, null);
+	}
+
+	Stream<TreeNode> stream(TreeNode rootNode, TreeIndex index) {
+		if (!isValid()) {
+			return Stream.empty();
+		}
+		if (!automaton.getResidualPaths().isEmpty()) {
+			return select(rootNode, index, SelectorEngine.INTERPRETER).stream();
+		}
+		return StreamSupport.stream(automaton.spliterator(rootNode, index), false);
+	}
+
+	/**
+	 * Evaluate this selector against a flat tree, without materializing tree nodes.
+	 *
+	 * @param tree the flat tree
+	 * @return handles of the matching nodes in document order, empty for invalid selectors
+	 */
+	public List<FlatNode> select(FlatTree tree) {
+		if (!isValid()) {
+			return new ArrayList<>();
+		}
+		int[] ordinals = FlatTreeEvaluator.evaluate(this, tree);
+		List<FlatNode> result = new ArrayList<>(ordinals.length);
+		for (int ordinal : ordinals) {
+			result.add(new FlatNode(tree, ordinal));
+		}
+		return result;
+	}
+
+	/**
+	 * @return the branches of the selector merged into an automaton for the {@link SelectorInterpreter}
+	 */
+	SelectorAutomaton getAutomaton() {
+		return automaton;
+	}
+
+	/**
+	 * Do the one-time preparation needed to evaluate this selector with an engine,
+	 * i.e. generate the program for the bytecode engine.
+	 *
+	 * @param engine the engine that will be used
+	 */
+	void prepare(SelectorEngine engine) {
+		if (isValid() && engine == SelectorEngine.BYTECODE && SelectorClassGenerator.canGenerate(getAutomaton())) {
+			getProgram();
+		}
+	}
+
+	/**
+	 * Get the generated program of this selector, generating it on first use.
+	 */
+	private SelectorProgram getProgram() {
+		SelectorProgram result = program;
+		if (result == null) {
+			synchronized (this) {
+				result = program;
+				if (result == null) {
+					result = SelectorClassGenerator.generate(this);
+					program = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Describe the plan which is evaluated for this selector, one branch per line.
+	 * The plan is the result of the {@link SelectorOptimizer}, so it may differ from the expression,
+	 * e.g. {@code /Root/Child2/../Child1} runs as {@code /Root[Child2]/Child1}, where {@code [Child2]}
+	 * selects only nodes having a child named Child2. Unlike {@link #toString()}, which prints the plan
+	 * in selector syntax, the child filters are shown as such.
+	 *
+	 * @return the expression followed by the branches of the plan, or the error message
+	 */
+	public String explain() {
+		StringBuilder sb = new StringBuilder("Selector: ").append(expression);
+		if (!isValid()) {
+			return sb.append(System.lineSeparator()).append("  invalid: ").append(errorMessage).toString();
+		}
+		for (SelectorPath path : paths) {
+			sb.append(System.lineSeparator()).append("  ").append(path.describe());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the plan in selector syntax, which compiles to the same plan again, or the error message
+	 */
+	@Override
+	public String toString() {
+		if (!isValid()) {
+			return "CompiledSelector{invalid '" + expression + "': " + errorMessage + "}";
+		}
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < paths.size(); i++) {
+			if (i > 0) {
+				sb.append('|');
+			}
+			sb.append(paths.get(i));
+		}
+		return "CompiledSelector{" + sb + "}";
+	}
+}
\ No newline at end of file
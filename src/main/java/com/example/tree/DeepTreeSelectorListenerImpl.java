@@ -8,7 +8,10 @@ import java.util.Set;
 /**
  * A listener for the ANTLR-generated parse tree to process deep tree selector expressions
  * using the '**' operator.
+ *
+ * @deprecated {@link TreeSelector} evaluates {@link CompiledSelector} plans instead of walking parse trees
  */
+@Deprecated
 public class DeepTreeSelectorListenerImpl extends TreeSelectorBaseListener {
 
 	private TreeNode rootNode;
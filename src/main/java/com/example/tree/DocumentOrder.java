@@ -0,0 +1,132 @@
+package com.example.tree;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Puts nodes selected out of order into document (pre-order) order without comparing them.
+ * <p>
+ * The {@link SelectorAutomaton} produces its matches in document order already. Only the nodes of
+ * branches with a parent step and the nodes found by the bytecode engine have to be ordered. Instead
+ * of sorting them with a comparator that walks the tree for every comparison, the ancestors of the
+ * nodes are marked and the tree is walked once along the marked paths only, so the cost is bounded
+ * by the number of nodes times the depth of the tree and not by its size. With a {@link TreeIndex},
+ * the pre-order numbers of the nodes are sorted instead.
+ */
+final class DocumentOrder {
+
+	private DocumentOrder() {
+	}
+
+	/**
+	 * Order nodes of a tree in document order.
+	 *
+	 * @param rootNode the root node of the tree
+	 * @param index the structural index of the tree, or null
+	 * @param nodes the nodes to order, without duplicates
+	 * @return the nodes in document order; if some nodes are outside the tree of the root (e.g. reached
+	 * through parent steps from a root which is a subtree of a larger tree), all nodes are ordered in the
+	 * tree of the topmost ancestor of the root, and nodes of other trees follow in their original order
+	 */
+	static List<TreeNode> sort(TreeNode rootNode, TreeIndex index, Set<TreeNode> nodes) {
+		if (nodes.size() < 2) {
+			return new ArrayList<>(nodes);
+		}
+		if (index != null) {
+			List<TreeNode> ordered = sort(index, nodes);
+			if (ordered != null) {
+				return ordered;
+			}
+		}
+
+		// Mark the paths from the nodes up to the root
+		Set<TreeNode> paths = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (TreeNode node : nodes) {
+			for (TreeNode ancestor = node; ancestor != null && paths.add(ancestor); ancestor = ancestor.getParent()) {
+				if (ancestor == rootNode) {
+					break;
+				}
+			}
+		}
+
+		List<TreeNode> ordered = new ArrayList<>(nodes.size());
+		if (paths.contains(rootNode)) {
+			collect(rootNode, nodes, paths, ordered);
+		}
+		if (ordered.size() < nodes.size()) {
+			if (rootNode.getParent() != null) {
+				TreeNode topmost = rootNode;
+				while (topmost.getParent() != null) {
+					topmost = topmost.getParent();
+				}
+				return sort(topmost, null, nodes);
+			}
+			for (TreeNode node : nodes) {
+				if (!isInTree(rootNode, node)) {
+					ordered.add(node);
+				}
+			}
+		}
+		return ordered;
+	}
+
+	/**
+	 * Order nodes by their pre-order numbers in an index, which only sorts primitive integers.
+	 *
+	 * @return the ordered nodes, or null if a node is not in the tree of the index
+	 */
+	private static List<TreeNode> sort(TreeIndex index, Set<TreeNode> nodes) {
+		int[] ordinals = new int[nodes.size()];
+		int count = 0;
+		for (TreeNode node : nodes) {
+			int ordinal = index.getOrdinal(node);
+			if (ordinal < 0) {
+				return null;
+			}
+			ordinals[count++] = ordinal;
+		}
+		Arrays.sort(ordinals);
+
+		List<TreeNode> ordered = new ArrayList<>(nodes.size());
+		for (int ordinal : ordinals) {
+			ordered.add(index.getNode(ordinal));
+		}
+		return ordered;
+	}
+
+	/**
+	 * Walk the marked paths below a node in pre-order and collect the nodes to order. The walk uses an
+	 * explicit stack, so deep trees do not overflow the call stack.
+	 */
+	private static void collect(TreeNode node, Set<TreeNode> nodes, Set<TreeNode> paths, List<TreeNode> ordered) {
+		Deque<TreeNode> stack = new ArrayDeque<>();
+		stack.push(node);
+		while (!stack.isEmpty()) {
+			TreeNode current = stack.pop();
+			if (nodes.contains(current)) {
+				ordered.add(current);
+			}
+			List<TreeNode> children = current.getChildren();
+			for (int i = children.size() - 1; i >= 0; i--) {
+				if (paths.contains(children.get(i))) {
+					stack.push(children.get(i));
+				}
+			}
+		}
+	}
+
+	private static boolean isInTree(TreeNode rootNode, TreeNode node) {
+		for (TreeNode ancestor = node; ancestor != null; ancestor = ancestor.getParent()) {
+			if (ancestor == rootNode) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,344 @@
+package com.example.tree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hand-written scanner and recursive-descent parser for the TreeSelector grammar.
+ * <p>
+ * It accepts exactly the expressions accepted by the ANTLR generated {@code TreeSelectorParser}
+ * and produces the same plan, but works directly on the characters of the expression without
+ * token objects or parse tree contexts. It does not report errors: for an invalid expression
+ * it just returns null and {@link SelectorCompiler} asks the ANTLR parser for the diagnostics.
+ */
+final class FastSelectorParser {
+
+	// Token kinds
+	private static final int EOF = 0;
+	private static final int IDENTIFIER = 1;
+	private static final int VERSION = 2;
+	private static final int STRING = 3;
+	private static final int SLASH = 4;
+	private static final int STAR = 5;
+	private static final int DOUBLE_STAR = 6;
+	private static final int PLACEHOLDER = 7;
+	private static final int DOT = 8;
+	private static final int DOUBLE_DOT = 9;
+	private static final int LEFT_BRACE = 10;
+	private static final int RIGHT_BRACE = 11;
+	private static final int COMMA = 12;
+	private static final int EQUALS = 13;
+	private static final int PIPE = 14;
+	private static final int GREATER_EQUAL = 15;
+	private static final int GREATER = 16;
+	private static final int LESS_EQUAL = 17;
+	private static final int LESS = 18;
+	private static final int CARET = 19;
+	private static final int TILDE = 20;
+	private static final int CARET_EQUALS = 21;
+	private static final int DOLLAR_EQUALS = 22;
+	private static final int STAR_EQUALS = 23;
+	private static final int PERCENT_EQUALS = 24;
+	private static final int TILDE_EQUALS = 25;
+
+	private final String input;
+	private int position;
+	private int token;
+	private int tokenStart;
+	private int tokenEnd;
+
+	private FastSelectorParser(String input) {
+		this.input = input;
+	}
+
+	/**
+	 * Parse a selector expression.
+	 *
+	 * @param selectorExpression the selector expression
+	 * @return the paths of the expression, or null if the expression is not valid
+	 */
+	static List<SelectorPath> parse(String selectorExpression) {
+		FastSelectorParser parser = new FastSelectorParser(selectorExpression);
+		return parser.next() ? parser.multiSelector() : null;
+	}
+
+	// Parser
+
+	private List<SelectorPath> multiSelector() {
+		List<SelectorPath> paths = new ArrayList<>(2);
+		SelectorPath path = selectorExpression();
+		if (path == null) {
+			return null;
+		}
+		paths.add(path);
+		while (token == PIPE) {
+			if (!next() || (path = selectorExpression()) == null) {
+				return null;
+			}
+			paths.add(path);
+		}
+		return token == EOF ? paths : null;
+	}
+
+	private SelectorPath selectorExpression() {
+		boolean deep;
+		if (token == SLASH) {
+			deep = false;
+		} else if (token == DOUBLE_STAR) {
+			deep = true;
+			if (!next() || token != SLASH) {
+				return null;
+			}
+		} else {
+			return null;
+		}
+
+		List<SelectorStep> steps = new ArrayList<>(4);
+		do {
+			if (!next()) {
+				return null;
+			}
+			// The first step after ** may only be a name or a wildcard
+			SelectorStep step = step(deep && steps.isEmpty());
+			if (step == null) {
+				return null;
+			}
+			steps.add(step);
+		} while (token == SLASH);
+		return new SelectorPath(deep, steps);
+	}
+
+	private SelectorStep step(boolean nameOrWildcardOnly) {
+		SelectorStep.Kind kind;
+		String name = null;
+		switch (token) {
+			case IDENTIFIER -> {
+				kind = SelectorStep.Kind.NAME;
+				name = input.substring(tokenStart, tokenEnd);
+			}
+			case STAR -> kind = SelectorStep.Kind.WILDCARD;
+			case PLACEHOLDER -> kind = SelectorStep.Kind.PLACEHOLDER;
+			case DOT -> kind = SelectorStep.Kind.CURRENT;
+			case DOUBLE_DOT -> kind = SelectorStep.Kind.PARENT;
+			default -> {
+				return null;
+			}
+		}
+		if (nameOrWildcardOnly && kind != SelectorStep.Kind.NAME && kind != SelectorStep.Kind.WILDCARD) {
+			return null;
+		}
+		if (!next()) {
+			return null;
+		}
+
+		List<AttributePredicate> predicates = List.of();
+		if (token == LEFT_BRACE) {
+			predicates = attributeSelector();
+			if (predicates == null) {
+				return null;
+			}
+		}
+		return new SelectorStep(kind, name, predicates);
+	}
+
+	private List<AttributePredicate> attributeSelector() {
+		List<AttributePredicate> predicates = new ArrayList<>(2);
+		do {
+			// Attribute name
+			if (!next() || (token != IDENTIFIER && token != STRING)) {
+				return null;
+			}
+			String attrName = tokenText();
+			if (!next()) {
+				return null;
+			}
+			AttributePredicate.Operator operator = switch (token) {
+				case EQUALS -> AttributePredicate.Operator.EQUALS;
+				case GREATER_EQUAL -> AttributePredicate.Operator.GREATER_OR_EQUAL;
+				case GREATER -> AttributePredicate.Operator.GREATER;
+				case LESS_EQUAL -> AttributePredicate.Operator.LESS_OR_EQUAL;
+				case LESS -> AttributePredicate.Operator.LESS;
+				case CARET_EQUALS -> AttributePredicate.Operator.PREFIX;
+				case DOLLAR_EQUALS -> AttributePredicate.Operator.SUFFIX;
+				case STAR_EQUALS -> AttributePredicate.Operator.CONTAINS;
+				case PERCENT_EQUALS -> AttributePredicate.Operator.GLOB;
+				case TILDE_EQUALS -> AttributePredicate.Operator.REGEX;
+				default -> null;
+			};
+			if (operator == null || !next()) {
+				return null;
+			}
+
+			// Attribute value, only a version for a comparison or a caret or tilde range, no wildcard for
+			// the string operators
+			if (operator == AttributePredicate.Operator.EQUALS && (token == CARET || token == TILDE)) {
+				operator = token == CARET ? AttributePredicate.Operator.CARET : AttributePredicate.Operator.TILDE;
+				if (!next()) {
+					return null;
+				}
+			}
+			boolean accepted = switch (operator) {
+				case EQUALS -> token == IDENTIFIER || token == STRING || token == VERSION || token == STAR;
+				case PREFIX, SUFFIX, CONTAINS, GLOB, REGEX -> token == IDENTIFIER || token == STRING || token == VERSION;
+				default -> token == VERSION;
+			};
+			if (!accepted) {
+				return null;
+			}
+			try {
+				predicates.add(new AttributePredicate(attrName, operator, tokenText(), token == STRING));
+			} catch (IllegalArgumentException e) {
+				// An invalid regular expression, reported by the ANTLR front end
+				return null;
+			}
+			if (!next()) {
+				return null;
+			}
+		} while (token == COMMA);
+
+		if (token != RIGHT_BRACE || !next()) {
+			return null;
+		}
+		return predicates;
+	}
+
+	/**
+	 * @return the text of the current token, without the quotes of a string
+	 */
+	private String tokenText() {
+		if (token == STRING) {
+			return input.substring(tokenStart + 1, tokenEnd - 1);
+		}
+		return input.substring(tokenStart, tokenEnd);
+	}
+
+	// Scanner
+
+	/**
+	 * Move to the next token, skipping whitespace.
+	 *
+	 * @return false if the input contains a character that does not start any token
+	 */
+	private boolean next() {
+		int length = input.length();
+		while (position < length && isWhitespace(input.charAt(position))) {
+			position++;
+		}
+
+		tokenStart = position;
+		if (position >= length) {
+			token = EOF;
+			tokenEnd = position;
+			return true;
+		}
+
+		char c = input.charAt(position++);
+		switch (c) {
+			case '/' -> token = SLASH;
+			case '|' -> token = PIPE;
+			case '{' -> token = LEFT_BRACE;
+			case '}' -> token = RIGHT_BRACE;
+			case ',' -> token = COMMA;
+			case '=' -> token = EQUALS;
+			case '>' -> token = follows('=') ? GREATER_EQUAL : GREATER;
+			case '<' -> token = follows('=') ? LESS_EQUAL : LESS;
+			case '^' -> token = follows('=') ? CARET_EQUALS : CARET;
+			case '*' -> token = follows('*') ? DOUBLE_STAR : follows('=') ? STAR_EQUALS : STAR;
+			case '.' -> token = follows('.') ? DOUBLE_DOT : DOT;
+			case '~' -> token = follows('~') ? PLACEHOLDER : follows('=') ? TILDE_EQUALS : TILDE;
+			case '$', '%' -> {
+				if (!follows('=')) {
+					return false;
+				}
+				token = c == '$' ? DOLLAR_EQUALS : PERCENT_EQUALS;
+			}
+			case '\'' -> {
+				if (!scanString()) {
+					return false;
+				}
+				token = STRING;
+			}
+			default -> {
+				if (isIdentifierStart(c)) {
+					while (position < length && (isIdentifierStart(input.charAt(position)) || isDigit(input.charAt(position)))) {
+						position++;
+					}
+					token = IDENTIFIER;
+				} else if (isDigit(c)) {
+					scanVersion();
+					token = VERSION;
+				} else {
+					return false;
+				}
+			}
+		}
+		tokenEnd = position;
+		return true;
+	}
+
+	private boolean follows(char c) {
+		if (position < input.length() && input.charAt(position) == c) {
+			position++;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Scan the rest of a version number: digits, optionally followed by groups of '.' and digits or
+	 * a wildcard ('*', 'x' or 'X'). A dot not followed by a digit or wildcard is not part of the version.
+	 */
+	private void scanVersion() {
+		int length = input.length();
+		while (position < length && isDigit(input.charAt(position))) {
+			position++;
+		}
+		while (position + 1 < length && input.charAt(position) == '.') {
+			char c = input.charAt(position + 1);
+			if (isDigit(c)) {
+				position += 2;
+				while (position < length && isDigit(input.charAt(position))) {
+					position++;
+				}
+			} else if (c == '*' || c == 'x' || c == 'X') {
+				position += 2;
+			} else {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Scan the rest of a quoted string, where a backslash escapes any following character.
+	 *
+	 * @return false if the string is not terminated
+	 */
+	private boolean scanString() {
+		int length = input.length();
+		while (position < length) {
+			char c = input.charAt(position++);
+			if (c == '\'') {
+				return true;
+			}
+			if (c == '\\') {
+				if (position >= length) {
+					return false;
+				}
+				position++;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+	}
+
+	private static boolean isIdentifierStart(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+}
\ No newline at end of file
@@ -0,0 +1,101 @@
+package com.example.tree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A lightweight handle of a node of a {@link FlatTree}, consisting of the tree and the pre-order
+ * number of the node. Handles are created on demand and compare equal if they refer to the same
+ * node of the same flat tree; the properties of the node are read from the flat tree on each call.
+ */
+public final class FlatNode {
+
+	private final FlatTree tree;
+	private final int ordinal;
+
+	FlatNode(FlatTree tree, int ordinal) {
+		this.tree = tree;
+		this.ordinal = ordinal;
+	}
+
+	public FlatTree getTree() {
+		return tree;
+	}
+
+	/**
+	 * @return the pre-order number of the node, 0 for the root
+	 */
+	public int getOrdinal() {
+		return ordinal;
+	}
+
+	public String getName() {
+		return tree.getName(ordinal);
+	}
+
+	public String getType() {
+		return tree.getType(ordinal);
+	}
+
+	public String getVariant() {
+		return tree.getVariant(ordinal);
+	}
+
+	public String getVersion() {
+		return tree.getVersion(ordinal);
+	}
+
+	public String getAttribute(String key) {
+		return tree.getAttribute(ordinal, key);
+	}
+
+	/**
+	 * @return the generic attributes of the node, decoded into a new map
+	 */
+	public Map<String, String> getAttributes() {
+		return tree.getAttributes(ordinal);
+	}
+
+	/**
+	 * @return the parent of the node, or null for the root
+	 */
+	public FlatNode getParent() {
+		int parent = tree.getParent(ordinal);
+		return parent != FlatTree.NONE ? new FlatNode(tree, parent) : null;
+	}
+
+	/**
+	 * @return handles of the children of the node
+	 */
+	public List<FlatNode> getChildren() {
+		List<FlatNode> children = new ArrayList<>();
+		for (int child = tree.getFirstChild(ordinal); child != FlatTree.NONE; child = tree.getNextSibling(child)) {
+			children.add(new FlatNode(tree, child));
+		}
+		return children;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof FlatNode other)) {
+			return false;
+		}
+		return tree == other.tree && ordinal == other.ordinal;
+	}
+
+	@Override
+	public int hashCode() {
+		return System.identityHashCode(tree) * 31 + ordinal;
+	}
+
+	@Override
+	public String toString() {
+		String version = getVersion();
+		return "FlatNode{ordinal=" + ordinal + ", name='" + getName() + "', type='" + getType() + "', variant='"
+				+ getVariant() + (version != null ? "', version='" + version : "") + "'}";
+	}
+}
\ No newline at end of file
@@ -0,0 +1,453 @@
+package com.example.tree;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable copy of a tree stored as a struct of arrays instead of a graph of objects. The nodes
+ * are numbered in pre-order, and for each node the tree keeps the number of its parent, first child
+ * and next sibling, the size of its subtree, and symbol numbers for its name, type, variant and
+ * version, followed by the attribute name and value symbols of all nodes and the symbol table itself.
+ * <p>
+ * Everything lives in a single little-endian {@link ByteBuffer}, either on the heap or, with
+ * {@link #build(TreeNode, boolean)}, in direct memory outside of the heap, where it adds no objects
+ * for the garbage collector to trace. Selectors are evaluated directly against the arrays with
+ * {@link CompiledSelector#select(FlatTree)}, which returns lightweight {@link FlatNode} handles.
+ * <p>
+ * The symbols are sorted by their UTF-8 bytes, so a string is looked up by binary search without
+ * decoding the table. A flat tree holds at most 2 GB of data.
+ */
+public final class FlatTree {
+
+	/** Marks a missing parent, child, sibling or symbol */
+	static final int NONE = -1;
+
+	private static final int HEADER_INTS = 4;
+
+	private final ByteBuffer buffer;
+	private final int size;
+	private final int symbolCount;
+	private final int parents;
+	private final int firstChildren;
+	private final int nextSiblings;
+	private final int subtreeSizes;
+	private final int names;
+	private final int types;
+	private final int variants;
+	private final int versions;
+	private final int attributeStarts;
+	private final int attributes;
+	private final int symbolOffsets;
+	private final int symbolBytes;
+
+	/**
+	 * @param buffer the data of a flat tree, starting at position 0
+	 */
+	FlatTree(ByteBuffer buffer) {
+		this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		this.size = this.buffer.getInt(0);
+		this.symbolCount = this.buffer.getInt(4);
+		int attributeCount = this.buffer.getInt(8);
+		int symbolByteCount = this.buffer.getInt(12);
+
+		// Byte offsets of the sections
+		parents = HEADER_INTS * 4;
+		firstChildren = parents + size * 4;
+		nextSiblings = firstChildren + size * 4;
+		subtreeSizes = nextSiblings + size * 4;
+		names = subtreeSizes + size * 4;
+		types = names + size * 4;
+		variants = types + size * 4;
+		versions = variants + size * 4;
+		attributeStarts = versions + size * 4;
+		attributes = attributeStarts + (size + 1) * 4;
+		symbolOffsets = attributes + attributeCount * 8;
+		symbolBytes = symbolOffsets + (symbolCount + 1) * 4;
+		if (size < 1 || symbolBytes + symbolByteCount > this.buffer.capacity()) {
+			throw new IllegalArgumentException("The buffer does not contain a flat tree");
+		}
+	}
+
+	/**
+	 * Build the flat tree of a tree on the heap.
+	 *
+	 * @param rootNode the root node of the tree
+	 * @return the flat tree
+	 */
+	public static FlatTree build(TreeNode rootNode) {
+		return build(rootNode, false);
+	}
+
+	/**
+	 * Build the flat tree of a tree.
+	 *
+	 * @param rootNode the root node of the tree, which becomes the root of the flat tree even if it has a parent
+	 * @param offHeap true to store the flat tree in direct memory outside of the heap
+	 * @return the flat tree
+	 * @throws IllegalArgumentException if the tree is too large for a flat tree
+	 */
+	public static FlatTree build(TreeNode rootNode, boolean offHeap) {
+		TreeIndex index = TreeIndex.build(rootNode);
+		int size = index.size();
+
+		// Collect the symbols and count the attributes
+		Map<String, byte[]> encoded = new HashMap<>();
+		long attributeCount = 0;
+		for (int i = 0; i < size; i++) {
+			TreeNode node = index.getNode(i);
+			encode(node.getName(), encoded);
+			encode(node.getType(), encoded);
+			encode(node.getVariant(), encoded);
+			encode(node.getVersion(), encoded);
+			for (Map.Entry<String, String> entry : node.getAttributes().entrySet()) {
+				if (entry.getKey() != null && entry.getValue() != null) {
+					encode(entry.getKey(), encoded);
+					encode(entry.getValue(), encoded);
+					attributeCount++;
+				}
+			}
+		}
+		List<Map.Entry<String, byte[]>> symbols = new ArrayList<>(encoded.entrySet());
+		symbols.sort((a, b) -> Arrays.compareUnsigned(a.getValue(), b.getValue()));
+		Map<String, Integer> symbolIds = new HashMap<>(symbols.size() * 2);
+		long symbolByteCount = 0;
+		for (int i = 0; i < symbols.size(); i++) {
+			symbolIds.put(symbols.get(i).getKey(), i);
+			symbolByteCount += symbols.get(i).getValue().length;
+		}
+
+		long capacity = (HEADER_INTS + 9L * size + 1 + 2 * attributeCount + symbols.size() + 1) * 4 + symbolByteCount;
+		if (capacity > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("The tree is too large for a flat tree: " + capacity + " bytes");
+		}
+		ByteBuffer buffer = (offHeap ? ByteBuffer.allocateDirect((int) capacity) : ByteBuffer.allocate((int) capacity))
+				.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(size).putInt(symbols.size()).putInt((int) attributeCount).putInt((int) symbolByteCount);
+		for (int i = 0; i < size; i++) {
+			TreeNode parent = index.getNode(i).getParent();
+			buffer.putInt(i == 0 || parent == null ? NONE : index.getOrdinal(parent));
+		}
+		for (int i = 0; i < size; i++) {
+			buffer.putInt(index.getSubtreeSize(i) > 1 ? i + 1 : NONE);
+		}
+		for (int i = 0; i < size; i++) {
+			List<TreeNode> siblings = i == 0 ? List.of() : index.getNode(i).getParent().getChildren();
+			int next = i + index.getSubtreeSize(i);
+			buffer.putInt(i > 0 && siblings.get(siblings.size() - 1) != index.getNode(i) ? next : NONE);
+		}
+		for (int i = 0; i < size; i++) {
+			buffer.putInt(index.getSubtreeSize(i));
+		}
+		for (int i = 0; i < size; i++) {
+			buffer.putInt(id(index.getNode(i).getName(), symbolIds));
+		}
+		for (int i = 0; i < size; i++) {
+			buffer.putInt(id(index.getNode(i).getType(), symbolIds));
+		}
+		for (int i = 0; i < size; i++) {
+			buffer.putInt(id(index.getNode(i).getVariant(), symbolIds));
+		}
+		for (int i = 0; i < size; i++) {
+			buffer.putInt(id(index.getNode(i).getVersion(), symbolIds));
+		}
+		int attributeStart = 0;
+		for (int i = 0; i < size; i++) {
+			buffer.putInt(attributeStart);
+			for (Map.Entry<String, String> entry : index.getNode(i).getAttributes().entrySet()) {
+				if (entry.getKey() != null && entry.getValue() != null) {
+					attributeStart++;
+				}
+			}
+		}
+		buffer.putInt(attributeStart);
+		for (int i = 0; i < size; i++) {
+			for (Map.Entry<String, String> entry : index.getNode(i).getAttributes().entrySet()) {
+				if (entry.getKey() != null && entry.getValue() != null) {
+					buffer.putInt(symbolIds.get(entry.getKey())).putInt(symbolIds.get(entry.getValue()));
+				}
+			}
+		}
+		int symbolOffset = 0;
+		for (Map.Entry<String, byte[]> symbol : symbols) {
+			buffer.putInt(symbolOffset);
+			symbolOffset += symbol.getValue().length;
+		}
+		buffer.putInt(symbolOffset);
+		for (Map.Entry<String, byte[]> symbol : symbols) {
+			buffer.put(symbol.getValue());
+		}
+		return new FlatTree(buffer.flip());
+	}
+
+	private static void encode(String value, Map<String, byte[]> encoded) {
+		if (value != null && !encoded.containsKey(value)) {
+			encoded.put(value, value.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	private static int id(String value, Map<String, Integer> symbolIds) {
+		return value != null ? symbolIds.get(value) : NONE;
+	}
+
+	/**
+	 * @return the number of nodes
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return true if the data is stored outside of the heap
+	 */
+	public boolean isOffHeap() {
+		return buffer.isDirect();
+	}
+
+	public FlatNode getRoot() {
+		return new FlatNode(this, 0);
+	}
+
+	/**
+	 * @param ordinal the pre-order number of a node
+	 * @return a handle of the node
+	 * @throws IndexOutOfBoundsException if there is no such node
+	 */
+	public FlatNode getNode(int ordinal) {
+		return new FlatNode(this, checkOrdinal(ordinal));
+	}
+
+	/**
+	 * @return the pre-order number of the parent of a node, or -1 for the root
+	 */
+	public int getParent(int ordinal) {
+		return buffer.getInt(parents + checkOrdinal(ordinal) * 4);
+	}
+
+	/**
+	 * @return the pre-order number of the first child of a node, or -1 if it has no children
+	 */
+	public int getFirstChild(int ordinal) {
+		return buffer.getInt(firstChildren + checkOrdinal(ordinal) * 4);
+	}
+
+	/**
+	 * @return the pre-order number of the next sibling of a node, or -1 if it is the last child
+	 */
+	public int getNextSibling(int ordinal) {
+		return buffer.getInt(nextSiblings + checkOrdinal(ordinal) * 4);
+	}
+
+	/**
+	 * @return the number of nodes in the subtree of a node, including the node itself
+	 */
+	public int getSubtreeSize(int ordinal) {
+		return buffer.getInt(subtreeSizes + checkOrdinal(ordinal) * 4);
+	}
+
+	public String getName(int ordinal) {
+		return symbol(nameId(checkOrdinal(ordinal)));
+	}
+
+	public String getType(int ordinal) {
+		return symbol(typeId(checkOrdinal(ordinal)));
+	}
+
+	public String getVariant(int ordinal) {
+		return symbol(variantId(checkOrdinal(ordinal)));
+	}
+
+	public String getVersion(int ordinal) {
+		return symbol(versionId(checkOrdinal(ordinal)));
+	}
+
+	/**
+	 * @return the value of a generic attribute of a node, or null if the node does not have the attribute
+	 */
+	public String getAttribute(int ordinal, String name) {
+		return symbol(attributeId(checkOrdinal(ordinal), symbolId(name)));
+	}
+
+	/**
+	 * @return the generic attributes of a node, decoded into a new map
+	 */
+	public Map<String, String> getAttributes(int ordinal) {
+		checkOrdinal(ordinal);
+		Map<String, String> result = new LinkedHashMap<>();
+		int end = buffer.getInt(attributeStarts + (ordinal + 1) * 4);
+		for (int i = buffer.getInt(attributeStarts + ordinal * 4); i < end; i++) {
+			result.put(symbol(buffer.getInt(attributes + i * 8)), symbol(buffer.getInt(attributes + i * 8 + 4)));
+		}
+		return result;
+	}
+
+	private int checkOrdinal(int ordinal) {
+		if (ordinal < 0 || ordinal >= size) {
+			throw new IndexOutOfBoundsException("No node " + ordinal + " in a flat tree of " + size + " nodes");
+		}
+		return ordinal;
+	}
+
+	// Unchecked access by symbol number for the evaluator
+
+	int nameId(int ordinal) {
+		return buffer.getInt(names + ordinal * 4);
+	}
+
+	int typeId(int ordinal) {
+		return buffer.getInt(types + ordinal * 4);
+	}
+
+	int variantId(int ordinal) {
+		return buffer.getInt(variants + ordinal * 4);
+	}
+
+	int versionId(int ordinal) {
+		return buffer.getInt(versions + ordinal * 4);
+	}
+
+	/**
+	 * @return the number of distinct strings in the symbol table
+	 */
+	int symbolCount() {
+		return symbolCount;
+	}
+
+	int parentOf(int ordinal) {
+		return buffer.getInt(parents + ordinal * 4);
+	}
+
+	int firstChildOf(int ordinal) {
+		return buffer.getInt(firstChildren + ordinal * 4);
+	}
+
+	int nextSiblingOf(int ordinal) {
+		return buffer.getInt(nextSiblings + ordinal * 4);
+	}
+
+	int subtreeSizeOf(int ordinal) {
+		return buffer.getInt(subtreeSizes + ordinal * 4);
+	}
+
+	/**
+	 * @return the value symbol of a generic attribute of a node, or -1 if the node does not have it
+	 */
+	int attributeId(int ordinal, int nameId) {
+		if (nameId == NONE) {
+			return NONE;
+		}
+		int end = buffer.getInt(attributeStarts + (ordinal + 1) * 4);
+		for (int i = buffer.getInt(attributeStarts + ordinal * 4); i < end; i++) {
+			if (buffer.getInt(attributes + i * 8) == nameId) {
+				return buffer.getInt(attributes + i * 8 + 4);
+			}
+		}
+		return NONE;
+	}
+
+	/**
+	 * Look up the symbol number of a string by binary search over the sorted symbol table.
+	 *
+	 * @return the symbol number, or -1 if no node uses the string
+	 */
+	int symbolId(String value) {
+		if (value == null) {
+			return NONE;
+		}
+		byte[] key = value.getBytes(StandardCharsets.UTF_8);
+		int low = 0;
+		int high = symbolCount - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int cmp = compareSymbol(middle, key);
+			if (cmp < 0) {
+				low = middle + 1;
+			} else if (cmp > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return NONE;
+	}
+
+	/**
+	 * Find the symbols starting with a prefix. The symbol table is sorted by UTF-8 bytes, so they are
+	 * a contiguous range of symbol numbers found by two binary searches.
+	 *
+	 * @return the first symbol number with the prefix and the symbol number after the last one
+	 */
+	int[] prefixRange(String prefix) {
+		byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+		return new int[]{prefixBound(key, false), prefixBound(key, true)};
+	}
+
+	/**
+	 * @return the first symbol number whose start is not less than the prefix, or greater than the
+	 * prefix for the end of the range
+	 */
+	private int prefixBound(byte[] prefix, boolean end) {
+		int low = 0;
+		int high = symbolCount;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			int cmp = compareSymbol(middle, prefix, true);
+			if (cmp < 0 || (end && cmp == 0)) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private int compareSymbol(int id, byte[] key) {
+		return compareSymbol(id, key, false);
+	}
+
+	/**
+	 * Compare a symbol with a key, or only the start of the symbol up to the length of the key.
+	 */
+	private int compareSymbol(int id, byte[] key, boolean startOnly) {
+		int start = symbolBytes + buffer.getInt(symbolOffsets + id * 4);
+		int length = symbolBytes + buffer.getInt(symbolOffsets + id * 4 + 4) - start;
+		for (int i = 0; i < Math.min(length, key.length); i++) {
+			int cmp = Byte.toUnsignedInt(buffer.get(start + i)) - Byte.toUnsignedInt(key[i]);
+			if (cmp != 0) {
+				return cmp;
+			}
+		}
+		return startOnly && length >= key.length ? 0 : length - key.length;
+	}
+
+	/**
+	 * @return the string of a symbol number, or null for -1
+	 */
+	String symbol(int id) {
+		if (id == NONE) {
+			return null;
+		}
+		int start = buffer.getInt(symbolOffsets + id * 4);
+		byte[] bytes = new byte[buffer.getInt(symbolOffsets + id * 4 + 4) - start];
+		buffer.get(symbolBytes + start, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return a read-only view of the data of this flat tree
+	 */
+	ByteBuffer getBuffer() {
+		return buffer.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	@Override
+	public String toString() {
+		return "FlatTree{size=" + size + ", symbols=" + symbolCount + (isOffHeap() ? ", off-heap" : "") + "}";
+	}
+}
\ No newline at end of file
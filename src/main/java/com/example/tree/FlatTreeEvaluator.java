@@ -0,0 +1,263 @@
+package com.example.tree;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Evaluates compiled selector plans against a {@link FlatTree}. Each step maps a set of pre-order
+ * numbers to the next one, and since the numbers of a bit set are ordered, the result is in document
+ * order without sorting. Names and attribute values are resolved to symbol numbers once per step, so
+ * the nodes are matched by comparing integers.
+ */
+final class FlatTreeEvaluator {
+
+	private FlatTreeEvaluator() {
+	}
+
+	/**
+	 * Evaluate all branches of a selector and combine their results.
+	 *
+	 * @param selector the compiled selector, must be valid
+	 * @param tree the flat tree
+	 * @return the pre-order numbers of the matching nodes in ascending order
+	 */
+	static int[] evaluate(CompiledSelector selector, FlatTree tree) {
+		BitSet result = new BitSet(tree.size());
+		for (SelectorPath path : selector.getPaths()) {
+			result.or(evaluatePath(path, tree).nodes);
+		}
+		return result.stream().toArray();
+	}
+
+	/**
+	 * The nodes selected by a step. The parent level of the root, which has the root as its only
+	 * child, is represented by a flag, like the null marker of the {@link SelectorInterpreter}.
+	 */
+	private static final class Level {
+		private final BitSet nodes;
+		private boolean aboveRoot;
+
+		private Level(int size) {
+			nodes = new BitSet(size);
+		}
+
+		private boolean isEmpty() {
+			return nodes.isEmpty() && !aboveRoot;
+		}
+	}
+
+	private static Level evaluatePath(SelectorPath path, FlatTree tree) {
+		List<SelectorStep> steps = path.getSteps();
+		FlatStep first = new FlatStep(steps.get(0), tree);
+		Level level = new Level(tree.size());
+		if (path.isDeep()) {
+			for (int i = 0; i < tree.size(); i++) {
+				if (first.matches(i)) {
+					level.nodes.set(i);
+				}
+			}
+		} else {
+			switch (first.kind) {
+				case WILDCARD, CURRENT -> level.nodes.set(0);
+				case PLACEHOLDER -> level.nodes.set(1, tree.size());
+				case PARENT -> {
+					// Root has no parent, so the result stays empty
+				}
+				case NAME -> level.nodes.set(0, first.matchesName(0));
+			}
+			first.filter(level);
+		}
+
+		for (int i = 1; i < steps.size() && !level.isEmpty(); i++) {
+			level = applyStep(new FlatStep(steps.get(i), tree), level, tree);
+		}
+		return level;
+	}
+
+	private static Level applyStep(FlatStep step, Level current, FlatTree tree) {
+		Level next = new Level(tree.size());
+		BitSet nodes = current.nodes;
+		switch (step.kind) {
+			case PLACEHOLDER -> {
+				for (int node = nodes.nextSetBit(0); node >= 0; ) {
+					int end = node + tree.subtreeSizeOf(node);
+					next.nodes.set(node + 1, end);
+					// Selected nodes below this one have no other descendants
+					node = end < tree.size() ? nodes.nextSetBit(end) : -1;
+				}
+			}
+			case CURRENT -> {
+				next.nodes.or(nodes);
+				next.aboveRoot = current.aboveRoot;
+			}
+			case PARENT -> {
+				for (int node = nodes.nextSetBit(0); node >= 0; node = nodes.nextSetBit(node + 1)) {
+					int parent = tree.parentOf(node);
+					if (parent != FlatTree.NONE) {
+						next.nodes.set(parent);
+					} else {
+						next.aboveRoot = true;
+					}
+				}
+			}
+			case NAME, WILDCARD -> {
+				// The root is the only node of the parent level of the root, whatever the name of the step
+				if (current.aboveRoot) {
+					next.nodes.set(0);
+				}
+				for (int node = nodes.nextSetBit(0); node >= 0; node = nodes.nextSetBit(node + 1)) {
+					for (int child = tree.firstChildOf(node); child != FlatTree.NONE; child = tree.nextSiblingOf(child)) {
+						if (step.matchesName(child)) {
+							next.nodes.set(child);
+						}
+					}
+				}
+			}
+		}
+		step.filter(next);
+		return next;
+	}
+
+	/**
+	 * A selector step with its names and values resolved to the symbol numbers of a flat tree.
+	 */
+	private static final class FlatStep {
+
+		private static final int NO_PROPERTY = 0;
+		private static final int TYPE = 1;
+		private static final int VARIANT = 2;
+		private static final int VERSION = 3;
+
+		private final FlatTree tree;
+		private final SelectorStep.Kind kind;
+		private final boolean hasFilters;
+		/** The symbol of the name of a NAME step, or -1 if no node has the name */
+		private final int nameId;
+		private final int[] predicateNames;
+		private final int[] predicateValues;
+		/** The built-in property also checked by each predicate */
+		private final int[] predicateProperties;
+		/** Per predicate, the predicate itself if it is not a plain comparison, otherwise null */
+		private final AttributePredicate[] predicateMatchers;
+		/** Per predicate with a matcher, whether each symbol matches: 0 not tested yet, 1 yes, 2 no */
+		private final byte[][] symbolMatches;
+		/** Per prefix predicate, the range of symbol numbers starting with the prefix */
+		private final int[][] prefixRanges;
+		private final FlatStep[] childFilters;
+
+		private FlatStep(SelectorStep step, FlatTree tree) {
+			this.tree = tree;
+			this.kind = step.getKind();
+			this.hasFilters = step.hasFilters();
+			this.nameId = kind == SelectorStep.Kind.NAME ? tree.symbolId(step.getName()) : FlatTree.NONE;
+
+			List<AttributePredicate> predicates = step.getPredicates().stream()
+					.filter(predicate -> !predicate.isWildcard())
+					.toList();
+			predicateNames = new int[predicates.size()];
+			predicateValues = new int[predicates.size()];
+			predicateProperties = new int[predicates.size()];
+			predicateMatchers = new AttributePredicate[predicates.size()];
+			symbolMatches = new byte[predicates.size()][];
+			prefixRanges = new int[predicates.size()][];
+			for (int i = 0; i < predicates.size(); i++) {
+				AttributePredicate predicate = predicates.get(i);
+				predicateNames[i] = tree.symbolId(predicate.getName());
+				predicateValues[i] = tree.symbolId(predicate.getValue());
+				if (predicate.getOperator() == AttributePredicate.Operator.PREFIX) {
+					// The symbols are sorted, so the values with the prefix are a range of symbol numbers
+					predicateMatchers[i] = predicate;
+					prefixRanges[i] = tree.prefixRange(predicate.getValue());
+				} else if (!predicate.isExact()) {
+					// Each distinct value is decoded and tested once
+					predicateMatchers[i] = predicate;
+					symbolMatches[i] = new byte[tree.symbolCount()];
+				}
+				predicateProperties[i] = switch (predicate.getName()) {
+					case "type" -> TYPE;
+					case "variant" -> VARIANT;
+					case "version" -> VERSION;
+					default -> NO_PROPERTY;
+				};
+			}
+			childFilters = step.getChildFilters().stream()
+					.map(childFilter -> new FlatStep(childFilter, tree))
+					.toArray(FlatStep[]::new);
+		}
+
+		private boolean matches(int node) {
+			return matchesName(node) && matchesFilters(node);
+		}
+
+		private boolean matchesName(int node) {
+			return kind != SelectorStep.Kind.NAME || (nameId != FlatTree.NONE && tree.nameId(node) == nameId);
+		}
+
+		private boolean matchesFilters(int node) {
+			for (int i = 0; i < predicateValues.length; i++) {
+				int value = predicateValues[i];
+				int property = switch (predicateProperties[i]) {
+					case TYPE -> tree.typeId(node);
+					case VARIANT -> tree.variantId(node);
+					case VERSION -> tree.versionId(node);
+					default -> FlatTree.NONE;
+				};
+				if (predicateMatchers[i] != null) {
+					if (!matchesSymbol(i, property) && !matchesSymbol(i, tree.attributeId(node, predicateNames[i]))) {
+						return false;
+					}
+				} else if (value == FlatTree.NONE) {
+					// No node has the value
+					return false;
+				} else if (property != value && tree.attributeId(node, predicateNames[i]) != value) {
+					return false;
+				}
+			}
+			for (FlatStep childFilter : childFilters) {
+				if (!childFilter.matchesAnyChild(node)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private boolean matchesSymbol(int predicate, int symbol) {
+			if (symbol == FlatTree.NONE) {
+				return false;
+			} else if (prefixRanges[predicate] != null) {
+				return symbol >= prefixRanges[predicate][0] && symbol < prefixRanges[predicate][1];
+			}
+			byte[] matches = symbolMatches[predicate];
+			if (matches[symbol] == 0) {
+				matches[symbol] = predicateMatchers[predicate].matchesValue(tree.symbol(symbol)) ? (byte) 1 : (byte) 2;
+			}
+			return matches[symbol] == 1;
+		}
+
+		private boolean matchesAnyChild(int node) {
+			for (int child = tree.firstChildOf(node); child != FlatTree.NONE; child = tree.nextSiblingOf(child)) {
+				if (matches(child)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Remove the nodes not matching the filters of this step. The parent level of the root never
+		 * matches a filter.
+		 */
+		private void filter(Level level) {
+			if (!hasFilters) {
+				return;
+			}
+			level.aboveRoot = false;
+			BitSet nodes = level.nodes;
+			for (int node = nodes.nextSetBit(0); node >= 0; node = nodes.nextSetBit(node + 1)) {
+				if (!matchesFilters(node)) {
+					nodes.clear(node);
+				}
+			}
+		}
+	}
+}
\ No newline at end of file
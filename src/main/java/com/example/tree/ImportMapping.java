@@ -0,0 +1,121 @@
+package com.example.tree;
+
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * Immutable rules deciding how the fields of an imported JSON object or the attributes of an imported
+ * XML element become the properties of a {@link TreeNode}. The fields named by the rules become the
+ * name, type, variant and version of the node, all other fields accepted by the attribute filter become
+ * generic attributes. A node without a name field is named after the JSON field holding it, or after
+ * its XML element.
+ *
+ * @see TreeImporter
+ */
+public final class ImportMapping {
+
+	private static final ImportMapping DEFAULTS = new ImportMapping("name", "type", "variant", "version", "children",
+			field -> true);
+
+	private final String nameField;
+	private final String typeField;
+	private final String variantField;
+	private final String versionField;
+	private final String childrenField;
+	private final Predicate<String> attributeFilter;
+
+	private ImportMapping(String nameField, String typeField, String variantField, String versionField,
+						  String childrenField, Predicate<String> attributeFilter) {
+		this.nameField = nameField;
+		this.typeField = typeField;
+		this.variantField = variantField;
+		this.versionField = versionField;
+		this.childrenField = childrenField;
+		this.attributeFilter = Objects.requireNonNull(attributeFilter, "The attribute filter cannot be null");
+	}
+
+	/**
+	 * @return the mapping of the fields name, type, variant and version, with child nodes in the field
+	 * children and all other fields as attributes
+	 */
+	public static ImportMapping defaults() {
+		return DEFAULTS;
+	}
+
+	/**
+	 * @param nameField the field holding the node name, or null to always name nodes after their field or element
+	 * @return a new mapping
+	 */
+	public ImportMapping withNameField(String nameField) {
+		return new ImportMapping(nameField, typeField, variantField, versionField, childrenField, attributeFilter);
+	}
+
+	/**
+	 * @param typeField the field holding the node type, or null for none
+	 * @return a new mapping
+	 */
+	public ImportMapping withTypeField(String typeField) {
+		return new ImportMapping(nameField, typeField, variantField, versionField, childrenField, attributeFilter);
+	}
+
+	/**
+	 * @param variantField the field holding the node variant, or null for none
+	 * @return a new mapping
+	 */
+	public ImportMapping withVariantField(String variantField) {
+		return new ImportMapping(nameField, typeField, variantField, versionField, childrenField, attributeFilter);
+	}
+
+	/**
+	 * @param versionField the field holding the node version, or null for none
+	 * @return a new mapping
+	 */
+	public ImportMapping withVersionField(String versionField) {
+		return new ImportMapping(nameField, typeField, variantField, versionField, childrenField, attributeFilter);
+	}
+
+	/**
+	 * Set the JSON field of the root object holding the array of top-level child nodes. The objects of
+	 * this array are the subtrees an importer can parse in parallel. Like every other field holding
+	 * objects, it becomes child nodes in any case.
+	 *
+	 * @param childrenField the field name, or null to parse JSON documents sequentially
+	 * @return a new mapping
+	 */
+	public ImportMapping withChildrenField(String childrenField) {
+		return new ImportMapping(nameField, typeField, variantField, versionField, childrenField, attributeFilter);
+	}
+
+	/**
+	 * @param attributeFilter accepts the names of the remaining fields which become attributes
+	 * @return a new mapping
+	 */
+	public ImportMapping withAttributeFilter(Predicate<String> attributeFilter) {
+		return new ImportMapping(nameField, typeField, variantField, versionField, childrenField, attributeFilter);
+	}
+
+	String getChildrenField() {
+		return childrenField;
+	}
+
+	/**
+	 * Apply a scalar field to a node.
+	 *
+	 * @param node the node
+	 * @param field the field name
+	 * @param value the field value
+	 */
+	void apply(TreeNode node, String field, String value) {
+		if (field.equals(nameField)) {
+			node.setName(value);
+		} else if (field.equals(typeField)) {
+			node.setType(value);
+		} else if (field.equals(variantField)) {
+			node.setVariant(value);
+		} else if (field.equals(versionField)) {
+			node.setVersion(value);
+		} else if (attributeFilter.test(field)) {
+			node.addAttribute(field, value);
+		}
+	}
+}
\ No newline at end of file
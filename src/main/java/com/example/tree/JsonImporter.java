@@ -0,0 +1,356 @@
+package com.example.tree;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.regex.Pattern;
+
+/**
+ * Builds trees from JSON documents in a single pass over a stream of tokens, without a document model.
+ * The document must be an object, which becomes the root node. Every object nested in it becomes a
+ * child node of the object containing it, also inside arrays, and scalar fields are applied by the
+ * {@link ImportMapping}. Arrays of scalars become one attribute with the values separated by commas,
+ * null values are skipped. Nesting is handled with an explicit stack, so deep documents cannot
+ * overflow the call stack.
+ */
+final class JsonImporter {
+
+	/** The name of a root object without a name field */
+	static final String ROOT_NAME = "root";
+
+	private final ImportMapping mapping;
+
+	JsonImporter(ImportMapping mapping) {
+		this.mapping = mapping;
+	}
+
+	/**
+	 * The state of an open object or array.
+	 */
+	private static final class Frame {
+		/** The node of an object, or the node owning the fields of an array */
+		private final TreeNode node;
+		/** The name of the field holding the object or array */
+		private final String field;
+		private final boolean array;
+		/** The scalar values of an array, shared with nested arrays */
+		private final StringBuilder scalars;
+		/** True for the top-level children array whose objects are handed to a chunk sink */
+		private final boolean split;
+		private int count;
+
+		private Frame(TreeNode node, String field, boolean array, StringBuilder scalars, boolean split) {
+			this.node = node;
+			this.field = field;
+			this.array = array;
+			this.scalars = scalars;
+			this.split = split;
+		}
+	}
+
+	/**
+	 * Parse a JSON document.
+	 *
+	 * @param lexer the tokens of the document
+	 * @param target the node receiving the fields of the outermost object
+	 * @param fallbackName the name of the outermost object if it has no name field
+	 * @param sink receives the objects of the top-level children array instead of parsing them, or null
+	 * @throws IOException if the input cannot be read or is not a JSON object
+	 */
+	void parse(Lexer lexer, TreeNode target, String fallbackName, TreeImporter.ChunkSink sink) throws IOException {
+		if (lexer.peek() != '{') {
+			throw lexer.error("Expected a JSON object");
+		}
+		lexer.read();
+		Deque<Frame> stack = new ArrayDeque<>();
+		stack.push(new Frame(target, fallbackName, false, null, false));
+
+		while (!stack.isEmpty()) {
+			Frame frame = stack.peek();
+			int c = lexer.peek();
+			if (c == (frame.array ? ']' : '}')) {
+				lexer.read();
+				stack.pop();
+				close(frame, stack.peek());
+				continue;
+			}
+			if (frame.count++ > 0) {
+				lexer.expect(',');
+				c = lexer.peek();
+			}
+
+			if (frame.array) {
+				if (c == '{' && frame.split) {
+					TreeNode child = new TreeNode(null);
+					frame.node.addChild(child);
+					int line = lexer.line;
+					int column = lexer.column;
+					sink.add(child, frame.field, lexer.captureObject(), line, column);
+				} else {
+					value(lexer, frame.node, frame.field, frame.scalars, false, stack);
+				}
+			} else {
+				lexer.expect('"');
+				String field = lexer.readString();
+				lexer.expect(':');
+				boolean split = sink != null && stack.size() == 1 && field.equals(mapping.getChildrenField());
+				value(lexer, frame.node, field, null, split, stack);
+			}
+		}
+		if (lexer.peek() != -1) {
+			throw lexer.error("Unexpected content after the JSON object");
+		}
+	}
+
+	/**
+	 * Read a value of a field or array, applying a scalar or opening an object or array.
+	 *
+	 * @param scalars the scalar values of the enclosing array, or null for a field
+	 */
+	private void value(Lexer lexer, TreeNode owner, String field, StringBuilder scalars, boolean split,
+					   Deque<Frame> stack) throws IOException {
+		int c = lexer.read();
+		switch (c) {
+			case '{' -> {
+				TreeNode child = new TreeNode(null);
+				owner.addChild(child);
+				stack.push(new Frame(child, field, false, null, false));
+			}
+			case '[' -> stack.push(new Frame(owner, field, true, scalars != null ? scalars : new StringBuilder(), split));
+			default -> {
+				String value = c == '"' ? lexer.readString() : lexer.readLiteral(c);
+				if (value == null) {
+					return;
+				}
+				if (scalars == null) {
+					mapping.apply(owner, field, value);
+				} else {
+					scalars.append(scalars.isEmpty() ? "" : ",").append(value);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finish a closed object or array.
+	 *
+	 * @param parent the frame containing the closed one, or null
+	 */
+	private void close(Frame frame, Frame parent) {
+		if (!frame.array) {
+			if (frame.node.getName() == null) {
+				frame.node.setName(frame.field);
+			}
+		} else if (!frame.scalars.isEmpty() && (parent == null || !parent.array)) {
+			// The outermost array applies the scalars of all nested arrays
+			mapping.apply(frame.node, frame.field, frame.scalars.toString());
+		}
+	}
+
+	/**
+	 * A pull tokenizer for JSON, reading through a buffer and tracking the position for error messages.
+	 */
+	static final class Lexer {
+
+		private static final Pattern NUMBER = Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?");
+
+		private final Reader reader;
+		private final char[] buffer = new char[8192];
+		private int position;
+		private int limit;
+		private int line;
+		private int column;
+		private final StringBuilder text = new StringBuilder();
+
+		/**
+		 * @param reader the input
+		 * @param line the line of the first character
+		 * @param column the column of the first character
+		 */
+		Lexer(Reader reader, int line, int column) {
+			this.reader = reader;
+			this.line = line;
+			this.column = column;
+		}
+
+		/**
+		 * @return the next character which is not whitespace without consuming it, or -1 at the end
+		 */
+		int peek() throws IOException {
+			while (true) {
+				if (position == limit && !fill()) {
+					return -1;
+				}
+				char c = buffer[position];
+				if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+					return c;
+				}
+				advance();
+			}
+		}
+
+		/**
+		 * @return the next character which is not whitespace, or -1 at the end
+		 */
+		int read() throws IOException {
+			int c = peek();
+			if (c != -1) {
+				advance();
+			}
+			return c;
+		}
+
+		void expect(char expected) throws IOException {
+			int c = read();
+			if (c != expected) {
+				throw error("Expected '" + expected + "' but found " + describe(c));
+			}
+		}
+
+		private boolean fill() throws IOException {
+			int read = reader.read(buffer, 0, buffer.length);
+			if (read <= 0) {
+				return false;
+			}
+			position = 0;
+			limit = read;
+			return true;
+		}
+
+		private char advance() {
+			char c = buffer[position++];
+			if (c == '\n') {
+				line++;
+				column = 1;
+			} else {
+				column++;
+			}
+			return c;
+		}
+
+		private int next() throws IOException {
+			return position < limit || fill() ? advance() : -1;
+		}
+
+		/**
+		 * Read the rest of a string after its opening quote.
+		 */
+		String readString() throws IOException {
+			text.setLength(0);
+			while (true) {
+				int c = next();
+				if (c == '"') {
+					return text.toString();
+				} else if (c == '\\') {
+					int escaped = next();
+					switch (escaped) {
+						case '"', '\\', '/' -> text.append((char) escaped);
+						case 'b' -> text.append('\b');
+						case 'f' -> text.append('\f');
+						case 'n' -> text.append('\n');
+						case 'r' -> text.append('\r');
+						case 't' -> text.append('\t');
+						case 'u' -> {
+							int code = 0;
+							for (int i = 0; i < 4; i++) {
+								int digit = Character.digit(next(), 16);
+								if (digit < 0) {
+									throw error("Invalid unicode escape");
+								}
+								code = code * 16 + digit;
+							}
+							text.append((char) code);
+						}
+						default -> throw error("Invalid escape " + describe(escaped));
+					}
+				} else if (c == -1 || c < 0x20) {
+					throw error("Unterminated string");
+				} else {
+					text.append((char) c);
+				}
+			}
+		}
+
+		/**
+		 * Read a number, true, false or null.
+		 *
+		 * @param first the first character, already consumed
+		 * @return the literal, or null for null
+		 */
+		String readLiteral(int first) throws IOException {
+			text.setLength(0);
+			if (first == -1) {
+				throw error("Unexpected end of input");
+			}
+			text.append((char) first);
+			while (position < limit || fill()) {
+				char c = buffer[position];
+				if (!Character.isLetterOrDigit(c) && c != '-' && c != '+' && c != '.') {
+					break;
+				}
+				text.append(advance());
+			}
+			String literal = text.toString();
+			switch (literal) {
+				case "null" -> {
+					return null;
+				}
+				case "true", "false" -> {
+					return literal;
+				}
+				default -> {
+					if (!NUMBER.matcher(literal).matches()) {
+						throw error("Invalid value '" + literal + "'");
+					}
+					return literal;
+				}
+			}
+		}
+
+		/**
+		 * Copy the text of the object starting at the next character, without interpreting it beyond
+		 * matching brackets and strings.
+		 *
+		 * @return the text of the object
+		 */
+		String captureObject() throws IOException {
+			text.setLength(0);
+			peek();
+			int depth = 0;
+			boolean inString = false;
+			while (true) {
+				int c = next();
+				if (c == -1) {
+					throw error("Unexpected end of input");
+				}
+				text.append((char) c);
+				if (inString) {
+					if (c == '\\') {
+						int escaped = next();
+						if (escaped == -1) {
+							throw error("Unexpected end of input");
+						}
+						text.append((char) escaped);
+					} else if (c == '"') {
+						inString = false;
+					}
+				} else if (c == '"') {
+					inString = true;
+				} else if (c == '{' || c == '[') {
+					depth++;
+				} else if ((c == '}' || c == ']') && --depth == 0) {
+					return text.toString();
+				}
+			}
+		}
+
+		IOException error(String message) {
+			return new IOException(message + " at line " + line + ", column " + column);
+		}
+
+		private static String describe(int c) {
+			return c == -1 ? "the end of input" : "'" + (char) c + "'";
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,238 @@
+package com.example.tree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The result of a selector which is kept up to date while the tree changes. A live query listens to
+ * the changes of its tree (see {@link TreeChangeListener}) and checks only the nodes a change can
+ * affect: the nodes of an added subtree, or the subtree of a changed node, whose matches depend on
+ * their ancestors. If the selector has child filters, a change can also make an ancestor start or stop
+ * matching its step, and with it the nodes below, so the subtree of the ancestor as many levels above
+ * the change as the filters are nested is checked instead. Each node is checked bottom-up, as by a {@link SelectorRegistry}, and the listeners of the query are told which
+ * nodes were added to and removed from the result. Changes of attributes the selector does not test
+ * are ignored without checking anything.
+ * <p>
+ * Selectors with a parent step the {@link SelectorOptimizer} could not fold are evaluated again on
+ * every relevant change. Live queries are not thread-safe, the tree has to be modified by one thread
+ * at a time, which also calls the listeners.
+ *
+ * @see TreeSelector#live(String)
+ */
+public final class LiveQuery implements AutoCloseable {
+
+	/**
+	 * Receives the changes of the result of a live query.
+	 */
+	@FunctionalInterface
+	public interface Listener {
+
+		/**
+		 * @param query the query
+		 * @param added the nodes added to the result, in document order
+		 * @param removed the nodes removed from the result, in document order
+		 */
+		void resultChanged(LiveQuery query, List<TreeNode> added, List<TreeNode> removed);
+	}
+
+	private final TreeNode rootNode;
+	private final CompiledSelector selector;
+	private final TreeChangeListener treeListener = this::treeChanged;
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+	private final Set<TreeNode> nodes = Collections.newSetFromMap(new IdentityHashMap<>());
+	/** The result in document order, or null if it has to be sorted again */
+	private List<TreeNode> result;
+
+	/** Whether the selector has a branch which cannot be checked bottom-up */
+	private final boolean residual;
+	/** Whether a step of the selector tests node names */
+	private final boolean testsNames;
+	/** The deepest nesting of the child filters of the steps, 0 if the selector has none */
+	private final int filterDepth;
+	/** The attributes tested by the predicates of the selector */
+	private final Set<String> attributeNames = new HashSet<>();
+	private boolean closed;
+
+	LiveQuery(TreeNode rootNode, CompiledSelector selector) {
+		this.rootNode = rootNode;
+		this.selector = selector;
+		this.residual = !selector.getAutomaton().getResidualPaths().isEmpty();
+		boolean names = false;
+		int depth = 0;
+		for (SelectorPath path : selector.getPaths()) {
+			for (SelectorStep step : path.getSteps()) {
+				names |= collectTests(step);
+				depth = Math.max(depth, filterDepth(step));
+			}
+		}
+		this.testsNames = names;
+		this.filterDepth = depth;
+
+		result = Collections.unmodifiableList(selector.select(rootNode));
+		nodes.addAll(result);
+		rootNode.addTreeChangeListener(treeListener);
+	}
+
+	/**
+	 * Collect the attributes tested by a step and its child filters.
+	 *
+	 * @return true if the step or one of its child filters tests a node name
+	 */
+	private boolean collectTests(SelectorStep step) {
+		for (AttributePredicate predicate : step.getPredicates()) {
+			if (!predicate.isWildcard()) {
+				attributeNames.add(predicate.getName());
+			}
+		}
+		boolean names = step.getKind() == SelectorStep.Kind.NAME;
+		for (SelectorStep childFilter : step.getChildFilters()) {
+			names |= collectTests(childFilter);
+		}
+		return names;
+	}
+
+	/**
+	 * @return the number of levels below a node of the step which its child filters test
+	 */
+	private static int filterDepth(SelectorStep step) {
+		int depth = 0;
+		for (SelectorStep childFilter : step.getChildFilters()) {
+			depth = Math.max(depth, 1 + filterDepth(childFilter));
+		}
+		return depth;
+	}
+
+	public CompiledSelector getSelector() {
+		return selector;
+	}
+
+	/**
+	 * @return the current result in document order, as an unmodifiable list
+	 */
+	public List<TreeNode> getResult() {
+		if (result == null) {
+			result = Collections.unmodifiableList(DocumentOrder.sort(rootNode, null, nodes));
+		}
+		return result;
+	}
+
+	/**
+	 * @param node a node
+	 * @return true if the node is in the current result
+	 */
+	public boolean contains(TreeNode node) {
+		return nodes.contains(node);
+	}
+
+	public int size() {
+		return nodes.size();
+	}
+
+	/**
+	 * @param listener the listener told about changes of the result
+	 */
+	public void addListener(Listener listener) {
+		listeners.add(Objects.requireNonNull(listener, "The listener cannot be null"));
+	}
+
+	/**
+	 * @param listener a listener of this query
+	 * @return true if the listener was removed
+	 */
+	public boolean removeListener(Listener listener) {
+		return listeners.remove(listener);
+	}
+
+	/**
+	 * Stop following the changes of the tree. The result stays as it is.
+	 */
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			rootNode.removeTreeChangeListener(treeListener);
+			listeners.clear();
+		}
+	}
+
+	private void treeChanged(TreeChangeEvent event) {
+		if (!isRelevant(event)) {
+			return;
+		}
+		Set<TreeNode> added = new LinkedHashSet<>();
+		Set<TreeNode> removed = new LinkedHashSet<>();
+		if (residual) {
+			Set<TreeNode> current = Collections.newSetFromMap(new IdentityHashMap<>());
+			current.addAll(selector.select(rootNode));
+			for (TreeNode node : current) {
+				if (nodes.add(node)) {
+					added.add(node);
+				}
+			}
+			for (TreeNode node : new ArrayList<>(nodes)) {
+				if (!current.contains(node)) {
+					nodes.remove(node);
+					removed.add(node);
+				}
+			}
+		} else {
+			TreeNode changed = event.getKind() == TreeChangeEvent.Kind.CHILD_ADDED ? event.getChild() : event.getNode();
+			// The child filters of the ancestors up to this one may test the changed node
+			for (int i = 0; i < filterDepth && changed != rootNode; i++) {
+				changed = changed.getParent();
+			}
+			List<TreeNode> stack = new ArrayList<>();
+			stack.add(changed);
+			while (!stack.isEmpty()) {
+				TreeNode node = stack.remove(stack.size() - 1);
+				check(node, added, removed);
+				List<TreeNode> children = node.getChildren();
+				for (int i = children.size() - 1; i >= 0; i--) {
+					stack.add(children.get(i));
+				}
+			}
+		}
+
+		if (!added.isEmpty() || !removed.isEmpty()) {
+			result = null;
+			List<TreeNode> addedNodes = Collections.unmodifiableList(DocumentOrder.sort(rootNode, null, added));
+			List<TreeNode> removedNodes = Collections.unmodifiableList(DocumentOrder.sort(rootNode, null, removed));
+			for (Listener listener : listeners) {
+				listener.resultChanged(this, addedNodes, removedNodes);
+			}
+		}
+	}
+
+	private boolean isRelevant(TreeChangeEvent event) {
+		return switch (event.getKind()) {
+			case CHILD_ADDED -> true;
+			case NAME_CHANGED -> testsNames;
+			case TYPE_CHANGED -> attributeNames.contains("type");
+			case VARIANT_CHANGED -> attributeNames.contains("variant");
+			case VERSION_CHANGED -> attributeNames.contains("version");
+			case ATTRIBUTE_CHANGED -> attributeNames.contains(event.getAttributeName());
+		};
+	}
+
+	private void check(TreeNode node, Set<TreeNode> added, Set<TreeNode> removed) {
+		boolean selected = false;
+		for (SelectorPath path : selector.getPaths()) {
+			if (SelectorInterpreter.matchesPath(path, node, rootNode)) {
+				selected = true;
+				break;
+			}
+		}
+		if (selected && nodes.add(node)) {
+			added.add(node);
+		} else if (!selected && nodes.remove(node)) {
+			removed.add(node);
+		}
+	}
+}
\ No newline at end of file
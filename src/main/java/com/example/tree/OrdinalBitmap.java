@@ -0,0 +1,254 @@
+package com.example.tree;
+
+import java.util.Arrays;
+
+/**
+ * An immutable compressed set of node ordinals, organized like a roaring bitmap: the ordinals are split
+ * into chunks of 65536 by their high 16 bits, and each chunk keeps its low 16 bits either as a sorted
+ * array, when it holds at most 4096 ordinals, or as a plain bitmap of 1024 words otherwise. Sparse sets
+ * take two bytes per ordinal, dense sets one bit per possible ordinal, and intersections work chunk by
+ * chunk without decompressing.
+ */
+final class OrdinalBitmap {
+
+	/** Chunks with more ordinals than this are stored as bitmaps */
+	private static final int ARRAY_LIMIT = 4096;
+	private static final int BITMAP_WORDS = 1024;
+
+	static final OrdinalBitmap EMPTY = new OrdinalBitmap(new int[0], new Object[0], new int[0]);
+
+	/** The high 16 bits of the chunks, ascending */
+	private final int[] keys;
+	/** Per chunk, a sorted char[] of low bits or a long[] bitmap */
+	private final Object[] containers;
+	private final int[] cardinalities;
+
+	private OrdinalBitmap(int[] keys, Object[] containers, int[] cardinalities) {
+		this.keys = keys;
+		this.containers = containers;
+		this.cardinalities = cardinalities;
+	}
+
+	/**
+	 * @return the number of ordinals in the set
+	 */
+	int cardinality() {
+		int cardinality = 0;
+		for (int c : cardinalities) {
+			cardinality += c;
+		}
+		return cardinality;
+	}
+
+	boolean contains(int ordinal) {
+		int chunk = Arrays.binarySearch(keys, ordinal >>> 16);
+		if (chunk < 0) {
+			return false;
+		}
+		char low = (char) ordinal;
+		if (containers[chunk] instanceof char[] array) {
+			return Arrays.binarySearch(array, 0, cardinalities[chunk], low) >= 0;
+		}
+		long[] bitmap = (long[]) containers[chunk];
+		return (bitmap[low >>> 6] & (1L << low)) != 0;
+	}
+
+	/**
+	 * @return the ordinals in ascending order
+	 */
+	int[] toArray() {
+		int[] result = new int[cardinality()];
+		int size = 0;
+		for (int chunk = 0; chunk < keys.length; chunk++) {
+			int high = keys[chunk] << 16;
+			if (containers[chunk] instanceof char[] array) {
+				for (int i = 0; i < cardinalities[chunk]; i++) {
+					result[size++] = high | array[i];
+				}
+			} else {
+				long[] bitmap = (long[]) containers[chunk];
+				for (int word = 0; word < BITMAP_WORDS; word++) {
+					long bits = bitmap[word];
+					while (bits != 0) {
+						result[size++] = high | (word << 6) | Long.numberOfTrailingZeros(bits);
+						bits &= bits - 1;
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Intersect two sets.
+	 *
+	 * @return the ordinals contained in both sets
+	 */
+	OrdinalBitmap and(OrdinalBitmap other) {
+		int[] resultKeys = new int[Math.min(keys.length, other.keys.length)];
+		Object[] resultContainers = new Object[resultKeys.length];
+		int[] resultCardinalities = new int[resultKeys.length];
+		int size = 0;
+		int i = 0;
+		int j = 0;
+		while (i < keys.length && j < other.keys.length) {
+			if (keys[i] < other.keys[j]) {
+				i++;
+			} else if (keys[i] > other.keys[j]) {
+				j++;
+			} else {
+				Object container = and(containers[i], cardinalities[i], other.containers[j], other.cardinalities[j]);
+				int cardinality = cardinality(container);
+				if (cardinality > 0) {
+					resultKeys[size] = keys[i];
+					resultContainers[size] = container;
+					resultCardinalities[size++] = cardinality;
+				}
+				i++;
+				j++;
+			}
+		}
+		return new OrdinalBitmap(Arrays.copyOf(resultKeys, size), Arrays.copyOf(resultContainers, size),
+				Arrays.copyOf(resultCardinalities, size));
+	}
+
+	private static Object and(Object a, int aCardinality, Object b, int bCardinality) {
+		if (a instanceof char[] aArray) {
+			if (b instanceof char[] bArray) {
+				// Merge two sorted arrays
+				char[] result = new char[Math.min(aCardinality, bCardinality)];
+				int size = 0;
+				for (int i = 0, j = 0; i < aCardinality && j < bCardinality; ) {
+					if (aArray[i] < bArray[j]) {
+						i++;
+					} else if (aArray[i] > bArray[j]) {
+						j++;
+					} else {
+						result[size++] = aArray[i];
+						i++;
+						j++;
+					}
+				}
+				return Arrays.copyOf(result, size);
+			}
+			return filter(aArray, aCardinality, (long[]) b);
+		}
+		if (b instanceof char[] bArray) {
+			return filter(bArray, bCardinality, (long[]) a);
+		}
+
+		long[] aBitmap = (long[]) a;
+		long[] bBitmap = (long[]) b;
+		long[] result = new long[BITMAP_WORDS];
+		int cardinality = 0;
+		for (int word = 0; word < BITMAP_WORDS; word++) {
+			result[word] = aBitmap[word] & bBitmap[word];
+			cardinality += Long.bitCount(result[word]);
+		}
+		return cardinality > ARRAY_LIMIT ? result : toArray(result, cardinality);
+	}
+
+	private static char[] filter(char[] array, int cardinality, long[] bitmap) {
+		char[] result = new char[cardinality];
+		int size = 0;
+		for (int i = 0; i < cardinality; i++) {
+			char low = array[i];
+			if ((bitmap[low >>> 6] & (1L << low)) != 0) {
+				result[size++] = low;
+			}
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	private static char[] toArray(long[] bitmap, int cardinality) {
+		char[] result = new char[cardinality];
+		int size = 0;
+		for (int word = 0; word < BITMAP_WORDS; word++) {
+			long bits = bitmap[word];
+			while (bits != 0) {
+				result[size++] = (char) ((word << 6) | Long.numberOfTrailingZeros(bits));
+				bits &= bits - 1;
+			}
+		}
+		return result;
+	}
+
+	private static int cardinality(Object container) {
+		if (container instanceof char[] array) {
+			return array.length;
+		}
+		int cardinality = 0;
+		for (long word : (long[]) container) {
+			cardinality += Long.bitCount(word);
+		}
+		return cardinality;
+	}
+
+	/**
+	 * Collects ordinals in ascending order into a bitmap.
+	 */
+	static final class Builder {
+
+		private int[] keys = new int[4];
+		private Object[] containers = new Object[4];
+		private int[] cardinalities = new int[4];
+		private int size;
+		private int last = -1;
+
+		/**
+		 * @param ordinal an ordinal not less than all ordinals added before, adding the last one again has
+		 * no effect
+		 */
+		void add(int ordinal) {
+			if (ordinal == last) {
+				return;
+			} else if (ordinal < last) {
+				throw new IllegalArgumentException("Ordinals must be added in ascending order: " + ordinal);
+			}
+			last = ordinal;
+
+			int key = ordinal >>> 16;
+			if (size == 0 || keys[size - 1] != key) {
+				if (size == keys.length) {
+					keys = Arrays.copyOf(keys, size * 2);
+					containers = Arrays.copyOf(containers, size * 2);
+					cardinalities = Arrays.copyOf(cardinalities, size * 2);
+				}
+				keys[size] = key;
+				containers[size] = new char[4];
+				cardinalities[size++] = 0;
+			}
+
+			int chunk = size - 1;
+			char low = (char) ordinal;
+			int cardinality = cardinalities[chunk];
+			if (containers[chunk] instanceof char[] array) {
+				if (cardinality < ARRAY_LIMIT) {
+					if (cardinality == array.length) {
+						array = Arrays.copyOf(array, Math.min(cardinality * 2, ARRAY_LIMIT));
+						containers[chunk] = array;
+					}
+					array[cardinality] = low;
+					cardinalities[chunk] = cardinality + 1;
+					return;
+				}
+				// Too many ordinals for an array, switch to a bitmap
+				long[] bitmap = new long[BITMAP_WORDS];
+				for (char value : array) {
+					bitmap[value >>> 6] |= 1L << value;
+				}
+				containers[chunk] = bitmap;
+			}
+			((long[]) containers[chunk])[low >>> 6] |= 1L << low;
+			cardinalities[chunk] = cardinality + 1;
+		}
+
+		OrdinalBitmap build() {
+			Object[] built = new Object[size];
+			for (int i = 0; i < size; i++) {
+				built[i] = containers[i] instanceof char[] array ? Arrays.copyOf(array, cardinalities[i]) : containers[i];
+			}
+			return new OrdinalBitmap(Arrays.copyOf(keys, size), built, Arrays.copyOf(cardinalities, size));
+		}
+	}
+}
\ No newline at end of file
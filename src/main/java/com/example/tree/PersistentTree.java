@@ -0,0 +1,502 @@
+package com.example.tree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * An immutable version of a tree which shares its structure with the versions it was derived from.
+ * A change produces a new version by copying only the nodes on the path from the changed node to the
+ * root; all other subtrees are shared, so a change costs the depth of the node times the number of
+ * children along the path, not the size of the tree.
+ * <p>
+ * The nodes of a version are read through {@link #getRoot()}, which returns read-only {@link TreeNode}s
+ * for the usual selectors: {@code new TreeSelector(tree.getRoot()).select(...)}. The shared nodes
+ * themselves do not know their parent, which differs between versions; each version wraps them in
+ * its own view nodes, created one at a time on first access and published without locks, so a version
+ * can be read by any number of threads while writers derive new versions. The interpreter and
+ * {@link TreeSelector#selectAll} walk the shared nodes instead and keep the path to the current node on
+ * their own stack, so a query on a new version only creates the views of its matches and of their
+ * ancestors, not of every node it visits. The bytecode engine and the walks over a {@link TreeIndex},
+ * including parallel ones, read the views and create one for every node they visit.
+ * Keep the current version in an
+ * {@link java.util.concurrent.atomic.AtomicReference} to let readers take a consistent snapshot with a
+ * single read and let writers publish with a compare-and-set.
+ * <p>
+ * The methods deriving a new version take nodes of this version, as returned by its root and the
+ * selectors on it. View nodes cannot be modified, their setters throw {@link UnsupportedOperationException}.
+ */
+public final class PersistentTree {
+
+	private static final Node[] NO_CHILDREN = new Node[0];
+	private static final String[] NO_ATTRIBUTES = new String[0];
+
+	private final long version;
+	private final SnapshotNode root;
+
+	private PersistentTree(Node rootData, long version) {
+		this.version = version;
+		this.root = new SnapshotNode(this, rootData, null, 0);
+	}
+
+	/**
+	 * Create the first version of a tree by copying a mutable tree.
+	 *
+	 * @param rootNode the root node of the tree to copy
+	 * @return the persistent tree
+	 */
+	public static PersistentTree of(TreeNode rootNode) {
+		return new PersistentTree(copy(rootNode), 0);
+	}
+
+	/**
+	 * @return the root node of this version
+	 */
+	public TreeNode getRoot() {
+		return root;
+	}
+
+	/**
+	 * @return the number of changes this version is derived from the first one by
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @param node a node of this version
+	 * @param name the new name
+	 * @return the new version
+	 * @throws IllegalArgumentException if the node is not part of this version
+	 */
+	public PersistentTree withName(TreeNode node, String name) {
+		Node data = dataOf(node);
+		return replace(node, new Node(name, data.type, data.variant, data.version, data.attributes, data.children));
+	}
+
+	/**
+	 * @param node a node of this version
+	 * @param type the new type
+	 * @return the new version
+	 * @throws IllegalArgumentException if the node is not part of this version
+	 */
+	public PersistentTree withType(TreeNode node, String type) {
+		Node data = dataOf(node);
+		return replace(node, new Node(data.name, SymbolTable.intern(type), data.variant, data.version, data.attributes,
+				data.children));
+	}
+
+	/**
+	 * @param node a node of this version
+	 * @param variant the new variant
+	 * @return the new version
+	 * @throws IllegalArgumentException if the node is not part of this version
+	 */
+	public PersistentTree withVariant(TreeNode node, String variant) {
+		Node data = dataOf(node);
+		return replace(node, new Node(data.name, data.type, SymbolTable.intern(variant), data.version, data.attributes,
+				data.children));
+	}
+
+	/**
+	 * @param node a node of this version
+	 * @param version the new version property
+	 * @return the new version of the tree
+	 * @throws IllegalArgumentException if the node is not part of this version
+	 */
+	public PersistentTree withVersion(TreeNode node, String version) {
+		Node data = dataOf(node);
+		return replace(node, new Node(data.name, data.type, data.variant, SymbolTable.intern(version), data.attributes,
+				data.children));
+	}
+
+	/**
+	 * @param node a node of this version
+	 * @param key the attribute name
+	 * @param value the attribute value, replacing an existing one
+	 * @return the new version
+	 * @throws IllegalArgumentException if the node is not part of this version
+	 */
+	public PersistentTree withAttribute(TreeNode node, String key, String value) {
+		Node data = dataOf(node);
+		key = SymbolTable.intern(key);
+		value = SymbolTable.intern(value);
+		String[] attributes = data.attributes;
+		int position = 0;
+		while (position < attributes.length && !Objects.equals(attributes[position], key)) {
+			position += 2;
+		}
+		attributes = Arrays.copyOf(attributes, Math.max(attributes.length, position + 2));
+		attributes[position] = key;
+		attributes[position + 1] = value;
+		return replace(node, new Node(data.name, data.type, data.variant, data.version, attributes, data.children));
+	}
+
+	/**
+	 * Add a copy of a mutable subtree as the last child of a node.
+	 *
+	 * @param parent a node of this version
+	 * @param child the root of the subtree to copy
+	 * @return the new version
+	 * @throws IllegalArgumentException if the parent is not part of this version
+	 */
+	public PersistentTree withChild(TreeNode parent, TreeNode child) {
+		Node data = dataOf(parent);
+		Node[] children = Arrays.copyOf(data.children, data.children.length + 1);
+		children[data.children.length] = copy(child);
+		return replace(parent, data.withChildren(children));
+	}
+
+	/**
+	 * Remove a node and its subtree.
+	 *
+	 * @param node a node of this version other than the root
+	 * @return the new version
+	 * @throws IllegalArgumentException if the node is not part of this version or is the root
+	 */
+	public PersistentTree without(TreeNode node) {
+		dataOf(node);
+		SnapshotNode snapshotNode = (SnapshotNode) node;
+		if (snapshotNode.parent == null) {
+			throw new IllegalArgumentException("The root node cannot be removed");
+		}
+		Node[] siblings = snapshotNode.parent.data.children;
+		Node[] children = new Node[siblings.length - 1];
+		System.arraycopy(siblings, 0, children, 0, snapshotNode.index);
+		System.arraycopy(siblings, snapshotNode.index + 1, children, snapshotNode.index, children.length - snapshotNode.index);
+		return replace(snapshotNode.parent, snapshotNode.parent.data.withChildren(children));
+	}
+
+	private Node dataOf(TreeNode node) {
+		if (!(node instanceof SnapshotNode snapshotNode) || snapshotNode.tree != this) {
+			throw new IllegalArgumentException("The node is not part of this version of the tree: " + node);
+		}
+		return snapshotNode.data;
+	}
+
+	/**
+	 * Copy the nodes on the path from a node to the root, with the node replaced.
+	 */
+	private PersistentTree replace(TreeNode node, Node replacement) {
+		Node current = replacement;
+		for (SnapshotNode child = (SnapshotNode) node; child.parent != null; child = child.parent) {
+			Node parentData = child.parent.data;
+			Node[] children = parentData.children.clone();
+			children[child.index] = current;
+			current = parentData.withChildren(children);
+		}
+		return new PersistentTree(current, version + 1);
+	}
+
+	/**
+	 * Copy a mutable subtree into shared nodes, children before their parents, without recursion.
+	 */
+	private static Node copy(TreeNode rootNode) {
+		List<TreeNode> stack = new ArrayList<>();
+		List<Node> done = new ArrayList<>();
+		stack.add(rootNode);
+		// A node is pushed again with a null marker above it once its children are on the stack
+		while (!stack.isEmpty()) {
+			TreeNode node = stack.remove(stack.size() - 1);
+			if (node == null) {
+				TreeNode parent = stack.remove(stack.size() - 1);
+				int childCount = parent.getChildren().size();
+				Node[] children = childCount == 0 ? NO_CHILDREN : new Node[childCount];
+				for (int i = childCount - 1; i >= 0; i--) {
+					children[i] = done.remove(done.size() - 1);
+				}
+				done.add(copyProperties(parent, children));
+				continue;
+			}
+			stack.add(node);
+			stack.add(null);
+			List<TreeNode> children = node.getChildren();
+			for (int i = children.size() - 1; i >= 0; i--) {
+				stack.add(children.get(i));
+			}
+		}
+		return done.get(0);
+	}
+
+	private static Node copyProperties(TreeNode node, Node[] children) {
+		Map<String, String> attributeMap = node.getAttributes();
+		String[] attributes = attributeMap.isEmpty() ? NO_ATTRIBUTES : new String[2 * attributeMap.size()];
+		int position = 0;
+		for (Map.Entry<String, String> entry : attributeMap.entrySet()) {
+			attributes[position++] = entry.getKey();
+			attributes[position++] = entry.getValue();
+		}
+		return new Node(node.getName(), node.getType(), node.getVariant(), node.getVersion(), attributes, children);
+	}
+
+	/**
+	 * The base of the read-only nodes, whose setters throw.
+	 */
+	private abstract static class ReadOnlyNode extends TreeNode {
+
+		@Override
+		public void setName(String name) {
+			throw readOnly();
+		}
+
+		@Override
+		public void setType(String type) {
+			throw readOnly();
+		}
+
+		@Override
+		public void setVariant(String variant) {
+			throw readOnly();
+		}
+
+		@Override
+		public void setVersion(String version) {
+			throw readOnly();
+		}
+
+		@Override
+		public void addAttribute(String key, String value) {
+			throw readOnly();
+		}
+
+		@Override
+		public void addChild(TreeNode child) {
+			throw readOnly();
+		}
+
+		@Override
+		public void addTreeChangeListener(TreeChangeListener listener) {
+			throw readOnly();
+		}
+
+		private static UnsupportedOperationException readOnly() {
+			return new UnsupportedOperationException("The nodes of a persistent tree are read-only, derive a new version instead");
+		}
+	}
+
+	/**
+	 * The immutable data of a node, shared between versions. The selector engines walk these nodes
+	 * directly, they are never handed out since they do not know their parent.
+	 */
+	private static final class Node extends ReadOnlyNode {
+
+		private final String name;
+		private final String type;
+		private final String variant;
+		private final String version;
+		private final long versionKey;
+		/** Alternating attribute names and values */
+		private final String[] attributes;
+		private final Node[] children;
+		private final List<TreeNode> childList;
+
+		private Node(String name, String type, String variant, String version, String[] attributes, Node[] children) {
+			this.name = name;
+			this.type = type;
+			this.variant = variant;
+			this.version = version;
+			this.versionKey = VersionKey.of(version);
+			this.attributes = attributes;
+			this.children = children;
+			this.childList = children.length == 0 ? List.of() : Collections.unmodifiableList(Arrays.asList(children));
+		}
+
+		private Node withChildren(Node[] children) {
+			return new Node(name, type, variant, version, attributes, children);
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public String getType() {
+			return type;
+		}
+
+		@Override
+		public String getVariant() {
+			return variant;
+		}
+
+		@Override
+		public String getVersion() {
+			return version;
+		}
+
+		@Override
+		long getVersionKey() {
+			return versionKey;
+		}
+
+		@Override
+		public String getAttribute(String key) {
+			for (int i = 0; i < attributes.length; i += 2) {
+				if (Objects.equals(attributes[i], key)) {
+					return attributes[i + 1];
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public Map<String, String> getAttributes() {
+			Map<String, String> attributeMap = new LinkedHashMap<>();
+			for (int i = 0; i < attributes.length; i += 2) {
+				attributeMap.put(attributes[i], attributes[i + 1]);
+			}
+			return Collections.unmodifiableMap(attributeMap);
+		}
+
+		@Override
+		public List<TreeNode> getChildren() {
+			return childList;
+		}
+
+		@Override
+		public TreeNode getParent() {
+			throw new UnsupportedOperationException("Shared nodes do not know their parent, use the nodes of a version");
+		}
+
+		@Override
+		public String toString() {
+			return "TreeNode{name='" + name + "', type='" + type + "', variant='" + variant +
+					(version != null ? "', version='" + version : "") +
+					"', children=" + children.length + "}";
+		}
+	}
+
+	/**
+	 * The read-only view of a shared node in one version of the tree, which knows its parent.
+	 */
+	private static final class SnapshotNode extends ReadOnlyNode {
+
+		private static final VarHandle SNAPSHOT_CHILDREN;
+		private static final VarHandle VIEWS = MethodHandles.arrayElementVarHandle(TreeNode[].class);
+
+		static {
+			try {
+				SNAPSHOT_CHILDREN = MethodHandles.lookup().findVarHandle(SnapshotNode.class, "snapshotChildren", List.class);
+			} catch (ReflectiveOperationException e) {
+				throw new ExceptionInInitializerError(e);
+			}
+		}
+
+		private final PersistentTree tree;
+		private final Node data;
+		private final SnapshotNode parent;
+		/** The position of this node among the children of its parent */
+		private final int index;
+		/** The list of the views of the children, created on first access */
+		@SuppressWarnings("unused")
+		private volatile List<TreeNode> snapshotChildren;
+
+		private SnapshotNode(PersistentTree tree, Node data, SnapshotNode parent, int index) {
+			this.tree = tree;
+			this.data = data;
+			this.parent = parent;
+			this.index = index;
+		}
+
+		@Override
+		public String getName() {
+			return data.name;
+		}
+
+		@Override
+		public String getType() {
+			return data.type;
+		}
+
+		@Override
+		public String getVariant() {
+			return data.variant;
+		}
+
+		@Override
+		public String getVersion() {
+			return data.version;
+		}
+
+		@Override
+		long getVersionKey() {
+			return data.versionKey;
+		}
+
+		@Override
+		public String getAttribute(String key) {
+			return data.getAttribute(key);
+		}
+
+		@Override
+		public Map<String, String> getAttributes() {
+			return data.getAttributes();
+		}
+
+		@Override
+		public List<TreeNode> getChildren() {
+			List<TreeNode> children = snapshotChildren;
+			if (children != null) {
+				return children;
+			}
+			children = data.children.length == 0 ? List.of() : new Children(new TreeNode[data.children.length]);
+			// Readers racing here must all see the same views, so only the first list is kept
+			if (!SNAPSHOT_CHILDREN.compareAndSet(this, null, children)) {
+				children = snapshotChildren;
+			}
+			return children;
+		}
+
+		@Override
+		public TreeNode getParent() {
+			return parent;
+		}
+
+		@Override
+		TreeNode getWalkRoot() {
+			return data;
+		}
+
+		@Override
+		public String toString() {
+			return data.toString();
+		}
+
+		/**
+		 * The views of the children, each created when it is first read.
+		 */
+		private final class Children extends AbstractList<TreeNode> implements RandomAccess {
+
+			private final TreeNode[] views;
+
+			private Children(TreeNode[] views) {
+				this.views = views;
+			}
+
+			@Override
+			public TreeNode get(int i) {
+				TreeNode view = (TreeNode) VIEWS.getAcquire(views, i);
+				if (view != null) {
+					return view;
+				}
+				view = new SnapshotNode(tree, data.children[i], SnapshotNode.this, i);
+				TreeNode witness = (TreeNode) VIEWS.compareAndExchangeRelease(views, i, null, view);
+				return witness != null ? witness : view;
+			}
+
+			@Override
+			public int size() {
+				return views.length;
+			}
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,206 @@
+package com.example.tree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A bounded, thread-safe cache of selection results keyed by compiled selector and root node.
+ * A result is remembered together with the {@link TreeNode#getModificationStamp() modification stamp}
+ * of the subtree it was computed from, and reused only as long as that stamp is unchanged, so a
+ * lookup costs one stamp read instead of a walk of the tree. Results of selectors with a parent step
+ * may reach above the root node and depend on the stamp of the whole tree instead.
+ * <p>
+ * The cache is bounded by a number of entries and by an estimate of the memory held by the result
+ * lists; when either is exceeded, the least recently used entries are evicted.
+ * <p>
+ * Entries hold strong references to their root node and to the nodes of their result, and through
+ * them to the whole tree, e.g. to an old version of a {@link PersistentTree} which nothing else uses.
+ * The memory estimate only counts the result lists, not the trees kept reachable by them. A tree is
+ * released once its entries are evicted by newer ones, or by {@link #clear()}.
+ *
+ * @see TreeSelector#withResultCache(ResultCache)
+ */
+public final class ResultCache {
+
+	/** Default number of results kept by a cache. */
+	public static final int DEFAULT_MAXIMUM_SIZE = 256;
+	/** Default estimated memory held by the results of a cache, in bytes. */
+	public static final long DEFAULT_MAXIMUM_MEMORY = 16L * 1024 * 1024;
+
+	/** The estimated size of an entry without its result, in bytes */
+	private static final long ENTRY_OVERHEAD = 128;
+	/** The estimated size of one node reference in a result, in bytes */
+	private static final long REFERENCE_SIZE = 8;
+
+	private final int maximumSize;
+	private final long maximumMemory;
+	private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+	private final AtomicLong clock = new AtomicLong();
+	private final AtomicLong memoryUsage = new AtomicLong();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	public ResultCache() {
+		this(DEFAULT_MAXIMUM_SIZE, DEFAULT_MAXIMUM_MEMORY);
+	}
+
+	/**
+	 * @param maximumSize the maximum number of results kept, must be positive
+	 * @param maximumMemory the maximum estimated memory held by the results in bytes, must be positive
+	 */
+	public ResultCache(int maximumSize, long maximumMemory) {
+		if (maximumSize <= 0) {
+			throw new IllegalArgumentException("Maximum size must be positive: " + maximumSize);
+		}
+		if (maximumMemory <= 0) {
+			throw new IllegalArgumentException("Maximum memory must be positive: " + maximumMemory);
+		}
+		this.maximumSize = maximumSize;
+		this.maximumMemory = maximumMemory;
+	}
+
+	/**
+	 * Get the result of a selector for a root node, evaluating it if there is no result for the
+	 * current modification stamp of the tree.
+	 *
+	 * @param selector the compiled selector
+	 * @param rootNode the root node the selector is evaluated from
+	 * @param evaluation evaluates the selector on a cache miss
+	 * @return the unmodifiable result
+	 */
+	List<TreeNode> get(CompiledSelector selector, TreeNode rootNode, Supplier<List<TreeNode>> evaluation) {
+		Key key = new Key(selector, rootNode);
+		// Read before evaluating, so a change during the evaluation makes the result stale
+		long stamp = dependencyOf(selector, rootNode).getModificationStamp();
+		Entry entry = entries.get(key);
+		if (entry != null && entry.stamp == stamp) {
+			hits.increment();
+			entry.lastAccess = clock.incrementAndGet();
+			return entry.nodes;
+		}
+
+		misses.increment();
+		List<TreeNode> nodes = Collections.unmodifiableList(new ArrayList<>(evaluation.get()));
+		Entry fresh = new Entry(stamp, nodes, ENTRY_OVERHEAD + REFERENCE_SIZE * nodes.size(), clock.incrementAndGet());
+		Entry previous = entries.put(key, fresh);
+		memoryUsage.addAndGet(previous != null ? fresh.weight - previous.weight : fresh.weight);
+		if (entries.size() > maximumSize || memoryUsage.get() > maximumMemory) {
+			evict();
+		}
+		return nodes;
+	}
+
+	/**
+	 * @return the node whose modification stamp covers everything the result may contain
+	 */
+	private static TreeNode dependencyOf(CompiledSelector selector, TreeNode rootNode) {
+		if (rootNode.getParent() == null || !hasParentStep(selector)) {
+			return rootNode;
+		}
+		TreeNode topmost = rootNode;
+		while (topmost.getParent() != null) {
+			topmost = topmost.getParent();
+		}
+		return topmost;
+	}
+
+	private static boolean hasParentStep(CompiledSelector selector) {
+		for (SelectorPath path : selector.getPaths()) {
+			for (SelectorStep step : path.getSteps()) {
+				if (step.getKind() == SelectorStep.Kind.PARENT) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Remove least recently used entries until the cache is within its maximum size and memory.
+	 * Only runs on a cache miss, so the linear scan is not part of the hot path.
+	 */
+	private synchronized void evict() {
+		while (entries.size() > maximumSize || memoryUsage.get() > maximumMemory) {
+			Key eldestKey = null;
+			long eldestAccess = Long.MAX_VALUE;
+			for (Map.Entry<Key, Entry> candidate : entries.entrySet()) {
+				if (candidate.getValue().lastAccess < eldestAccess) {
+					eldestAccess = candidate.getValue().lastAccess;
+					eldestKey = candidate.getKey();
+				}
+			}
+			if (eldestKey == null) {
+				return;
+			}
+			Entry removed = entries.remove(eldestKey);
+			if (removed != null) {
+				memoryUsage.addAndGet(-removed.weight);
+			}
+		}
+	}
+
+	/**
+	 * Remove all entries. The hit and miss counters are kept.
+	 */
+	public synchronized void clear() {
+		for (Key key : entries.keySet()) {
+			Entry removed = entries.remove(key);
+			if (removed != null) {
+				memoryUsage.addAndGet(-removed.weight);
+			}
+		}
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+	/**
+	 * @return the estimated memory held by the cached results in bytes
+	 */
+	public long getMemoryUsage() {
+		return memoryUsage.get();
+	}
+
+	public long getMaximumMemory() {
+		return maximumMemory;
+	}
+
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * Compiled selectors and nodes are compared by identity.
+	 */
+	private record Key(CompiledSelector selector, TreeNode rootNode) {
+	}
+
+	private static final class Entry {
+		private final long stamp;
+		private final List<TreeNode> nodes;
+		private final long weight;
+		private volatile long lastAccess;
+
+		private Entry(long stamp, List<TreeNode> nodes, long weight, long lastAccess) {
+			this.stamp = stamp;
+			this.nodes = nodes;
+			this.weight = weight;
+			this.lastAccess = lastAccess;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,839 @@
+package com.example.tree;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+
+/**
+ * The branches of a selector merged into a prefix trie of steps, evaluated in a single pre-order
+ * walk over the tree.
+ * <p>
+ * Every state of the automaton is one step of the trie. While walking, each node carries the set of
+ * states which are still live at its depth and is tested against all of them at once. Branches sharing
+ * a prefix, like {@code /Root/Child2/X|/Root/Child2/Y}, share the states of that prefix, so the common
+ * steps are tested only once per node. Because every node is visited exactly once, the matches come out
+ * in document order and without duplicates, no matter how many branches select them.
+ * <p>
+ * Branches with a parent step ({@code ..}) which the {@link SelectorOptimizer} could not fold cannot be
+ * evaluated top-down; they are kept as residual paths for the step-by-step {@link SelectorInterpreter}.
+ */
+final class SelectorAutomaton {
+
+	private static final int[] NO_STATES = new int[0];
+
+	/** The step tested by each state */
+	private final SelectorStep[] steps;
+	/** Whether a node matching the state is a result */
+	private final boolean[] accepting;
+	/** The states live at the children of a node matching the state */
+	private final int[][] next;
+	/** The states live at the root */
+	private final int[] rootStates;
+	/** The states live at the children of the root, i.e. placeholder first steps */
+	private final int[] rootChildStates;
+	/** The states live at every node, i.e. the first steps of deep paths */
+	private final int[] deepStates;
+	private final List<SelectorPath> residualPaths;
+
+	private SelectorAutomaton(SelectorStep[] steps, boolean[] accepting, int[][] next, int[] rootStates,
+							  int[] rootChildStates, int[] deepStates, List<SelectorPath> residualPaths) {
+		this.steps = steps;
+		this.accepting = accepting;
+		this.next = next;
+		this.rootStates = rootStates;
+		this.rootChildStates = rootChildStates;
+		this.deepStates = deepStates;
+		this.residualPaths = residualPaths;
+	}
+
+	/**
+	 * Build the automaton for the branches of a selector.
+	 *
+	 * @param paths the optimized paths of the selector
+	 * @return the automaton
+	 */
+	static SelectorAutomaton build(List<SelectorPath> paths) {
+		List<TrieNode> rootLevel = new ArrayList<>();
+		List<TrieNode> rootChildLevel = new ArrayList<>();
+		List<TrieNode> deepLevel = new ArrayList<>();
+		List<SelectorPath> residualPaths = new ArrayList<>();
+
+		for (SelectorPath path : paths) {
+			List<SelectorStep> steps = path.getSteps();
+			if (!isTopDown(steps)) {
+				residualPaths.add(path);
+			} else if (path.isDeep()) {
+				insert(deepLevel, steps);
+			} else if (steps.get(0).getKind() == SelectorStep.Kind.PLACEHOLDER) {
+				insert(rootChildLevel, steps);
+			} else {
+				insert(rootLevel, steps);
+			}
+		}
+
+		List<TrieNode> states = new ArrayList<>();
+		int[] rootStates = number(rootLevel, states);
+		int[] rootChildStates = number(rootChildLevel, states);
+		int[] deepStates = number(deepLevel, states);
+
+		SelectorStep[] steps = new SelectorStep[states.size()];
+		boolean[] accepting = new boolean[states.size()];
+		int[][] next = new int[states.size()][];
+		for (int i = 0; i < steps.length; i++) {
+			TrieNode state = states.get(i);
+			steps[i] = state.step;
+			accepting[i] = state.accepting;
+			next[i] = state.childIds;
+		}
+		return new SelectorAutomaton(steps, accepting, next, rootStates, rootChildStates, deepStates,
+				List.copyOf(residualPaths));
+	}
+
+	/**
+	 * @return true if the steps only move down the tree, which is what the automaton can evaluate
+	 */
+	static boolean isTopDown(List<SelectorStep> steps) {
+		for (SelectorStep step : steps) {
+			if (step.getKind() == SelectorStep.Kind.PARENT || step.getKind() == SelectorStep.Kind.CURRENT) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void insert(List<TrieNode> level, List<SelectorStep> steps) {
+		TrieNode node = null;
+		for (SelectorStep step : steps) {
+			node = null;
+			for (TrieNode candidate : level) {
+				if (candidate.step.equals(step)) {
+					node = candidate;
+					break;
+				}
+			}
+			if (node == null) {
+				node = new TrieNode(step);
+				level.add(node);
+			}
+			level = node.children;
+		}
+		node.accepting = true;
+	}
+
+	/**
+	 * Assign state numbers to a level of the trie and everything below it.
+	 *
+	 * @return the state numbers of the level
+	 */
+	private static int[] number(List<TrieNode> level, List<TrieNode> states) {
+		if (level.isEmpty()) {
+			return NO_STATES;
+		}
+		int[] ids = new int[level.size()];
+		for (int i = 0; i < ids.length; i++) {
+			TrieNode node = level.get(i);
+			ids[i] = states.size();
+			states.add(node);
+			node.childIds = number(node.children, states);
+		}
+		return ids;
+	}
+
+	/**
+	 * @return the number of states, i.e. of distinct step prefixes of the selector
+	 */
+	int getStateCount() {
+		return steps.length;
+	}
+
+	/**
+	 * @return the step tested by a state
+	 */
+	SelectorStep getStep(int state) {
+		return steps[state];
+	}
+
+	/**
+	 * @return whether a node matching the state is a result
+	 */
+	boolean isAccepting(int state) {
+		return accepting[state];
+	}
+
+	/**
+	 * @return the states live at the children of a node matching the state
+	 */
+	int[] getNextStates(int state) {
+		return next[state];
+	}
+
+	/**
+	 * @return the states live at the root
+	 */
+	int[] getRootStates() {
+		return rootStates;
+	}
+
+	/**
+	 * @return the states live at the children of the root
+	 */
+	int[] getRootChildStates() {
+		return rootChildStates;
+	}
+
+	/**
+	 * @return the states live at every node
+	 */
+	int[] getDeepStates() {
+		return deepStates;
+	}
+
+	/**
+	 * @return the branches which have to be evaluated by the {@link SelectorInterpreter}
+	 */
+	List<SelectorPath> getResidualPaths() {
+		return residualPaths;
+	}
+
+	/**
+	 * Collect the nodes matched by the automaton in document order, stopping the walk at the limit.
+	 *
+	 * @param rootNode the root node of the tree
+	 * @param index the structural index of the tree, or null
+	 * @param out the list receiving the matching nodes
+	 * @param limit the maximum number of nodes to collect
+	 */
+	void evaluate(TreeNode rootNode, TreeIndex index, List<TreeNode> out, int limit) {
+		Walker walker = new Walker(rootNode, index);
+		TreeNode node;
+		for (int i = 0; i < limit && (node = walker.next()) != null; i++) {
+			out.add(node);
+		}
+	}
+
+	/**
+	 * Count the nodes matched by the automaton without collecting them.
+	 *
+	 * @param rootNode the root node of the tree
+	 * @param index the structural index of the tree, or null
+	 * @return the number of matching nodes
+	 */
+	int count(TreeNode rootNode, TreeIndex index) {
+		// Without an index the matches are only counted, so they do not need to be mapped back
+		Walker walker = new Walker(index == null ? rootNode.getWalkRoot() : rootNode, index);
+		int count = 0;
+		while (walker.next() != null) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Create a lazy source of the nodes matched by the automaton. The tree is walked only as far as
+	 * the consumer pulls matches.
+	 *
+	 * @param rootNode the root node of the tree
+	 * @param index the structural index of the tree, or null
+	 * @return an ordered spliterator without duplicates and null elements
+	 */
+	Spliterator<TreeNode> spliterator(TreeNode rootNode, TreeIndex index) {
+		Walker walker = new Walker(rootNode, index);
+		return new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE,
+				Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL) {
+			@Override
+			public boolean tryAdvance(Consumer<? super TreeNode> action) {
+				TreeNode node = walker.next();
+				if (node == null) {
+					return false;
+				}
+				action.accept(node);
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Collect the nodes matched by the automaton with a fork/join walk. The children of a node are
+	 * contiguous ranges of the pre-order of the index, so a range of siblings is split at a child near
+	 * its middle, and ranges smaller than the minimum subtree size are walked serially. The partial
+	 * results are concatenated in the order of the ranges, which keeps them in document order.
+	 *
+	 * @param rootNode the root node of the tree
+	 * @param index the structural index of the tree
+	 * @param pool the pool running the tasks
+	 * @param minSubtreeSize the number of nodes below which a range is not split
+	 * @param out the list receiving the matching nodes
+	 */
+	void evaluateParallel(TreeNode rootNode, TreeIndex index, ForkJoinPool pool, int minSubtreeSize,
+						  List<TreeNode> out) {
+		boolean[] matched = new boolean[1];
+		int[] childStates = transition(rootNode, rootStates, rootChildStates, matched);
+		if (matched[0]) {
+			out.add(rootNode);
+		}
+		if (index.size() > 1 && (childStates.length > 0 || deepStates.length > 0)) {
+			out.addAll(pool.invoke(new ParallelWalk(index, 1, index.size(), childStates, minSubtreeSize)));
+		}
+	}
+
+	/**
+	 * Test a node against its live states and the states live everywhere.
+	 *
+	 * @param states the states live at the node
+	 * @param extraStates states which are live at the children in any case
+	 * @param matched receives whether the node is a match
+	 * @return the states live at the children of the node
+	 */
+	private int[] transition(TreeNode node, int[] states, int[] extraStates, boolean[] matched) {
+		boolean[] added = new boolean[steps.length];
+		int[] childStates = new int[steps.length];
+		int size = 0;
+		for (int i = 0; i < states.length + deepStates.length; i++) {
+			int state = i < states.length ? states[i] : deepStates[i - states.length];
+			SelectorStep step = steps[state];
+			if (step.getKind() == SelectorStep.Kind.PLACEHOLDER && !added[state]) {
+				added[state] = true;
+				childStates[size++] = state;
+			}
+			if (step.matchesName(node) && step.matchesFilters(node)) {
+				matched[0] |= accepting[state];
+				for (int nextState : next[state]) {
+					if (!added[nextState]) {
+						added[nextState] = true;
+						childStates[size++] = nextState;
+					}
+				}
+			}
+		}
+		for (int state : extraStates) {
+			if (!added[state]) {
+				added[state] = true;
+				childStates[size++] = state;
+			}
+		}
+		return Arrays.copyOf(childStates, size);
+	}
+
+	/**
+	 * Evaluates a range of siblings, i.e. the pre-order numbers from the first sibling to the end of the
+	 * subtree of the last one, which all have the same live states.
+	 */
+	@SuppressWarnings("serial")
+	private final class ParallelWalk extends RecursiveTask<List<TreeNode>> {
+
+		private final TreeIndex index;
+		private final int from;
+		private final int to;
+		private final int[] states;
+		private final int minSubtreeSize;
+
+		private ParallelWalk(TreeIndex index, int from, int to, int[] states, int minSubtreeSize) {
+			this.index = index;
+			this.from = from;
+			this.to = to;
+			this.states = states;
+			this.minSubtreeSize = minSubtreeSize;
+		}
+
+		@Override
+		protected List<TreeNode> compute() {
+			// The results in order: lists of nodes and forked tasks, followed by the forked tasks of
+			// ranges to the right of the current one, the last forked first
+			List<Object> head = new ArrayList<>();
+			Deque<ForkJoinTask<List<TreeNode>>> tail = new ArrayDeque<>();
+			List<TreeNode> current = new ArrayList<>();
+
+			int start = from;
+			int end = to;
+			int[] liveStates = states;
+			while (start < end) {
+				if (end - start < minSubtreeSize) {
+					for (int sibling = start; sibling < end; sibling += index.getSubtreeSize(sibling)) {
+						Walker walker = new Walker(index.getNode(sibling), liveStates);
+						for (TreeNode node = walker.next(); node != null; node = walker.next()) {
+							current.add(node);
+						}
+					}
+					break;
+				}
+
+				int size = index.getSubtreeSize(start);
+				if (start + size == end) {
+					// A single large subtree, test its root and continue with its children
+					boolean[] matched = new boolean[1];
+					TreeNode node = index.getNode(start);
+					liveStates = transition(node, liveStates, NO_STATES, matched);
+					if (matched[0]) {
+						current.add(node);
+					}
+					if (liveStates.length == 0 && deepStates.length == 0) {
+						break;
+					}
+					start++;
+					continue;
+				}
+
+				// Split the siblings near the middle, fork the smaller part and continue with the larger one
+				int middle = start + size;
+				while (middle < end && middle - start < (end - start) / 2) {
+					middle += index.getSubtreeSize(middle);
+				}
+				if (middle >= end) {
+					// The last sibling holds more than half of the nodes
+					middle = start + size;
+					while (middle + index.getSubtreeSize(middle) < end) {
+						middle += index.getSubtreeSize(middle);
+					}
+				}
+				if (middle - start <= end - middle) {
+					head.add(current);
+					head.add(new ParallelWalk(index, start, middle, liveStates, minSubtreeSize).fork());
+					current = new ArrayList<>();
+					start = middle;
+				} else {
+					tail.push(new ParallelWalk(index, middle, end, liveStates, minSubtreeSize).fork());
+					end = middle;
+				}
+			}
+			head.add(current);
+
+			List<TreeNode> result = new ArrayList<>();
+			for (Object part : head) {
+				addPart(part, result);
+			}
+			while (!tail.isEmpty()) {
+				result.addAll(tail.pop().join());
+			}
+			return result;
+		}
+
+		@SuppressWarnings("unchecked")
+		private void addPart(Object part, List<TreeNode> result) {
+			if (part instanceof ForkJoinTask<?> task) {
+				result.addAll((List<TreeNode>) task.join());
+			} else {
+				result.addAll((List<TreeNode>) part);
+			}
+		}
+	}
+
+	/**
+	 * A pre-order walk over one tree, returning one match at a time. The walk keeps one frame per level
+	 * of the current node and the live states of each level in a shared stack, so its memory is bounded
+	 * by the depth of the tree and not by its size. Subtrees without live states are skipped.
+	 * <p>
+	 * Without an index, the walk descends through the child lists of the {@link TreeNode#getWalkRoot()
+	 * walk root}, e.g. the shared nodes of a {@link PersistentTree}, and maps each match back to the
+	 * children of the root it was given by the positions kept in its frames.
+	 * <p>
+	 * With a {@link TreeIndex}, the walk is a scan over the pre-order numbers of the index instead of
+	 * a descent through the child lists, and skipping a subtree is a jump over its range. If the index
+	 * has a name index, deep steps only visit the nodes with the right name.
+	 */
+	final class Walker {
+
+		private final TreeNode root;
+		/** The root the matches are mapped back to, if the walk runs on a different one */
+		private final TreeNode resultRoot;
+		private final TreeIndex index;
+		/** The states live at the root of the walk */
+		private final int[] startStates;
+
+		/** The node of each frame, when walking the child lists */
+		private TreeNode[] frameNodes;
+		/** The next child of each frame, or the end of its subtree range when scanning an index */
+		private int[] frameChildIndexes = new int[16];
+		/** The nodes of the frames mapped back to the result root, valid for the first frames only */
+		private TreeNode[] mappedFrames;
+		private int mappedDepth;
+		/** Start of the live states of the children of each frame in {@link #live} */
+		private int[] frameStates = new int[16];
+		private int depth;
+
+		private int[] live = new int[32];
+		private int liveSize;
+
+		/** Per state, the visit number which last added it, to add every state only once per level */
+		private final int[] added = new int[steps.length];
+		private int visit = 1;
+		/** Whether the last visited node has live states for its children */
+		private boolean descend;
+
+		private boolean started;
+		/** The pre-order number of the next node, when scanning an index */
+		private int position;
+
+		/** The states tested at every node */
+		private int[] everywhere = deepStates;
+		/** The states live at the children of the root */
+		private int[] atRootChildren = rootChildStates;
+		/** The states tested only at the candidate nodes found in the index, or null */
+		private int[] seeds;
+		/** Per seed, whether it only applies below the children of the root */
+		private boolean[] seedsBelowRootChildren;
+		/** The pre-order numbers of the candidate nodes of all seeds, in ascending order */
+		private int[] candidates;
+		private int cursor;
+
+		Walker(TreeNode rootNode, TreeIndex index) {
+			this.root = index == null ? rootNode.getWalkRoot() : rootNode;
+			this.resultRoot = rootNode;
+			this.index = index;
+			this.startStates = rootStates;
+			if (index == null) {
+				frameNodes = new TreeNode[16];
+			} else {
+				seed();
+			}
+		}
+
+		/**
+		 * Create a walk over the subtree of a node whose live states are already known, e.g. one part of
+		 * a parallel evaluation. The node is treated like any other node, not like the root of the tree.
+		 *
+		 * @param node the root of the subtree
+		 * @param states the states live at the node
+		 */
+		Walker(TreeNode node, int[] states) {
+			this.root = node;
+			this.resultRoot = node;
+			this.index = null;
+			this.startStates = states;
+			this.atRootChildren = NO_STATES;
+			frameNodes = new TreeNode[16];
+		}
+
+		/**
+		 * Replace the states which are live everywhere by seeds, if the index can list the candidate
+		 * nodes of each of them, e.g. all nodes named Child2 for {@code **}{@code /Child2}. The walk then
+		 * jumps from candidate to candidate through the parts of the tree without live states, so its
+		 * cost grows with the number of candidates instead of the size of the tree.
+		 * <p>
+		 * A placeholder first step without filters, as in {@code /~~/Child2}, is replaced by its following
+		 * steps, which then apply to any node below the children of the root.
+		 */
+		private void seed() {
+			List<Integer> seedList = new ArrayList<>();
+			List<Boolean> belowRootChildren = new ArrayList<>();
+			List<int[]> postings = new ArrayList<>();
+			for (int state : deepStates) {
+				int[] posting = index.getCandidates(steps[state]);
+				if (posting == null) {
+					return;
+				}
+				seedList.add(state);
+				belowRootChildren.add(false);
+				postings.add(posting);
+			}
+			for (int state : rootChildStates) {
+				if (steps[state].hasFilters() || accepting[state]) {
+					return;
+				}
+				for (int nextState : next[state]) {
+					int[] posting = index.getCandidates(steps[nextState]);
+					if (posting == null) {
+						return;
+					}
+					seedList.add(nextState);
+					belowRootChildren.add(true);
+					postings.add(posting);
+				}
+			}
+			if (seedList.isEmpty()) {
+				return;
+			}
+
+			seeds = new int[seedList.size()];
+			seedsBelowRootChildren = new boolean[seeds.length];
+			for (int i = 0; i < seeds.length; i++) {
+				seeds[i] = seedList.get(i);
+				seedsBelowRootChildren[i] = belowRootChildren.get(i);
+			}
+			candidates = union(postings);
+			everywhere = NO_STATES;
+			atRootChildren = NO_STATES;
+		}
+
+		/**
+		 * @return the next matching node in document order, or null if there are no more matches
+		 */
+		TreeNode next() {
+			if (!started) {
+				started = true;
+				for (int state : startStates) {
+					push(state);
+				}
+				int childStates = liveSize;
+				boolean matched = visit(root, 0, 0, childStates, atRootChildren);
+				if (index != null) {
+					enter(0, childStates);
+				} else if (descend && !root.getChildren().isEmpty()) {
+					pushFrame(root, 0, childStates);
+				} else {
+					liveSize = childStates;
+				}
+				if (matched) {
+					return resultRoot;
+				}
+			}
+			return index != null ? nextInIndex() : nextInChildren();
+		}
+
+		private TreeNode nextInChildren() {
+			while (depth > 0) {
+				int top = depth - 1;
+				List<TreeNode> children = frameNodes[top].getChildren();
+				int childIndex = frameChildIndexes[top];
+				if (childIndex >= children.size()) {
+					popFrame();
+					continue;
+				}
+				frameChildIndexes[top] = childIndex + 1;
+				TreeNode node = children.get(childIndex);
+				int childStates = liveSize;
+				// The live states of this level are the topmost ones, the children pushed nothing yet
+				boolean matched = visit(node, -1, frameStates[top], childStates, NO_STATES);
+				if (descend && !node.getChildren().isEmpty()) {
+					pushFrame(node, 0, childStates);
+				} else {
+					liveSize = childStates;
+				}
+				if (matched) {
+					return root == resultRoot ? node : map(top);
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Map the child just visited below a frame back to the result root. The frames above it are
+		 * mapped once and kept until they are popped, so a walk maps every node at most once.
+		 *
+		 * @param top the frame of the parent of the child
+		 * @return the node callers see for the child
+		 */
+		private TreeNode map(int top) {
+			if (mappedFrames == null || mappedFrames.length < frameChildIndexes.length) {
+				mappedFrames = mappedFrames == null ? new TreeNode[frameChildIndexes.length]
+						: Arrays.copyOf(mappedFrames, frameChildIndexes.length);
+			}
+			if (mappedDepth == 0) {
+				mappedFrames[0] = resultRoot;
+				mappedDepth = 1;
+			}
+			for (; mappedDepth <= top; mappedDepth++) {
+				mappedFrames[mappedDepth] = mappedFrames[mappedDepth - 1].getChildren()
+						.get(frameChildIndexes[mappedDepth - 1] - 1);
+			}
+			return mappedFrames[top].getChildren().get(frameChildIndexes[top] - 1);
+		}
+
+		private TreeNode nextInIndex() {
+			while (depth > 0) {
+				int top = depth - 1;
+				if (candidates != null && frameStates[top] == liveSize) {
+					// Nothing is live at this level, jump to the next candidate, at most to the end of the level
+					position = Math.min(Math.max(position, nextCandidate(position)), frameChildIndexes[top]);
+				}
+				if (position >= frameChildIndexes[top]) {
+					popFrame();
+					continue;
+				}
+				int ordinal = position;
+				TreeNode node = index.getNode(ordinal);
+				int childStates = liveSize;
+				boolean matched = visit(node, ordinal, frameStates[top], childStates, NO_STATES);
+				enter(ordinal, childStates);
+				if (matched) {
+					return node;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Continue the scan of an index after a node was visited: with its subtree if there are live
+		 * states for its children or candidates in it, otherwise after its subtree.
+		 */
+		private void enter(int ordinal, int childStates) {
+			int end = ordinal + index.getSubtreeSize(ordinal);
+			if (descend && end > ordinal + 1) {
+				pushFrame(null, end, childStates);
+				position = ordinal + 1;
+				return;
+			}
+			liveSize = childStates;
+			if (candidates != null && nextCandidate(ordinal + 1) < end) {
+				// A level without live states, only its candidates are visited
+				pushFrame(null, end, childStates);
+				position = ordinal + 1;
+			} else {
+				// Skip the whole subtree
+				position = end;
+			}
+		}
+
+		/**
+		 * @return the first candidate at or after a pre-order number, or {@link Integer#MAX_VALUE}
+		 */
+		private int nextCandidate(int from) {
+			while (cursor < candidates.length && candidates[cursor] < from) {
+				cursor++;
+			}
+			return cursor < candidates.length ? candidates[cursor] : Integer.MAX_VALUE;
+		}
+
+		/**
+		 * Test a node against the live states of its level, the states live everywhere and the seeds.
+		 * The states which are live at its children are pushed and {@link #descend} tells whether there
+		 * are any; the caller drops them again if it does not descend.
+		 *
+		 * @param node the node to test
+		 * @param ordinal the pre-order number of the node when scanning an index
+		 * @param from the start of the live states of the node
+		 * @param to the end of the live states of the node
+		 * @param extraStates states which are live at the children in any case
+		 * @return true if the node is a match
+		 */
+		private boolean visit(TreeNode node, int ordinal, int from, int to, int[] extraStates) {
+			if (++visit == 0) {
+				// Visit numbers wrapped around, forget the old ones
+				Arrays.fill(added, 0);
+				visit = 1;
+			}
+
+			int childStates = liveSize;
+			boolean matched = false;
+			for (int i = from; i < to; i++) {
+				matched |= test(node, live[i]);
+			}
+			for (int state : everywhere) {
+				matched |= test(node, state);
+			}
+			if (candidates != null && nextCandidate(ordinal) == ordinal) {
+				for (int i = 0; i < seeds.length; i++) {
+					if (!seedsBelowRootChildren[i] || (node != root && node.getParent() != root)) {
+						matched |= test(node, seeds[i]);
+					}
+				}
+			}
+			for (int state : extraStates) {
+				push(state);
+			}
+
+			descend = liveSize > childStates || everywhere.length > 0;
+			return matched;
+		}
+
+		/**
+		 * Test a node against one state, pushing the states which follow for its children.
+		 *
+		 * @return true if the node is a match of the state
+		 */
+		private boolean test(TreeNode node, int state) {
+			SelectorStep step = steps[state];
+			if (step.getKind() == SelectorStep.Kind.PLACEHOLDER) {
+				// The placeholder stays live for all descendants
+				push(state);
+			}
+			if (!step.matchesName(node) || !step.matchesFilters(node)) {
+				return false;
+			}
+			for (int nextState : next[state]) {
+				push(nextState);
+			}
+			return accepting[state];
+		}
+
+		private void push(int state) {
+			if (added[state] == visit) {
+				return;
+			}
+			added[state] = visit;
+			if (liveSize == live.length) {
+				live = Arrays.copyOf(live, liveSize * 2);
+			}
+			live[liveSize++] = state;
+		}
+
+		private void pushFrame(TreeNode node, int childIndex, int states) {
+			if (depth == frameStates.length) {
+				if (frameNodes != null) {
+					frameNodes = Arrays.copyOf(frameNodes, depth * 2);
+				}
+				frameChildIndexes = Arrays.copyOf(frameChildIndexes, depth * 2);
+				frameStates = Arrays.copyOf(frameStates, depth * 2);
+			}
+			if (frameNodes != null) {
+				frameNodes[depth] = node;
+			}
+			mappedDepth = Math.min(mappedDepth, depth);
+			frameChildIndexes[depth] = childIndex;
+			frameStates[depth] = states;
+			depth++;
+		}
+
+		/**
+		 * Done with a level, drop its live states.
+		 */
+		private void popFrame() {
+			depth--;
+			mappedDepth = Math.min(mappedDepth, depth);
+			liveSize = frameStates[depth];
+			if (frameNodes != null) {
+				frameNodes[depth] = null;
+			}
+		}
+	}
+
+	/**
+	 * Merge ascending arrays of pre-order numbers into one ascending array without duplicates.
+	 */
+	private static int[] union(List<int[]> postings) {
+		if (postings.size() == 1) {
+			return postings.get(0);
+		}
+		int size = 0;
+		for (int[] posting : postings) {
+			size += posting.length;
+		}
+		int[] merged = new int[size];
+		int offset = 0;
+		for (int[] posting : postings) {
+			System.arraycopy(posting, 0, merged, offset, posting.length);
+			offset += posting.length;
+		}
+		Arrays.sort(merged);
+
+		int unique = 0;
+		for (int i = 0; i < merged.length; i++) {
+			if (i == 0 || merged[i] != merged[i - 1]) {
+				merged[unique++] = merged[i];
+			}
+		}
+		return Arrays.copyOf(merged, unique);
+	}
+
+	/**
+	 * A node of the prefix trie used while building the automaton.
+	 */
+	private static final class TrieNode {
+
+		private final SelectorStep step;
+		private final List<TrieNode> children = new ArrayList<>();
+		private boolean accepting;
+		private int[] childIds;
+
+		private TrieNode(SelectorStep step) {
+			this.step = step;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,146 @@
+package com.example.tree;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, thread-safe cache of compiled selectors keyed by expression string.
+ * Invalid expressions are cached as well, so they are only parsed (and reported) once.
+ * Expressions relative to a context node are cached separately from the same text used as an
+ * absolute expression.
+ * When the cache is full, the least recently used entry is evicted.
+ */
+public final class SelectorCache {
+
+	/** Default number of distinct expressions kept by a cache. */
+	public static final int DEFAULT_MAXIMUM_SIZE = 1024;
+
+	private final int maximumSize;
+	private final Map<Object, Entry> entries = new ConcurrentHashMap<>();
+	private final AtomicLong clock = new AtomicLong();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	public SelectorCache() {
+		this(DEFAULT_MAXIMUM_SIZE);
+	}
+
+	/**
+	 * @param maximumSize the maximum number of expressions kept, must be positive
+	 */
+	public SelectorCache(int maximumSize) {
+		if (maximumSize <= 0) {
+			throw new IllegalArgumentException("Maximum size must be positive: " + maximumSize);
+		}
+		this.maximumSize = maximumSize;
+	}
+
+	/**
+	 * Get the compiled selector for an expression, compiling it on a cache miss.
+	 * Concurrent lookups of the same missing expression compile it only once.
+	 *
+	 * @param selectorExpression the selector expression
+	 * @return the compiled selector, which may be invalid
+	 * @throws NullPointerException if selectorExpression is null
+	 */
+	public CompiledSelector get(String selectorExpression) {
+		if (selectorExpression == null) {
+			throw new NullPointerException("Selector expression cannot be null");
+		}
+		return get(selectorExpression, selectorExpression, false);
+	}
+
+	/**
+	 * Get the compiled selector for an expression relative to a context node, see
+	 * {@link SelectorCompiler#compileRelative(String)}.
+	 *
+	 * @param selectorExpression the relative selector expression
+	 * @return the compiled selector, which may be invalid
+	 * @throws NullPointerException if selectorExpression is null
+	 */
+	CompiledSelector getRelative(String selectorExpression) {
+		if (selectorExpression == null) {
+			throw new NullPointerException("Selector expression cannot be null");
+		}
+		return get(new RelativeKey(selectorExpression), selectorExpression, true);
+	}
+
+	private CompiledSelector get(Object key, String selectorExpression, boolean relative) {
+		Entry entry = entries.get(key);
+		if (entry != null) {
+			hits.increment();
+		} else {
+			misses.increment();
+			entry = entries.computeIfAbsent(key, missing -> new Entry(relative
+					? SelectorCompiler.compileRelative(selectorExpression)
+					: SelectorCompiler.compile(selectorExpression), clock.incrementAndGet()));
+			if (entries.size() > maximumSize) {
+				evict();
+			}
+		}
+		entry.lastAccess = clock.incrementAndGet();
+		return entry.selector;
+	}
+
+	/**
+	 * Remove least recently used entries until the cache is within its maximum size.
+	 * Only runs on a cache miss, so the linear scan is not part of the hot path.
+	 */
+	private synchronized void evict() {
+		while (entries.size() > maximumSize) {
+			Object eldestKey = null;
+			long eldestAccess = Long.MAX_VALUE;
+			for (Map.Entry<Object, Entry> candidate : entries.entrySet()) {
+				if (candidate.getValue().lastAccess < eldestAccess) {
+					eldestAccess = candidate.getValue().lastAccess;
+					eldestKey = candidate.getKey();
+				}
+			}
+			if (eldestKey == null) {
+				return;
+			}
+			entries.remove(eldestKey);
+		}
+	}
+
+	/**
+	 * Remove all entries. The hit and miss counters are kept.
+	 */
+	public void clear() {
+		entries.clear();
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * The key of a relative expression, distinct from the expression itself.
+	 */
+	private record RelativeKey(String expression) {
+	}
+
+	private static final class Entry {
+		private final CompiledSelector selector;
+		private volatile long lastAccess;
+
+		private Entry(CompiledSelector selector, long lastAccess) {
+			this.selector = selector;
+			this.lastAccess = lastAccess;
+		}
+	}
+}
\ No newline at end of file
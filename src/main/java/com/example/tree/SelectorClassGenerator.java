@@ -0,0 +1,416 @@
+package com.example.tree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates a hidden class implementing {@link SelectorProgram} for the {@link SelectorAutomaton} of a
+ * compiled selector.
+ * <p>
+ * The program walks the tree once in pre-order with an explicit stack, like the automaton, so it
+ * handles trees of any depth and emits its matches in document order without duplicates. Every state
+ * of the automaton becomes a node test in its own static method comparing against string constants,
+ * and the states live below a node are folded into constant bit masks. Wildcard attribute values and
+ * wildcard names are dropped at generation time, so the generated code only contains the checks that
+ * can actually fail. Predicates which are not a plain comparison, like version ranges and patterns, are
+ * kept as objects in a static array of the class and called from the node tests.
+ */
+final class SelectorClassGenerator {
+
+	private static final String TREE_NODE = "com/example/tree/TreeNode";
+	private static final String TREE_NODE_DESC = "L" + TREE_NODE + ";";
+	private static final String LIST = "java/util/List";
+	private static final String STRING = "java/lang/String";
+	private static final String ARRAYS = "java/util/Arrays";
+	private static final String EVALUATE_DESC = "(" + TREE_NODE_DESC + "L" + LIST + ";)V";
+	private static final String MATCH_DESC = "(" + TREE_NODE_DESC + ")Z";
+	private static final String GETTER_DESC = "()Ljava/lang/String;";
+	private static final String ATTRIBUTE_PREDICATE = "com/example/tree/AttributePredicate";
+	private static final String PREDICATES = "predicates";
+	private static final String PREDICATES_DESC = "[L" + ATTRIBUTE_PREDICATE + ";";
+
+	/** The live states of a node are the bits of a long */
+	static final int MAX_STATES = Long.SIZE;
+	private static final int INITIAL_STACK_SIZE = 64;
+
+	// Local variable slots of the evaluate method, the masks take two slots each
+	private static final int ROOT = 1;
+	private static final int OUT = 2;
+	private static final int NODES = 3;
+	private static final int MASKS = 4;
+	private static final int SIZE = 5;
+	private static final int NODE = 6;
+	private static final int MASK = 7;
+	private static final int CHILD_MASK = 9;
+	private static final int EXTRA_MASK = 11;
+	private static final int MATCHED = 13;
+	private static final int CHILDREN = 14;
+	private static final int INDEX = 15;
+
+	private final ClassFileBuilder classFile;
+	/** The predicates called from the generated code, by their index in the static array */
+	private final List<AttributePredicate> predicates = new ArrayList<>();
+	private int childFilterCount;
+
+	private SelectorClassGenerator() {
+		classFile = new ClassFileBuilder("com/example/tree/GeneratedSelectorProgram", "java/lang/Object",
+				"com/example/tree/SelectorProgram");
+	}
+
+	/**
+	 * @return true if a program can be generated for the automaton, i.e. it has at most {@link #MAX_STATES} states
+	 */
+	static boolean canGenerate(SelectorAutomaton automaton) {
+		return automaton.getStateCount() <= MAX_STATES;
+	}
+
+	/**
+	 * Generate and load the program for a compiled selector. The program evaluates the branches of
+	 * the automaton, the residual paths are left to the {@link SelectorInterpreter}.
+	 *
+	 * @param selector the compiled selector, must be valid and its automaton supported by {@link #canGenerate}
+	 * @return a new instance of the generated hidden class
+	 */
+	static SelectorProgram generate(CompiledSelector selector) {
+		SelectorClassGenerator generator = new SelectorClassGenerator();
+		byte[] bytes = generator.emit(selector.getAutomaton());
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+			if (!generator.predicates.isEmpty()) {
+				lookup.findStaticVarHandle(lookup.lookupClass(), PREDICATES, AttributePredicate[].class)
+						.set(generator.predicates.toArray(new AttributePredicate[0]));
+			}
+			return (SelectorProgram) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class))
+					.invoke();
+		} catch (Throwable e) {
+			throw new IllegalStateException("Could not generate program for selector " + selector, e);
+		}
+	}
+
+	private byte[] emit(SelectorAutomaton automaton) {
+		ClassFileBuilder.MethodBuilder init = classFile.method(ClassFileBuilder.ACC_PUBLIC, "<init>", "()V", 1, 1);
+		init.var(ClassFileBuilder.ALOAD, 0);
+		init.invoke(ClassFileBuilder.INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+		init.op(ClassFileBuilder.RETURN);
+
+		boolean[] trivial = new boolean[automaton.getStateCount()];
+		for (int state = 0; state < trivial.length; state++) {
+			trivial[state] = emitMatch("m" + state, automaton.getStep(state));
+		}
+		emitEvaluate(automaton, trivial);
+
+		if (!predicates.isEmpty()) {
+			classFile.field(ClassFileBuilder.ACC_PRIVATE | ClassFileBuilder.ACC_STATIC, PREDICATES, PREDICATES_DESC);
+		}
+		return classFile.toByteArray();
+	}
+
+	/**
+	 * Emit the walk over the tree. The live states of a node are a bit mask, so testing a node is a
+	 * sequence of bit tests followed by the node tests of the live states, with the states of the
+	 * children folded into constant masks. The nodes still to visit are kept with their masks in two
+	 * arrays used as a stack; the children of a node are pushed in reverse order, so popping yields the
+	 * nodes in pre-order.
+	 */
+	private void emitEvaluate(SelectorAutomaton automaton, boolean[] trivial) {
+		ClassFileBuilder.MethodBuilder m = classFile.method(ClassFileBuilder.ACC_PUBLIC, "evaluate", EVALUATE_DESC, 6,
+				16);
+		ClassFileBuilder.Label loop = new ClassFileBuilder.Label();
+		ClassFileBuilder.Label end = new ClassFileBuilder.Label();
+		long deepMask = mask(automaton.getDeepStates());
+
+		// The root with its live states is the first node on the stack
+		m.push(INITIAL_STACK_SIZE);
+		m.type(ClassFileBuilder.ANEWARRAY, TREE_NODE);
+		m.var(ClassFileBuilder.ASTORE, NODES);
+		m.push(INITIAL_STACK_SIZE);
+		m.newArray(ClassFileBuilder.T_LONG);
+		m.var(ClassFileBuilder.ASTORE, MASKS);
+		m.var(ClassFileBuilder.ALOAD, NODES);
+		m.op(ClassFileBuilder.ICONST_0);
+		m.var(ClassFileBuilder.ALOAD, ROOT);
+		m.op(ClassFileBuilder.AASTORE);
+		m.var(ClassFileBuilder.ALOAD, MASKS);
+		m.op(ClassFileBuilder.ICONST_0);
+		m.ldc(mask(automaton.getRootStates()) | deepMask);
+		m.op(ClassFileBuilder.LASTORE);
+		m.op(ClassFileBuilder.ICONST_1);
+		m.var(ClassFileBuilder.ISTORE, SIZE);
+		m.ldc(mask(automaton.getRootChildStates()) | deepMask);
+		m.var(ClassFileBuilder.LSTORE, EXTRA_MASK);
+
+		// Pop the next node
+		m.mark(loop);
+		m.var(ClassFileBuilder.ILOAD, SIZE);
+		m.jump(ClassFileBuilder.IFEQ, end);
+		m.iinc(SIZE, -1);
+		m.var(ClassFileBuilder.ALOAD, NODES);
+		m.var(ClassFileBuilder.ILOAD, SIZE);
+		m.op(ClassFileBuilder.AALOAD);
+		m.var(ClassFileBuilder.ASTORE, NODE);
+		m.var(ClassFileBuilder.ALOAD, MASKS);
+		m.var(ClassFileBuilder.ILOAD, SIZE);
+		m.op(ClassFileBuilder.LALOAD);
+		m.var(ClassFileBuilder.LSTORE, MASK);
+		m.var(ClassFileBuilder.LLOAD, EXTRA_MASK);
+		m.var(ClassFileBuilder.LSTORE, CHILD_MASK);
+		m.ldc(deepMask);
+		m.var(ClassFileBuilder.LSTORE, EXTRA_MASK);
+		m.op(ClassFileBuilder.ICONST_0);
+		m.var(ClassFileBuilder.ISTORE, MATCHED);
+
+		// Test the node against each live state
+		for (int state = 0; state < trivial.length; state++) {
+			ClassFileBuilder.Label skip = new ClassFileBuilder.Label();
+			m.var(ClassFileBuilder.LLOAD, MASK);
+			m.ldc(1L << state);
+			m.op(ClassFileBuilder.LAND);
+			m.op(ClassFileBuilder.LCONST_0);
+			m.op(ClassFileBuilder.LCMP);
+			m.jump(ClassFileBuilder.IFEQ, skip);
+			if (automaton.getStep(state).getKind() == SelectorStep.Kind.PLACEHOLDER) {
+				// Stays live below the node whether it matches or not
+				emitOr(m, 1L << state);
+			}
+			if (!trivial[state]) {
+				m.var(ClassFileBuilder.ALOAD, NODE);
+				m.invoke(ClassFileBuilder.INVOKESTATIC, classFile.getThisClass(), "m" + state, MATCH_DESC);
+				m.jump(ClassFileBuilder.IFEQ, skip);
+			}
+			long nextMask = mask(automaton.getNextStates(state));
+			if (nextMask != 0) {
+				emitOr(m, nextMask);
+			}
+			if (automaton.isAccepting(state)) {
+				m.op(ClassFileBuilder.ICONST_1);
+				m.var(ClassFileBuilder.ISTORE, MATCHED);
+			}
+			m.mark(skip);
+		}
+
+		ClassFileBuilder.Label notMatched = new ClassFileBuilder.Label();
+		m.var(ClassFileBuilder.ILOAD, MATCHED);
+		m.jump(ClassFileBuilder.IFEQ, notMatched);
+		m.var(ClassFileBuilder.ALOAD, OUT);
+		m.var(ClassFileBuilder.ALOAD, NODE);
+		m.invoke(ClassFileBuilder.INVOKEINTERFACE, LIST, "add", "(Ljava/lang/Object;)Z");
+		m.op(ClassFileBuilder.POP);
+		m.mark(notMatched);
+
+		// Skip the subtree if no state is live below the node
+		m.var(ClassFileBuilder.LLOAD, CHILD_MASK);
+		m.op(ClassFileBuilder.LCONST_0);
+		m.op(ClassFileBuilder.LCMP);
+		m.jump(ClassFileBuilder.IFEQ, loop);
+		m.var(ClassFileBuilder.ALOAD, NODE);
+		m.invoke(ClassFileBuilder.INVOKEVIRTUAL, TREE_NODE, "getChildren", "()L" + LIST + ";");
+		m.var(ClassFileBuilder.ASTORE, CHILDREN);
+		m.var(ClassFileBuilder.ALOAD, CHILDREN);
+		m.invoke(ClassFileBuilder.INVOKEINTERFACE, LIST, "size", "()I");
+		m.var(ClassFileBuilder.ISTORE, INDEX);
+
+		// Grow the stack to size + children * 2 if the children do not fit
+		ClassFileBuilder.Label fits = new ClassFileBuilder.Label();
+		m.var(ClassFileBuilder.ILOAD, INDEX);
+		m.var(ClassFileBuilder.ALOAD, NODES);
+		m.op(ClassFileBuilder.ARRAYLENGTH);
+		m.var(ClassFileBuilder.ILOAD, SIZE);
+		m.op(ClassFileBuilder.ISUB);
+		m.jump(ClassFileBuilder.IF_ICMPLE, fits);
+		m.var(ClassFileBuilder.ALOAD, NODES);
+		emitGrownLength(m);
+		m.invoke(ClassFileBuilder.INVOKESTATIC, ARRAYS, "copyOf", "([Ljava/lang/Object;I)[Ljava/lang/Object;");
+		m.type(ClassFileBuilder.CHECKCAST, "[" + TREE_NODE_DESC);
+		m.var(ClassFileBuilder.ASTORE, NODES);
+		m.var(ClassFileBuilder.ALOAD, MASKS);
+		emitGrownLength(m);
+		m.invoke(ClassFileBuilder.INVOKESTATIC, ARRAYS, "copyOf", "([JI)[J");
+		m.var(ClassFileBuilder.ASTORE, MASKS);
+		m.mark(fits);
+
+		// Push the children, the last one first
+		ClassFileBuilder.Label push = new ClassFileBuilder.Label();
+		m.mark(push);
+		m.iinc(INDEX, -1);
+		m.var(ClassFileBuilder.ILOAD, INDEX);
+		m.jump(ClassFileBuilder.IFLT, loop);
+		m.var(ClassFileBuilder.ALOAD, NODES);
+		m.var(ClassFileBuilder.ILOAD, SIZE);
+		m.var(ClassFileBuilder.ALOAD, CHILDREN);
+		m.var(ClassFileBuilder.ILOAD, INDEX);
+		m.invoke(ClassFileBuilder.INVOKEINTERFACE, LIST, "get", "(I)Ljava/lang/Object;");
+		m.type(ClassFileBuilder.CHECKCAST, TREE_NODE);
+		m.op(ClassFileBuilder.AASTORE);
+		m.var(ClassFileBuilder.ALOAD, MASKS);
+		m.var(ClassFileBuilder.ILOAD, SIZE);
+		m.var(ClassFileBuilder.LLOAD, CHILD_MASK);
+		m.op(ClassFileBuilder.LASTORE);
+		m.iinc(SIZE, 1);
+		m.jump(ClassFileBuilder.GOTO, push);
+
+		m.mark(end);
+		m.op(ClassFileBuilder.RETURN);
+	}
+
+	/**
+	 * Emit {@code (size + children) * 2}, the new length of a full stack.
+	 */
+	private static void emitGrownLength(ClassFileBuilder.MethodBuilder m) {
+		m.var(ClassFileBuilder.ILOAD, SIZE);
+		m.var(ClassFileBuilder.ILOAD, INDEX);
+		m.op(ClassFileBuilder.IADD);
+		m.op(ClassFileBuilder.ICONST_1);
+		m.op(ClassFileBuilder.ISHL);
+	}
+
+	/**
+	 * Emit adding states to the mask of the children.
+	 */
+	private static void emitOr(ClassFileBuilder.MethodBuilder m, long states) {
+		m.var(ClassFileBuilder.LLOAD, CHILD_MASK);
+		m.ldc(states);
+		m.op(ClassFileBuilder.LOR);
+		m.var(ClassFileBuilder.LSTORE, CHILD_MASK);
+	}
+
+	private static long mask(int[] states) {
+		long mask = 0;
+		for (int state : states) {
+			mask |= 1L << state;
+		}
+		return mask;
+	}
+
+	/**
+	 * Emit the node test of a step: name comparison and attribute predicates folded into constants,
+	 * followed by the child filters.
+	 *
+	 * @param name the name of the generated method
+	 * @return true if the test always succeeds and calls to it can be left out
+	 */
+	private boolean emitMatch(String name, SelectorStep step) {
+		if (step.getKind() != SelectorStep.Kind.NAME && !step.hasFilters()) {
+			return true;
+		}
+
+		ClassFileBuilder.MethodBuilder m = classFile.method(ClassFileBuilder.ACC_PRIVATE | ClassFileBuilder.ACC_STATIC,
+				name, MATCH_DESC, 3, 1);
+		ClassFileBuilder.Label fail = new ClassFileBuilder.Label();
+
+		if (step.getKind() == SelectorStep.Kind.NAME) {
+			m.ldc(step.getName());
+			m.var(ClassFileBuilder.ALOAD, 0);
+			m.invoke(ClassFileBuilder.INVOKEVIRTUAL, TREE_NODE, "getName", GETTER_DESC);
+			m.invoke(ClassFileBuilder.INVOKEVIRTUAL, STRING, "equals", "(Ljava/lang/Object;)Z");
+			m.jump(ClassFileBuilder.IFEQ, fail);
+		}
+
+		for (AttributePredicate predicate : step.getPredicates()) {
+			if (predicate.isWildcard()) {
+				continue;
+			}
+			if (!predicate.isExact()) {
+				m.field(ClassFileBuilder.GETSTATIC, classFile.getThisClass(), PREDICATES, PREDICATES_DESC);
+				m.push(predicates.size());
+				m.op(ClassFileBuilder.AALOAD);
+				m.var(ClassFileBuilder.ALOAD, 0);
+				m.invoke(ClassFileBuilder.INVOKEVIRTUAL, ATTRIBUTE_PREDICATE, "matches", MATCH_DESC);
+				m.jump(ClassFileBuilder.IFEQ, fail);
+				predicates.add(predicate);
+				continue;
+			}
+			String getter = switch (predicate.getName()) {
+				case "type" -> "getType";
+				case "variant" -> "getVariant";
+				case "version" -> "getVersion";
+				default -> null;
+			};
+			ClassFileBuilder.Label matched = new ClassFileBuilder.Label();
+			if (getter != null) {
+				// Built-in property first, the attribute map only if that does not match
+				m.ldc(predicate.getValue());
+				m.var(ClassFileBuilder.ALOAD, 0);
+				m.invoke(ClassFileBuilder.INVOKEVIRTUAL, TREE_NODE, getter, GETTER_DESC);
+				m.invoke(ClassFileBuilder.INVOKEVIRTUAL, STRING, "equals", "(Ljava/lang/Object;)Z");
+				m.jump(ClassFileBuilder.IFNE, matched);
+			}
+			m.ldc(predicate.getValue());
+			m.var(ClassFileBuilder.ALOAD, 0);
+			m.ldc(predicate.getName());
+			m.invoke(ClassFileBuilder.INVOKEVIRTUAL, TREE_NODE, "getAttribute", "(Ljava/lang/String;)Ljava/lang/String;");
+			m.invoke(ClassFileBuilder.INVOKEVIRTUAL, STRING, "equals", "(Ljava/lang/Object;)Z");
+			m.jump(ClassFileBuilder.IFEQ, fail);
+			m.mark(matched);
+		}
+
+		for (SelectorStep childFilter : step.getChildFilters()) {
+			m.var(ClassFileBuilder.ALOAD, 0);
+			m.invoke(ClassFileBuilder.INVOKESTATIC, classFile.getThisClass(), emitAnyChild(childFilter), MATCH_DESC);
+			m.jump(ClassFileBuilder.IFEQ, fail);
+		}
+
+		m.op(ClassFileBuilder.ICONST_1);
+		m.op(ClassFileBuilder.IRETURN);
+		m.mark(fail);
+		m.op(ClassFileBuilder.ICONST_0);
+		m.op(ClassFileBuilder.IRETURN);
+		return false;
+	}
+
+	/**
+	 * Emit a method checking whether any child of a node matches a child filter.
+	 *
+	 * @return the name of the generated method
+	 */
+	private String emitAnyChild(SelectorStep childFilter) {
+		int id = childFilterCount++;
+		String match = "c" + id + "m";
+		String name = "c" + id;
+		boolean trivial = emitMatch(match, childFilter);
+
+		ClassFileBuilder.MethodBuilder m = classFile.method(ClassFileBuilder.ACC_PRIVATE | ClassFileBuilder.ACC_STATIC,
+				name, MATCH_DESC, 2, 4);
+		ClassFileBuilder.Label condition = new ClassFileBuilder.Label();
+		ClassFileBuilder.Label increment = new ClassFileBuilder.Label();
+		ClassFileBuilder.Label done = new ClassFileBuilder.Label();
+
+		// Locals: 0 node, 1 children, 2 size, 3 index
+		m.var(ClassFileBuilder.ALOAD, 0);
+		m.invoke(ClassFileBuilder.INVOKEVIRTUAL, TREE_NODE, "getChildren", "()L" + LIST + ";");
+		m.var(ClassFileBuilder.ASTORE, 1);
+		m.var(ClassFileBuilder.ALOAD, 1);
+		m.invoke(ClassFileBuilder.INVOKEINTERFACE, LIST, "size", "()I");
+		m.var(ClassFileBuilder.ISTORE, 2);
+		if (trivial) {
+			// Any child matches
+			m.var(ClassFileBuilder.ILOAD, 2);
+			m.jump(ClassFileBuilder.IFEQ, done);
+			m.op(ClassFileBuilder.ICONST_1);
+			m.op(ClassFileBuilder.IRETURN);
+		} else {
+			m.op(ClassFileBuilder.ICONST_0);
+			m.var(ClassFileBuilder.ISTORE, 3);
+			m.mark(condition);
+			m.var(ClassFileBuilder.ILOAD, 3);
+			m.var(ClassFileBuilder.ILOAD, 2);
+			m.jump(ClassFileBuilder.IF_ICMPGE, done);
+			m.var(ClassFileBuilder.ALOAD, 1);
+			m.var(ClassFileBuilder.ILOAD, 3);
+			m.invoke(ClassFileBuilder.INVOKEINTERFACE, LIST, "get", "(I)Ljava/lang/Object;");
+			m.type(ClassFileBuilder.CHECKCAST, TREE_NODE);
+			m.invoke(ClassFileBuilder.INVOKESTATIC, classFile.getThisClass(), match, MATCH_DESC);
+			m.jump(ClassFileBuilder.IFEQ, increment);
+			m.op(ClassFileBuilder.ICONST_1);
+			m.op(ClassFileBuilder.IRETURN);
+			m.mark(increment);
+			m.iinc(3, 1);
+			m.jump(ClassFileBuilder.GOTO, condition);
+		}
+		m.mark(done);
+		m.op(ClassFileBuilder.ICONST_0);
+		m.op(ClassFileBuilder.IRETURN);
+		return name;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,341 @@
+package com.example.tree;
+
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Turns selector expressions into immutable {@link CompiledSelector} plans.
+ * Expressions are parsed by the {@link FastSelectorParser}; the ANTLR generated parser is
+ * only used to produce the error message for invalid expressions.
+ */
+final class SelectorCompiler {
+
+	/** The current level step starting the branches of relative expressions */
+	private static final String ANCHOR = "/./";
+	/** The position at the start of syntax error messages, see {@link ThrowingErrorListener} */
+	private static final Pattern ERROR_POSITION = Pattern.compile("line (\\d+):(\\d+)");
+
+	private SelectorCompiler() {
+	}
+
+	/**
+	 * Compile a selector expression into an optimized plan. Invalid expressions do not throw
+	 * but produce an invalid plan carrying the error message.
+	 *
+	 * @param selectorExpression the selector expression, must not be null
+	 * @return the compiled selector
+	 */
+	static CompiledSelector compile(String selectorExpression) {
+		// Check for empty string
+		if (selectorExpression.isEmpty()) {
+			return CompiledSelector.invalid(selectorExpression, "Selector expression is empty");
+		}
+
+		// Check if selector starts with valid syntax (/ or **)
+		if (!(selectorExpression.startsWith("/") || selectorExpression.startsWith("**"))) {
+			return CompiledSelector.invalid(selectorExpression, "Selector expression must start with / or **");
+		}
+
+		List<SelectorPath> paths = FastSelectorParser.parse(selectorExpression);
+		if (paths != null) {
+			return CompiledSelector.valid(selectorExpression, SelectorOptimizer.optimize(paths));
+		}
+
+		// The expression is invalid, let the ANTLR parser produce the error message
+		// The error message is kept on the invalid plan, see CompiledSelector#getErrorMessage()
+		CompiledSelector compiled = compileWithAntlr(selectorExpression);
+		if (!compiled.isValid()) {
+			return compiled;
+		}
+		return CompiledSelector.valid(selectorExpression, SelectorOptimizer.optimize(compiled.getPaths()));
+	}
+
+	/**
+	 * Compile an expression relative to a context node. Every branch which does not start with
+	 * {@code /} or {@code **} is compiled as if it started with a current level step, so {@code Child}
+	 * is compiled like {@code /./Child}. The compiled selector keeps the expression as given, and the
+	 * positions in its error message refer to it rather than to the anchored text.
+	 *
+	 * @param selectorExpression the relative selector expression, must not be null
+	 * @return the compiled selector
+	 */
+	static CompiledSelector compileRelative(String selectorExpression) {
+		if (selectorExpression.isEmpty()) {
+			return CompiledSelector.invalid(selectorExpression, "Selector expression is empty");
+		}
+		List<Integer> anchors = new ArrayList<>();
+		String anchored = anchor(selectorExpression, anchors);
+		CompiledSelector compiled = compile(anchored);
+		if (compiled.isValid()) {
+			return CompiledSelector.valid(selectorExpression, compiled.getPaths());
+		}
+		return CompiledSelector.invalid(selectorExpression,
+				unanchor(compiled.getErrorMessage(), selectorExpression, anchored, anchors));
+	}
+
+	/**
+	 * Turn a relative expression into one starting at the root, by prefixing every branch which
+	 * does not start with {@code /} or {@code **} with a current level step. Pipes inside quoted
+	 * attribute names and values do not separate branches.
+	 *
+	 * @param anchors receives the offsets in the expression before which a step was inserted
+	 */
+	private static String anchor(String selectorExpression, List<Integer> anchors) {
+		StringBuilder anchored = new StringBuilder(selectorExpression.length() + 8);
+		boolean branchStart = true;
+		boolean quoted = false;
+		for (int i = 0; i < selectorExpression.length(); i++) {
+			char c = selectorExpression.charAt(i);
+			if (branchStart && !Character.isWhitespace(c)) {
+				if (c != '/' && !selectorExpression.startsWith("**", i)) {
+					anchors.add(i);
+					anchored.append(ANCHOR);
+				}
+				branchStart = false;
+			}
+			anchored.append(c);
+			if (quoted && c == '\\' && i + 1 < selectorExpression.length()) {
+				anchored.append(selectorExpression.charAt(++i));
+			} else if (c == '\'') {
+				quoted = !quoted;
+			} else if (c == '|' && !quoted) {
+				branchStart = true;
+			}
+		}
+		return anchored.toString();
+	}
+
+	/**
+	 * Map the position of a syntax error in an anchored expression back to the relative expression.
+	 * A position inside an inserted step refers to the first character of its branch.
+	 */
+	private static String unanchor(String errorMessage, String selectorExpression, String anchored,
+								   List<Integer> anchors) {
+		Matcher matcher = ERROR_POSITION.matcher(errorMessage);
+		if (!matcher.lookingAt()) {
+			return errorMessage;
+		}
+		int line = Integer.parseInt(matcher.group(1));
+		int offset = 0;
+		for (int i = 1; i < line; i++) {
+			offset = anchored.indexOf('\n', offset) + 1;
+		}
+		offset += Integer.parseInt(matcher.group(2));
+
+		for (int i = anchors.size() - 1; i >= 0; i--) {
+			if (offset >= anchors.get(i) + i * ANCHOR.length()) {
+				offset = Math.max(offset - (i + 1) * ANCHOR.length(), anchors.get(i));
+				break;
+			}
+		}
+		int lineStart = selectorExpression.lastIndexOf('\n', offset - 1) + 1;
+		return "line " + line + ":" + (offset - lineStart) + errorMessage.substring(matcher.end());
+	}
+
+	/**
+	 * Compile a selector expression with the ANTLR generated parser, without optimizing the plan.
+	 * The expression is first parsed with the faster SLL prediction mode, bailing out on the first
+	 * error. Only if that fails, it is parsed again in full LL mode, which also produces the error
+	 * message for expressions that are really invalid.
+	 *
+	 * @param selectorExpression the selector expression, must not be null
+	 * @return the compiled selector
+	 */
+	static CompiledSelector compileWithAntlr(String selectorExpression) {
+		TreeSelectorParser.MultiSelectorContext multiSelectorContext;
+		try {
+			TreeSelectorParser parser = createParser(selectorExpression);
+			parser.setErrorHandler(new BailErrorStrategy());
+			parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+			multiSelectorContext = parser.multiSelector();
+		} catch (ParseCancellationException e) {
+			try {
+				TreeSelectorParser parser = createParser(selectorExpression);
+				parser.addErrorListener(ThrowingErrorListener.INSTANCE);
+				parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+				multiSelectorContext = parser.multiSelector();
+			} catch (ParseCancellationException llException) {
+				return CompiledSelector.invalid(selectorExpression, llException.getMessage());
+			}
+		}
+
+		// Collect the plan from the parse tree
+		PlanBuilder builder = new PlanBuilder();
+		try {
+			ParseTreeWalker.DEFAULT.walk(builder, multiSelectorContext);
+		} catch (IllegalArgumentException e) {
+			// A valid expression with an invalid regular expression
+			return CompiledSelector.invalid(selectorExpression, e.getMessage());
+		}
+		return CompiledSelector.valid(selectorExpression, builder.paths);
+	}
+
+	/**
+	 * Create a parser for an expression. The lexer aborts on the first error, the parser has no
+	 * error listeners, so it neither recovers nor prints to the console unless configured otherwise.
+	 */
+	private static TreeSelectorParser createParser(String selectorExpression) {
+		TreeSelectorLexer lexer = new TreeSelectorLexer(CharStreams.fromString(selectorExpression));
+		lexer.removeErrorListeners();
+		lexer.addErrorListener(ThrowingErrorListener.INSTANCE);
+		TreeSelectorParser parser = new TreeSelectorParser(new CommonTokenStream(lexer));
+		parser.removeErrorListeners();
+		return parser;
+	}
+
+	/**
+	 * Run an expression through both parsers, so that class initialization, ATN deserialization
+	 * and the DFA caches of the ANTLR lexer and parser are not paid for by the first live requests.
+	 *
+	 * @param selectorExpression the selector expression, must not be null
+	 */
+	static void warmUp(String selectorExpression) {
+		FastSelectorParser.parse(selectorExpression);
+		compileWithAntlr(selectorExpression);
+	}
+
+	/**
+	 * Clean an attribute value by removing surrounding quotes if present.
+	 *
+	 * @param value The raw attribute value from the parser
+	 * @return The cleaned attribute value
+	 */
+	static String cleanAttributeValue(String value) {
+		if (value.length() >= 2 && value.startsWith("'") && value.endsWith("'")) {
+			return value.substring(1, value.length() - 1);
+		}
+		return value;
+	}
+
+	/**
+	 * Listener collecting one {@link SelectorPath} per selector expression of a multiSelector.
+	 */
+	private static final class PlanBuilder extends TreeSelectorBaseListener {
+
+		private final List<SelectorPath> paths = new ArrayList<>();
+		private List<SelectorStep> currentSteps;
+		private boolean currentDeep;
+
+		@Override
+		public void enterSelector(TreeSelectorParser.SelectorContext ctx) {
+			currentDeep = false;
+			currentSteps = new ArrayList<>();
+			currentSteps.add(createStep(ctx.nodeName(), ctx.wildcard() != null, ctx.placeholder() != null,
+					ctx.currentNode() != null, ctx.parentNode() != null, ctx.attributeSelector()));
+		}
+
+		@Override
+		public void exitSelector(TreeSelectorParser.SelectorContext ctx) {
+			paths.add(new SelectorPath(currentDeep, currentSteps));
+		}
+
+		@Override
+		public void enterDeepSelector(TreeSelectorParser.DeepSelectorContext ctx) {
+			currentDeep = true;
+			currentSteps = new ArrayList<>();
+			currentSteps.add(createStep(ctx.nodeName(), ctx.wildcard() != null, false, false, false,
+					ctx.attributeSelector()));
+		}
+
+		@Override
+		public void exitDeepSelector(TreeSelectorParser.DeepSelectorContext ctx) {
+			paths.add(new SelectorPath(currentDeep, currentSteps));
+		}
+
+		@Override
+		public void enterNodeSelector(TreeSelectorParser.NodeSelectorContext ctx) {
+			currentSteps.add(createStep(ctx.nodeName(), ctx.wildcard() != null, ctx.placeholder() != null,
+					ctx.currentNode() != null, ctx.parentNode() != null, ctx.attributeSelector()));
+		}
+
+		private static SelectorStep createStep(TreeSelectorParser.NodeNameContext nodeName, boolean isWildcard,
+											   boolean isPlaceholder, boolean isCurrentNode, boolean isParentNode,
+											   TreeSelectorParser.AttributeSelectorContext attrSelector) {
+			SelectorStep.Kind kind;
+			if (isWildcard) {
+				kind = SelectorStep.Kind.WILDCARD;
+			} else if (isPlaceholder) {
+				kind = SelectorStep.Kind.PLACEHOLDER;
+			} else if (isCurrentNode) {
+				kind = SelectorStep.Kind.CURRENT;
+			} else if (isParentNode) {
+				kind = SelectorStep.Kind.PARENT;
+			} else {
+				kind = SelectorStep.Kind.NAME;
+			}
+
+			List<AttributePredicate> predicates = new ArrayList<>();
+			if (attrSelector != null) {
+				for (TreeSelectorParser.AttributeExprContext exprCtx : attrSelector.attributeExpr()) {
+					predicates.add(createPredicate(exprCtx));
+				}
+			}
+
+			return new SelectorStep(kind, kind == SelectorStep.Kind.NAME ? nodeName.getText() : null, predicates);
+		}
+	}
+
+	/**
+	 * Create the predicate of an attribute expression of the parse tree.
+	 *
+	 * @param exprCtx the attribute expression
+	 * @return the predicate
+	 * @throws IllegalArgumentException if the value of a regular expression operator is not valid
+	 */
+	static AttributePredicate createPredicate(TreeSelectorParser.AttributeExprContext exprCtx) {
+		String name = cleanAttributeValue(exprCtx.attributeName().getText());
+		if (exprCtx.versionOperator() != null) {
+			AttributePredicate.Operator operator = switch (exprCtx.versionOperator().getText()) {
+				case ">=" -> AttributePredicate.Operator.GREATER_OR_EQUAL;
+				case ">" -> AttributePredicate.Operator.GREATER;
+				case "<=" -> AttributePredicate.Operator.LESS_OR_EQUAL;
+				default -> AttributePredicate.Operator.LESS;
+			};
+			return new AttributePredicate(name, operator, exprCtx.VERSION().getText());
+		}
+		if (exprCtx.stringOperator() != null) {
+			AttributePredicate.Operator operator = switch (exprCtx.stringOperator().getText()) {
+				case "^=" -> AttributePredicate.Operator.PREFIX;
+				case "$=" -> AttributePredicate.Operator.SUFFIX;
+				case "*=" -> AttributePredicate.Operator.CONTAINS;
+				case "%=" -> AttributePredicate.Operator.GLOB;
+				default -> AttributePredicate.Operator.REGEX;
+			};
+			return new AttributePredicate(name, operator, cleanAttributeValue(exprCtx.stringValue().getText()));
+		}
+		TreeSelectorParser.VersionRangeContext range = exprCtx.attributeValue().versionRange();
+		if (range != null) {
+			AttributePredicate.Operator operator = range.getChild(0).getText().equals("^")
+					? AttributePredicate.Operator.CARET : AttributePredicate.Operator.TILDE;
+			return new AttributePredicate(name, operator, range.VERSION().getText());
+		}
+		return new AttributePredicate(name, AttributePredicate.Operator.EQUALS,
+				cleanAttributeValue(exprCtx.attributeValue().getText()), exprCtx.attributeValue().STRING() != null);
+	}
+
+	/**
+	 * Error listener that aborts parsing instead of letting ANTLR recover and print to the console.
+	 */
+	private static final class ThrowingErrorListener extends BaseErrorListener {
+
+		private static final ThrowingErrorListener INSTANCE = new ThrowingErrorListener();
+
+		@Override
+		public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+								int charPositionInLine, String msg, RecognitionException e) {
+			throw new ParseCancellationException("line " + line + ":" + charPositionInLine + " " + msg);
+		}
+	}
+}
\ No newline at end of file
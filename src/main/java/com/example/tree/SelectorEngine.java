@@ -0,0 +1,23 @@
+package com.example.tree;
+
+/**
+ * The strategy used to evaluate compiled selectors.
+ */
+public enum SelectorEngine {
+
+	/**
+	 * Walk the tree once, testing every node against all branches of the compiled plan.
+	 * Nothing is generated, so this is the cheapest choice for expressions that are
+	 * evaluated only a few times.
+	 */
+	INTERPRETER,
+
+	/**
+	 * Generate a hidden class with a specialized walk and constant attribute comparisons on
+	 * first use of a compiled selector. Returns the same nodes as {@link #INTERPRETER}, but
+	 * pays off only for expressions that are evaluated very often. Branches with a parent step
+	 * which cannot be folded, and selectors with more than 64 distinct step prefixes, are
+	 * evaluated by the interpreter.
+	 */
+	BYTECODE
+}
\ No newline at end of file
@@ -0,0 +1,349 @@
+package com.example.tree;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Evaluates compiled selector plans. The branches which only move down the tree are merged into a
+ * {@link SelectorAutomaton} and evaluated in a single walk; branches with a parent step are evaluated
+ * step by step, one node set at a time.
+ */
+final class SelectorInterpreter {
+
+	private SelectorInterpreter() {
+	}
+
+	/**
+	 * Evaluate all branches of a selector and combine their results without duplicates.
+	 *
+	 * @param selector the compiled selector, must be valid
+	 * @param rootNode the root node of the tree
+	 * @param index the structural index of the tree, or null
+	 * @return a list of matching nodes in document order
+	 */
+	static List<TreeNode> evaluate(CompiledSelector selector, TreeNode rootNode, TreeIndex index) {
+		return evaluate(selector, rootNode, index, null, 0);
+	}
+
+	/**
+	 * Evaluate all branches of a selector, walking the tree with fork/join tasks if a pool is given.
+	 * Branches with a parent step are always evaluated on the calling thread.
+	 *
+	 * @param selector the compiled selector, must be valid
+	 * @param rootNode the root node of the tree
+	 * @param index the structural index of the tree, required if a pool is given
+	 * @param pool the pool for a parallel walk, or null for a serial one
+	 * @param minSubtreeSize the number of nodes below which a part of the tree is not split
+	 * @return a list of matching nodes in document order
+	 */
+	static List<TreeNode> evaluate(CompiledSelector selector, TreeNode rootNode, TreeIndex index, ForkJoinPool pool,
+								   int minSubtreeSize) {
+		SelectorAutomaton automaton = selector.getAutomaton();
+		List<TreeNode> result = new ArrayList<>();
+		if (pool != null) {
+			automaton.evaluateParallel(rootNode, index, pool, minSubtreeSize, result);
+		} else {
+			automaton.evaluate(rootNode, index, result, Integer.MAX_VALUE);
+		}
+		return addResidualPaths(automaton, rootNode, index, result);
+	}
+
+	/**
+	 * Add the results of the branches the automaton of a selector could not evaluate.
+	 *
+	 * @param automaton the automaton of the selector
+	 * @param rootNode the root node of the tree
+	 * @param index the structural index of the tree, or null
+	 * @param result the nodes matched by the automaton in document order
+	 * @return all matching nodes in document order
+	 */
+	static List<TreeNode> addResidualPaths(SelectorAutomaton automaton, TreeNode rootNode, TreeIndex index,
+										   List<TreeNode> result) {
+		if (automaton.getResidualPaths().isEmpty()) {
+			// Every node is visited once by the automaton, so there are no duplicates
+			return result;
+		}
+
+		// Use a set to avoid duplicate results when multiple selectors match the same nodes
+		Set<TreeNode> resultSet = new LinkedHashSet<>(result);
+		for (SelectorPath path : automaton.getResidualPaths()) {
+			addAll(evaluatePath(path, rootNode, index), resultSet);
+		}
+		return DocumentOrder.sort(rootNode, index, resultSet);
+	}
+
+	/**
+	 * Evaluate all branches of a selector step by step, without the automaton.
+	 *
+	 * @param selector the compiled selector, must be valid
+	 * @param rootNode the root node of the tree
+	 * @return a list of matching nodes, in the order the branches select them
+	 */
+	static List<TreeNode> evaluateStepwise(CompiledSelector selector, TreeNode rootNode) {
+		Set<TreeNode> resultSet = new LinkedHashSet<>();
+		for (SelectorPath path : selector.getPaths()) {
+			addAll(evaluatePath(path, rootNode, null), resultSet);
+		}
+		return new ArrayList<>(resultSet);
+	}
+
+	private static void addAll(List<TreeNode> nodes, Set<TreeNode> resultSet) {
+		for (TreeNode node : nodes) {
+			// Skip the marker for the (virtual) parent level of the root
+			if (node != null) {
+				resultSet.add(node);
+			}
+		}
+	}
+
+	/**
+	 * Check whether a top-down branch selects a node, matching its steps from the last one upwards
+	 * through the ancestors of the node: a name or wildcard step has to match the parent of the node
+	 * matched by the next step, a placeholder step any ancestor of it.
+	 *
+	 * @param path the selector branch, without parent and current steps
+	 * @param node the node
+	 * @param rootNode the root node of the tree, or null if it is the topmost ancestor of the node
+	 * @return true if the node is among the nodes selected by the branch
+	 */
+	static boolean matchesPath(SelectorPath path, TreeNode node, TreeNode rootNode) {
+		return matchesPath(path, path.getSteps().size() - 1, node, rootNode);
+	}
+
+	/**
+	 * Check whether a node is selected by the steps of a branch up to an index.
+	 */
+	private static boolean matchesPath(SelectorPath path, int stepIndex, TreeNode node, TreeNode rootNode) {
+		SelectorStep step = path.getSteps().get(stepIndex);
+		if (!step.matchesName(node) || !step.matchesFilters(node)) {
+			return false;
+		}
+		boolean placeholder = step.getKind() == SelectorStep.Kind.PLACEHOLDER;
+		TreeNode ancestor = node == rootNode ? null : node.getParent();
+		if (stepIndex == 0) {
+			// A deep first step matches anywhere, a placeholder below the root, anything else the root
+			return path.isDeep() || placeholder == (ancestor != null);
+		}
+		if (!placeholder) {
+			return ancestor != null && matchesPath(path, stepIndex - 1, ancestor, rootNode);
+		}
+		for (; ancestor != null; ancestor = ancestor == rootNode ? null : ancestor.getParent()) {
+			if (matchesPath(path, stepIndex - 1, ancestor, rootNode)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Evaluate a single selector branch.
+	 * The returned list may contain duplicates and the null marker used for the parent level of the root.
+	 *
+	 * @param path the selector branch
+	 * @param rootNode the root node of the tree
+	 * @param index the structural index of the tree, or null
+	 * @return the nodes selected by the last step
+	 */
+	static List<TreeNode> evaluatePath(SelectorPath path, TreeNode rootNode, TreeIndex index) {
+		List<SelectorStep> steps = path.getSteps();
+		List<TreeNode> currentNodes = path.isDeep()
+				? applyDeepStep(steps.get(0), rootNode, index)
+				: applyFirstStep(steps.get(0), rootNode, index);
+
+		for (int i = 1; i < steps.size() && !currentNodes.isEmpty(); i++) {
+			currentNodes = applyStep(steps.get(i), currentNodes, rootNode, index);
+		}
+		return currentNodes;
+	}
+
+	/**
+	 * Apply the first step of a path starting with a slash, which is matched against the root itself.
+	 */
+	private static List<TreeNode> applyFirstStep(SelectorStep step, TreeNode rootNode, TreeIndex index) {
+		List<TreeNode> matchingNodes = new ArrayList<>();
+		switch (step.getKind()) {
+			case WILDCARD, CURRENT -> matchingNodes.add(rootNode);
+			case PLACEHOLDER -> collectDescendants(rootNode, index, matchingNodes);
+			case PARENT -> {
+				// Root has no parent, so the result stays empty
+			}
+			case NAME -> {
+				if (step.matchesName(rootNode)) {
+					matchingNodes.add(rootNode);
+				}
+			}
+		}
+		return filter(step, matchingNodes);
+	}
+
+	/**
+	 * Apply the first step of a path starting with **, which is matched against every node of the tree.
+	 */
+	private static List<TreeNode> applyDeepStep(SelectorStep step, TreeNode rootNode, TreeIndex index) {
+		List<TreeNode> matchingNodes = new ArrayList<>();
+		int[] candidates = index != null ? index.getCandidates(step) : null;
+		if (candidates != null) {
+			// Only test the nodes listed by the index
+			for (int ordinal : candidates) {
+				TreeNode node = index.getNode(ordinal);
+				if (step.matchesName(node) && step.matchesFilters(node)) {
+					matchingNodes.add(node);
+				}
+			}
+		} else if (index != null) {
+			// Scan the pre-order of the index
+			for (int i = 0; i < index.size(); i++) {
+				TreeNode node = index.getNode(i);
+				if (step.matchesName(node) && step.matchesFilters(node)) {
+					matchingNodes.add(node);
+				}
+			}
+		} else {
+			collectMatching(step, rootNode, matchingNodes);
+		}
+		return matchingNodes;
+	}
+
+	/**
+	 * Collect a node and its descendants in pre-order if they match a step, without building a list
+	 * of all nodes first.
+	 */
+	private static void collectMatching(SelectorStep step, TreeNode node, List<TreeNode> matchingNodes) {
+		if (step.matchesName(node) && step.matchesFilters(node)) {
+			matchingNodes.add(node);
+		}
+		// An explicit stack instead of recursion, so deep trees do not overflow the stack
+		Deque<TreeNode> stack = new ArrayDeque<>();
+		pushChildren(node, stack);
+		while (!stack.isEmpty()) {
+			TreeNode descendant = stack.pop();
+			if (step.matchesName(descendant) && step.matchesFilters(descendant)) {
+				matchingNodes.add(descendant);
+			}
+			pushChildren(descendant, stack);
+		}
+	}
+
+	/**
+	 * Push the children of a node in reverse order, so they are popped in document order.
+	 */
+	private static void pushChildren(TreeNode node, Deque<TreeNode> stack) {
+		List<TreeNode> children = node.getChildren();
+		for (int i = children.size() - 1; i >= 0; i--) {
+			stack.push(children.get(i));
+		}
+	}
+
+	/**
+	 * Apply a step after the first one to the nodes selected so far.
+	 */
+	private static List<TreeNode> applyStep(SelectorStep step, List<TreeNode> currentNodes, TreeNode rootNode,
+											TreeIndex index) {
+		List<TreeNode> matchingNodes = new ArrayList<>();
+
+		switch (step.getKind()) {
+			case PLACEHOLDER -> {
+				// For placeholder, we need to find all descendants of current nodes
+				for (TreeNode node : currentNodes) {
+					if (node != null) {
+						collectDescendants(node, index, matchingNodes);
+					}
+				}
+			}
+			case CURRENT -> matchingNodes.addAll(currentNodes);
+			case PARENT -> {
+				boolean hasRootNode = false;
+				for (TreeNode node : currentNodes) {
+					if (node == null) {
+						continue;
+					}
+					TreeNode parent = node.getParent();
+					if (parent != null) {
+						matchingNodes.add(parent);
+					} else if (node == rootNode) {
+						hasRootNode = true;
+					}
+				}
+
+				// The parent level of the root is represented by a null marker, so that
+				// "/Root/../*" selects the root as the only child of that level
+				if (hasRootNode) {
+					matchingNodes.add(null);
+				}
+			}
+			case NAME, WILDCARD -> {
+				for (TreeNode node : currentNodes) {
+					if (node == null) {
+						// Null marker: the root is the only node of the root's parent level, whatever the
+						// name of the step, as in the original listener
+						matchingNodes.add(rootNode);
+					} else {
+						for (TreeNode child : node.getChildren()) {
+							if (step.matchesName(child)) {
+								matchingNodes.add(child);
+							}
+						}
+					}
+				}
+			}
+		}
+
+		return filter(step, matchingNodes);
+	}
+
+	/**
+	 * Filter nodes by the attribute predicates and child filters of a step.
+	 * The null marker never matches a filter.
+	 */
+	private static List<TreeNode> filter(SelectorStep step, List<TreeNode> nodes) {
+		if (!step.hasFilters()) {
+			return nodes;
+		}
+
+		List<TreeNode> filteredNodes = new ArrayList<>();
+		for (TreeNode node : nodes) {
+			if (node != null && step.matchesFilters(node)) {
+				filteredNodes.add(node);
+			}
+		}
+		return filteredNodes;
+	}
+
+	/**
+	 * Collect all descendants of a node (excluding the node itself) in pre-order.
+	 * With an index, they are copied from the range of the node in the pre-order.
+	 *
+	 * @param node The current node to process
+	 * @param index The structural index of the tree, or null
+	 * @param descendants The list to collect descendants into
+	 */
+	private static void collectDescendants(TreeNode node, TreeIndex index, List<TreeNode> descendants) {
+		int ordinal = index != null ? index.getOrdinal(node) : -1;
+		if (ordinal >= 0) {
+			descendants.addAll(index.getDescendants(node));
+		} else {
+			collectDescendants(node, descendants);
+		}
+	}
+
+	/**
+	 * Collect all descendants of a node (excluding the node itself) in pre-order.
+	 *
+	 * @param node The current node to process
+	 * @param descendants The list to collect descendants into
+	 */
+	private static void collectDescendants(TreeNode node, List<TreeNode> descendants) {
+		Deque<TreeNode> stack = new ArrayDeque<>();
+		pushChildren(node, stack);
+		while (!stack.isEmpty()) {
+			TreeNode descendant = stack.pop();
+			descendants.add(descendant);
+			pushChildren(descendant, stack);
+		}
+	}
+}
\ No newline at end of file
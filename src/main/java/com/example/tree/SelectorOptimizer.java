@@ -0,0 +1,144 @@
+package com.example.tree;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A rule-based rewriter for compiled selector plans. The rewritten plan selects exactly the same
+ * nodes as the original one, but avoids intermediate node lists at runtime.
+ * <p>
+ * The rules, applied until none of them changes the plan any more:
+ * <ul>
+ *     <li>Wildcard predicates ({@code name=*}) are dropped, duplicate predicates are merged and the
+ *     built-in type, variant and version predicates are checked before generic attributes.</li>
+ *     <li>A current level step ({@code .}) is removed and its predicates are moved to the previous step.
+ *     At the start of a path it is replaced by a wildcard, which also selects the root.</li>
+ *     <li>A child step followed by a parent step ({@code S/Child2/..}) is folded into a child filter of
+ *     the step before, which selects the nodes of S having a child named Child2, exactly the parents of
+ *     those children. The predicates of the parent step move to S as well. {@link CompiledSelector#explain()}
+ *     shows the filter as {@code S[Child2]}, while printed plans keep the sequence {@code S/Child2/..}.</li>
+ *     <li>Identical branches of a multi-selector are evaluated only once.</li>
+ * </ul>
+ * A parent step directly after the first step of a path is never folded, so {@code /Root/../*}
+ * keeps going through the virtual parent level of the root.
+ */
+final class SelectorOptimizer {
+
+	private SelectorOptimizer() {
+	}
+
+	/**
+	 * Rewrite the branches of a selector.
+	 *
+	 * @param paths the paths as parsed
+	 * @return the optimized paths
+	 */
+	static List<SelectorPath> optimize(List<SelectorPath> paths) {
+		Set<SelectorPath> optimized = new LinkedHashSet<>();
+		for (SelectorPath path : paths) {
+			optimized.add(optimize(path));
+		}
+		return new ArrayList<>(optimized);
+	}
+
+	private static SelectorPath optimize(SelectorPath path) {
+		List<SelectorStep> steps = new ArrayList<>(path.getSteps().size());
+		for (SelectorStep step : path.getSteps()) {
+			steps.add(normalize(step));
+		}
+
+		boolean changed;
+		do {
+			changed = foldCurrentSteps(steps) || foldParentSteps(steps);
+		} while (changed);
+
+		SelectorStep first = steps.get(0);
+		if (!path.isDeep() && first.getKind() == SelectorStep.Kind.CURRENT) {
+			steps.set(0, new SelectorStep(SelectorStep.Kind.WILDCARD, null, first.getPredicates(),
+					first.getChildFilters()));
+		}
+		return new SelectorPath(path.isDeep(), steps);
+	}
+
+	/**
+	 * Remove the first current level step after the start of the path, moving its filters to the previous step.
+	 *
+	 * @return true if a step was removed
+	 */
+	private static boolean foldCurrentSteps(List<SelectorStep> steps) {
+		for (int i = 1; i < steps.size(); i++) {
+			SelectorStep step = steps.get(i);
+			if (step.getKind() == SelectorStep.Kind.CURRENT) {
+				steps.set(i - 1, withFilters(steps.get(i - 1), step.getPredicates(), step.getChildFilters()));
+				steps.remove(i);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Fold the first {@code S/child/..} sequence into {@code S[child]}. The step S must not be able to
+	 * produce the virtual parent of the root, so it may be neither a parent nor a current level step.
+	 *
+	 * @return true if a sequence was folded
+	 */
+	private static boolean foldParentSteps(List<SelectorStep> steps) {
+		for (int i = 2; i < steps.size(); i++) {
+			SelectorStep parent = steps.get(i);
+			SelectorStep child = steps.get(i - 1);
+			SelectorStep.Kind before = steps.get(i - 2).getKind();
+			if (parent.getKind() == SelectorStep.Kind.PARENT
+					&& (child.getKind() == SelectorStep.Kind.NAME || child.getKind() == SelectorStep.Kind.WILDCARD)
+					&& before != SelectorStep.Kind.PARENT && before != SelectorStep.Kind.CURRENT) {
+				List<SelectorStep> childFilters = new ArrayList<>(parent.getChildFilters());
+				childFilters.add(0, child);
+				steps.set(i - 2, withFilters(steps.get(i - 2), parent.getPredicates(), childFilters));
+				steps.subList(i - 1, i + 1).clear();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Add predicates and child filters to a step.
+	 */
+	private static SelectorStep withFilters(SelectorStep step, List<AttributePredicate> predicates,
+											List<SelectorStep> childFilters) {
+		if (predicates.isEmpty() && childFilters.isEmpty()) {
+			return step;
+		}
+		List<AttributePredicate> mergedPredicates = new ArrayList<>(step.getPredicates());
+		mergedPredicates.addAll(predicates);
+		Set<SelectorStep> mergedChildFilters = new LinkedHashSet<>(step.getChildFilters());
+		mergedChildFilters.addAll(childFilters);
+		return normalize(new SelectorStep(step.getKind(), step.getName(), mergedPredicates,
+				new ArrayList<>(mergedChildFilters)));
+	}
+
+	/**
+	 * Drop wildcard and duplicate predicates and order the built-in properties first.
+	 */
+	private static SelectorStep normalize(SelectorStep step) {
+		Set<AttributePredicate> builtIn = new LinkedHashSet<>();
+		Set<AttributePredicate> generic = new LinkedHashSet<>();
+		for (AttributePredicate predicate : step.getPredicates()) {
+			if (predicate.isWildcard()) {
+				continue;
+			}
+			switch (predicate.getName()) {
+				case "type", "variant", "version" -> builtIn.add(predicate);
+				default -> generic.add(predicate);
+			}
+		}
+		List<AttributePredicate> predicates = new ArrayList<>(builtIn);
+		predicates.addAll(generic);
+		if (predicates.equals(step.getPredicates())) {
+			return step;
+		}
+		return new SelectorStep(step.getKind(), step.getName(), predicates, step.getChildFilters());
+	}
+}
\ No newline at end of file
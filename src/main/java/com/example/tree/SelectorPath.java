@@ -0,0 +1,73 @@
+package com.example.tree;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * One immutable branch of a compiled selector, i.e. the part between two pipe (|) characters.
+ */
+public final class SelectorPath {
+
+	private final boolean deep;
+	private final List<SelectorStep> steps;
+
+	/**
+	 * @param deep true if the path starts with the deep traversal operator (**)
+	 * @param steps the steps of the path, never empty
+	 */
+	public SelectorPath(boolean deep, List<SelectorStep> steps) {
+		if (steps.isEmpty()) {
+			throw new IllegalArgumentException("A selector path needs at least one step");
+		}
+		this.deep = deep;
+		this.steps = List.copyOf(steps);
+	}
+
+	public boolean isDeep() {
+		return deep;
+	}
+
+	public List<SelectorStep> getSteps() {
+		return steps;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof SelectorPath other)) {
+			return false;
+		}
+		return deep == other.deep && steps.equals(other.steps);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(deep, steps);
+	}
+
+	/**
+	 * @return the path in selector syntax, which compiles to the same path again
+	 */
+	@Override
+	public String toString() {
+		return format(false);
+	}
+
+	/**
+	 * @return the path as printed in a plan, with the child filters of its steps in brackets
+	 * @see SelectorStep#describe()
+	 */
+	String describe() {
+		return format(true);
+	}
+
+	private String format(boolean plan) {
+		StringBuilder sb = new StringBuilder(deep ? "**" : "");
+		for (SelectorStep step : steps) {
+			sb.append('/').append(plan ? step.describe() : step.toString());
+		}
+		return sb.toString();
+	}
+}
\ No newline at end of file
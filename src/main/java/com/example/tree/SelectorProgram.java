@@ -0,0 +1,19 @@
+package com.example.tree;
+
+import java.util.List;
+
+/**
+ * A selector plan turned into executable code by {@link SelectorClassGenerator}.
+ * Implementations are stateless and can be shared between threads.
+ */
+interface SelectorProgram {
+
+	/**
+	 * Evaluate the branches of the selector's automaton and add the matching nodes to the output,
+	 * in document order and without duplicates.
+	 *
+	 * @param rootNode the root node of the tree
+	 * @param out the list receiving the matching nodes
+	 */
+	void evaluate(TreeNode rootNode, List<TreeNode> out);
+}
\ No newline at end of file
@@ -0,0 +1,230 @@
+package com.example.tree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A set of registered selectors which can be matched in reverse: given a node, find the selectors
+ * whose results contain it, without evaluating them against the whole tree. This is the inverse of
+ * {@link TreeSelector#select(String)}, e.g. to route an event about a changed node to the rules
+ * interested in it.
+ * <p>
+ * The branches of the selectors are indexed by their last step, by the name it tests and by the value
+ * of its {@code type} predicate, if it has one. A lookup only considers the branches whose last step
+ * can match the node, and checks their remaining steps bottom-up through {@link TreeNode#getParent()}:
+ * a name or wildcard step has to match the parent, a placeholder step any ancestor. The cost of a
+ * lookup therefore grows with the number of branches ending in a step for the node and with the depth
+ * of the node, not with the number of registered selectors. Branches with a parent step which the
+ * {@link SelectorOptimizer} could not fold are evaluated against the whole tree of the node.
+ * <p>
+ * Registries are not thread-safe; concurrent lookups are safe as long as no selector is registered or
+ * removed at the same time.
+ */
+public final class SelectorRegistry {
+
+	private final SelectorCache cache;
+	private final Map<String, Registration> registrations = new LinkedHashMap<>();
+	/** The indexed branches by the name of their last step and the type they require, null for any */
+	private final Map<String, Map<String, List<Branch>>> branches = new HashMap<>();
+	/** The branches evaluated against the whole tree */
+	private final List<Branch> residualBranches = new ArrayList<>();
+	private long nextOrder;
+
+	/**
+	 * Create a registry compiling expressions with the default cache.
+	 */
+	public SelectorRegistry() {
+		this(TreeSelector.getDefaultCache());
+	}
+
+	/**
+	 * @param cache the cache used to compile expressions
+	 */
+	public SelectorRegistry(SelectorCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Register a selector expression. Registering an expression again has no effect.
+	 *
+	 * @param selectorExpression the selector expression
+	 * @return the compiled selector, as returned by {@link #match(TreeNode)}
+	 * @throws NullPointerException if selectorExpression is null
+	 * @throws IllegalArgumentException if the expression is invalid
+	 */
+	public CompiledSelector register(String selectorExpression) {
+		CompiledSelector selector = cache.get(selectorExpression);
+		if (!selector.isValid()) {
+			throw new IllegalArgumentException("Invalid selector '" + selectorExpression + "': "
+					+ selector.getErrorMessage());
+		}
+		Registration existing = registrations.get(selectorExpression);
+		if (existing != null) {
+			return existing.selector;
+		}
+
+		Registration registration = new Registration(selector, nextOrder++);
+		registrations.put(selectorExpression, registration);
+		for (SelectorPath path : selector.getPaths()) {
+			Branch branch = new Branch(registration, path);
+			if (!SelectorAutomaton.isTopDown(path.getSteps())) {
+				residualBranches.add(branch);
+				continue;
+			}
+			SelectorStep last = path.getSteps().get(path.getSteps().size() - 1);
+			branches.computeIfAbsent(nameKey(last), name -> new HashMap<>())
+					.computeIfAbsent(typeKey(last), type -> new ArrayList<>())
+					.add(branch);
+		}
+		return selector;
+	}
+
+	/**
+	 * Remove a registered selector expression.
+	 *
+	 * @param selectorExpression the selector expression
+	 * @return true if the expression was registered
+	 */
+	public boolean unregister(String selectorExpression) {
+		Registration registration = registrations.remove(selectorExpression);
+		if (registration == null) {
+			return false;
+		}
+		residualBranches.removeIf(branch -> branch.registration == registration);
+		branches.values().removeIf(byType -> {
+			byType.values().removeIf(list -> {
+				list.removeIf(branch -> branch.registration == registration);
+				return list.isEmpty();
+			});
+			return byType.isEmpty();
+		});
+		return true;
+	}
+
+	/**
+	 * @return the number of registered selectors
+	 */
+	public int size() {
+		return registrations.size();
+	}
+
+	/**
+	 * Find the registered selectors which select a node, i.e. whose results for the tree of the node
+	 * contain it.
+	 *
+	 * @param node the node
+	 * @return the matching selectors in the order they were registered
+	 */
+	public List<CompiledSelector> match(TreeNode node) {
+		Set<Registration> matches = Collections.newSetFromMap(new IdentityHashMap<>());
+		String name = node.getName();
+		collect(node, branches.get(name), matches);
+		if (name != null) {
+			collect(node, branches.get(null), matches);
+		}
+
+		TreeNode root = null;
+		for (Branch branch : residualBranches) {
+			if (!matches.contains(branch.registration)) {
+				if (root == null) {
+					root = node;
+					while (root.getParent() != null) {
+						root = root.getParent();
+					}
+				}
+				if (SelectorInterpreter.evaluatePath(branch.path, root, null).contains(node)) {
+					matches.add(branch.registration);
+				}
+			}
+		}
+
+		List<Registration> ordered = new ArrayList<>(matches);
+		ordered.sort((first, second) -> Long.compare(first.order, second.order));
+		List<CompiledSelector> result = new ArrayList<>(ordered.size());
+		for (Registration registration : ordered) {
+			result.add(registration.selector);
+		}
+		return result;
+	}
+
+	private static void collect(TreeNode node, Map<String, List<Branch>> byType, Set<Registration> matches) {
+		if (byType == null) {
+			return;
+		}
+		collect(node, byType.get(null), matches);
+		String type = node.getType();
+		if (type != null) {
+			collect(node, byType.get(type), matches);
+		}
+		String typeAttribute = node.getAttribute("type");
+		if (typeAttribute != null && !typeAttribute.equals(type)) {
+			// A type predicate also matches a generic attribute named type
+			collect(node, byType.get(typeAttribute), matches);
+		}
+	}
+
+	private static void collect(TreeNode node, List<Branch> candidates, Set<Registration> matches) {
+		if (candidates == null) {
+			return;
+		}
+		for (Branch branch : candidates) {
+			if (!matches.contains(branch.registration) && branch.matches(node)) {
+				matches.add(branch.registration);
+			}
+		}
+	}
+
+	/**
+	 * @return the name tested by a step, or null if it matches any name
+	 */
+	private static String nameKey(SelectorStep step) {
+		return step.getKind() == SelectorStep.Kind.NAME ? step.getName() : null;
+	}
+
+	/**
+	 * @return the value of the first type predicate of a step, or null if it has none
+	 */
+	private static String typeKey(SelectorStep step) {
+		for (AttributePredicate predicate : step.getPredicates()) {
+			if (predicate.getName().equals("type") && predicate.isExact()) {
+				return predicate.getValue();
+			}
+		}
+		return null;
+	}
+
+	private static final class Registration {
+
+		private final CompiledSelector selector;
+		private final long order;
+
+		private Registration(CompiledSelector selector, long order) {
+			this.selector = selector;
+			this.order = order;
+		}
+	}
+
+	/**
+	 * One branch of a registered selector.
+	 */
+	private static final class Branch {
+
+		private final Registration registration;
+		private final SelectorPath path;
+
+		private Branch(Registration registration, SelectorPath path) {
+			this.registration = registration;
+			this.path = path;
+		}
+
+		private boolean matches(TreeNode node) {
+			return SelectorInterpreter.matchesPath(path, node, null);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,198 @@
+package com.example.tree;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * One immutable segment of a compiled selector path, e.g. {@code Child1{type=component}}.
+ */
+public final class SelectorStep {
+
+	/**
+	 * The kind of navigation a step performs.
+	 */
+	public enum Kind {
+		/** Named node, e.g. Child1 */
+		NAME,
+		/** Wildcard (*) matching all children */
+		WILDCARD,
+		/** Placeholder (~~) matching all descendants */
+		PLACEHOLDER,
+		/** Current level (.) */
+		CURRENT,
+		/** Parent level (..) */
+		PARENT
+	}
+
+	private final Kind kind;
+	private final String name;
+	private final List<AttributePredicate> predicates;
+	private final List<SelectorStep> childFilters;
+
+	public SelectorStep(Kind kind, String name, List<AttributePredicate> predicates) {
+		this(kind, name, predicates, List.of());
+	}
+
+	/**
+	 * @param kind the kind of the step
+	 * @param name the node name for {@link Kind#NAME} steps, null otherwise
+	 * @param predicates the attribute predicates
+	 * @param childFilters child steps of which each must match at least one child of a selected node
+	 */
+	public SelectorStep(Kind kind, String name, List<AttributePredicate> predicates, List<SelectorStep> childFilters) {
+		this.kind = kind;
+		this.name = name;
+		this.predicates = List.copyOf(predicates);
+		this.childFilters = List.copyOf(childFilters);
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * @return the node name for {@link Kind#NAME} steps, null otherwise
+	 */
+	public String getName() {
+		return name;
+	}
+
+	public List<AttributePredicate> getPredicates() {
+		return predicates;
+	}
+
+	/**
+	 * Get the child filters of this step. These are not part of the selector syntax but are
+	 * introduced by the {@link SelectorOptimizer}, e.g. {@code /Root/Child2/..} is rewritten to
+	 * {@code /Root[Child2]}: the root if it has a child named Child2.
+	 *
+	 * @return name and wildcard steps of which each must match a child of a selected node
+	 */
+	public List<SelectorStep> getChildFilters() {
+		return childFilters;
+	}
+
+	/**
+	 * @return true if this step has a predicate or child filter which does not match every node
+	 */
+	public boolean hasFilters() {
+		if (!childFilters.isEmpty()) {
+			return true;
+		}
+		for (AttributePredicate predicate : predicates) {
+			if (!predicate.isWildcard()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Check whether a node satisfies the name test of this step.
+	 * Only meaningful for {@link Kind#NAME} and {@link Kind#WILDCARD} steps.
+	 *
+	 * @param node the node to check
+	 * @return true if the node name matches
+	 */
+	public boolean matchesName(TreeNode node) {
+		return kind != Kind.NAME || name.equals(node.getName());
+	}
+
+	/**
+	 * Check whether a node satisfies all attribute predicates and child filters of this step.
+	 *
+	 * @param node the node to check
+	 * @return true if the node matches every predicate and child filter
+	 */
+	public boolean matchesFilters(TreeNode node) {
+		for (AttributePredicate predicate : predicates) {
+			if (!predicate.matches(node)) {
+				return false;
+			}
+		}
+		for (SelectorStep childFilter : childFilters) {
+			if (!childFilter.matchesAnyChild(node)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Check whether any child of a node matches the name test and the filters of this step.
+	 *
+	 * @param node the parent node
+	 * @return true if at least one child matches
+	 */
+	public boolean matchesAnyChild(TreeNode node) {
+		for (TreeNode child : node.getChildren()) {
+			if (matchesName(child) && matchesFilters(child)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof SelectorStep other)) {
+			return false;
+		}
+		return kind == other.kind && Objects.equals(name, other.name) && predicates.equals(other.predicates)
+				&& childFilters.equals(other.childFilters);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(kind, name, predicates, childFilters);
+	}
+
+	/**
+	 * @return the step in selector syntax, with a child filter printed as the sequence it was folded
+	 * from, e.g. {@code Root/Child2/..}, so the text can be parsed again
+	 */
+	@Override
+	public String toString() {
+		return format(false);
+	}
+
+	/**
+	 * @return the step as printed in a plan, with its child filters in brackets, e.g. {@code Root[Child2]}
+	 * for the nodes named Root having a child named Child2
+	 */
+	String describe() {
+		return format(true);
+	}
+
+	private String format(boolean plan) {
+		StringBuilder sb = new StringBuilder();
+		switch (kind) {
+			case NAME -> sb.append(name);
+			case WILDCARD -> sb.append('*');
+			case PLACEHOLDER -> sb.append("~~");
+			case CURRENT -> sb.append('.');
+			case PARENT -> sb.append("..");
+		}
+		if (!predicates.isEmpty()) {
+			sb.append('{');
+			for (int i = 0; i < predicates.size(); i++) {
+				if (i > 0) {
+					sb.append(',');
+				}
+				sb.append(predicates.get(i));
+			}
+			sb.append('}');
+		}
+		for (SelectorStep childFilter : childFilters) {
+			if (plan) {
+				sb.append('[').append(childFilter.format(true)).append(']');
+			} else {
+				sb.append('/').append(childFilter.format(false)).append("/..");
+			}
+		}
+		return sb.toString();
+	}
+}
\ No newline at end of file
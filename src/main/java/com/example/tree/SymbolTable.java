@@ -0,0 +1,76 @@
+package com.example.tree;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+/**
+ * A shared table of the strings used as attribute names and values, so that every node with e.g.
+ * {@code visible=true} or {@code type=component} references the same two string instances instead
+ * of its own copies. Interned strings can also be compared by reference before falling back to
+ * {@link String#equals(Object)}.
+ * <p>
+ * Only strings which repeat are worth sharing: a string is added to the table when it is seen a second
+ * time while it is still in a small buffer of recent candidates, so unique values like ids never enter
+ * it. The table holds its strings weakly, so they are dropped together with the last node using them.
+ * The table is split into segments by hash, each guarded by its own lock.
+ */
+final class SymbolTable {
+
+	private static final int SEGMENT_COUNT = 64;
+	/** The number of recent candidates remembered per segment */
+	private static final int CANDIDATE_COUNT = 1024;
+
+	private static final Segment[] SEGMENTS = new Segment[SEGMENT_COUNT];
+
+	static {
+		for (int i = 0; i < SEGMENT_COUNT; i++) {
+			SEGMENTS[i] = new Segment();
+		}
+	}
+
+	private SymbolTable() {
+	}
+
+	/**
+	 * @param value a string, or null
+	 * @return the shared instance equal to the string, the string itself if it is not shared yet, or null
+	 */
+	static String intern(String value) {
+		if (value == null) {
+			return null;
+		}
+		int hash = value.hashCode();
+		hash ^= hash >>> 16;
+		Segment segment = SEGMENTS[hash & (SEGMENT_COUNT - 1)];
+		synchronized (segment) {
+			return segment.intern(value, (hash >>> 6) & (CANDIDATE_COUNT - 1));
+		}
+	}
+
+	/**
+	 * The shared strings of one range of hashes and the strings seen once recently.
+	 */
+	private static final class Segment {
+
+		private final WeakHashMap<String, WeakReference<String>> symbols = new WeakHashMap<>();
+		/** Strings seen once, by a part of their hash; a later string with the same part replaces them */
+		private final String[] candidates = new String[CANDIDATE_COUNT];
+
+		private String intern(String value, int slot) {
+			WeakReference<String> reference = symbols.get(value);
+			String symbol = reference != null ? reference.get() : null;
+			if (symbol != null) {
+				return symbol;
+			}
+			String candidate = candidates[slot];
+			if (value.equals(candidate)) {
+				// Seen the second time, share the first instance from now on
+				candidates[slot] = null;
+				symbols.put(candidate, new WeakReference<>(candidate));
+				return candidate;
+			}
+			candidates[slot] = value;
+			return value;
+		}
+	}
+}
\ No newline at end of file
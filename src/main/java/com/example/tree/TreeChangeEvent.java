@@ -0,0 +1,84 @@
+package com.example.tree;
+
+/**
+ * An immutable description of one modification of a {@link TreeNode}.
+ */
+public final class TreeChangeEvent {
+
+	/**
+	 * The kinds of modification.
+	 */
+	public enum Kind {
+		/** A child was added, the node is the parent */
+		CHILD_ADDED,
+		NAME_CHANGED,
+		TYPE_CHANGED,
+		VARIANT_CHANGED,
+		VERSION_CHANGED,
+		/** An attribute was added or its value replaced */
+		ATTRIBUTE_CHANGED
+	}
+
+	private final Kind kind;
+	private final TreeNode node;
+	private final TreeNode child;
+	private final String attributeName;
+	private final String oldValue;
+	private final String newValue;
+
+	TreeChangeEvent(Kind kind, TreeNode node, TreeNode child, String attributeName, String oldValue, String newValue) {
+		this.kind = kind;
+		this.node = node;
+		this.child = child;
+		this.attributeName = attributeName;
+		this.oldValue = oldValue;
+		this.newValue = newValue;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * @return the changed node, the parent for {@link Kind#CHILD_ADDED}
+	 */
+	public TreeNode getNode() {
+		return node;
+	}
+
+	/**
+	 * @return the added child for {@link Kind#CHILD_ADDED}, otherwise null
+	 */
+	public TreeNode getChild() {
+		return child;
+	}
+
+	/**
+	 * @return the name of the attribute for {@link Kind#ATTRIBUTE_CHANGED}, otherwise null
+	 */
+	public String getAttributeName() {
+		return attributeName;
+	}
+
+	/**
+	 * @return the value before the change, null for a new attribute and for {@link Kind#CHILD_ADDED}
+	 */
+	public String getOldValue() {
+		return oldValue;
+	}
+
+	/**
+	 * @return the value after the change, null for {@link Kind#CHILD_ADDED}
+	 */
+	public String getNewValue() {
+		return newValue;
+	}
+
+	@Override
+	public String toString() {
+		return kind == Kind.CHILD_ADDED
+				? "TreeChangeEvent{" + kind + ", node=" + node + ", child=" + child + "}"
+				: "TreeChangeEvent{" + kind + ", node=" + node + (attributeName != null ? ", attribute=" + attributeName : "")
+				+ ", " + oldValue + " -> " + newValue + "}";
+	}
+}
\ No newline at end of file
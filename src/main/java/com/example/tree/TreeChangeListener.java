@@ -0,0 +1,17 @@
+package com.example.tree;
+
+/**
+ * Receives the changes of a node and of all its descendants.
+ *
+ * @see TreeNode#addTreeChangeListener(TreeChangeListener)
+ */
+@FunctionalInterface
+public interface TreeChangeListener {
+
+	/**
+	 * Called on the modifying thread after a node was changed.
+	 *
+	 * @param event the change
+	 */
+	void treeChanged(TreeChangeEvent event);
+}
\ No newline at end of file
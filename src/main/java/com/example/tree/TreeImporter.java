@@ -0,0 +1,254 @@
+package com.example.tree;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Imports large JSON and XML documents into trees in a single streaming pass, without building a
+ * document model first. How fields and attributes become node properties is decided by an
+ * {@link ImportMapping}; names, types and attribute values are interned by the nodes, so repeated
+ * values are stored once. To query the imported tree without keeping the nodes, convert it with
+ * {@link FlatTree#build(TreeNode)} or write it with {@link TreeSnapshot#write(TreeNode, Path)}.
+ * <p>
+ * With a parallelism above 1, the reading thread only scans the text of the top-level subtrees, i.e.
+ * the objects in the children field of the root JSON object, or the child elements of the root XML
+ * element, and worker threads parse them into nodes. The children keep their document order. At most
+ * two batches of subtree text per worker are in memory at a time, so the heap used besides the tree
+ * itself stays bounded, as long as no single top-level subtree is huge; with a parallelism of 1, the
+ * document is parsed directly from the stream.
+ * <p>
+ * Importers are immutable and can be shared between threads.
+ */
+public final class TreeImporter {
+
+	/** The amount of text collected before a batch of subtrees is handed to a worker */
+	private static final int BATCH_CHARS = 64 * 1024;
+
+	private final ImportMapping mapping;
+	private final int parallelism;
+
+	/**
+	 * Create an importer with the default mapping, using all available processors.
+	 */
+	public TreeImporter() {
+		this(ImportMapping.defaults(), Runtime.getRuntime().availableProcessors());
+	}
+
+	private TreeImporter(ImportMapping mapping, int parallelism) {
+		this.mapping = mapping;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @param mapping the rules mapping fields to node properties
+	 * @return a new importer
+	 */
+	public TreeImporter withMapping(ImportMapping mapping) {
+		if (mapping == null) {
+			throw new NullPointerException("The mapping cannot be null");
+		}
+		return new TreeImporter(mapping, parallelism);
+	}
+
+	/**
+	 * @param parallelism the number of threads parsing top-level subtrees, 1 to parse on the calling thread only
+	 * @return a new importer
+	 * @throws IllegalArgumentException if parallelism is less than 1
+	 */
+	public TreeImporter withParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+		}
+		return new TreeImporter(mapping, parallelism);
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Import a JSON document whose top level is an object.
+	 *
+	 * @param reader the document, which is not closed
+	 * @return the root node
+	 * @throws IOException if the document cannot be read or is not valid
+	 */
+	public TreeNode importJson(Reader reader) throws IOException {
+		JsonImporter importer = new JsonImporter(mapping);
+		TreeNode root = new TreeNode(null);
+		if (parallelism == 1 || mapping.getChildrenField() == null) {
+			importer.parse(new JsonImporter.Lexer(reader, 1, 1), root, JsonImporter.ROOT_NAME, null);
+			return root;
+		}
+		try (Chunks chunks = new Chunks((chunk) -> importer.parse(
+				new JsonImporter.Lexer(new StringReader(chunk.text), chunk.line, chunk.column),
+				chunk.target, chunk.fallbackName, null))) {
+			importer.parse(new JsonImporter.Lexer(reader, 1, 1), root, JsonImporter.ROOT_NAME, chunks);
+			chunks.await();
+		}
+		return root;
+	}
+
+	/**
+	 * Import a JSON file encoded in UTF-8.
+	 *
+	 * @param file the file
+	 * @return the root node
+	 * @throws IOException if the file cannot be read or is not valid
+	 */
+	public TreeNode importJson(Path file) throws IOException {
+		try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			return importJson(reader);
+		}
+	}
+
+	/**
+	 * Import an XML document.
+	 *
+	 * @param reader the document, which is not closed
+	 * @return the node of the root element
+	 * @throws IOException if the document cannot be read or is not well-formed
+	 */
+	public TreeNode importXml(Reader reader) throws IOException {
+		XmlImporter importer = new XmlImporter(mapping);
+		TreeNode root = new TreeNode(null);
+		if (parallelism == 1) {
+			importer.parse(reader, root, null);
+			return root;
+		}
+		try (Chunks chunks = new Chunks((chunk) -> importer.parse(new StringReader(chunk.text), chunk.target,
+				"Element at line " + chunk.line + ", column " + chunk.column))) {
+			importer.split(reader, root, chunks);
+			chunks.await();
+		}
+		return root;
+	}
+
+	/**
+	 * Import an XML file encoded in UTF-8.
+	 *
+	 * @param file the file
+	 * @return the node of the root element
+	 * @throws IOException if the file cannot be read or is not well-formed
+	 */
+	public TreeNode importXml(Path file) throws IOException {
+		try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			return importXml(reader);
+		}
+	}
+
+	/**
+	 * Receives the text of top-level subtrees found by the reading thread.
+	 */
+	interface ChunkSink {
+
+		/**
+		 * @param target the node receiving the outermost object or element of the text, already attached to its parent
+		 * @param fallbackName the name of the node if the text does not name it, or null
+		 * @param text the text of the subtree
+		 * @param line the line of the start of the text in the document
+		 * @param column the column of the start of the text in the document
+		 */
+		void add(TreeNode target, String fallbackName, String text, int line, int column) throws IOException;
+	}
+
+	private record Chunk(TreeNode target, String fallbackName, String text, int line, int column) {
+	}
+
+	private interface ChunkParser {
+		void parse(Chunk chunk) throws IOException;
+	}
+
+	/**
+	 * Collects chunks into batches and parses them on a pool of worker threads.
+	 */
+	private final class Chunks implements ChunkSink, AutoCloseable {
+
+		private final ChunkParser parser;
+		private final ExecutorService executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+			Thread thread = new Thread(runnable, "tree-importer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		/** Limits the batches in memory */
+		private final Semaphore permits = new Semaphore(2 * parallelism);
+		private final List<Future<?>> futures = new ArrayList<>();
+		private List<Chunk> batch = new ArrayList<>();
+		private int batchChars;
+
+		private Chunks(ChunkParser parser) {
+			this.parser = parser;
+		}
+
+		@Override
+		public void add(TreeNode target, String fallbackName, String text, int line, int column) throws IOException {
+			batch.add(new Chunk(target, fallbackName, text, line, column));
+			batchChars += text.length();
+			if (batchChars >= BATCH_CHARS) {
+				submit();
+			}
+		}
+
+		private void submit() throws IOException {
+			List<Chunk> chunks = batch;
+			batch = new ArrayList<>();
+			batchChars = 0;
+			try {
+				permits.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while importing", e);
+			}
+			futures.add(executor.submit(() -> {
+				try {
+					for (Chunk chunk : chunks) {
+						parser.parse(chunk);
+					}
+				} finally {
+					permits.release();
+				}
+				return null;
+			}));
+		}
+
+		/**
+		 * Parse the remaining chunks and wait for all workers.
+		 *
+		 * @throws IOException the first error of a worker
+		 */
+		private void await() throws IOException {
+			if (!batch.isEmpty()) {
+				submit();
+			}
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while importing", e);
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException cause) {
+						throw cause;
+					}
+					throw new IOException(e.getCause());
+				}
+			}
+		}
+
+		@Override
+		public void close() {
+			executor.shutdownNow();
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,497 @@
+package com.example.tree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An optional structural index over a tree, numbering every node in pre-order and recording the
+ * size of its subtree. With it, the descendants of a node are the contiguous range of nodes following
+ * it in pre-order, and whether a node is an ancestor of another is decided by two integer comparisons.
+ * <p>
+ * Optionally, the index also maps node names to the nodes with that name, see {@link #withNameIndex()},
+ * attribute values to the nodes with that value, see {@link #withAttributeIndex()}, and versions to
+ * the nodes with that version in version order, see {@link #withVersionIndex()}.
+ * <p>
+ * The index is a snapshot of the tree at the time it is built: after nodes are added, it must be
+ * built again. It is immutable and can be shared between threads.
+ *
+ * @see TreeSelector#withIndex(TreeIndex)
+ */
+public final class TreeIndex {
+
+	private static final int[] NO_ORDINALS = new int[0];
+
+	private final TreeNode[] nodes;
+	private final List<TreeNode> nodeList;
+	private final int[] subtreeSizes;
+	private final Map<TreeNode, Integer> ordinals;
+	/** The pre-order numbers of the nodes with each name, or null without a name index */
+	private final Map<String, int[]> nameOrdinals;
+	/** The pre-order numbers of the nodes with each attribute value, or null without an attribute index */
+	private final Map<String, Map<String, OrdinalBitmap>> attributeBitmaps;
+	/** The distinct values of each attribute in ascending order, the dictionary for prefix filters */
+	private final Map<String, String[]> attributeValues;
+	/** The {@link VersionKey version keys} of the nodes in ascending order, or null without a version index */
+	private final long[] versionKeys;
+	/** The pre-order number of the node of each version key */
+	private final int[] versionOrdinals;
+
+	private TreeIndex(TreeNode[] nodes, int[] subtreeSizes, Map<TreeNode, Integer> ordinals,
+					  Map<String, int[]> nameOrdinals, Map<String, Map<String, OrdinalBitmap>> attributeBitmaps,
+					  Map<String, String[]> attributeValues, long[] versionKeys, int[] versionOrdinals) {
+		this.nodes = nodes;
+		this.nodeList = Collections.unmodifiableList(Arrays.asList(nodes));
+		this.subtreeSizes = subtreeSizes;
+		this.ordinals = ordinals;
+		this.nameOrdinals = nameOrdinals;
+		this.attributeBitmaps = attributeBitmaps;
+		this.attributeValues = attributeValues;
+		this.versionKeys = versionKeys;
+		this.versionOrdinals = versionOrdinals;
+	}
+
+	/**
+	 * Build the index for a tree.
+	 *
+	 * @param rootNode the root node of the tree
+	 * @return the index
+	 */
+	public static TreeIndex build(TreeNode rootNode) {
+		TreeNode[] nodes = new TreeNode[64];
+		int[] subtreeSizes = new int[64];
+		Map<TreeNode, Integer> ordinals = new IdentityHashMap<>();
+
+		// Iterative pre-order walk, so deep trees do not overflow the stack
+		int[] openOrdinals = new int[16];
+		int[] childIndexes = new int[16];
+		int depth = 0;
+		int size = 0;
+		TreeNode node = rootNode;
+		while (true) {
+			if (node != null) {
+				if (size == nodes.length) {
+					nodes = Arrays.copyOf(nodes, size * 2);
+					subtreeSizes = Arrays.copyOf(subtreeSizes, size * 2);
+				}
+				if (depth == openOrdinals.length) {
+					openOrdinals = Arrays.copyOf(openOrdinals, depth * 2);
+					childIndexes = Arrays.copyOf(childIndexes, depth * 2);
+				}
+				nodes[size] = node;
+				ordinals.put(node, size);
+				openOrdinals[depth] = size++;
+				childIndexes[depth++] = 0;
+			}
+			if (depth == 0) {
+				break;
+			}
+
+			int top = depth - 1;
+			List<TreeNode> children = nodes[openOrdinals[top]].getChildren();
+			if (childIndexes[top] < children.size()) {
+				node = children.get(childIndexes[top]++);
+			} else {
+				// All descendants are numbered, close the subtree
+				subtreeSizes[openOrdinals[top]] = size - openOrdinals[top];
+				depth--;
+				node = null;
+			}
+		}
+		return new TreeIndex(Arrays.copyOf(nodes, size), Arrays.copyOf(subtreeSizes, size), ordinals, null, null, null, null, null);
+	}
+
+	/**
+	 * Create an index which in addition maps every node name to the pre-order numbers of the nodes with
+	 * that name. Deep selectors like {@code **}{@code /Child2} and placeholder selectors like
+	 * {@code /~~/Child2} then only visit the nodes named Child2 and the subtrees below them, instead
+	 * of the whole tree.
+	 *
+	 * @return a new index sharing the structural data of this one
+	 */
+	public TreeIndex withNameIndex() {
+		if (nameOrdinals != null) {
+			return this;
+		}
+		Map<String, Integer> counts = new HashMap<>();
+		for (TreeNode node : nodes) {
+			counts.merge(node.getName(), 1, Integer::sum);
+		}
+		Map<String, int[]> names = new HashMap<>(counts.size() * 2);
+		for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+			names.put(entry.getKey(), new int[entry.getValue()]);
+		}
+		Map<String, Integer> filled = new HashMap<>(counts.size() * 2);
+		for (int i = 0; i < nodes.length; i++) {
+			String name = nodes[i].getName();
+			int position = filled.merge(name, 1, Integer::sum) - 1;
+			names.get(name)[position] = i;
+		}
+		return new TreeIndex(nodes, subtreeSizes, ordinals, names, attributeBitmaps, attributeValues, versionKeys, versionOrdinals);
+	}
+
+	/**
+	 * @return true if this index has a name index
+	 */
+	public boolean hasNameIndex() {
+		return nameOrdinals != null;
+	}
+
+	/**
+	 * Get the nodes with a name from the name index.
+	 *
+	 * @param name the node name
+	 * @return the nodes with the name in document order
+	 * @throws IllegalStateException if this index has no name index
+	 */
+	public List<TreeNode> getNodesByName(String name) {
+		if (nameOrdinals == null) {
+			throw new IllegalStateException("The index has no name index");
+		}
+		int[] posting = nameOrdinals.getOrDefault(name, NO_ORDINALS);
+		List<TreeNode> result = new ArrayList<>(posting.length);
+		for (int ordinal : posting) {
+			result.add(nodes[ordinal]);
+		}
+		return result;
+	}
+
+	/**
+	 * Create an index which in addition maps every attribute value to a compressed bitmap of the
+	 * pre-order numbers of the nodes with that value. The type, variant and version of a node are
+	 * indexed like its other attributes, so a filter like {@code {type=component,variant=primary}}
+	 * becomes the intersection of two bitmaps, and a deep selector like
+	 * {@code **}{@code /*{type=component,variant=primary}} only visits the nodes in the intersection.
+	 * <p>
+	 * The distinct values of every attribute are also kept sorted, so a prefix filter like
+	 * {@code {variant^=button}} or a glob filter like {@code {variant%='button*'}} looks up the range
+	 * of values with the prefix by binary search and unites their bitmaps.
+	 *
+	 * @return a new index sharing the structural data of this one
+	 */
+	public TreeIndex withAttributeIndex() {
+		if (attributeBitmaps != null) {
+			return this;
+		}
+		// The nodes are added in pre-order, so every builder receives ascending ordinals
+		Map<String, Map<String, OrdinalBitmap.Builder>> builders = new HashMap<>();
+		for (int i = 0; i < nodes.length; i++) {
+			TreeNode node = nodes[i];
+			// A filter on type also matches a generic attribute named type, so both are added to one bitmap
+			addValue(builders, "type", node.getType(), i);
+			addValue(builders, "variant", node.getVariant(), i);
+			addValue(builders, "version", node.getVersion(), i);
+			for (Map.Entry<String, String> entry : node.getAttributes().entrySet()) {
+				addValue(builders, entry.getKey(), entry.getValue(), i);
+			}
+		}
+
+		Map<String, Map<String, OrdinalBitmap>> bitmaps = new HashMap<>(builders.size() * 2);
+		Map<String, String[]> sortedValues = new HashMap<>(builders.size() * 2);
+		for (Map.Entry<String, Map<String, OrdinalBitmap.Builder>> attribute : builders.entrySet()) {
+			Map<String, OrdinalBitmap> values = new HashMap<>(attribute.getValue().size() * 2);
+			for (Map.Entry<String, OrdinalBitmap.Builder> value : attribute.getValue().entrySet()) {
+				values.put(value.getKey(), value.getValue().build());
+			}
+			bitmaps.put(attribute.getKey(), values);
+			String[] dictionary = values.keySet().toArray(new String[0]);
+			Arrays.sort(dictionary);
+			sortedValues.put(attribute.getKey(), dictionary);
+		}
+		return new TreeIndex(nodes, subtreeSizes, ordinals, nameOrdinals, bitmaps, sortedValues, versionKeys,
+				versionOrdinals);
+	}
+
+	private static void addValue(Map<String, Map<String, OrdinalBitmap.Builder>> builders, String name, String value,
+								 int ordinal) {
+		if (value != null) {
+			builders.computeIfAbsent(name, n -> new HashMap<>())
+					.computeIfAbsent(value, v -> new OrdinalBitmap.Builder())
+					.add(ordinal);
+		}
+	}
+
+	/**
+	 * @return true if this index has an attribute index
+	 */
+	public boolean hasAttributeIndex() {
+		return attributeBitmaps != null;
+	}
+
+	/**
+	 * Get the nodes with an attribute value from the attribute index. Like a selector filter, the
+	 * attributes type, variant and version match the built-in properties as well as generic attributes
+	 * with these names.
+	 *
+	 * @param name the attribute name
+	 * @param value the attribute value
+	 * @return the nodes with the value in document order
+	 * @throws IllegalStateException if this index has no attribute index
+	 */
+	public List<TreeNode> getNodesByAttribute(String name, String value) {
+		if (attributeBitmaps == null) {
+			throw new IllegalStateException("The index has no attribute index");
+		}
+		List<TreeNode> result = new ArrayList<>();
+		for (int ordinal : getBitmap(name, value).toArray()) {
+			result.add(nodes[ordinal]);
+		}
+		return result;
+	}
+
+	/**
+	 * Create an index which in addition sorts the nodes by the numeric value of their version, so a
+	 * range filter like {@code {version>=3}} or {@code {version=^3.1}} becomes two binary searches
+	 * instead of a comparison per node. Like a selector filter, the version of a node and a generic
+	 * attribute named version are both indexed, versions which are not numeric are left out.
+	 *
+	 * @return a new index sharing the structural and other data of this one
+	 */
+	public TreeIndex withVersionIndex() {
+		if (versionKeys != null) {
+			return this;
+		}
+		long[] keys = new long[nodes.length * 2];
+		int[] keyOrdinals = new int[nodes.length * 2];
+		int size = 0;
+		for (int i = 0; i < nodes.length; i++) {
+			long key = nodes[i].getVersionKey();
+			if (key != VersionKey.NONE) {
+				keys[size] = key;
+				keyOrdinals[size++] = i;
+			}
+			long attributeKey = VersionKey.of(nodes[i].getAttribute("version"));
+			if (attributeKey != VersionKey.NONE && attributeKey != key) {
+				keys[size] = attributeKey;
+				keyOrdinals[size++] = i;
+			}
+		}
+
+		long[] distinct = Arrays.copyOf(keys, size);
+		Arrays.sort(distinct);
+		int distinctCount = 0;
+		for (int i = 0; i < size; i++) {
+			if (distinctCount == 0 || distinct[distinctCount - 1] != distinct[i]) {
+				distinct[distinctCount++] = distinct[i];
+			}
+		}
+		// Counting sort by key, which keeps the ordinals of each key in ascending order
+		int[] starts = new int[distinctCount + 1];
+		for (int i = 0; i < size; i++) {
+			starts[Arrays.binarySearch(distinct, 0, distinctCount, keys[i]) + 1]++;
+		}
+		for (int i = 1; i <= distinctCount; i++) {
+			starts[i] += starts[i - 1];
+		}
+		long[] sortedKeys = new long[size];
+		int[] sortedOrdinals = new int[size];
+		for (int i = 0; i < size; i++) {
+			int position = starts[Arrays.binarySearch(distinct, 0, distinctCount, keys[i])]++;
+			sortedKeys[position] = keys[i];
+			sortedOrdinals[position] = keyOrdinals[i];
+		}
+		return new TreeIndex(nodes, subtreeSizes, ordinals, nameOrdinals, attributeBitmaps, attributeValues, sortedKeys, sortedOrdinals);
+	}
+
+	/**
+	 * @return true if this index has a version index
+	 */
+	public boolean hasVersionIndex() {
+		return versionKeys != null;
+	}
+
+	/**
+	 * @return the nodes with a version key in the range of a predicate as a bitmap
+	 */
+	private OrdinalBitmap getVersionBitmap(AttributePredicate predicate) {
+		int from = lowerBound(versionKeys, predicate.getVersionFrom());
+		int to = lowerBound(versionKeys, predicate.getVersionTo());
+		return toBitmap(Arrays.copyOfRange(versionOrdinals, from, to));
+	}
+
+	/**
+	 * @return the nodes with a value of an attribute starting with a prefix as a bitmap
+	 */
+	private OrdinalBitmap getPrefixBitmap(String name, String prefix) {
+		String[] dictionary = attributeValues.get(name);
+		if (dictionary == null) {
+			return OrdinalBitmap.EMPTY;
+		}
+		// The values with the prefix follow the prefix itself in sorted order
+		int from = Arrays.binarySearch(dictionary, prefix);
+		from = from >= 0 ? from : -from - 1;
+		int to = from;
+		while (to < dictionary.length && dictionary[to].startsWith(prefix)) {
+			to++;
+		}
+		if (to - from == 1) {
+			return getBitmap(name, dictionary[from]);
+		}
+		int[][] postings = new int[to - from][];
+		int size = 0;
+		for (int i = from; i < to; i++) {
+			postings[i - from] = getBitmap(name, dictionary[i]).toArray();
+			size += postings[i - from].length;
+		}
+		int[] ordinals = new int[size];
+		size = 0;
+		for (int[] posting : postings) {
+			System.arraycopy(posting, 0, ordinals, size, posting.length);
+			size += posting.length;
+		}
+		return toBitmap(ordinals);
+	}
+
+	/**
+	 * @return a bitmap of unsorted ordinals, which may contain a node twice if it has a built-in
+	 * property and a generic attribute matching the same filter
+	 */
+	private static OrdinalBitmap toBitmap(int[] ordinals) {
+		Arrays.sort(ordinals);
+		// The builder ignores an ordinal added twice in a row
+		OrdinalBitmap.Builder builder = new OrdinalBitmap.Builder();
+		for (int ordinal : ordinals) {
+			builder.add(ordinal);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * @return the position of the first key not less than a key
+	 */
+	private static int lowerBound(long[] keys, long key) {
+		int low = 0;
+		int high = keys.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (keys[middle] < key) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private OrdinalBitmap getBitmap(String name, String value) {
+		return attributeBitmaps.getOrDefault(name, Map.of()).getOrDefault(value, OrdinalBitmap.EMPTY);
+	}
+
+	/**
+	 * Get the nodes which may match the name test and filters of a step, if the index can tell. The
+	 * bitmaps of the attribute filters are intersected with each other and with the nodes of the name,
+	 * with the nodes in the version ranges of range filters and with the nodes of the values starting
+	 * with the prefix of prefix and glob filters, the caller still checks the step and the structure of
+	 * the path against each candidate.
+	 *
+	 * @param step a step
+	 * @return the pre-order numbers of a superset of the nodes matching the step in ascending order,
+	 * or null if the index does not narrow down the nodes
+	 */
+	int[] getCandidates(SelectorStep step) {
+		SelectorStep.Kind kind = step.getKind();
+		if (kind != SelectorStep.Kind.NAME && kind != SelectorStep.Kind.WILDCARD) {
+			return null;
+		}
+		int[] names = kind == SelectorStep.Kind.NAME && nameOrdinals != null
+				? nameOrdinals.getOrDefault(step.getName(), NO_ORDINALS) : null;
+
+		OrdinalBitmap filtered = null;
+		for (AttributePredicate predicate : step.getPredicates()) {
+			OrdinalBitmap bitmap;
+			if (attributeBitmaps != null && predicate.isExact()) {
+				bitmap = getBitmap(predicate.getName(), predicate.getValue());
+			} else if (versionKeys != null && predicate.isVersionRange() && predicate.getName().equals("version")) {
+				bitmap = getVersionBitmap(predicate);
+			} else if (attributeBitmaps != null && predicate.getLiteralPrefix() != null) {
+				bitmap = getPrefixBitmap(predicate.getName(), predicate.getLiteralPrefix());
+			} else {
+				continue;
+			}
+			filtered = filtered == null ? bitmap : filtered.and(bitmap);
+		}
+		if (filtered == null) {
+			return names;
+		} else if (names == null) {
+			return filtered.toArray();
+		}
+
+		int[] result = new int[Math.min(names.length, filtered.cardinality())];
+		int size = 0;
+		for (int i = 0; i < names.length && size < result.length; i++) {
+			if (filtered.contains(names[i])) {
+				result[size++] = names[i];
+			}
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	public TreeNode getRoot() {
+		return nodes[0];
+	}
+
+	/**
+	 * @return the number of nodes in the tree
+	 */
+	public int size() {
+		return nodes.length;
+	}
+
+	/**
+	 * @param ordinal the pre-order number of a node
+	 * @return the node with the pre-order number
+	 * @throws IndexOutOfBoundsException if there is no such node
+	 */
+	public TreeNode getNode(int ordinal) {
+		return nodes[ordinal];
+	}
+
+	/**
+	 * @param node a node of the tree
+	 * @return the pre-order number of the node, 0 for the root, or -1 if the node is not indexed
+	 */
+	public int getOrdinal(TreeNode node) {
+		Integer ordinal = ordinals.get(node);
+		return ordinal != null ? ordinal : -1;
+	}
+
+	/**
+	 * @param ordinal the pre-order number of a node
+	 * @return the number of nodes in the subtree of the node, including the node itself
+	 */
+	public int getSubtreeSize(int ordinal) {
+		return subtreeSizes[ordinal];
+	}
+
+	/**
+	 * Check whether a node is a proper ancestor of another node.
+	 *
+	 * @param ancestor the possible ancestor
+	 * @param node the possible descendant
+	 * @return true if both nodes are indexed and the first one is an ancestor of the second one
+	 */
+	public boolean isAncestor(TreeNode ancestor, TreeNode node) {
+		int a = getOrdinal(ancestor);
+		int n = getOrdinal(node);
+		return a >= 0 && n > a && n < a + subtreeSizes[a];
+	}
+
+	/**
+	 * Get the descendants of a node as a range of the pre-order.
+	 *
+	 * @param node a node of the tree
+	 * @return an unmodifiable view of the descendants of the node in document order, excluding the node
+	 * itself, or an empty list if the node is not indexed
+	 */
+	public List<TreeNode> getDescendants(TreeNode node) {
+		int ordinal = getOrdinal(node);
+		if (ordinal < 0) {
+			return List.of();
+		}
+		return nodeList.subList(ordinal + 1, ordinal + subtreeSizes[ordinal]);
+	}
+}
\ No newline at end of file
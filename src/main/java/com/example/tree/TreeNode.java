@@ -1,37 +1,90 @@
 package com.example.tree;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Represents a node in the tree structure with attributes and children.
+ * <p>
+ * Types, variants, versions and attribute names and values are interned in a shared symbol table.
+ * A node with few attributes keeps them inline in one array of alternating names and values, only
+ * a node with more than {@value #INLINE_ATTRIBUTES} attributes uses a hash map.
+ * <p>
+ * The setters, {@link #addAttribute} and {@link #addChild} notify the {@link TreeChangeListener}s of
+ * the node and of its ancestors. A node below no listener does not look for listeners at all, so
+ * building a tree without listeners costs nothing extra. Changes made through the list returned by
+ * {@link #getChildren()} are not reported.
+ * <p>
+ * The same modifications also advance the {@link #getModificationStamp() modification stamp} of the
+ * node and of its ancestors, which lets a {@link ResultCache} tell whether a subtree has changed.
  */
 public class TreeNode {
+
+	/** The number of attributes kept inline before switching to a hash map */
+	static final int INLINE_ATTRIBUTES = 8;
+	private static final String[] NO_ATTRIBUTES = new String[0];
+	private static final TreeChangeListener[] NO_LISTENERS = new TreeChangeListener[0];
+	/** The source of modification stamps, only advanced after a stamp was read */
+	private static final AtomicLong CLOCK = new AtomicLong(1);
+	/** The value of the clock when a stamp was last read */
+	private static volatile long lastRead;
+
 	private String name;
 	private String type;
 	private String variant;
 	private String version;
-	private Map<String, String> attributes = new HashMap<>();
-	private List<TreeNode> children = new ArrayList<>();
+	/** The version parsed into a {@link VersionKey}, for version range filters */
+	private long versionKey = VersionKey.NONE;
+	/** Alternating attribute names and values, or null if the attributes are in the map */
+	private String[] attributes = NO_ATTRIBUTES;
+	/** The attributes of a node with many attributes, or null */
+	private Map<String, String> attributeMap;
+	private final List<TreeNode> children;
 	private TreeNode parent;
+	/** The listeners of this node, replaced as a whole when a listener is added or removed */
+	private TreeChangeListener[] listeners = NO_LISTENERS;
+	/** Whether this node or an ancestor has had a listener, set for whole subtrees */
+	private boolean observed;
+	/** The stamp of the latest modification of this node or of a descendant */
+	private volatile long modificationStamp;
 
 	public TreeNode(String name) {
 		this.name = name;
+		this.children = new ArrayList<>();
 	}
 
 	public TreeNode(String name, String type, String variant) {
 		this.name = name;
-		this.type = type;
-		this.variant = variant;
+		this.children = new ArrayList<>();
+		this.type = SymbolTable.intern(type);
+		this.variant = SymbolTable.intern(variant);
 	}
 
 	public TreeNode(String name, String type, String variant, String version) {
 		this.name = name;
-		this.type = type;
-		this.variant = variant;
-		this.version = version;
+		this.children = new ArrayList<>();
+		this.type = SymbolTable.intern(type);
+		this.variant = SymbolTable.intern(variant);
+		this.version = SymbolTable.intern(version);
+		this.versionKey = VersionKey.of(version);
+	}
+
+	/**
+	 * Create a node for a read-only view which overrides the getters and has no storage of its own.
+	 */
+	TreeNode() {
+		this.children = List.of();
 	}
 
 	public String getName() {
@@ -39,7 +92,12 @@ public class TreeNode {
 	}
 
 	public void setName(String name) {
+		String oldName = this.name;
 		this.name = name;
+		touch();
+		if (observed && !Objects.equals(oldName, name)) {
+			fire(new TreeChangeEvent(TreeChangeEvent.Kind.NAME_CHANGED, this, null, null, oldName, name));
+		}
 	}
 
 	public String getType() {
@@ -47,7 +105,12 @@ public class TreeNode {
 	}
 
 	public void setType(String type) {
-		this.type = type;
+		String oldType = this.type;
+		this.type = SymbolTable.intern(type);
+		touch();
+		if (observed && !Objects.equals(oldType, type)) {
+			fire(new TreeChangeEvent(TreeChangeEvent.Kind.TYPE_CHANGED, this, null, null, oldType, this.type));
+		}
 	}
 
 	public String getVariant() {
@@ -55,7 +118,12 @@ public class TreeNode {
 	}
 
 	public void setVariant(String variant) {
-		this.variant = variant;
+		String oldVariant = this.variant;
+		this.variant = SymbolTable.intern(variant);
+		touch();
+		if (observed && !Objects.equals(oldVariant, variant)) {
+			fire(new TreeChangeEvent(TreeChangeEvent.Kind.VARIANT_CHANGED, this, null, null, oldVariant, this.variant));
+		}
 	}
 
 	public String getVersion() {
@@ -63,24 +131,96 @@ public class TreeNode {
 	}
 
 	public void setVersion(String version) {
-		this.version = version;
+		String oldVersion = this.version;
+		this.version = SymbolTable.intern(version);
+		this.versionKey = VersionKey.of(version);
+		touch();
+		if (observed && !Objects.equals(oldVersion, version)) {
+			fire(new TreeChangeEvent(TreeChangeEvent.Kind.VERSION_CHANGED, this, null, null, oldVersion, this.version));
+		}
+	}
+
+	/**
+	 * @return the version parsed once when it was set, or {@link VersionKey#NONE} if it is not numeric
+	 */
+	long getVersionKey() {
+		return versionKey;
 	}
 
 	public void addAttribute(String key, String value) {
-		attributes.put(key, value);
+		key = SymbolTable.intern(key);
+		value = SymbolTable.intern(value);
+		touch();
+		if (!observed) {
+			putAttribute(key, value);
+			return;
+		}
+		String oldValue = getAttribute(key);
+		putAttribute(key, value);
+		if (!Objects.equals(oldValue, value)) {
+			fire(new TreeChangeEvent(TreeChangeEvent.Kind.ATTRIBUTE_CHANGED, this, null, key, oldValue, value));
+		}
+	}
+
+	private void putAttribute(String key, String value) {
+		if (attributes == null) {
+			attributeMap.put(key, value);
+			return;
+		}
+		for (int i = 0; i < attributes.length; i += 2) {
+			if (Objects.equals(attributes[i], key)) {
+				attributes[i + 1] = value;
+				return;
+			}
+		}
+		if (attributes.length < 2 * INLINE_ATTRIBUTES) {
+			String[] grown = new String[attributes.length + 2];
+			System.arraycopy(attributes, 0, grown, 0, attributes.length);
+			grown[attributes.length] = key;
+			grown[attributes.length + 1] = value;
+			attributes = grown;
+			return;
+		}
+
+		// Too many attributes to search linearly
+		attributeMap = new HashMap<>(4 * INLINE_ATTRIBUTES);
+		for (int i = 0; i < attributes.length; i += 2) {
+			attributeMap.put(attributes[i], attributes[i + 1]);
+		}
+		attributeMap.put(key, value);
+		attributes = null;
 	}
 
 	public String getAttribute(String key) {
-		return attributes.get(key);
+		String[] inline = attributes;
+		if (inline == null) {
+			return attributeMap.get(key);
+		}
+		for (int i = 0; i < inline.length; i += 2) {
+			// Interned names usually match by reference
+			String name = inline[i];
+			if (Objects.equals(name, key)) {
+				return inline[i + 1];
+			}
+		}
+		return null;
 	}
 
+	/**
+	 * @return a read-only view of the attributes of this node
+	 */
 	public Map<String, String> getAttributes() {
-		return attributes;
+		return attributes == null ? Collections.unmodifiableMap(attributeMap) : new AttributeView();
 	}
 
 	public void addChild(TreeNode child) {
 		children.add(child);
 		child.parent = this;  // Set the parent reference
+		touch();
+		if (observed) {
+			child.markObserved();
+			fire(new TreeChangeEvent(TreeChangeEvent.Kind.CHILD_ADDED, this, child, null, null, null));
+		}
 	}
 
 	public List<TreeNode> getChildren() {
@@ -91,10 +231,185 @@ public class TreeNode {
 		return parent;
 	}
 
+	/**
+	 * Get the node the selector engines walk in place of this node when it is the root of a walk. The
+	 * walk must visit nodes with the same properties in the same order, but they do not need to know
+	 * their parent, since the walk keeps the path to the current node itself. Matches are mapped back
+	 * to the children of this node by their positions.
+	 *
+	 * @return the node to walk, this node by default
+	 */
+	TreeNode getWalkRoot() {
+		return this;
+	}
+
+	/**
+	 * Get the stamp of the latest modification of this node or of one of its descendants, made
+	 * through the setters, {@link #addAttribute} or {@link #addChild}. The stamp of a subtree changes
+	 * whenever the subtree is modified after the stamp was read, so two equal reads prove that the
+	 * subtree was not modified in between. Stamps only grow and are not counters of modifications.
+	 *
+	 * @return the modification stamp of the subtree of this node
+	 */
+	public long getModificationStamp() {
+		// Publish the read first, so the next modification takes a new stamp. Only write the shared
+		// field when the clock has moved, repeated reads of an unmodified tree do not contend on it
+		long now = CLOCK.get();
+		if (lastRead != now) {
+			lastRead = now;
+		}
+		return modificationStamp;
+	}
+
+	/**
+	 * Stamp this node and its ancestors with the current clock. The clock only advances if a stamp was
+	 * read since it last advanced, and the walk stops at the first ancestor already stamped, so
+	 * building a tree without reading stamps costs a constant per modification.
+	 */
+	private void touch() {
+		long now = CLOCK.get();
+		if (lastRead == now) {
+			CLOCK.compareAndSet(now, now + 1);
+			now = CLOCK.get();
+		}
+		for (TreeNode node = this; node != null && node.modificationStamp < now; node = node.parent) {
+			node.modificationStamp = now;
+		}
+	}
+
+	/**
+	 * Add a listener for the changes of this node and of all its descendants. Listeners are called on
+	 * the modifying thread, those of a node before those of its ancestors.
+	 *
+	 * @param listener the listener
+	 */
+	public void addTreeChangeListener(TreeChangeListener listener) {
+		Objects.requireNonNull(listener, "The listener cannot be null");
+		TreeChangeListener[] grown = Arrays.copyOf(listeners, listeners.length + 1);
+		grown[listeners.length] = listener;
+		listeners = grown;
+		markObserved();
+	}
+
+	/**
+	 * @param listener a listener added to this node
+	 * @return true if the listener was removed
+	 */
+	public boolean removeTreeChangeListener(TreeChangeListener listener) {
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] == listener) {
+				TreeChangeListener[] shrunk = new TreeChangeListener[listeners.length - 1];
+				System.arraycopy(listeners, 0, shrunk, 0, i);
+				System.arraycopy(listeners, i + 1, shrunk, i, shrunk.length - i);
+				listeners = shrunk;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Mark this node and its descendants as observed, skipping subtrees which already are.
+	 */
+	private void markObserved() {
+		if (observed) {
+			return;
+		}
+		List<TreeNode> stack = new ArrayList<>();
+		stack.add(this);
+		while (!stack.isEmpty()) {
+			TreeNode node = stack.remove(stack.size() - 1);
+			node.observed = true;
+			for (TreeNode child : node.children) {
+				if (!child.observed) {
+					stack.add(child);
+				}
+			}
+		}
+	}
+
+	private void fire(TreeChangeEvent event) {
+		for (TreeNode node = this; node != null; node = node.parent) {
+			for (TreeChangeListener listener : node.listeners) {
+				listener.treeChanged(event);
+			}
+		}
+	}
+
 	@Override
 	public String toString() {
 		return "TreeNode{name='" + name + "', type='" + type + "', variant='" + variant +
 				(version != null ? "', version='" + version : "") +
 				"', children=" + children.size() + "}";
 	}
+
+	/**
+	 * A read-only view of the attributes, iterating inline attributes in the order they were added.
+	 */
+	private final class AttributeView extends AbstractMap<String, String> {
+
+		@Override
+		public int size() {
+			String[] inline = attributes;
+			return inline != null ? inline.length / 2 : attributeMap.size();
+		}
+
+		@Override
+		public String get(Object key) {
+			return key instanceof String name ? getAttribute(name) : null;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			if (!(key instanceof String name)) {
+				return false;
+			}
+			String[] inline = attributes;
+			if (inline == null) {
+				return attributeMap.containsKey(name);
+			}
+			for (int i = 0; i < inline.length; i += 2) {
+				if (Objects.equals(inline[i], name)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public Set<Entry<String, String>> entrySet() {
+			return new AbstractSet<>() {
+				@Override
+				public int size() {
+					return AttributeView.this.size();
+				}
+
+				@Override
+				public Iterator<Entry<String, String>> iterator() {
+					String[] inline = attributes;
+					if (inline == null) {
+						return Collections.unmodifiableMap(attributeMap).entrySet().iterator();
+					}
+					return new Iterator<>() {
+						private int position;
+
+						@Override
+						public boolean hasNext() {
+							return position < inline.length;
+						}
+
+						@Override
+						public Entry<String, String> next() {
+							if (position >= inline.length) {
+								throw new NoSuchElementException();
+							}
+							Entry<String, String> entry = new SimpleImmutableEntry<>(inline[position], inline[position + 1]);
+							position += 2;
+							return entry;
+						}
+					};
+				}
+			};
+		}
+	}
 }
\ No newline at end of file
@@ -1,99 +1,422 @@
 package com.example.tree;
 
-import org.antlr.v4.runtime.CharStreams;
-import org.antlr.v4.runtime.CommonTokenStream;
-import org.antlr.v4.runtime.tree.ParseTreeWalker;
-
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 /**
  * Main class for selecting nodes from a tree using selector expressions.
+ * Expressions are compiled once and kept in a {@link SelectorCache}, which by default
+ * is shared by all selectors, so repeated expressions are not parsed again.
  */
 public class TreeSelector {
 
-	private TreeNode rootNode;
+	private static final SelectorCache DEFAULT_CACHE = new SelectorCache();
+
+	/** The default number of nodes below which a part of the tree is not split for parallel evaluation */
+	public static final int DEFAULT_MIN_SUBTREE_SIZE = 8192;
+
+	private final TreeNode rootNode;
+	private final SelectorCache cache;
+	private final SelectorEngine engine;
+	private final TreeIndex index;
+	private final ForkJoinPool pool;
+	private final int minSubtreeSize;
+	private final ResultCache resultCache;
 
 	public TreeSelector(TreeNode rootNode) {
+		this(rootNode, DEFAULT_CACHE);
+	}
+
+	/**
+	 * @param rootNode the root node of the tree to select from
+	 * @param cache the cache used to look up compiled selectors
+	 */
+	public TreeSelector(TreeNode rootNode, SelectorCache cache) {
+		this(rootNode, cache, SelectorEngine.INTERPRETER, null, null, DEFAULT_MIN_SUBTREE_SIZE, null);
+	}
+
+	private TreeSelector(TreeNode rootNode, SelectorCache cache, SelectorEngine engine, TreeIndex index,
+						 ForkJoinPool pool, int minSubtreeSize, ResultCache resultCache) {
 		this.rootNode = rootNode;
+		this.cache = cache;
+		this.engine = engine;
+		this.index = index;
+		this.pool = pool;
+		this.minSubtreeSize = minSubtreeSize;
+		this.resultCache = resultCache;
+	}
+
+	/**
+	 * Create a selector for the same tree and cache which evaluates with the given engine.
+	 *
+	 * @param engine the engine to use
+	 * @return a new selector
+	 */
+	public TreeSelector withEngine(SelectorEngine engine) {
+		return new TreeSelector(rootNode, cache, engine, index, pool, minSubtreeSize, resultCache);
+	}
+
+	public SelectorEngine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * Create a selector for the same tree and cache which uses a structural index of the tree.
+	 * Placeholder and deep steps then scan ranges of the pre-order instead of descending through
+	 * the child lists. The index must be built again after the tree is modified.
+	 *
+	 * @param index the index built for the root node of this selector, or null for none
+	 * @return a new selector
+	 * @throws IllegalArgumentException if the index was built for another root node
+	 * @throws IllegalStateException if the index is null and this selector evaluates in parallel
+	 */
+	public TreeSelector withIndex(TreeIndex index) {
+		if (index != null && index.getRoot() != rootNode) {
+			throw new IllegalArgumentException("The index was built for another root node");
+		}
+		if (index == null && pool != null) {
+			throw new IllegalStateException("Parallel evaluation requires a structural index");
+		}
+		return new TreeSelector(rootNode, cache, engine, index, pool, minSubtreeSize, resultCache);
+	}
+
+	/**
+	 * @return the structural index used by this selector, or null
+	 */
+	public TreeIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * Create a selector for the same tree and cache which evaluates {@link #select(String)} and
+	 * {@link #count(String)} with fork/join tasks in the given pool. The tree is split into ranges of
+	 * sibling subtrees, and ranges smaller than the minimum subtree size are walked serially, so the
+	 * nodes are still returned in document order. The split relies on the subtree sizes of the index,
+	 * so this selector must have one, see {@link #withIndex(TreeIndex)}. If the tree has fewer nodes
+	 * than the minimum subtree size, queries are evaluated serially on the calling thread. Evaluation
+	 * with the bytecode engine, branches with a parent step and short-circuiting queries are always serial.
+	 * <p>
+	 * The tree must not be modified while a query runs.
+	 *
+	 * @param pool the pool running the tasks, or null to evaluate serially
+	 * @param minSubtreeSize the number of nodes below which a part of the tree is not split
+	 * @return a new selector
+	 * @throws IllegalArgumentException if minSubtreeSize is less than 1
+	 * @throws IllegalStateException if the pool is not null and this selector has no index
+	 */
+	public TreeSelector withParallelism(ForkJoinPool pool, int minSubtreeSize) {
+		if (minSubtreeSize < 1) {
+			throw new IllegalArgumentException("The minimum subtree size must be at least 1: " + minSubtreeSize);
+		}
+		if (pool != null && index == null) {
+			throw new IllegalStateException("Parallel evaluation requires a structural index, see withIndex(TreeIndex)");
+		}
+		return new TreeSelector(rootNode, cache, engine, index, pool, minSubtreeSize, resultCache);
+	}
+
+	/**
+	 * Create a selector which evaluates with fork/join tasks in the given pool, splitting the tree
+	 * down to {@link #DEFAULT_MIN_SUBTREE_SIZE} nodes.
+	 *
+	 * @param pool the pool running the tasks, or null to evaluate serially
+	 * @return a new selector
+	 * @throws IllegalStateException if the pool is not null and this selector has no index
+	 * @see #withParallelism(ForkJoinPool, int)
+	 */
+	public TreeSelector withParallelism(ForkJoinPool pool) {
+		return withParallelism(pool, DEFAULT_MIN_SUBTREE_SIZE);
+	}
+
+	/**
+	 * @return the pool used for parallel evaluation, or null if this selector evaluates serially
+	 */
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+
+	public int getMinSubtreeSize() {
+		return minSubtreeSize;
+	}
+
+	/**
+	 * Create a selector for the same tree and cache which keeps the results of {@link #select(String)}
+	 * and {@link #count(String)} in a result cache. A result is reused until the subtree of the root
+	 * node is modified through the methods of {@link TreeNode}; changes made directly to the list
+	 * returned by {@link TreeNode#getChildren()} are not noticed. A result cache can be shared by
+	 * selectors for different trees.
+	 *
+	 * @param resultCache the cache of results, or null to evaluate every query
+	 * @return a new selector
+	 */
+	public TreeSelector withResultCache(ResultCache resultCache) {
+		return new TreeSelector(rootNode, cache, engine, index, pool, minSubtreeSize, resultCache);
+	}
+
+	/**
+	 * @return the cache of results used by this selector, or null
+	 */
+	public ResultCache getResultCache() {
+		return resultCache;
+	}
+
+	/**
+	 * @return the cache shared by all selectors created without an explicit cache
+	 */
+	public static SelectorCache getDefaultCache() {
+		return DEFAULT_CACHE;
+	}
+
+	/**
+	 * Select nodes from a flat tree, e.g. a snapshot mapped with {@link TreeSnapshot#map}, using the
+	 * default cache. No tree nodes are created, the result consists of handles into the flat tree.
+	 *
+	 * @param tree the flat tree
+	 * @param selectorExpression the selector expression
+	 * @return handles of the matching nodes in document order, empty for invalid expressions
+	 * @throws NullPointerException if selectorExpression is null
+	 */
+	public static List<FlatNode> select(FlatTree tree, String selectorExpression) {
+		return DEFAULT_CACHE.get(selectorExpression).select(tree);
+	}
+
+	/**
+	 * Get the compiled form of a selector expression from the cache of this selector.
+	 *
+	 * @param selectorExpression the selector expression
+	 * @return the compiled selector, which is invalid if the expression could not be parsed
+	 * @throws NullPointerException if selectorExpression is null
+	 */
+	public CompiledSelector compile(String selectorExpression) {
+		return cache.get(selectorExpression);
+	}
+
+	/**
+	 * Compile a set of expressions ahead of time, typically at startup, so that the first live
+	 * requests neither parse them nor pay for the initialization of the parsers. The compiled
+	 * selectors are put into the cache of this selector and prepared for its engine.
+	 *
+	 * @param selectorExpressions the expressions to prepare
+	 * @return the compiled selectors of the expressions which are invalid
+	 * @throws NullPointerException if one of the expressions is null
+	 */
+	public List<CompiledSelector> warmUp(Collection<String> selectorExpressions) {
+		List<CompiledSelector> invalidSelectors = new ArrayList<>();
+		for (String selectorExpression : selectorExpressions) {
+			CompiledSelector compiledSelector = cache.get(selectorExpression);
+			SelectorCompiler.warmUp(selectorExpression);
+			compiledSelector.prepare(engine);
+			if (!compiledSelector.isValid()) {
+				invalidSelectors.add(compiledSelector);
+			}
+		}
+		return invalidSelectors;
 	}
 
 	/**
 	 * Select nodes from the tree using a selector expression.
 	 * Supports multiple selectors separated by pipe (|) character.
+	 * The nodes are returned in document order, i.e. the pre-order of the tree, whatever the order
+	 * of the branches and the engine.
 	 *
 	 * @param selectorExpression the selector expression (e.g. "/Root/Child2" or "/Root/Child1|/Root/Child2")
-	 * @return a list of matching nodes
+	 * @return a list of matching nodes in document order
 	 * @throws NullPointerException if selectorExpression is null
 	 */
 	public List<TreeNode> select(String selectorExpression) {
-		// Explicitly check for null to ensure the NullPointerException is thrown consistently
+		CompiledSelector compiledSelector = compileNonNull(selectorExpression);
+		if (resultCache != null) {
+			// Cached results are shared, callers get their own copy
+			return new ArrayList<>(resultCache.get(compiledSelector, rootNode, () -> evaluate(compiledSelector)));
+		}
+		return evaluate(compiledSelector);
+	}
+
+	private List<TreeNode> evaluate(CompiledSelector compiledSelector) {
+		if (isParallel()) {
+			return compiledSelector.select(rootNode, index, pool, minSubtreeSize);
+		}
+		return compiledSelector.select(rootNode, index, engine);
+	}
+
+	/**
+	 * Select nodes relative to a context node of the tree, as if the context node were the root.
+	 * A branch starting with a step instead of a slash starts at the context node itself, so
+	 * {@code ./Child}, {@code Child} and {@code *} select children of the context node, {@code ~~}
+	 * all its descendants and {@code ..} its parent. A branch starting with {@code /} or {@code **}
+	 * keeps its meaning with the context node as root, e.g. {@code /Child2/GrandChild1} for the
+	 * context node Child2. Only the subtree of the context node is walked, plus the nodes reached
+	 * through parent steps, so the cost of a query does not depend on the size of the whole tree.
+	 * Nodes reached above the context node are ordered with the others in the document order of the
+	 * whole tree. The structural index of this selector is only used if the context node is the root.
+	 *
+	 * @param context a node of the tree of this selector
+	 * @param selectorExpression the selector expression, relative to the context node
+	 * @return a list of matching nodes in document order, empty for invalid expressions
+	 * @throws NullPointerException if context or selectorExpression is null
+	 * @throws IllegalArgumentException if the context node is not part of the tree of this selector
+	 */
+	public List<TreeNode> select(TreeNode context, String selectorExpression) {
+		if (context == null) {
+			throw new NullPointerException("Context node cannot be null");
+		}
 		if (selectorExpression == null) {
 			throw new NullPointerException("Selector expression cannot be null");
 		}
-
-		// Check for empty string
-		if (selectorExpression.isEmpty()) {
-			return new ArrayList<>();
+		TreeNode ancestor = context;
+		while (ancestor != rootNode) {
+			ancestor = ancestor.getParent();
+			if (ancestor == null) {
+				throw new IllegalArgumentException("The context node is not part of the tree: " + context);
+			}
 		}
 
-		// Check if selector starts with valid syntax (/ or **)
-		if (!(selectorExpression.startsWith("/") || selectorExpression.startsWith("**"))) {
-			return new ArrayList<>(); // Invalid syntax, return empty list
+		CompiledSelector compiledSelector = cache.getRelative(selectorExpression);
+		// The index numbers the whole tree, a subtree is walked through its child lists instead
+		Supplier<List<TreeNode>> evaluation = context == rootNode
+				? () -> evaluate(compiledSelector)
+				: () -> compiledSelector.select(context, null, engine);
+		if (resultCache != null) {
+			return new ArrayList<>(resultCache.get(compiledSelector, context, evaluation));
 		}
+		return evaluation.get();
+	}
 
-		try {
-			// Create lexer and parser
-			TreeSelectorLexer lexer = new TreeSelectorLexer(CharStreams.fromString(selectorExpression));
-			CommonTokenStream tokens = new CommonTokenStream(lexer);
-			TreeSelectorParser parser = new TreeSelectorParser(tokens);
+	/**
+	 * Select nodes for many independent selector expressions at once. All expressions are merged into
+	 * one shared automaton and the tree is walked a single time, routing each node to every expression
+	 * matching it, so the cost follows the size of the tree and the number of matches rather than the
+	 * size of the tree times the number of expressions. Branches with a parent step are evaluated
+	 * separately for their expression. Batches are always evaluated by the interpreter, whatever the
+	 * engine of this selector.
+	 *
+	 * @param selectorExpressions the selector expressions
+	 * @return the matching nodes in document order per distinct expression, in the order of the
+	 * expressions; the nodes of an invalid expression are an empty list
+	 * @throws NullPointerException if one of the expressions is null
+	 */
+	public Map<String, List<TreeNode>> selectAll(Collection<String> selectorExpressions) {
+		Map<String, CompiledSelector> compiledSelectors = new LinkedHashMap<>();
+		List<CompiledSelector> validSelectors = new ArrayList<>();
+		for (String selectorExpression : selectorExpressions) {
+			if (!compiledSelectors.containsKey(selectorExpression)) {
+				CompiledSelector compiledSelector = compileNonNull(selectorExpression);
+				compiledSelectors.put(selectorExpression, compiledSelector);
+				if (compiledSelector.isValid()) {
+					validSelectors.add(compiledSelector);
+				}
+			}
+		}
 
-			// Parse the expression as a multiSelector
-			TreeSelectorParser.MultiSelectorContext multiSelectorContext = parser.multiSelector();
+		List<List<TreeNode>> results = BatchAutomaton.build(validSelectors).evaluate(rootNode, index);
+		Map<String, List<TreeNode>> resultMap = new LinkedHashMap<>();
+		int next = 0;
+		for (Map.Entry<String, CompiledSelector> entry : compiledSelectors.entrySet()) {
+			resultMap.put(entry.getKey(), entry.getValue().isValid() ? results.get(next++) : new ArrayList<>());
+		}
+		return resultMap;
+	}
 
-			// Use a set to avoid duplicate results when multiple selectors match the same nodes
-			Set<TreeNode> resultSet = new HashSet<>();
+	/**
+	 * Create a query whose result follows the changes of the tree. The result is computed once and then
+	 * updated incrementally from the change events of the tree, see {@link LiveQuery}. The query keeps
+	 * listening until it is closed.
+	 *
+	 * @param selectorExpression the selector expression
+	 * @return the live query, with an empty result if the expression is invalid
+	 * @throws NullPointerException if selectorExpression is null
+	 */
+	public LiveQuery live(String selectorExpression) {
+		return new LiveQuery(rootNode, compileNonNull(selectorExpression));
+	}
 
-			// Process each selector expression
-			for (TreeSelectorParser.SelectorExpressionContext selectorExprContext : multiSelectorContext.selectorExpression()) {
-				if (selectorExprContext.selector() != null) {
-					// Regular selector
-					TreeSelectorParser.SelectorContext selectorContext = selectorExprContext.selector();
+	/**
+	 * Select at most a given number of nodes. The tree is only walked until the limit is reached.
+	 * Short-circuiting queries are always evaluated by the interpreter, whatever the engine of this selector.
+	 *
+	 * @param selectorExpression the selector expression
+	 * @param limit the maximum number of nodes to return
+	 * @return the first matching nodes in document order
+	 * @throws NullPointerException if selectorExpression is null
+	 * @throws IllegalArgumentException if limit is negative
+	 */
+	public List<TreeNode> select(String selectorExpression, int limit) {
+		return compileNonNull(selectorExpression).select(rootNode, index, limit);
+	}
 
-					// Create a listener to walk the parse tree for this selector
-					TreeSelectorListenerImpl listener = new TreeSelectorListenerImpl(rootNode);
-					ParseTreeWalker walker = new ParseTreeWalker();
-					walker.walk(listener, selectorContext);
+	/**
+	 * Find the first node in document order matching a selector expression.
+	 *
+	 * @param selectorExpression the selector expression
+	 * @return the first matching node, empty if there is none or the expression is invalid
+	 * @throws NullPointerException if selectorExpression is null
+	 */
+	public Optional<TreeNode> selectFirst(String selectorExpression) {
+		return compileNonNull(selectorExpression).selectFirst(rootNode, index);
+	}
 
-					// Add results from this selector to the set
-					resultSet.addAll(listener.getResultNodes());
-				} else if (selectorExprContext.deepSelector() != null) {
-					// Deep traversal selector
-					TreeSelectorParser.DeepSelectorContext deepSelectorContext = selectorExprContext.deepSelector();
+	/**
+	 * Check whether a selector expression matches any node. The walk stops at the first match.
+	 *
+	 * @param selectorExpression the selector expression
+	 * @return true if at least one node matches
+	 * @throws NullPointerException if selectorExpression is null
+	 */
+	public boolean exists(String selectorExpression) {
+		return compileNonNull(selectorExpression).selectFirst(rootNode, index).isPresent();
+	}
 
-					// Create a deep listener to walk the parse tree for this selector
-					DeepTreeSelectorListenerImpl deepListener = new DeepTreeSelectorListenerImpl(rootNode);
-					ParseTreeWalker walker = new ParseTreeWalker();
-					walker.walk(deepListener, deepSelectorContext);
+	/**
+	 * Count the nodes matching a selector expression without building the result list.
+	 *
+	 * @param selectorExpression the selector expression
+	 * @return the number of matching nodes, 0 if the expression is invalid
+	 * @throws NullPointerException if selectorExpression is null
+	 */
+	public int count(String selectorExpression) {
+		CompiledSelector compiledSelector = compileNonNull(selectorExpression);
+		if (resultCache != null) {
+			return resultCache.get(compiledSelector, rootNode, () -> evaluate(compiledSelector)).size();
+		}
+		if (isParallel()) {
+			return compiledSelector.select(rootNode, index, pool, minSubtreeSize).size();
+		}
+		return compiledSelector.count(rootNode, index);
+	}
 
-					// Add results from this deep selector to the set
-					resultSet.addAll(deepListener.getResultNodes());
-				}
-			}
+	/**
+	 * Select nodes from the tree lazily. The matches are produced in document order while the tree is
+	 * walked, without building intermediate node lists, so deep ({@code **}) and placeholder ({@code ~~})
+	 * queries only keep the path to the current node in memory. Streams are always evaluated by the
+	 * interpreter, whatever the engine of this selector.
+	 *
+	 * @param selectorExpression the selector expression (e.g. "/Root/~~{type=element}")
+	 * @return a sequential stream of the matching nodes, empty if the expression is invalid
+	 * @throws NullPointerException if selectorExpression is null
+	 */
+	public Stream<TreeNode> stream(String selectorExpression) {
+		return compileNonNull(selectorExpression).stream(rootNode, index);
+	}
 
-			// Convert set to list to maintain the existing API
-			return new ArrayList<>(resultSet);
+	/**
+	 * @return true if queries are large enough to be split into fork/join tasks
+	 */
+	private boolean isParallel() {
+		// A selector with a pool always has an index
+		return pool != null && engine == SelectorEngine.INTERPRETER && index.size() >= minSubtreeSize;
+	}
 
-		} catch (NullPointerException e) {
-			// Re-throw NullPointerException to maintain expected behavior
-			throw e;
-		} catch (Exception e) {
-			// This will catch RecognitionException and other parser errors
-			System.err.println("Error parsing selector expression: " + e.getMessage());
-			e.printStackTrace();
-			return new ArrayList<>();
+	private CompiledSelector compileNonNull(String selectorExpression) {
+		// Explicitly check for null to ensure the NullPointerException is thrown consistently
+		if (selectorExpression == null) {
+			throw new NullPointerException("Selector expression cannot be null");
 		}
+		return cache.get(selectorExpression);
 	}
 }
\ No newline at end of file
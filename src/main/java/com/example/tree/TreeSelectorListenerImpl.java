@@ -7,7 +7,10 @@ import java.util.Set;
 
 /**
  * A listener for the ANTLR-generated parse tree to process tree selector expressions.
+ *
+ * @deprecated {@link TreeSelector} evaluates {@link CompiledSelector} plans instead of walking parse trees
  */
+@Deprecated
 public class TreeSelectorListenerImpl extends TreeSelectorBaseListener {
 
 	private final TreeNode rootNode;
@@ -232,35 +235,19 @@ public class TreeSelectorListenerImpl extends TreeSelectorBaseListener {
 			return nodes;
 		}
 
+		// Create the predicates once, they treat "*" as a wildcard and compare version ranges
+		List<AttributePredicate> predicates = new ArrayList<>();
+		for (TreeSelectorParser.AttributeExprContext exprCtx : attrSelector.attributeExpr()) {
+			predicates.add(SelectorCompiler.createPredicate(exprCtx));
+		}
+
 		// For each node, check if it matches ALL attribute expressions
 		for (TreeNode node : nodes) {
 			boolean matchesAllAttributes = true;
 
-			// Check each attribute expression
-			for (TreeSelectorParser.AttributeExprContext exprCtx : attrSelector.attributeExpr()) {
-				String attrName = cleanAttributeValue(exprCtx.attributeName().getText());
-				String attrValue = cleanAttributeValue(exprCtx.attributeValue().getText());
-
-				// If attribute value is "*", treat it as a wildcard (always matches)
-				if ("*".equals(attrValue)) {
-					continue; // Skip this attribute check, equivalent to ignoring it
-				}
-
-				// Check if the node matches this specific attribute expression
-				boolean matchesThisAttribute = false;
-
-				if ("type".equals(attrName) && attrValue.equals(node.getType())) {
-					matchesThisAttribute = true;
-				} else if ("variant".equals(attrName) && attrValue.equals(node.getVariant())) {
-					matchesThisAttribute = true;
-				} else if ("version".equals(attrName) && compareVersions(attrValue, node.getVersion())) {
-					matchesThisAttribute = true;
-				} else if (attrValue.equals(node.getAttribute(attrName))) {
-					matchesThisAttribute = true;
-				}
-
-				// If any attribute expression doesn't match, the node doesn't match
-				if (!matchesThisAttribute) {
+			// If any attribute expression doesn't match, the node doesn't match
+			for (AttributePredicate predicate : predicates) {
+				if (!predicate.matches(node)) {
 					matchesAllAttributes = false;
 					break;
 				}
@@ -275,35 +262,6 @@ public class TreeSelectorListenerImpl extends TreeSelectorBaseListener {
 		return filteredNodes;
 	}
 
-	/**
-	 * Compare version strings.
-	 *
-	 * @param selectorVersion Version from selector
-	 * @param nodeVersion Version from node
-	 * @return true if versions match, false otherwise
-	 */
-	private boolean compareVersions(String selectorVersion, String nodeVersion) {
-		if (selectorVersion == null || nodeVersion == null) {
-			return false;
-		}
-
-		// Direct string match
-		return selectorVersion.equals(nodeVersion);
-	}
-
-	/**
-	 * Clean an attribute value by removing surrounding quotes if present.
-	 *
-	 * @param value The raw attribute value from the parser
-	 * @return The cleaned attribute value
-	 */
-	private String cleanAttributeValue(String value) {
-		if (value.startsWith("'") && value.endsWith("'")) {
-			return value.substring(1, value.length() - 1);
-		}
-		return value;
-	}
-
 	public List<TreeNode> getResultNodes() {
 		return resultNodes;
 	}
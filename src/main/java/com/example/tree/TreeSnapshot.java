@@ -0,0 +1,119 @@
+package com.example.tree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes binary snapshot files of trees. A snapshot is a 16-byte header followed by the data
+ * of a {@link FlatTree}: the structure, the symbol numbers of the names and attributes, and the symbol
+ * table. It is memory-mapped read-only when it is opened, so selectors are evaluated against the pages
+ * of the file without creating a node object, and processes mapping the same file share its pages in
+ * the page cache.
+ * <p>
+ * The header holds the magic number {@code TSNP}, the format version and the length of the data, all
+ * little-endian. Files of another format version are rejected.
+ */
+public final class TreeSnapshot {
+
+	/** The version of the format written by this class */
+	public static final int FORMAT_VERSION = 1;
+
+	private static final int MAGIC = 0x504E5354;
+	private static final int HEADER_BYTES = 16;
+
+	private TreeSnapshot() {
+	}
+
+	/**
+	 * Write the snapshot of a tree. The file is written next to the target and then moved over it, so
+	 * processes mapping the target never see a partly written file.
+	 *
+	 * @param rootNode the root node of the tree
+	 * @param file the snapshot file, replaced if it exists
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void write(TreeNode rootNode, Path file) throws IOException {
+		write(FlatTree.build(rootNode), file);
+	}
+
+	/**
+	 * Write the snapshot of a flat tree.
+	 *
+	 * @param tree the flat tree
+	 * @param file the snapshot file, replaced if it exists
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void write(FlatTree tree, Path file) throws IOException {
+		ByteBuffer data = tree.getBuffer();
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN)
+				.putInt(MAGIC)
+				.putInt(FORMAT_VERSION)
+				.putLong(data.remaining())
+				.flip();
+
+		Path directory = file.toAbsolutePath().getParent();
+		Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING)) {
+				while (header.hasRemaining() || data.hasRemaining()) {
+					channel.write(new ByteBuffer[]{header, data});
+				}
+				channel.force(false);
+			}
+			try {
+				Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	/**
+	 * Map a snapshot file read-only. The mapping stays valid after this method returns and is released
+	 * when the returned tree is garbage collected. The file must not be modified in place while it is
+	 * mapped; {@link #write(FlatTree, Path)} replaces it instead.
+	 *
+	 * @param file the snapshot file
+	 * @return the flat tree backed by the mapped file
+	 * @throws IOException if the file cannot be read or is not a snapshot of this format version
+	 */
+	public static FlatTree map(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_BYTES) {
+				throw new IOException("Not a tree snapshot: " + file);
+			} else if (size - HEADER_BYTES > Integer.MAX_VALUE) {
+				throw new IOException("Tree snapshot too large to map: " + file);
+			}
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			mapped.order(ByteOrder.LITTLE_ENDIAN);
+			if (mapped.getInt(0) != MAGIC) {
+				throw new IOException("Not a tree snapshot: " + file);
+			}
+			int version = mapped.getInt(4);
+			if (version != FORMAT_VERSION) {
+				throw new IOException("Unsupported tree snapshot version " + version + ": " + file);
+			}
+			long length = mapped.getLong(8);
+			if (length != size - HEADER_BYTES) {
+				throw new IOException("Truncated tree snapshot: " + file);
+			}
+			try {
+				return new FlatTree(mapped.slice(HEADER_BYTES, (int) length));
+			} catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+				throw new IOException("Corrupt tree snapshot: " + file, e);
+			}
+		}
+	}
+}
\ No newline at end of file
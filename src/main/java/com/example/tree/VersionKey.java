@@ -0,0 +1,197 @@
+package com.example.tree;
+
+/**
+ * Packs numeric versions like {@code 3.1.0} into a single long, major, minor and patch in
+ * {@value #SEGMENT_BITS} bits each, so that versions are ordered like their keys and a version range
+ * is an interval of keys. Nodes parse their version once when it is set, and range filters compare
+ * two numbers per node instead of parsing strings.
+ */
+final class VersionKey {
+
+	/** The key of a string which is not a numeric version */
+	static final long NONE = -1;
+	/** The exclusive upper bound of ranges without an upper limit, above every key */
+	static final long MAX = Long.MAX_VALUE;
+
+	static final int SEGMENT_BITS = 21;
+	/** The largest value of a segment, larger segments of a range are clamped to it */
+	static final int MAX_SEGMENT = (1 << SEGMENT_BITS) - 1;
+
+	private VersionKey() {
+	}
+
+	/**
+	 * Get the key of a version of up to three numeric segments, missing segments count as 0.
+	 *
+	 * @param version the version, or null
+	 * @return the key, or {@link #NONE} if the string is not such a version or a segment is too large
+	 */
+	static long of(String version) {
+		if (version == null || version.isEmpty()) {
+			return NONE;
+		}
+		long key = 0;
+		int segments = 0;
+		int position = 0;
+		while (true) {
+			int start = position;
+			long segment = 0;
+			while (position < version.length() && isDigit(version.charAt(position))) {
+				segment = segment * 10 + (version.charAt(position++) - '0');
+				if (segment > MAX_SEGMENT) {
+					return NONE;
+				}
+			}
+			if (position == start || ++segments > 3) {
+				return NONE;
+			}
+			key = key << SEGMENT_BITS | segment;
+			if (position == version.length()) {
+				return key << SEGMENT_BITS * (3 - segments);
+			}
+			if (version.charAt(position++) != '.') {
+				return NONE;
+			}
+		}
+	}
+
+	/**
+	 * Check whether a value is a version with wildcard segments, e.g. {@code 3.*} or {@code 3.1.x},
+	 * which stands for the range of versions it matches.
+	 *
+	 * @param value an attribute value
+	 * @return true if the value starts with a numeric segment and has a segment {@code *} or {@code x}
+	 */
+	static boolean isPattern(String value) {
+		if (value.isEmpty() || !isDigit(value.charAt(0))) {
+			return false;
+		}
+		for (int i = 1; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (isWildcard(c) && value.charAt(i - 1) == '.') {
+				return true;
+			} else if (!isDigit(c) && c != '.') {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Get the interval of keys matched by a version operator. The operand is read like an npm range:
+	 * missing and wildcard segments stand for any value, so {@code >3} means from 4.0.0 and
+	 * {@code <=3.1} up to but excluding 3.2.0. A caret range allows changes which do not modify the
+	 * first non-zero segment, a tilde range patch level changes if a minor segment is given.
+	 * Segments after a wildcard segment and after the third segment are ignored.
+	 *
+	 * @param operator the operator
+	 * @param operand the version operand, e.g. {@code 3.1.0} or {@code 3.*}
+	 * @return the inclusive lower and exclusive upper key, or null if the operand is not a version
+	 * or the operator does not compare versions
+	 */
+	static long[] range(AttributePredicate.Operator operator, String operand) {
+		int[] segments = new int[3];
+		int count = 0;
+		int position = 0;
+		while (count < 3 && position < operand.length()) {
+			char c = operand.charAt(position);
+			if (isWildcard(c)) {
+				break;
+			}
+			int start = position;
+			long segment = 0;
+			while (position < operand.length() && isDigit(operand.charAt(position))) {
+				segment = Math.min(segment * 10 + (operand.charAt(position++) - '0'), MAX_SEGMENT);
+			}
+			if (position == start || (position < operand.length() && operand.charAt(position) != '.')) {
+				return null;
+			}
+			segments[count++] = (int) segment;
+			position++;
+		}
+		if (count == 0 && (operand.isEmpty() || !isWildcard(operand.charAt(0)))) {
+			return null;
+		}
+
+		long lower = bound(segments, count, false);
+		long upper = bound(segments, count, true);
+		return switch (operator) {
+			case EQUALS -> new long[]{lower, upper};
+			case GREATER_OR_EQUAL -> new long[]{lower, MAX};
+			case GREATER -> new long[]{upper, MAX};
+			case LESS_OR_EQUAL -> new long[]{0, upper};
+			case LESS -> new long[]{0, lower};
+			case CARET -> {
+				int significant = 0;
+				while (significant < count - 1 && segments[significant] == 0) {
+					significant++;
+				}
+				yield new long[]{lower, bound(segments, Math.min(count, significant + 1), true)};
+			}
+			case TILDE -> new long[]{lower, bound(segments, Math.min(count, 2), true)};
+			case PREFIX, SUFFIX, CONTAINS, GLOB, REGEX -> null;
+		};
+	}
+
+	/**
+	 * Pack the first segments of a version with zeros for the others, incremented at the last of
+	 * them for an upper bound.
+	 */
+	private static long bound(int[] segments, int count, boolean upper) {
+		if (count == 0) {
+			return upper ? MAX : 0;
+		}
+		long key = 0;
+		for (int i = 0; i < 3; i++) {
+			key = key << SEGMENT_BITS | (i < count ? segments[i] : 0);
+		}
+		if (!upper) {
+			return key;
+		}
+		// A carry into the next segment keeps the order, only the largest major version has no successor
+		long step = 1L << SEGMENT_BITS * (3 - count);
+		return key > MAX - step ? MAX : key + step;
+	}
+
+	/**
+	 * Check whether a value is written as a version token of the selector grammar, numeric segments
+	 * separated by dots, where segments after the first may be wildcards.
+	 *
+	 * @param value an attribute value
+	 * @return true if the value can be written without quotes as a version
+	 */
+	static boolean isVersionToken(String value) {
+		if (value.isEmpty() || !isDigit(value.charAt(0))) {
+			return false;
+		}
+		boolean segmentStart = false;
+		for (int i = 1; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '.') {
+				if (segmentStart) {
+					return false;
+				}
+				segmentStart = true;
+			} else if (segmentStart && isWildcard(c)) {
+				segmentStart = false;
+				// A wildcard ends its segment
+				if (i + 1 < value.length() && value.charAt(i + 1) != '.') {
+					return false;
+				}
+			} else if (isDigit(c)) {
+				segmentStart = false;
+			} else {
+				return false;
+			}
+		}
+		return !segmentStart;
+	}
+
+	private static boolean isWildcard(char c) {
+		return c == '*' || c == 'x' || c == 'X';
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+}
\ No newline at end of file
@@ -0,0 +1,324 @@
+package com.example.tree;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Builds trees from XML documents with a StAX stream reader, without a document model. Every element
+ * becomes a node named after the element, unless the {@link ImportMapping} finds a name attribute, and
+ * the attributes are applied by the mapping. Text, comments and processing instructions are skipped.
+ * Documents are read without namespace processing and without DTDs, so no external entity is resolved.
+ * <p>
+ * To parse the top-level elements in parallel, {@link #split} scans the document for the boundaries of
+ * the children of the root element, matching tags, comments, CDATA sections and quoted attribute
+ * values, and hands the text of each child to a chunk sink.
+ */
+final class XmlImporter {
+
+	private static final XMLInputFactory FACTORY = createFactory();
+
+	private final ImportMapping mapping;
+
+	XmlImporter(ImportMapping mapping) {
+		this.mapping = mapping;
+	}
+
+	private static XMLInputFactory createFactory() {
+		XMLInputFactory factory = XMLInputFactory.newFactory();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return factory;
+	}
+
+	/**
+	 * Parse an XML document or element.
+	 *
+	 * @param reader the input
+	 * @param target the node receiving the outermost element
+	 * @param description describes the input in error messages, or null
+	 * @throws IOException if the input cannot be read or is not well-formed
+	 */
+	void parse(Reader reader, TreeNode target, String description) throws IOException {
+		Deque<TreeNode> stack = new ArrayDeque<>();
+		XMLStreamReader xml = null;
+		try {
+			xml = FACTORY.createXMLStreamReader(reader);
+			while (xml.hasNext()) {
+				int event = xml.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					TreeNode node = stack.isEmpty() ? target : new TreeNode(null);
+					if (!stack.isEmpty()) {
+						stack.peek().addChild(node);
+					}
+					for (int i = 0; i < xml.getAttributeCount(); i++) {
+						mapping.apply(node, xml.getAttributeLocalName(i), xml.getAttributeValue(i));
+					}
+					if (node.getName() == null) {
+						node.setName(xml.getLocalName());
+					}
+					stack.push(node);
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					stack.pop();
+				}
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException((description != null ? description + ": " : "") + e.getMessage(), e);
+		} finally {
+			if (xml != null) {
+				try {
+					xml.close();
+				} catch (XMLStreamException e) {
+					// Nothing was left open
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read the root element of a document and hand the text of each of its child elements to a sink.
+	 * Like a serial parse, this requires the end tag of the root element to match its start tag and
+	 * allows only white space, comments and processing instructions around the root element.
+	 *
+	 * @param reader the input
+	 * @param root the node receiving the root element
+	 * @param sink receives the child elements
+	 * @throws IOException if the input cannot be read or is not well-formed
+	 */
+	void split(Reader reader, TreeNode root, TreeImporter.ChunkSink sink) throws IOException {
+		Scanner scanner = new Scanner(reader);
+		StringBuilder text = new StringBuilder();
+
+		// Prolog up to the start tag of the root element
+		String rootName;
+		boolean empty;
+		while (true) {
+			scanner.skipSpace();
+			int line = scanner.line;
+			if (!scanner.markup(text, false)) {
+				throw scanner.error("No root element");
+			}
+			if (text.charAt(1) != '?' && text.charAt(1) != '!') {
+				String startTag = text.toString();
+				rootName = elementName(startTag);
+				empty = startTag.endsWith("/>");
+				parse(new StringReader(empty ? startTag : startTag + "</" + rootName + ">"), root, "Line " + line);
+				break;
+			} else if (text.toString().startsWith("<!DOCTYPE")) {
+				throw scanner.error("DTDs are not supported");
+			}
+		}
+
+		// Children of the root element, up to its end tag
+		while (!empty) {
+			scanner.skipText(null);
+			int line = scanner.line;
+			int column = scanner.column;
+			if (!scanner.markup(text, false)) {
+				throw scanner.error("Unterminated root element");
+			}
+			char second = text.charAt(1);
+			if (second == '/') {
+				String endName = text.substring(2, text.length() - 1).strip();
+				if (!endName.equals(rootName)) {
+					throw scanner.error("The end tag </" + endName + "> does not match the root element <" + rootName + ">");
+				}
+				break;
+			} else if (second != '?' && second != '!') {
+				if (!text.toString().endsWith("/>")) {
+					scanner.element(text);
+				}
+				TreeNode child = new TreeNode(null);
+				root.addChild(child);
+				sink.add(child, null, text.toString(), line, column);
+			}
+		}
+
+		// Epilogue, only comments and processing instructions may follow the root element
+		while (true) {
+			scanner.skipSpace();
+			if (!scanner.markup(text, false)) {
+				return;
+			}
+			if (text.charAt(1) != '?' && text.indexOf("<!--") != 0) {
+				throw scanner.error("Markup following the root element must be a comment or processing instruction");
+			}
+		}
+	}
+
+	private static String elementName(String startTag) {
+		int end = 1;
+		while (end < startTag.length() && !Character.isWhitespace(startTag.charAt(end))
+				&& startTag.charAt(end) != '>' && startTag.charAt(end) != '/') {
+			end++;
+		}
+		return startTag.substring(1, end);
+	}
+
+	/**
+	 * Finds the boundaries of markup in XML text, tracking the position for error messages.
+	 */
+	private static final class Scanner {
+
+		private final Reader reader;
+		private final char[] buffer = new char[8192];
+		private int position;
+		private int limit;
+		private int line = 1;
+		private int column = 1;
+
+		private Scanner(Reader reader) {
+			this.reader = reader;
+		}
+
+		private int next() throws IOException {
+			if (position == limit) {
+				int read = reader.read(buffer, 0, buffer.length);
+				if (read <= 0) {
+					return -1;
+				}
+				position = 0;
+				limit = read;
+			}
+			char c = buffer[position++];
+			if (c == '\n') {
+				line++;
+				column = 1;
+			} else {
+				column++;
+			}
+			return c;
+		}
+
+		private int peek() throws IOException {
+			if (position == limit) {
+				int read = reader.read(buffer, 0, buffer.length);
+				if (read <= 0) {
+					return -1;
+				}
+				position = 0;
+				limit = read;
+			}
+			return buffer[position];
+		}
+
+		/**
+		 * Skip character data up to the next markup, appending it to a buffer if one is given.
+		 */
+		private void skipText(StringBuilder out) throws IOException {
+			int c;
+			while ((c = peek()) != -1 && c != '<') {
+				next();
+				if (out != null) {
+					out.append((char) c);
+				}
+			}
+		}
+
+		/**
+		 * Skip white space outside of the root element, where no other character data is allowed.
+		 */
+		private void skipSpace() throws IOException {
+			int c;
+			while ((c = peek()) != -1 && c != '<') {
+				if (!Character.isWhitespace(c)) {
+					throw error("Content is not allowed outside the root element");
+				}
+				next();
+			}
+		}
+
+		/**
+		 * Read one piece of markup: a tag, comment, CDATA section, processing instruction or declaration.
+		 *
+		 * @param out receives the markup, it is cleared first unless append is true
+		 * @return false at the end of the input
+		 */
+		private boolean markup(StringBuilder out, boolean append) throws IOException {
+			if (!append) {
+				out.setLength(0);
+			}
+			int start = out.length();
+			if (next() == -1) {
+				return false;
+			}
+			out.append('<');
+			String terminator = null;
+			int minimumLength = 0;
+			char quote = 0;
+			while (true) {
+				int c = next();
+				if (c == -1) {
+					throw error("Unterminated markup");
+				}
+				out.append((char) c);
+				int length = out.length() - start;
+				if (terminator == null && length == 4 && out.indexOf("<!--", start) == start) {
+					terminator = "-->";
+					minimumLength = 7;
+				} else if (terminator == null && length == 9 && out.indexOf("<![CDATA[", start) == start) {
+					terminator = "]]>";
+					minimumLength = 12;
+				} else if (terminator == null && length == 2 && c == '?') {
+					terminator = "?>";
+					minimumLength = 4;
+				}
+
+				if (terminator != null) {
+					if (c == '>' && length >= minimumLength && endsWith(out, terminator)) {
+						return true;
+					}
+				} else if (quote != 0) {
+					if (c == quote) {
+						quote = 0;
+					}
+				} else if (c == '"' || c == '\'') {
+					quote = (char) c;
+				} else if (c == '>') {
+					return true;
+				}
+			}
+		}
+
+		private static boolean endsWith(StringBuilder out, String suffix) {
+			int offset = out.length() - suffix.length();
+			for (int i = 0; i < suffix.length(); i++) {
+				if (out.charAt(offset + i) != suffix.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Append the content and end tag of an element whose start tag is already in the buffer.
+		 */
+		private void element(StringBuilder out) throws IOException {
+			int depth = 1;
+			while (depth > 0) {
+				skipText(out);
+				int start = out.length();
+				if (!markup(out, true)) {
+					throw error("Unterminated element");
+				}
+				char second = out.charAt(start + 1);
+				if (second == '/') {
+					depth--;
+				} else if (second != '?' && second != '!' && out.charAt(out.length() - 2) != '/') {
+					depth++;
+				}
+			}
+		}
+
+		private IOException error(String message) {
+			return new IOException(message + " at line " + line + ", column " + column);
+		}
+	}
+}
\ No newline at end of file
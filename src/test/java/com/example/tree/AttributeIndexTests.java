@@ -0,0 +1,168 @@
+package com.example.tree;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for the attribute index.
+ */
+public class AttributeIndexTests extends TreeSelectorTestBase {
+
+	@Test
+	@DisplayName("Test sparse and dense bitmaps are intersected correctly")
+	void testBitmaps() {
+		Random random = new Random(41);
+		for (int density : new int[]{1, 10, 90}) {
+			TreeSet<Integer> a = new TreeSet<>();
+			TreeSet<Integer> b = new TreeSet<>();
+			for (int i = 0; i < 200000; i++) {
+				if (random.nextInt(100) < density) {
+					a.add(i);
+				}
+				if (random.nextInt(100) < (i < 100000 ? density : 100 - density)) {
+					b.add(i);
+				}
+			}
+			OrdinalBitmap bitmapA = bitmap(a);
+			OrdinalBitmap bitmapB = bitmap(b);
+			TreeSet<Integer> both = new TreeSet<>(a);
+			both.retainAll(b);
+
+			assertEquals(a.size(), bitmapA.cardinality());
+			assertArrayEquals(toArray(a), bitmapA.toArray());
+			assertArrayEquals(toArray(both), bitmapA.and(bitmapB).toArray());
+			assertEquals(both.size(), bitmapB.and(bitmapA).cardinality());
+			for (int i = 0; i < 1000; i++) {
+				int ordinal = random.nextInt(200000);
+				assertEquals(a.contains(ordinal), bitmapA.contains(ordinal));
+			}
+		}
+		assertEquals(0, OrdinalBitmap.EMPTY.and(bitmap(new TreeSet<>(List.of(1, 2)))).cardinality());
+		assertThrows(IllegalArgumentException.class, () -> {
+			OrdinalBitmap.Builder builder = new OrdinalBitmap.Builder();
+			builder.add(5);
+			builder.add(4);
+		});
+	}
+
+	@Test
+	@DisplayName("Test nodes are listed by attribute value in document order")
+	void testNodesByAttribute() {
+		// A generic attribute named like a built-in property is found by the same filter
+		rootNode.getChildren().get(1).getChildren().get(2).addAttribute("version", "3.0.0");
+		TreeIndex index = TreeIndex.build(rootNode);
+		TreeIndex attributes = index.withAttributeIndex();
+
+		assertFalse(index.hasAttributeIndex());
+		assertTrue(attributes.hasAttributeIndex());
+		assertSame(attributes, attributes.withAttributeIndex());
+		assertTrue(attributes.withNameIndex().hasAttributeIndex());
+		assertTrue(index.withNameIndex().withAttributeIndex().hasNameIndex());
+		assertEquals(List.of("Child1", "Child2"), names(attributes.getNodesByAttribute("type", "component")));
+		assertEquals(List.of("GrandChild1", "GrandChild2", "GrandChild3"),
+				names(attributes.getNodesByAttribute("version", "3.0.0")));
+		assertEquals(2, attributes.getNodesByAttribute("visible", "true").size());
+		assertTrue(attributes.getNodesByAttribute("visible", "false").isEmpty());
+		assertTrue(attributes.getNodesByAttribute("unknown", "true").isEmpty());
+		assertThrows(IllegalStateException.class, () -> index.getNodesByAttribute("type", "component"));
+	}
+
+	@Test
+	@DisplayName("Test the attribute index gives the same results on a generated tree")
+	void testGeneratedTree() {
+		String[] expressions = {"**/*{type=t1}", "**/*{type=t2,variant=v1}", "**/N1{variant=v0,visible=true}",
+				"**/*{type=t0,version=1.1.0}/N2", "/~~/*{variant=v1}", "/~~/N3{type=t2}/*{visible=false}",
+				"**/*{type=t1,type=t2}", "**/*{visible=*,variant=v0}|**/N4", "**/*{type=t0}/..", "/N0/~~{type=t1}"};
+		Random random = new Random(43);
+		for (int size : new int[]{10, 50, 2000}) {
+			for (int i = 0; i < 10; i++) {
+				TreeNode root = BytecodeEngineTests.createRandomTree(random, size);
+				TreeSelector plain = new TreeSelector(root);
+				TreeIndex index = TreeIndex.build(root).withAttributeIndex();
+
+				for (TreeSelector indexed : new TreeSelector[]{plain.withIndex(index),
+						plain.withIndex(index.withNameIndex()), plain.withIndex(index).withEngine(SelectorEngine.BYTECODE)}) {
+					for (String expression : expressions) {
+						List<TreeNode> expected = plain.select(expression);
+						assertEquals(expected, indexed.select(expression), expression);
+						assertEquals(expected.size(), indexed.count(expression), expression);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	@DisplayName("Test deep selectors only look at the nodes with all attribute values")
+	void testOnlyCandidatesAreVisited() {
+		int[] typeReads = new int[1];
+		TreeNode root = new TypeCountingNode("Root", "container", "default", typeReads);
+		for (int i = 0; i < 100; i++) {
+			TreeNode child = new TypeCountingNode("Child", "component", i % 2 == 0 ? "primary" : "secondary", typeReads);
+			root.addChild(child);
+			for (int j = 0; j < 100; j++) {
+				child.addChild(new TypeCountingNode("Leaf", j == 50 ? "component" : "element", "primary", typeReads));
+			}
+		}
+		TreeSelector indexed = new TreeSelector(root).withIndex(TreeIndex.build(root).withAttributeIndex());
+
+		typeReads[0] = 0;
+		assertEquals(150, indexed.count("**/*{type=component,variant=primary}"));
+		assertTrue(typeReads[0] < 200, "types read " + typeReads[0]);
+
+		typeReads[0] = 0;
+		assertEquals(50, indexed.select("**/*{variant=secondary,type=component}").size());
+		assertTrue(typeReads[0] < 100, "types read " + typeReads[0]);
+	}
+
+	private static OrdinalBitmap bitmap(TreeSet<Integer> ordinals) {
+		OrdinalBitmap.Builder builder = new OrdinalBitmap.Builder();
+		for (int ordinal : ordinals) {
+			builder.add(ordinal);
+		}
+		return builder.build();
+	}
+
+	private static int[] toArray(TreeSet<Integer> ordinals) {
+		return ordinals.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	private static List<String> names(List<TreeNode> nodes) {
+		List<String> names = new ArrayList<>();
+		for (TreeNode node : nodes) {
+			names.add(node.getName());
+		}
+		return names;
+	}
+
+	/**
+	 * A node counting how often its type is read.
+	 */
+	private static final class TypeCountingNode extends TreeNode {
+
+		private final int[] typeReads;
+
+		private TypeCountingNode(String name, String type, String variant, int[] typeReads) {
+			super(name, type, variant);
+			this.typeReads = typeReads;
+		}
+
+		@Override
+		public String getType() {
+			typeReads[0]++;
+			return super.getType();
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,100 @@
+package com.example.tree;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for the compact attribute storage of tree nodes.
+ */
+public class AttributeStorageTests extends TreeSelectorTestBase {
+
+	@Test
+	@DisplayName("Test attributes are added, replaced and looked up")
+	void testAttributes() {
+		TreeNode node = new TreeNode("Node");
+		assertTrue(node.getAttributes().isEmpty());
+		assertNull(node.getAttribute("visible"));
+
+		node.addAttribute("visible", "true");
+		node.addAttribute("label", "Save");
+		node.addAttribute("visible", "false");
+
+		assertEquals("false", node.getAttribute("visible"));
+		assertEquals("Save", node.getAttribute(new String("label")));
+		assertEquals(List.of("visible", "label"), new ArrayList<>(node.getAttributes().keySet()));
+		assertEquals(Map.of("visible", "false", "label", "Save"), node.getAttributes());
+	}
+
+	@Test
+	@DisplayName("Test many attributes move to a hash map")
+	void testManyAttributes() {
+		TreeNode node = new TreeNode("Node");
+		Map<String, String> expected = new HashMap<>();
+		Map<String, String> view = node.getAttributes();
+		for (int i = 0; i < 3 * TreeNode.INLINE_ATTRIBUTES; i++) {
+			node.addAttribute("key" + i, "value" + i);
+			expected.put("key" + i, "value" + i);
+			assertEquals(expected, node.getAttributes());
+			assertEquals(expected.size(), view.size());
+		}
+		node.addAttribute("key3", "changed");
+
+		assertEquals("changed", node.getAttribute("key3"));
+		assertEquals("value20", view.get("key20"));
+		assertTrue(view.containsKey("key0"));
+		assertFalse(view.containsKey("key99"));
+		assertEquals(List.of(node), new TreeSelector(node).withIndex(TreeIndex.build(node).withAttributeIndex())
+				.select("**/Node{key3=changed,key20=value20}"));
+	}
+
+	@Test
+	@DisplayName("Test the attributes are a read-only view")
+	void testReadOnly() {
+		TreeNode child1 = rootNode.getChildren().get(0);
+		Map<String, String> view = child1.getAttributes();
+
+		assertThrows(UnsupportedOperationException.class, () -> view.put("visible", "false"));
+		assertThrows(UnsupportedOperationException.class, () -> view.entrySet().iterator().next().setValue("x"));
+		child1.addAttribute("label", "First");
+		assertEquals("First", view.get("label"));
+		assertEquals(1, selector.select("/Root/*{label=First}").size());
+	}
+
+	@Test
+	@DisplayName("Test attribute names and values are shared between nodes")
+	void testInterning() {
+		TreeNode first = new TreeNode("First", new String("component"), "primary");
+		TreeNode second = new TreeNode("Second", new String("component"), "primary");
+		first.addAttribute(new String("visible"), new String("true"));
+		second.addAttribute(new String("visible"), new String("true"));
+
+		assertSame(first.getType(), second.getType());
+		assertSame(first.getAttribute("visible"), second.getAttribute("visible"));
+		assertSame(first.getAttributes().keySet().iterator().next(), second.getAttributes().keySet().iterator().next());
+
+		// Unique values are not shared and do not keep repeating values from being shared later
+		for (int i = 0; i < 100_000; i++) {
+			first.addAttribute("id", "id-" + i);
+		}
+		TreeNode third = new TreeNode("Third", "panel", null);
+		third.addAttribute(new String("enabled"), new String("false"));
+		third.addChild(new TreeNode("Fourth", "panel", null));
+		third.getChildren().get(0).addAttribute(new String("enabled"), new String("false"));
+		assertSame(third.getAttribute("enabled"), third.getChildren().get(0).getAttribute("enabled"));
+		assertSame(SymbolTable.intern(new String("enabled")), SymbolTable.intern(new String("enabled")));
+		String unique = new String("id-unique");
+		assertSame(unique, SymbolTable.intern(unique));
+	}
+}
\ No newline at end of file
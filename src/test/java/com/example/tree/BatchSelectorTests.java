@@ -0,0 +1,81 @@
+package com.example.tree;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for the evaluation of many selectors in one pass over the tree.
+ */
+public class BatchSelectorTests extends TreeSelectorTestBase {
+
+	@Test
+	@DisplayName("Test batch results match the results of the single selectors")
+	void testSameResultsAsSingleSelectors() {
+		List<String> expressions = new ArrayList<>(Arrays.asList(
+				"/Root", "/Root/*", "/Root/Child2/*", "**/GrandChild1", "**/*{type=element}", "/~~", "/~~/GrandChild1",
+				"/Root/~~{version=3.0.0}", "/Root/Child2/../Child1", "/Root/Child1|**/GrandChild1", "/Root/Child2/.",
+				"**/Child2/GrandChild2", "/Root/*/GrandChild3/..", "/Other"));
+		Map<String, List<TreeNode>> results = selector.selectAll(expressions);
+
+		assertEquals(expressions, new ArrayList<>(results.keySet()));
+		for (String expression : expressions) {
+			assertEquals(selector.select(expression), results.get(expression), expression);
+		}
+	}
+
+	@Test
+	@DisplayName("Test many selectors on a generated tree")
+	void testGeneratedTree() {
+		TreeNode root = BytecodeEngineTests.createRandomTree(new Random(23), 3000);
+		TreeSelector generated = new TreeSelector(root);
+		List<String> expressions = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			for (int t = 0; t < 3; t++) {
+				expressions.add("**/N" + i + "{type=t" + t + "}");
+				expressions.add("/N0/~~/N" + i + "/*{type=t" + t + "}");
+				expressions.add("/N0/N" + i + "/N" + t);
+				expressions.add("**/*{type=t" + t + ",variant=v1}/N" + i);
+				expressions.add("/N0/~~{type=t" + t + "}/../N" + i);
+			}
+			expressions.add("/~~/N" + i + "|**/N" + i + "{visible=true}");
+		}
+		Map<String, List<TreeNode>> results = generated.selectAll(expressions);
+
+		for (String expression : expressions) {
+			assertEquals(generated.select(expression), results.get(expression), expression);
+		}
+	}
+
+	@Test
+	@DisplayName("Test selectors sharing steps share states")
+	void testSharedStates() {
+		List<CompiledSelector> selectors = List.of(CompiledSelector.compile("/Root/Child2/GrandChild1"),
+				CompiledSelector.compile("/Root/Child2/GrandChild2"), CompiledSelector.compile("/Root/Child2"));
+		BatchAutomaton automaton = BatchAutomaton.build(selectors);
+
+		assertEquals(4, automaton.getStateCount());
+		assertEquals(List.of(1, 1, 1), automaton.evaluate(rootNode, null).stream().map(List::size).toList());
+	}
+
+	@Test
+	@DisplayName("Test invalid and repeated expressions")
+	void testInvalidExpressions() {
+		Map<String, List<TreeNode>> results = selector.selectAll(List.of("/Root/{", "/Root/*", "/Root/*"));
+
+		assertEquals(2, results.size());
+		assertTrue(results.get("/Root/{").isEmpty());
+		assertEquals(2, results.get("/Root/*").size());
+		assertTrue(selector.selectAll(List.of()).isEmpty());
+		assertThrows(NullPointerException.class, () -> selector.selectAll(Arrays.asList("/Root", null)));
+	}
+}
\ No newline at end of file
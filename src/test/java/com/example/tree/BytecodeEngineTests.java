@@ -0,0 +1,134 @@
+package com.example.tree;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for the bytecode generating selector engine.
+ */
+public class BytecodeEngineTests extends TreeSelectorTestBase {
+
+	private static final String[] EXPRESSIONS = {
+			"/Root",
+			"/Root/Child1",
+			"/Root/*",
+			"/*/Child2",
+			"/Root/*{type=component}",
+			"/Root/*{type=component, variant=primary}",
+			"/Root/*{visible=true}",
+			"/Root/*{'type'='*','variant'='primary'}",
+			"/Root{version=1.0.0}/Child2{version=2.1.0}/GrandChild1{version=3.2.0}",
+			"**/*",
+			"**/Child2",
+			"**/*{variant=secondary}",
+			"**/Child2/GrandChild2",
+			"**/*/*{type=element}",
+			"/~~",
+			"/~~{version=2.0.0}",
+			"/Root/~~/*{version=3.0.0}",
+			"/Root/Child2/~~",
+			"/Root/~~/~~",
+			"/Root/./*",
+			"/Root/../*",
+			"/Root/../Root",
+			"/Root/..",
+			"/Root/../.",
+			"/Root/Child2/./GrandChild2",
+			"/Root/Child2/../Child1",
+			"/Root/Child2/../*{variant=primary}",
+			"/Root/Child2/GrandChild2/../../Child1",
+			"/./*",
+			"/.",
+			"/../*",
+			"/Root/Child1/../Child2/./GrandChild2",
+			"/Root/Child2/*/../*",
+			"/Root/*/..{type=container}",
+			"/Root/~~/..",
+			"/Root/Child1|/Root/*|**/GrandChild1"
+	};
+
+	@Test
+	@DisplayName("Test bytecode engine returns the same nodes as the interpreter")
+	void testSameResultsAsInterpreter() {
+		TreeSelector generated = selector.withEngine(SelectorEngine.BYTECODE);
+
+		for (String expression : EXPRESSIONS) {
+			assertEquals(selector.select(expression), generated.select(expression), expression);
+		}
+	}
+
+	@Test
+	@DisplayName("Test bytecode engine on a generated tree")
+	void testSameResultsOnGeneratedTree() {
+		TreeNode root = createRandomTree(new Random(42), 2000);
+		TreeSelector interpreted = new TreeSelector(root);
+		TreeSelector generated = interpreted.withEngine(SelectorEngine.BYTECODE);
+
+		for (String expression : new String[]{"**/N1{type=t1}", "/N0/~~/N2/*", "/*/*/*/..{variant=v0}",
+				"**/*{type=t2,variant=v1}/N3", "/N0/~~{type=t0}/../N4|**/N0"}) {
+			assertEquals(interpreted.select(expression), generated.select(expression), expression);
+		}
+	}
+
+	@Test
+	@DisplayName("Test bytecode engine on a deep chain and with many states")
+	void testDeepChainAndManyStates() {
+		TreeNode root = new TreeNode("X", "t", "v", "1.0.0");
+		TreeNode node = root;
+		for (int i = 1; i < 20000; i++) {
+			TreeNode child = new TreeNode(i % 2 == 0 ? "X" : "A", "t", "v", "1.0.0");
+			node.addChild(child);
+			node = child;
+		}
+		TreeSelector generated = new TreeSelector(root).withEngine(SelectorEngine.BYTECODE);
+		assertEquals(10000, generated.select("**/X").size());
+		assertEquals(19999, generated.select("/X/~~").size());
+		assertEquals(10000, generated.select("**/A/..").size());
+
+		// More branches than fit into the bit mask of the generated program fall back to the interpreter
+		StringBuilder expression = new StringBuilder("/Root/Child2/GrandChild1");
+		for (int i = 0; i < 70; i++) {
+			expression.append("|/Root/Child").append(i);
+		}
+		assertEquals(selector.select(expression.toString()), selector.withEngine(SelectorEngine.BYTECODE)
+				.select(expression.toString()));
+		assertEquals(3, selector.withEngine(SelectorEngine.BYTECODE).select(expression.toString()).size());
+	}
+
+	@Test
+	@DisplayName("Test engine selection per selector")
+	void testEngineSelection() {
+		assertSame(SelectorEngine.INTERPRETER, selector.getEngine());
+		TreeSelector generated = selector.withEngine(SelectorEngine.BYTECODE);
+
+		assertSame(SelectorEngine.BYTECODE, generated.getEngine());
+		assertSame(SelectorEngine.INTERPRETER, selector.getEngine());
+		assertTrue(generated.select("/Root/{").isEmpty());
+		assertEquals(2, generated.select("/Root/*").size());
+		// Parent steps the optimizer cannot fold run in the interpreter, with its rule for the parent level of the root
+		assertEquals(List.of(rootNode), generated.select("/Root/../Child1"));
+	}
+
+	static TreeNode createRandomTree(Random random, int size) {
+		TreeNode root = new TreeNode("N0", "t0", "v0", "1.0.0");
+		TreeNode[] nodes = new TreeNode[size];
+		nodes[0] = root;
+		for (int i = 1; i < size; i++) {
+			TreeNode node = new TreeNode("N" + random.nextInt(5), "t" + random.nextInt(3), "v" + random.nextInt(2),
+					random.nextInt(3) + "." + random.nextInt(2) + ".0");
+			if (random.nextBoolean()) {
+				node.addAttribute("visible", String.valueOf(random.nextBoolean()));
+			}
+			nodes[random.nextInt(i)].addChild(node);
+			nodes[i] = node;
+		}
+		return root;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,137 @@
+package com.example.tree;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for compiled selectors and the selector cache.
+ */
+public class CompiledSelectorTests extends TreeSelectorTestBase {
+
+	@Test
+	@DisplayName("Test compiled selector can be reused across trees")
+	void testCompiledSelectorReusedAcrossTrees() {
+		CompiledSelector compiled = CompiledSelector.compile("/Root/*{type=component}");
+
+		assertTrue(compiled.isValid());
+		assertEquals(2, compiled.select(rootNode).size());
+
+		TreeNode otherRoot = new TreeNode("Root", "container", "default");
+		otherRoot.addChild(new TreeNode("Other", "component", "primary"));
+		List<TreeNode> results = compiled.select(otherRoot);
+
+		assertEquals(1, results.size());
+		assertEquals("Other", results.get(0).getName());
+	}
+
+	@Test
+	@DisplayName("Test compiled plan structure")
+	void testCompiledPlanStructure() {
+		CompiledSelector compiled = CompiledSelector.compile("/Root/*{'type'='component', variant=primary}|**/Child2");
+
+		assertEquals(2, compiled.getPaths().size());
+		SelectorPath first = compiled.getPaths().get(0);
+		assertFalse(first.isDeep());
+		assertEquals(SelectorStep.Kind.NAME, first.getSteps().get(0).getKind());
+		assertEquals(SelectorStep.Kind.WILDCARD, first.getSteps().get(1).getKind());
+		assertEquals("type", first.getSteps().get(1).getPredicates().get(0).getName());
+		assertEquals("component", first.getSteps().get(1).getPredicates().get(0).getValue());
+		assertTrue(compiled.getPaths().get(1).isDeep());
+		assertEquals("/Root/*{type=component,variant=primary}", first.toString());
+		assertEquals("**/Child2", compiled.getPaths().get(1).toString());
+	}
+
+	@Test
+	@DisplayName("Test invalid expressions are compiled to invalid selectors")
+	void testInvalidExpression() {
+		CompiledSelector compiled = CompiledSelector.compile("/Root/{type=component");
+
+		assertFalse(compiled.isValid());
+		assertNotNull(compiled.getErrorMessage());
+		assertTrue(compiled.getPaths().isEmpty());
+		assertTrue(compiled.select(rootNode).isEmpty());
+		assertNull(CompiledSelector.compile("/Root").getErrorMessage());
+	}
+
+	@Test
+	@DisplayName("Test cache returns the same compiled selector")
+	void testCacheReturnsSameInstance() {
+		SelectorCache cache = new SelectorCache(16);
+		TreeSelector cachedSelector = new TreeSelector(rootNode, cache);
+
+		assertEquals(1, cachedSelector.select("/Root/Child1").size());
+		assertEquals(1, cachedSelector.select("/Root/Child1").size());
+
+		assertSame(cache.get("/Root/Child1"), cachedSelector.compile("/Root/Child1"));
+		assertEquals(1, cache.getMissCount());
+		assertEquals(3, cache.getHitCount());
+	}
+
+	@Test
+	@DisplayName("Test cache remembers invalid expressions")
+	void testCacheRemembersInvalidExpressions() {
+		SelectorCache cache = new SelectorCache(16);
+		TreeSelector cachedSelector = new TreeSelector(rootNode, cache);
+
+		assertTrue(cachedSelector.select("/Root/").isEmpty());
+		assertTrue(cachedSelector.select("/Root/").isEmpty());
+
+		assertFalse(cache.get("/Root/").isValid());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	@DisplayName("Test cache evicts the least recently used expression")
+	void testCacheEviction() {
+		SelectorCache cache = new SelectorCache(2);
+
+		CompiledSelector first = cache.get("/Root/Child1");
+		cache.get("/Root/Child2");
+		cache.get("/Root/Child1");
+		cache.get("/Root/*");
+
+		assertEquals(2, cache.size());
+		assertSame(first, cache.get("/Root/Child1"));
+		assertEquals(3, cache.getMissCount());
+	}
+
+	@Test
+	@DisplayName("Test cache rejects invalid size and null expressions")
+	void testCacheArguments() {
+		assertThrows(IllegalArgumentException.class, () -> new SelectorCache(0));
+		assertThrows(NullPointerException.class, () -> new SelectorCache().get(null));
+	}
+
+	@Test
+	@DisplayName("Test compiled selector is usable from multiple threads")
+	void testConcurrentSelection() throws Exception {
+		CompiledSelector compiled = CompiledSelector.compile("/Root/~~{type=element}|**/Child2");
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Integer>> futures = new ArrayList<>();
+			for (int i = 0; i < 32; i++) {
+				futures.add(executor.submit(() -> compiled.select(rootNode).size()));
+			}
+			for (Future<Integer> future : futures) {
+				assertEquals(5, future.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
\ No newline at end of file
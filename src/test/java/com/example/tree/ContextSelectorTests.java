@@ -0,0 +1,107 @@
+package com.example.tree;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for selecting relative to a context node.
+ */
+public class ContextSelectorTests extends TreeSelectorTestBase {
+
+	@Test
+	@DisplayName("Test relative expressions start at the context node")
+	void testRelativeExpressions() {
+		TreeNode child2 = selector.select("/Root/Child2").get(0);
+
+		assertEquals(List.of("GrandChild1", "GrandChild2", "GrandChild3"), names(selector.select(child2, "./*")));
+		assertEquals(List.of("GrandChild2"), names(selector.select(child2, "GrandChild2")));
+		assertEquals(List.of("GrandChild3"), names(selector.select(child2, "*{version=3.1.0}")));
+		assertEquals(List.of("GrandChild1", "GrandChild2", "GrandChild3"), names(selector.select(child2, "~~")));
+		assertEquals(List.of("Child2"), names(selector.select(child2, ".")));
+		assertEquals(List.of("Root"), names(selector.select(child2, "..")));
+		assertEquals(List.of("GrandChild1"), names(selector.select(child2, "../Child1/*")));
+		assertEquals(List.of("Child2", "GrandChild1"),
+				names(selector.select(child2, ". | GrandChild1{variant='button-alt'}")));
+	}
+
+	@Test
+	@DisplayName("Test nodes above the context node are returned in document order")
+	void testDocumentOrderAboveContext() {
+		TreeNode child2 = selector.select("/Root/Child2").get(0);
+		TreeSelector indexed = selector.withIndex(TreeIndex.build(rootNode));
+
+		for (TreeSelector treeSelector : new TreeSelector[]{selector, indexed, selector.withEngine(SelectorEngine.BYTECODE)}) {
+			assertEquals(List.of("Child1", "Child2"), names(treeSelector.select(child2, "../*")));
+			assertEquals(List.of("Root", "Child2"), names(treeSelector.select(child2, "**/*/..")));
+			assertEquals(List.of("Root", "GrandChild1", "GrandChild2", "GrandChild3"), names(treeSelector.select(child2, "..|*")));
+			assertEquals(List.of("Root", "GrandChild1", "Child2", "GrandChild2"),
+					names(treeSelector.select(child2, "GrandChild2|../Child1/*|..|.")));
+			assertEquals(treeSelector.select("/Root/*/*"), treeSelector.select(child2, "../*/*"));
+		}
+	}
+
+	@Test
+	@DisplayName("Test absolute and deep expressions treat the context node as root")
+	void testAbsoluteExpressions() {
+		TreeNode child2 = selector.select("/Root/Child2").get(0);
+
+		assertEquals(List.of("GrandChild1"), names(selector.select(child2, "/Child2/GrandChild1")));
+		assertTrue(selector.select(child2, "/Root/Child2").isEmpty());
+		assertEquals(1, selector.select(child2, "**/GrandChild1").size());
+		assertEquals(selector.select("/Root/*"), selector.select(rootNode, "*"));
+		assertTrue(selector.select(child2, "/Child2/{").isEmpty());
+		assertTrue(selector.select(child2, "").isEmpty());
+
+		assertThrows(NullPointerException.class, () -> selector.select(child2, null));
+		assertThrows(NullPointerException.class, () -> selector.select((TreeNode) null, "*"));
+		assertThrows(IllegalArgumentException.class, () -> selector.select(new TreeNode("Other"), "*"));
+	}
+
+	@Test
+	@DisplayName("Test errors of relative expressions refer to the expression as given")
+	void testErrorPositions() {
+		SelectorCache cache = new SelectorCache();
+		CompiledSelector quoted = cache.getRelative("'x'");
+		assertEquals("'x'", quoted.getExpression());
+		assertTrue(quoted.getErrorMessage().startsWith("line 1:0 "), quoted.getErrorMessage());
+		assertTrue(cache.getRelative("Child/{").getErrorMessage().startsWith("line 1:6 "));
+		assertTrue(cache.getRelative("a | {b}").getErrorMessage().startsWith("line 1:4 "));
+		assertTrue(cache.getRelative("a|\n*{x=}").getErrorMessage().startsWith("line 2:4 "));
+		assertTrue(cache.getRelative("/Child2/{").getErrorMessage().startsWith("line 1:8 "));
+		assertTrue(cache.getRelative("..{").getErrorMessage().startsWith("line 1:3 "));
+
+		// Relative and absolute expressions with the same text are cached separately
+		assertTrue(cache.getRelative("Child2").isValid());
+		assertFalse(cache.get("Child2").isValid());
+		assertEquals("Child2", cache.getRelative("Child2").getExpression());
+		assertEquals(List.of("Child2"), names(selector.select(rootNode, "Child2")));
+	}
+
+	@Test
+	@DisplayName("Test context selection agrees with a selector for the subtree")
+	void testGeneratedTree() {
+		TreeNode root = BytecodeEngineTests.createRandomTree(new Random(9), 2000);
+		TreeSelector treeSelector = new TreeSelector(root).withIndex(TreeIndex.build(root));
+		List<TreeNode> contexts = treeSelector.select("/N0/*/*");
+		assertTrue(contexts.size() > 1);
+		for (TreeNode context : contexts) {
+			TreeSelector subtreeSelector = new TreeSelector(context);
+			for (String expression : new String[]{"**/N1{type=t1}", "/*/~~/N2/*", "/*/*/N3/..", "/*/..{visible=true}"}) {
+				assertEquals(subtreeSelector.select(expression), treeSelector.select(context, expression), expression);
+			}
+			assertEquals(subtreeSelector.select("/*/~~{type=t0}"), treeSelector.select(context, "~~{type=t0}"));
+		}
+	}
+
+	private static List<String> names(List<TreeNode> nodes) {
+		return nodes.stream().map(TreeNode::getName).toList();
+	}
+}
\ No newline at end of file
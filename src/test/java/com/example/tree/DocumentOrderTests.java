@@ -0,0 +1,86 @@
+package com.example.tree;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Test class for results in document order.
+ */
+public class DocumentOrderTests extends TreeSelectorTestBase {
+
+	@Test
+	@DisplayName("Test branches are merged in document order")
+	void testMergedBranches() {
+		List<String> expected = List.of("Child1", "GrandChild1", "Child2", "GrandChild2");
+
+		assertEquals(expected, names(selector.select("/Root/Child2/GrandChild2|/Root/*|**/GrandChild1{variant=button}")));
+		assertEquals(expected, names(selector.withEngine(SelectorEngine.BYTECODE)
+				.select("/Root/Child2/GrandChild2|/Root/*|**/GrandChild1{variant=button}")));
+	}
+
+	@Test
+	@DisplayName("Test parent steps return nodes in document order")
+	void testParentSteps() {
+		assertEquals(List.of("Root", "Child1", "Child2"), names(selector.select("/Root/~~/..|/Root/Child2/~~/../..")));
+		assertEquals(List.of("Root", "Child2", "GrandChild3"), names(selector.select(
+				"/Root/Child2/GrandChild3|/Root/../*|/Root/~~{type=element}/..{variant=secondary}")));
+	}
+
+	@Test
+	@DisplayName("Test nodes above the root of a subtree are ordered in the whole tree")
+	void testNodesOutsideTheTree() {
+		TreeNode child2 = rootNode.getChildren().get(1);
+		TreeSelector subtreeSelector = new TreeSelector(child2);
+
+		assertEquals(List.of("Root", "Child2", "GrandChild2"),
+				names(subtreeSelector.select("/Child2/GrandChild2/..|/Child2/~~/../..|/Child2/GrandChild2")));
+	}
+
+	@Test
+	@DisplayName("Test both engines return the nodes in document order on a generated tree")
+	void testGeneratedTree() {
+		TreeNode root = BytecodeEngineTests.createRandomTree(new Random(23), 400);
+		List<TreeNode> documentOrder = new ArrayList<>();
+		collect(root, documentOrder);
+		Random random = new Random(29);
+		String[] steps = {"N0", "N1", "*", "~~", "..", "*{type=t1}", "..{variant=v0}"};
+		for (int i = 0; i < 500; i++) {
+			StringBuilder expression = new StringBuilder();
+			int branches = 1 + random.nextInt(3);
+			for (int b = 0; b < branches; b++) {
+				expression.append(b > 0 ? "|" : "").append(random.nextBoolean() ? "**/*" : "/N0");
+				for (int s = random.nextInt(4); s > 0; s--) {
+					expression.append('/').append(steps[random.nextInt(steps.length)]);
+				}
+			}
+			CompiledSelector compiled = CompiledSelector.compile(expression.toString());
+			List<TreeNode> expected = new ArrayList<>(documentOrder);
+			expected.retainAll(new LinkedHashSet<>(SelectorInterpreter.evaluateStepwise(compiled, root)));
+
+			assertEquals(expected, compiled.select(root), expression.toString());
+			assertEquals(expected, compiled.select(root, SelectorEngine.BYTECODE), expression.toString());
+		}
+	}
+
+	private static List<String> names(List<TreeNode> nodes) {
+		List<String> names = new ArrayList<>();
+		for (TreeNode node : nodes) {
+			names.add(node.getName());
+		}
+		return names;
+	}
+
+	private static void collect(TreeNode node, List<TreeNode> nodes) {
+		nodes.add(node);
+		for (TreeNode child : node.getChildren()) {
+			collect(child, nodes);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,161 @@
+package com.example.tree;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Differential tests comparing the hand-written selector parser with the ANTLR generated parser.
+ */
+public class FastSelectorParserTests extends TreeSelectorTestBase {
+
+	private static final String[] NAMES = {"Root", "Child1", "_x", "a9"};
+	private static final String[] ATTRIBUTE_NAMES = {"type", "variant", "version", "'type'", "'we ird'", "visible"};
+	private static final String[] ATTRIBUTE_VALUES = {"component", "2.0.0", "3", "*", "'*'", "'button-alt'",
+			"'it\\'s'", "''", "true", "10.20", "3.*", "2.x.1"};
+	private static final String[] VERSION_RANGES = {"^3.1", "~ 2", "^0.2.x", "~1.0.0"};
+	private static final String[] VERSION_OPERATORS = {">=", ">", "<=", "<"};
+	private static final String[] VERSIONS = {"2.0.0", "3", "10.20", "3.*", "1.x"};
+	private static final String[] STRING_OPERATORS = {"^=", "$=", "*=", "%=", "~="};
+	private static final String[] STRING_VALUES = {"button", "t1", "2.1", "'button-'", "'it\\'s'", "''", "'a.b*c?'",
+			"'^(t|v)$'"};
+	private static final String[] SPACES = {"", "", "", " ", "\t", " \n "};
+	private static final String NOISE = "/*~.{}=,|' \\09aZ-<>^$%";
+
+	@Test
+	@DisplayName("Test generated valid expressions produce the same plan")
+	void testGeneratedValidExpressions() {
+		Random random = new Random(7);
+		for (int i = 0; i < 3000; i++) {
+			String expression = randomExpression(random);
+			CompiledSelector expected = SelectorCompiler.compileWithAntlr(expression);
+
+			assertTrue(expected.isValid(), expression);
+			assertEquals(expected.getPaths(), FastSelectorParser.parse(expression), expression);
+		}
+	}
+
+	@Test
+	@DisplayName("Test mutated expressions are accepted and rejected like by ANTLR")
+	void testMutatedExpressions() {
+		Random random = new Random(11);
+		for (int i = 0; i < 5000; i++) {
+			StringBuilder sb = new StringBuilder(randomExpression(random));
+			int mutations = 1 + random.nextInt(3);
+			for (int m = 0; m < mutations; m++) {
+				int position = random.nextInt(sb.length() + 1);
+				if (random.nextBoolean() && position < sb.length()) {
+					sb.deleteCharAt(position);
+				} else {
+					sb.insert(position, NOISE.charAt(random.nextInt(NOISE.length())));
+				}
+			}
+			String expression = sb.toString();
+			CompiledSelector expected = SelectorCompiler.compileWithAntlr(expression);
+			List<SelectorPath> actual = FastSelectorParser.parse(expression);
+
+			if (expected.isValid()) {
+				assertEquals(expected.getPaths(), actual, expression);
+			} else {
+				assertNull(actual, expression);
+			}
+		}
+	}
+
+	@Test
+	@DisplayName("Test tokens are split like by the ANTLR lexer")
+	void testTokenBoundaries() {
+		String[] expressions = {"/Root/...", "**/***", "/Root/~~~", "/Root{v=1.}", "/Root{v=1.2.}", "/Root{v=1..2}",
+				"/Root{v=1.2.3}", "/ Root / Child1 { type = component } ", "/Root{'a\\'b'='c\\\\'}", "/Root{'x'=''}",
+				"/Root|", "/Root||/Root", "**/.", "**/Child1/..", "/Root{}", "/Root{a=b,}", "/Root/", "/1",
+				"/Root{v>=1}", "/Root{v> =1}", "/Root{v<=a}", "/Root{v=^1.x}", "/Root{v=~~1}", "/Root{v^=1}", "/Root{v<1.*.2}",
+				"/Root{v$=a}", "/Root{v$ =a}", "/Root{v%='*'}", "/Root{v~~=a}", "/Root{v~=*}", "/Root{v*=2.x}", "/Root/*=a", "/Root{v^=^1}"};
+		for (String expression : expressions) {
+			CompiledSelector expected = SelectorCompiler.compileWithAntlr(expression);
+			List<SelectorPath> actual = FastSelectorParser.parse(expression);
+			if (expected.isValid()) {
+				assertEquals(expected.getPaths(), actual, expression);
+			} else {
+				assertNull(actual, expression);
+			}
+		}
+	}
+
+	@Test
+	@DisplayName("Test invalid expressions keep the ANTLR error message")
+	void testInvalidExpressionErrorMessage() {
+		CompiledSelector compiled = CompiledSelector.compile("/Root/{type=component}");
+
+		assertFalse(compiled.isValid());
+		assertEquals(SelectorCompiler.compileWithAntlr("/Root/{type=component}").getErrorMessage(),
+				compiled.getErrorMessage());
+		assertTrue(compiled.getErrorMessage().startsWith("line 1:6"));
+	}
+
+	private static String randomExpression(Random random) {
+		StringBuilder sb = new StringBuilder();
+		int branches = 1 + random.nextInt(3);
+		for (int b = 0; b < branches; b++) {
+			if (b > 0) {
+				sb.append(space(random)).append('|').append(space(random));
+			}
+			boolean deep = random.nextInt(3) == 0;
+			sb.append(deep ? "**/" : "/");
+			int steps = 1 + random.nextInt(4);
+			for (int s = 0; s < steps; s++) {
+				if (s > 0) {
+					sb.append(space(random)).append('/').append(space(random));
+				}
+				int kind = random.nextInt(deep && s == 0 ? 2 : 5);
+				switch (kind) {
+					case 0 -> sb.append(NAMES[random.nextInt(NAMES.length)]);
+					case 1 -> sb.append('*');
+					case 2 -> sb.append("~~");
+					case 3 -> sb.append('.');
+					default -> sb.append("..");
+				}
+				if (random.nextInt(3) == 0) {
+					sb.append(space(random)).append('{');
+					int predicates = 1 + random.nextInt(3);
+					for (int p = 0; p < predicates; p++) {
+						if (p > 0) {
+							sb.append(space(random)).append(',');
+						}
+						sb.append(space(random)).append(ATTRIBUTE_NAMES[random.nextInt(ATTRIBUTE_NAMES.length)])
+								.append(space(random));
+						appendCondition(random, sb);
+					}
+					sb.append(space(random)).append('}');
+				}
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Append an operator and a value of the kind the operator takes.
+	 */
+	private static void appendCondition(Random random, StringBuilder sb) {
+		switch (random.nextInt(4)) {
+			case 0 -> sb.append('=').append(space(random)).append(pick(random, VERSION_RANGES));
+			case 1 -> sb.append(pick(random, VERSION_OPERATORS)).append(space(random)).append(pick(random, VERSIONS));
+			case 2 -> sb.append(pick(random, STRING_OPERATORS)).append(space(random)).append(pick(random, STRING_VALUES));
+			default -> sb.append('=').append(space(random)).append(pick(random, ATTRIBUTE_VALUES));
+		}
+	}
+
+	private static String pick(Random random, String[] values) {
+		return values[random.nextInt(values.length)];
+	}
+
+	private static String space(Random random) {
+		return SPACES[random.nextInt(SPACES.length)];
+	}
+}
\ No newline at end of file
@@ -0,0 +1,101 @@
+package com.example.tree;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for the struct-of-arrays flat tree.
+ */
+public class FlatTreeTests extends TreeSelectorTestBase {
+
+	@Test
+	@DisplayName("Test the structure and properties of a flat tree")
+	void testStructure() {
+		FlatTree tree = FlatTree.build(rootNode);
+		FlatNode child2 = tree.getNode(3);
+
+		assertEquals(7, tree.size());
+		assertFalse(tree.isOffHeap());
+		assertEquals("Root", tree.getRoot().getName());
+		assertEquals(-1, tree.getParent(0));
+		assertEquals(1, tree.getFirstChild(0));
+		assertEquals(3, tree.getNextSibling(1));
+		assertEquals(-1, tree.getNextSibling(3));
+		assertEquals(4, tree.getSubtreeSize(3));
+		assertEquals("Child2", child2.getName());
+		assertEquals("component", child2.getType());
+		assertEquals("secondary", child2.getVariant());
+		assertEquals("2.1.0", child2.getVersion());
+		assertEquals("true", child2.getAttribute("visible"));
+		assertNull(child2.getAttribute("hidden"));
+		assertEquals(Map.of("visible", "true"), child2.getAttributes());
+		assertEquals(tree.getRoot(), child2.getParent());
+		assertEquals(List.of("GrandChild1", "GrandChild2", "GrandChild3"),
+				child2.getChildren().stream().map(FlatNode::getName).toList());
+		assertNull(tree.getRoot().getParent());
+		assertThrows(IndexOutOfBoundsException.class, () -> tree.getNode(7));
+	}
+
+	@Test
+	@DisplayName("Test selectors on a flat tree")
+	void testSelectors() {
+		FlatTree tree = FlatTree.build(rootNode, true);
+
+		assertTrue(tree.isOffHeap());
+		assertEquals(List.of("Child1", "Child2"), names(CompiledSelector.compile("/Root/*{type=component}").select(tree)));
+		assertEquals(List.of("button", "button-alt"),
+				CompiledSelector.compile("**/GrandChild1").select(tree).stream().map(FlatNode::getVariant).toList());
+		assertEquals(List.of("Root"), names(CompiledSelector.compile("/Root/../*").select(tree)));
+		assertEquals(List.of("Root"), names(CompiledSelector.compile("/Root/../Child1").select(tree)));
+		assertTrue(CompiledSelector.compile("/Root/../Foo{type=other}").select(tree).isEmpty());
+		assertEquals(List.of("Root", "Child2"), names(CompiledSelector.compile("/Root/~~/GrandChild3/../..|/Root/Child2").select(tree)));
+		assertTrue(CompiledSelector.compile("**/Unknown|**/*{type=unknown}").select(tree).isEmpty());
+		assertTrue(CompiledSelector.compile("/Root/{").select(tree).isEmpty());
+	}
+
+	@Test
+	@DisplayName("Test a flat tree gives the same results as the tree on a generated tree")
+	void testGeneratedTree() {
+		Random random = new Random(47);
+		String[] steps = {"N0", "N1", "*", "~~", "..", ".", "*{type=t1}", "..{variant=v0}", "N2{visible=true}",
+				"*{version=1.1.0,type=t0}"};
+		for (int t = 0; t < 10; t++) {
+			TreeNode root = BytecodeEngineTests.createRandomTree(random, 10 + random.nextInt(300));
+			FlatTree tree = FlatTree.build(root, random.nextBoolean());
+			List<TreeNode> documentOrder = TreeIndex.build(root).getDescendants(root);
+			for (int i = 0; i < 50; i++) {
+				StringBuilder expression = new StringBuilder();
+				int branches = 1 + random.nextInt(3);
+				for (int b = 0; b < branches; b++) {
+					expression.append(b > 0 ? "|" : "").append(random.nextBoolean() ? "**/*" : "/N0");
+					for (int s = random.nextInt(4); s > 0; s--) {
+						expression.append('/').append(steps[random.nextInt(steps.length)]);
+					}
+				}
+				CompiledSelector compiled = CompiledSelector.compile(expression.toString());
+				List<Integer> expected = new ArrayList<>();
+				for (TreeNode node : compiled.select(root)) {
+					expected.add(node == root ? 0 : documentOrder.indexOf(node) + 1);
+				}
+
+				assertEquals(expected, compiled.select(tree).stream().map(FlatNode::getOrdinal).toList(),
+						expression.toString());
+			}
+		}
+	}
+
+	private static List<String> names(List<FlatNode> nodes) {
+		return nodes.stream().map(FlatNode::getName).toList();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,145 @@
+package com.example.tree;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for tree change events and live queries.
+ */
+public class LiveQueryTests extends TreeSelectorTestBase {
+
+	@Test
+	@DisplayName("Test changes are reported to the listeners of the node and its ancestors")
+	void testChangeEvents() {
+		TreeNode child2 = selector.select("/Root/Child2").get(0);
+		List<TreeChangeEvent> rootEvents = new ArrayList<>();
+		List<TreeChangeEvent> childEvents = new ArrayList<>();
+		rootNode.addTreeChangeListener(rootEvents::add);
+		TreeChangeListener childListener = childEvents::add;
+		child2.addTreeChangeListener(childListener);
+
+		TreeNode added = new TreeNode("New", "element", "x");
+		child2.addChild(added);
+		added.setType("component");
+		added.setType("component");
+		added.addAttribute("visible", "false");
+		rootNode.setVersion("1.1.0");
+
+		assertEquals(List.of(TreeChangeEvent.Kind.CHILD_ADDED, TreeChangeEvent.Kind.TYPE_CHANGED,
+				TreeChangeEvent.Kind.ATTRIBUTE_CHANGED, TreeChangeEvent.Kind.VERSION_CHANGED),
+				rootEvents.stream().map(TreeChangeEvent::getKind).toList());
+		assertEquals(3, childEvents.size());
+		assertSame(added, rootEvents.get(0).getChild());
+		assertEquals("element", rootEvents.get(1).getOldValue());
+		assertEquals("visible", rootEvents.get(2).getAttributeName());
+		assertNull(rootEvents.get(2).getOldValue());
+
+		assertTrue(child2.removeTreeChangeListener(childListener));
+		assertFalse(child2.removeTreeChangeListener(childListener));
+		added.setVariant("y");
+		assertEquals(3, childEvents.size());
+		assertEquals(5, rootEvents.size());
+	}
+
+	@Test
+	@DisplayName("Test live queries report added and removed nodes")
+	void testDeltas() {
+		List<String> deltas = new ArrayList<>();
+		try (LiveQuery query = selector.live("**/*{visible=true}")) {
+			query.addListener((source, added, removed) -> deltas.add(names(added) + "-" + names(removed)));
+			assertEquals(List.of("Child1", "Child2"), names(query.getResult()));
+
+			TreeNode grandChild = selector.select("/Root/Child1/GrandChild1").get(0);
+			grandChild.addAttribute("visible", "true");
+			TreeNode subtree = new TreeNode("Sub");
+			subtree.addAttribute("visible", "true");
+			TreeNode leaf = new TreeNode("Leaf");
+			leaf.addAttribute("visible", "true");
+			subtree.addChild(leaf);
+			rootNode.addChild(subtree);
+			selector.select("/Root/Child2").get(0).addAttribute("visible", "false");
+			grandChild.setType("other");
+
+			assertEquals(List.of("[GrandChild1]-[]", "[Sub, Leaf]-[]", "[]-[Child2]"), deltas);
+			assertEquals(List.of("Child1", "GrandChild1", "Sub", "Leaf"), names(query.getResult()));
+			assertEquals(selector.select("**/*{visible=true}"), query.getResult());
+		}
+		rootNode.addAttribute("visible", "true");
+		assertEquals(3, deltas.size());
+	}
+
+	@Test
+	@DisplayName("Test nodes below an ancestor whose child filter starts or stops matching are checked")
+	void testChildFilterOfAncestor() {
+		TreeNode root = new TreeNode("Root");
+		TreeNode b = new TreeNode("B");
+		root.addChild(b);
+		TreeSelector treeSelector = new TreeSelector(root);
+		try (LiveQuery query = treeSelector.live("/Root/C/../B")) {
+			assertTrue(query.getResult().isEmpty());
+			TreeNode c = new TreeNode("C");
+			root.addChild(c);
+			assertEquals(List.of(b), query.getResult());
+			c.setName("D");
+			assertTrue(query.getResult().isEmpty());
+		}
+
+		TreeNode x = new TreeNode("X");
+		b.addChild(x);
+		try (LiveQuery query = treeSelector.live("/Root/B/X/Y/../../../B/X")) {
+			assertTrue(query.getResult().isEmpty());
+			x.addChild(new TreeNode("Y"));
+			assertEquals(List.of(x), query.getResult());
+			assertEquals(treeSelector.select("/Root/B/X/Y/../../../B/X"), query.getResult());
+		}
+	}
+
+	@Test
+	@DisplayName("Test live queries agree with select after random changes")
+	void testRandomChanges() {
+		Random random = new Random(5);
+		TreeNode root = BytecodeEngineTests.createRandomTree(random, 300);
+		TreeSelector treeSelector = new TreeSelector(root);
+		String[] expressions = {"**/N1{type=t1}", "/N0/~~/N2/*", "/N0/*/N3/..", "**/N4/N0/..{visible=true}",
+				"/~~{variant=v1}/N2", "/N0/~~{type=t0}/../N4",
+				"/N0/*/N3/../N1", "**/N2/N1/../../*/N4", "/N0/~~/N1{visible=true}/../N2/*"};
+		List<LiveQuery> queries = new ArrayList<>();
+		for (String expression : expressions) {
+			queries.add(treeSelector.live(expression));
+		}
+
+		List<TreeNode> nodes = new ArrayList<>(TreeIndex.build(root).getDescendants(root));
+		for (int i = 0; i < 400; i++) {
+			TreeNode node = nodes.get(random.nextInt(nodes.size()));
+			switch (random.nextInt(5)) {
+				case 0 -> node.setType("t" + random.nextInt(3));
+				case 1 -> node.setVariant("v" + random.nextInt(2));
+				case 2 -> node.addAttribute("visible", String.valueOf(random.nextBoolean()));
+				case 3 -> node.setName("N" + random.nextInt(5));
+				default -> {
+					TreeNode child = new TreeNode("N" + random.nextInt(5), "t" + random.nextInt(3), "v0");
+					node.addChild(child);
+					nodes.add(child);
+				}
+			}
+			for (LiveQuery query : queries) {
+				assertEquals(treeSelector.select(query.getSelector().getExpression()), query.getResult(),
+						query.getSelector().getExpression() + " after change " + i);
+			}
+		}
+	}
+
+	private static List<String> names(List<TreeNode> nodes) {
+		return nodes.stream().map(TreeNode::getName).toList();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,110 @@
+package com.example.tree;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for the name index.
+ */
+public class NameIndexTests extends TreeSelectorTestBase {
+
+	@Test
+	@DisplayName("Test nodes are listed by name in document order")
+	void testNodesByName() {
+		TreeIndex index = TreeIndex.build(rootNode);
+		TreeIndex named = index.withNameIndex();
+
+		assertFalse(index.hasNameIndex());
+		assertTrue(named.hasNameIndex());
+		assertSame(named, named.withNameIndex());
+		assertEquals(List.of("button", "button-alt"),
+				named.getNodesByName("GrandChild1").stream().map(TreeNode::getVariant).toList());
+		assertTrue(named.getNodesByName("Unknown").isEmpty());
+		assertThrows(IllegalStateException.class, () -> index.getNodesByName("Root"));
+	}
+
+	@Test
+	@DisplayName("Test deep and placeholder selectors with a name index")
+	void testSelectors() {
+		TreeSelector indexed = selector.withIndex(TreeIndex.build(rootNode).withNameIndex());
+
+		for (String expression : new String[]{"**/GrandChild1", "**/Child2/GrandChild2", "**/Root", "/~~/GrandChild1",
+				"/~~/Child1", "**/GrandChild1|/Root/Child1", "**/Child2/~~{type=element}", "/~~/*", "**/*/GrandChild3"}) {
+			assertEquals(selector.select(expression), indexed.select(expression), expression);
+		}
+		assertEquals(2, indexed.count("**/GrandChild1"));
+		assertEquals(0, indexed.count("/~~/Child1"));
+	}
+
+	@Test
+	@DisplayName("Test the name index gives the same results on a generated tree")
+	void testGeneratedTree() {
+		String[] expressions = {"**/N1", "**/N1{type=t0}/N2", "**/N3/~~/N3", "/~~/N4", "/~~/N4/*{variant=v1}",
+				"**/N1|**/N2/N0|/N0/N1", "/~~/N0|**/N2", "**/N0/..", "/N0/~~/N1", "**/N2|/~~/N0/~~/N1"};
+		Random random = new Random(37);
+		for (int size : new int[]{10, 20, 50, 2000}) {
+			for (int i = 0; i < 20; i++) {
+				TreeNode root = BytecodeEngineTests.createRandomTree(random, size);
+				TreeSelector plain = new TreeSelector(root);
+				TreeSelector indexed = plain.withIndex(TreeIndex.build(root).withNameIndex());
+
+				for (String expression : expressions) {
+					List<TreeNode> expected = plain.select(expression);
+					assertEquals(expected, indexed.select(expression), expression);
+					assertEquals(expected.size(), indexed.count(expression), expression);
+				}
+			}
+		}
+	}
+
+	@Test
+	@DisplayName("Test deep selectors only look at the nodes with the name")
+	void testOnlyCandidatesAreVisited() {
+		int[] nameReads = new int[1];
+		TreeNode root = new NameCountingNode("Root", nameReads);
+		for (int i = 0; i < 100; i++) {
+			TreeNode child = new NameCountingNode("Child", nameReads);
+			root.addChild(child);
+			for (int j = 0; j < 100; j++) {
+				child.addChild(new NameCountingNode(i % 25 == 0 && j == 50 ? "Target" : "Leaf", nameReads));
+			}
+		}
+		TreeSelector indexed = new TreeSelector(root).withIndex(TreeIndex.build(root).withNameIndex());
+
+		nameReads[0] = 0;
+		assertEquals(4, indexed.select("**/Target").size());
+		assertTrue(nameReads[0] < 20, "names read " + nameReads[0]);
+
+		nameReads[0] = 0;
+		assertEquals(4, indexed.count("/~~/Target"));
+		assertTrue(nameReads[0] < 20, "names read " + nameReads[0]);
+	}
+
+	/**
+	 * A node counting how often its name is read.
+	 */
+	private static final class NameCountingNode extends TreeNode {
+
+		private final int[] nameReads;
+
+		private NameCountingNode(String name, int[] nameReads) {
+			super(name);
+			this.nameReads = nameReads;
+		}
+
+		@Override
+		public String getName() {
+			nameReads[0]++;
+			return super.getName();
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,92 @@
+package com.example.tree;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Test class for the parallel evaluation of selectors with fork/join tasks.
+ */
+public class ParallelSelectorTests extends TreeSelectorTestBase {
+
+	private static final String[] EXPRESSIONS = {
+			"/N0",
+			"/N0/*",
+			"**/N1{type=t1}",
+			"**/*{visible=true}",
+			"/N0/~~/N2/*",
+			"/N0/~~{type=t0}",
+			"/~~/N3",
+			"**/*{type=t2,variant=v1}/N3",
+			"/*/*/*/..{variant=v0}",
+			"/N0/~~{type=t0}/../N4|**/N0",
+			"/N0/N1|**/N2/N3"
+	};
+
+	@Test
+	@DisplayName("Test parallel evaluation returns the serial results in document order")
+	void testSameResultsAsSerial() {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			TreeNode root = BytecodeEngineTests.createRandomTree(new Random(17), 20000);
+			TreeSelector serial = new TreeSelector(root);
+			for (int minSubtreeSize : new int[]{1, 7, 500}) {
+				TreeSelector parallel = serial.withIndex(TreeIndex.build(root)).withParallelism(pool, minSubtreeSize);
+				for (String expression : EXPRESSIONS) {
+					List<TreeNode> expected = serial.select(expression);
+					assertEquals(expected, parallel.select(expression), expression);
+					assertEquals(expected.size(), parallel.count(expression), expression);
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	@DisplayName("Test parallel evaluation of a deep chain of nodes")
+	void testDeepTree() {
+		TreeNode root = new TreeNode("N0", "t0", "v0", "1.0.0");
+		TreeNode node = root;
+		for (int i = 1; i < 50000; i++) {
+			TreeNode child = new TreeNode("N" + (i % 3), "t" + (i % 2), "v0", "1.0.0");
+			node.addChild(child);
+			if (i % 1000 == 0) {
+				node.addChild(new TreeNode("N1", "t1", "v1", "1.0.0"));
+			}
+			node = child;
+		}
+		TreeSelector serial = new TreeSelector(root);
+		TreeSelector parallel = serial.withIndex(TreeIndex.build(root)).withParallelism(ForkJoinPool.commonPool(), 64);
+
+		for (String expression : new String[]{"**/N1{variant=v1}", "/N0/~~/N2{type=t1}", "/N0/N1/N2/N0"}) {
+			assertEquals(serial.select(expression), parallel.select(expression), expression);
+		}
+	}
+
+	@Test
+	@DisplayName("Test small trees are evaluated serially and parallel selectors require an index")
+	void testSerialFallback() {
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		TreeSelector smallTree = selector.withIndex(TreeIndex.build(rootNode)).withParallelism(pool);
+
+		assertSame(pool, smallTree.getPool());
+		assertEquals(TreeSelector.DEFAULT_MIN_SUBTREE_SIZE, smallTree.getMinSubtreeSize());
+		assertEquals(selector.select("/Root/~~"), smallTree.select("/Root/~~"));
+		assertEquals(3, smallTree.count("/Root/Child2/*"));
+		assertNull(selector.getPool());
+		assertThrows(IllegalArgumentException.class, () -> selector.withParallelism(pool, 0));
+		assertThrows(IllegalStateException.class, () -> selector.withParallelism(pool, 1));
+		assertThrows(IllegalStateException.class, () -> smallTree.withIndex(null));
+		assertNull(smallTree.withParallelism(null).withIndex(null).getPool());
+		assertEquals(selector.select("**/GrandChild1"), selector.withParallelism(null).select("**/GrandChild1"));
+	}
+}
\ No newline at end of file
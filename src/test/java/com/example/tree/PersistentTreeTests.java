@@ -0,0 +1,208 @@
+package com.example.tree;
+
+import com.sun.management.ThreadMXBean;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for persistent trees with snapshot reads.
+ */
+public class PersistentTreeTests extends TreeSelectorTestBase {
+
+	@Test
+	@DisplayName("Test new versions leave older versions unchanged")
+	void testVersions() {
+		PersistentTree first = PersistentTree.of(rootNode);
+		TreeSelector firstSelector = new TreeSelector(first.getRoot());
+		TreeNode child2 = firstSelector.select("/Root/Child2").get(0);
+
+		PersistentTree second = first.withChild(child2, new TreeNode("GrandChild4", "element", "new"));
+		second = second.withType(new TreeSelector(second.getRoot()).select("/Root/Child1").get(0), "changed");
+		TreeSelector secondSelector = new TreeSelector(second.getRoot());
+		PersistentTree third = second.without(secondSelector.select("/Root/Child2/GrandChild1").get(0));
+		third = third.withAttribute(third.getRoot(), "visible", "false");
+
+		assertEquals(2, second.getVersion());
+		assertEquals(selector.select("/Root/Child2/*").size(), firstSelector.select("/Root/Child2/*").size());
+		assertEquals(4, secondSelector.select("/Root/Child2/*").size());
+		assertEquals(1, secondSelector.select("/Root/*{type=changed}").size());
+		assertEquals(List.of("GrandChild2", "GrandChild3", "GrandChild4"),
+				new TreeSelector(third.getRoot()).select("/Root/Child2/*").stream().map(TreeNode::getName).toList());
+		assertEquals(Map.of("visible", "false"), third.getRoot().getAttributes());
+		assertNull(second.getRoot().getAttribute("visible"));
+		assertSame(child2, firstSelector.select("/Root/Child2/GrandChild2/..").get(0));
+	}
+
+	@Test
+	@DisplayName("Test snapshot nodes are read-only and belong to one version")
+	void testReadOnly() {
+		PersistentTree tree = PersistentTree.of(rootNode);
+		TreeNode root = tree.getRoot();
+
+		assertThrows(UnsupportedOperationException.class, () -> root.setType("x"));
+		assertThrows(UnsupportedOperationException.class, () -> root.addChild(new TreeNode("X")));
+		assertThrows(UnsupportedOperationException.class, () -> root.getChildren().clear());
+		assertThrows(IllegalArgumentException.class, () -> tree.withType(rootNode, "x"));
+		assertThrows(IllegalArgumentException.class, () -> tree.withName(root, "x").withName(root, "y"));
+		assertThrows(IllegalArgumentException.class, () -> tree.without(root));
+		assertSame(root.getChildren().get(0), root.getChildren().get(0));
+	}
+
+	@Test
+	@DisplayName("Test copies of generated trees select the same nodes")
+	void testGeneratedTree() {
+		TreeNode original = BytecodeEngineTests.createRandomTree(new Random(3), 2000);
+		TreeNode copy = PersistentTree.of(original).getRoot();
+		for (String expression : new String[]{"**/N1{type=t1}", "/N0/~~/N2/*", "/N0/*/N3/..", "**/*{visible=true}"}) {
+			assertEquals(describe(new TreeSelector(original).select(expression)),
+					describe(new TreeSelector(copy).select(expression)), expression);
+		}
+	}
+
+	@Test
+	@DisplayName("Test readers see consistent snapshots while a writer derives new versions")
+	void testConcurrentReaders() throws Exception {
+		AtomicReference<PersistentTree> current = new AtomicReference<>(PersistentTree.of(new TreeNode("Root")));
+		AtomicBoolean writing = new AtomicBoolean(true);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> readers = new ArrayList<>();
+			for (int i = 0; i < 3; i++) {
+				readers.add(executor.submit(() -> {
+					while (writing.get()) {
+						PersistentTree snapshot = current.get();
+						TreeSelector reader = new TreeSelector(snapshot.getRoot());
+						// Every version adds one group with two items
+						assertEquals(snapshot.getVersion(), reader.count("/Root/Group"));
+						assertEquals(2 * snapshot.getVersion(), reader.count("**/Item"));
+					}
+					return null;
+				}));
+			}
+			for (int i = 0; i < 500; i++) {
+				TreeNode group = new TreeNode("Group");
+				group.addChild(new TreeNode("Item"));
+				group.addChild(new TreeNode("Item"));
+				PersistentTree tree = current.get();
+				current.set(tree.withChild(tree.getRoot(), group));
+			}
+			writing.set(false);
+			for (Future<?> reader : readers) {
+				reader.get(10, TimeUnit.SECONDS);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(500, current.get().getVersion());
+	}
+
+	@Test
+	@DisplayName("Test queries on new versions only create views for their matches while a writer runs")
+	void testReadsDuringWrites() throws Exception {
+		TreeNode original = new TreeNode("Root");
+		for (int i = 0; i < 200; i++) {
+			TreeNode group = new TreeNode("Group");
+			for (int j = 0; j < 50; j++) {
+				group.addChild(new TreeNode(i == 150 && j == 7 ? "Target" : "Item", "item", "v" + j));
+			}
+			original.addChild(group);
+		}
+		AtomicReference<PersistentTree> current = new AtomicReference<>(PersistentTree.of(original));
+		assertEquals(1, new TreeSelector(current.get().getRoot()).select("**/Target").size());
+
+		ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+		AtomicBoolean reading = new AtomicBoolean(true);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<?> writer = executor.submit(() -> {
+				Random random = new Random(21);
+				for (int i = 0; reading.get(); i++) {
+					PersistentTree tree = current.get();
+					TreeNode group = tree.getRoot().getChildren().get(random.nextInt(200));
+					current.set(tree.withAttribute(group, "stamp", String.valueOf(i)));
+				}
+				return null;
+			});
+
+			long lastVersion = -1;
+			int freshReads = 0;
+			while (freshReads < 50) {
+				PersistentTree snapshot = current.get();
+				long allocated = threads.getCurrentThreadAllocatedBytes();
+				List<TreeNode> targets = new TreeSelector(snapshot.getRoot()).select("**/Target");
+				allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+
+				assertEquals(1, targets.size());
+				TreeNode target = targets.get(0);
+				assertSame(snapshot.getRoot().getChildren().get(150).getChildren().get(7), target);
+				assertSame(snapshot.getRoot(), target.getParent().getParent());
+				if (snapshot.getVersion() != lastVersion) {
+					// A view per node of the 10,201 nodes would take far more
+					assertTrue(allocated < 200_000, allocated + " bytes allocated by one query");
+					lastVersion = snapshot.getVersion();
+					freshReads++;
+				}
+			}
+			reading.set(false);
+			writer.get(10, TimeUnit.SECONDS);
+		} finally {
+			executor.shutdownNow();
+		}
+		assertTrue(current.get().getVersion() > 0);
+	}
+
+	@Test
+	@DisplayName("Test batches on new versions only create views for their matches")
+	void testSelectAllOnNewVersion() {
+		TreeNode original = new TreeNode("Root");
+		for (int i = 0; i < 200; i++) {
+			TreeNode group = new TreeNode("Group");
+			for (int j = 0; j < 50; j++) {
+				group.addChild(new TreeNode(i == 150 && j == 7 ? "Target" : "Item", "item", "v" + j));
+			}
+			original.addChild(group);
+		}
+		PersistentTree tree = PersistentTree.of(original);
+		List<String> expressions = List.of("**/Target", "/Root/*/Target", "/Root/Group/*{type=other}", "/Root");
+		new TreeSelector(tree.getRoot()).selectAll(expressions);
+
+		ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+		for (int i = 0; i < 5; i++) {
+			tree = tree.withAttribute(tree.getRoot().getChildren().get(20 * i), "stamp", String.valueOf(i));
+			long allocated = threads.getCurrentThreadAllocatedBytes();
+			Map<String, List<TreeNode>> results = new TreeSelector(tree.getRoot()).selectAll(expressions);
+			allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+
+			TreeNode target = tree.getRoot().getChildren().get(150).getChildren().get(7);
+			assertEquals(List.of(target), results.get("**/Target"));
+			assertSame(target, results.get("/Root/*/Target").get(0));
+			assertEquals(List.of(), results.get("/Root/Group/*{type=other}"));
+			assertSame(tree.getRoot(), results.get("/Root").get(0));
+			assertSame(tree.getRoot(), target.getParent().getParent());
+			// Building the batch takes a part, a view per node of the 10,201 nodes would take more than twice that
+			assertTrue(allocated < 600_000, allocated + " bytes allocated by one batch");
+		}
+	}
+
+	private static List<String> describe(List<TreeNode> nodes) {
+		return nodes.stream().map(node -> node + node.getAttributes().toString()).toList();
+	}
+}
\ No newline at end of file
@@ -34,6 +34,32 @@ public class RelativePathTests extends TreeSelectorTestBase {
 		assertEquals("Root", results.get(0).getName());
 	}
 
+	@Test
+	@DisplayName("Test any name after the parent level of the root selects the root")
+	void testNameAtParentLevelOfRoot() {
+		assertEquals(List.of(rootNode), selector.select("/Root/../Root"));
+		assertEquals(List.of(rootNode), selector.select("/Root/../Child1"));
+		assertEquals(List.of(rootNode), selector.select("/Root/../Foo"));
+		assertTrue(selector.select("/Root/../Foo{type=other}").isEmpty());
+	}
+
+	@Test
+	@DisplayName("Test parent steps on a deep chain do not overflow the stack")
+	void testParentStepsOnDeepChain() {
+		TreeNode root = new TreeNode("X");
+		TreeNode node = root;
+		for (int i = 1; i < 20000; i++) {
+			TreeNode child = new TreeNode(i % 2 == 0 ? "X" : "A");
+			node.addChild(child);
+			node = child;
+		}
+		TreeSelector deepSelector = new TreeSelector(root);
+
+		assertEquals(10000, deepSelector.select("**/A/..").size());
+		assertEquals(9999, deepSelector.select("**/X/../..").size());
+		assertEquals(19999, deepSelector.select("/X/~~/..").size());
+	}
+
 	@Test
 	@DisplayName("Test current level operator in middle of path")
 	void testCurrentLevelOperatorInMiddle() {
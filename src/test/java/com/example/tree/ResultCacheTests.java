@@ -0,0 +1,106 @@
+package com.example.tree;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for modification stamps and the result cache.
+ */
+public class ResultCacheTests extends TreeSelectorTestBase {
+
+	@Test
+	@DisplayName("Test modifications advance the stamps of the node and its ancestors only")
+	void testModificationStamps() {
+		TreeNode child1 = selector.select("/Root/Child1").get(0);
+		TreeNode child2 = selector.select("/Root/Child2").get(0);
+		long rootStamp = rootNode.getModificationStamp();
+		long child1Stamp = child1.getModificationStamp();
+		long child2Stamp = child2.getModificationStamp();
+
+		assertEquals(rootStamp, rootNode.getModificationStamp());
+		child2.getChildren().get(0).addAttribute("visible", "true");
+
+		assertTrue(rootNode.getModificationStamp() > rootStamp);
+		assertTrue(child2.getModificationStamp() > child2Stamp);
+		assertEquals(child1Stamp, child1.getModificationStamp());
+
+		long stamp = child2.getModificationStamp();
+		child2.addChild(new TreeNode("GrandChild4"));
+		assertNotEquals(stamp, child2.getModificationStamp());
+	}
+
+	@Test
+	@DisplayName("Test results are reused until the tree changes")
+	void testInvalidation() {
+		ResultCache resultCache = new ResultCache();
+		TreeSelector cachingSelector = selector.withResultCache(resultCache);
+
+		List<TreeNode> first = cachingSelector.select("**/*{visible=true}");
+		assertEquals(first, cachingSelector.select("**/*{visible=true}"));
+		assertEquals(2, cachingSelector.count("**/*{visible=true}"));
+		assertEquals(2, resultCache.getHitCount());
+		assertEquals(1, resultCache.getMissCount());
+
+		// The results handed out are copies
+		first.clear();
+		assertEquals(2, cachingSelector.count("**/*{visible=true}"));
+
+		selector.select("/Root/Child1/GrandChild1").get(0).addAttribute("visible", "true");
+		assertEquals(selector.select("**/*{visible=true}"), cachingSelector.select("**/*{visible=true}"));
+		assertEquals(3, cachingSelector.count("**/*{visible=true}"));
+		assertEquals(2, resultCache.getMissCount());
+
+		// A selector for a subtree is not affected by changes elsewhere
+		TreeNode child2 = selector.select("/Root/Child2").get(0);
+		TreeSelector subtreeSelector = new TreeSelector(child2).withResultCache(resultCache);
+		assertEquals(3, subtreeSelector.count("/Child2/*"));
+		rootNode.setType("changed");
+		assertEquals(3, subtreeSelector.count("/Child2/*"));
+		assertEquals(3, resultCache.getMissCount());
+
+		// Unless its selector reaches above the subtree
+		assertEquals(List.of(rootNode), subtreeSelector.select("/Child2/.."));
+		rootNode.setName("Renamed");
+		assertEquals(List.of(rootNode), subtreeSelector.select("/Child2/.."));
+		assertEquals(5, resultCache.getMissCount());
+	}
+
+	@Test
+	@DisplayName("Test the least recently used results are evicted by size and memory")
+	void testEviction() {
+		ResultCache resultCache = new ResultCache(2, Long.MAX_VALUE);
+		TreeSelector cachingSelector = selector.withResultCache(resultCache);
+		cachingSelector.select("/Root/Child1");
+		cachingSelector.select("/Root/Child2");
+		cachingSelector.select("/Root/Child1");
+		cachingSelector.select("/Root/*");
+		assertEquals(2, resultCache.size());
+		cachingSelector.select("/Root/Child1");
+		cachingSelector.select("/Root/Child2");
+		assertEquals(2, resultCache.getHitCount());
+		assertEquals(4, resultCache.getMissCount());
+
+		long memoryUsage = resultCache.getMemoryUsage();
+		assertTrue(memoryUsage > 0);
+		ResultCache smallCache = new ResultCache(100, memoryUsage);
+		TreeSelector smallSelector = selector.withResultCache(smallCache);
+		smallSelector.select("/Root/Child1");
+		smallSelector.select("/Root/Child2");
+		smallSelector.select("**/*");
+		assertTrue(smallCache.getMemoryUsage() <= memoryUsage);
+		assertTrue(smallCache.size() < 3);
+
+		smallCache.clear();
+		assertEquals(0, smallCache.size());
+		assertEquals(0, smallCache.getMemoryUsage());
+		assertThrows(IllegalArgumentException.class, () -> new ResultCache(0, 1));
+		assertThrows(IllegalArgumentException.class, () -> new ResultCache(1, 0));
+	}
+}
\ No newline at end of file
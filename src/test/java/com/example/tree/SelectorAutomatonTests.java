@@ -0,0 +1,135 @@
+package com.example.tree;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for the single-pass evaluation of selector branches.
+ */
+public class SelectorAutomatonTests extends TreeSelectorTestBase {
+
+	@Test
+	@DisplayName("Test branches with a common prefix share their states")
+	void testSharedPrefixes() {
+		SelectorAutomaton automaton = CompiledSelector.compile(
+				"/Root/Child2/GrandChild1|/Root/Child2/GrandChild2{type=element}|/Root/Child2|**/Child2|**/Child2/*")
+				.getAutomaton();
+
+		// Root, Child2, GrandChild1, GrandChild2 and the deep Child2 and *
+		assertEquals(6, automaton.getStateCount());
+		assertTrue(automaton.getResidualPaths().isEmpty());
+		assertEquals(4, selector.select("/Root/Child2/GrandChild1|/Root/Child2/GrandChild2{type=element}"
+				+ "|/Root/Child2|**/Child2|**/Child2/*").size());
+	}
+
+	@Test
+	@DisplayName("Test many branches are evaluated in one walk")
+	void testManyBranches() {
+		StringBuilder expression = new StringBuilder("/Root/Child2/GrandChild1");
+		for (int i = 0; i < 40; i++) {
+			expression.append("|/Root/Child2/*{variant=v").append(i).append('}');
+		}
+		expression.append("|/Root/Child2/*{variant=input}");
+
+		List<TreeNode> result = selector.select(expression.toString());
+
+		assertEquals(2, result.size());
+		assertEquals("GrandChild1", result.get(0).getName());
+		assertEquals("GrandChild3", result.get(1).getName());
+		assertEquals(44, CompiledSelector.compile(expression.toString()).getAutomaton().getStateCount());
+	}
+
+	@Test
+	@DisplayName("Test results are in document order without duplicates")
+	void testDocumentOrder() {
+		List<TreeNode> result = selector.select("**/GrandChild1|/Root/*|/Root/~~{type=element}|/*");
+
+		assertEquals(List.of("Root", "Child1", "GrandChild1", "Child2", "GrandChild1", "GrandChild2", "GrandChild3"),
+				names(result));
+	}
+
+	@Test
+	@DisplayName("Test parent steps which cannot be folded are evaluated step by step")
+	void testResidualPaths() {
+		CompiledSelector compiled = CompiledSelector.compile("/Root/../*|/Root/Child1|/Root/~~/..");
+
+		assertEquals(2, compiled.getAutomaton().getResidualPaths().size());
+		assertEquals(new HashSet<>(List.of("Root", "Child1", "Child2")), new HashSet<>(names(selector.select(
+				"/Root/../*|/Root/Child1|/Root/~~/.."))));
+	}
+
+	@Test
+	@DisplayName("Test the automaton selects the same nodes as the step by step evaluation")
+	void testSameResultsAsStepwise() {
+		TreeNode root = BytecodeEngineTests.createRandomTree(new Random(3), 500);
+		List<TreeNode> documentOrder = new ArrayList<>();
+		collect(root, documentOrder);
+		Random random = new Random(17);
+		for (int i = 0; i < 1000; i++) {
+			String expression = randomExpression(random);
+			CompiledSelector compiled = CompiledSelector.compile(expression);
+			List<TreeNode> expected = SelectorInterpreter.evaluateStepwise(compiled, root);
+			List<TreeNode> actual = compiled.select(root);
+
+			assertEquals(new HashSet<>(expected), new HashSet<>(actual), expression);
+			assertEquals(expected.size(), actual.size(), expression);
+			if (compiled.getAutomaton().getResidualPaths().isEmpty()) {
+				List<TreeNode> sorted = new ArrayList<>(documentOrder);
+				sorted.retainAll(expected);
+				assertEquals(sorted, actual, expression);
+			}
+		}
+	}
+
+	private static List<String> names(List<TreeNode> nodes) {
+		List<String> names = new ArrayList<>();
+		for (TreeNode node : nodes) {
+			names.add(node.getName());
+		}
+		return names;
+	}
+
+	private static void collect(TreeNode node, List<TreeNode> nodes) {
+		nodes.add(node);
+		for (TreeNode child : node.getChildren()) {
+			collect(child, nodes);
+		}
+	}
+
+	private static String randomExpression(Random random) {
+		StringBuilder sb = new StringBuilder();
+		int branches = 1 + random.nextInt(4);
+		for (int b = 0; b < branches; b++) {
+			if (b > 0) {
+				sb.append('|');
+			}
+			boolean deep = random.nextInt(3) == 0;
+			sb.append(deep ? "**/" : random.nextBoolean() ? "/N0/" : "/");
+			int steps = 1 + random.nextInt(4);
+			for (int s = 0; s < steps; s++) {
+				if (s > 0) {
+					sb.append('/');
+				}
+				switch (random.nextInt(deep && s == 0 ? 2 : 5)) {
+					case 0 -> sb.append('N').append(random.nextInt(5));
+					case 1 -> sb.append('*');
+					case 2 -> sb.append("~~");
+					case 3 -> sb.append('.');
+					default -> sb.append(random.nextInt(4) == 0 ? ".." : "*");
+				}
+				if (random.nextInt(3) == 0) {
+					sb.append("{type=t").append(random.nextInt(3)).append('}');
+				}
+			}
+		}
+		return sb.toString();
+	}
+}
\ No newline at end of file
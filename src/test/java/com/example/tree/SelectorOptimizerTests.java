@@ -0,0 +1,137 @@
+package com.example.tree;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for the rule-based rewriting of selector plans.
+ */
+public class SelectorOptimizerTests extends TreeSelectorTestBase {
+
+	@Test
+	@DisplayName("Test current and parent steps are folded")
+	void testRewrittenPlans() {
+		assertPlan("/Root/*", "/Root/./*");
+		assertPlan("/Root/Child2/GrandChild2", "/Root/Child2/./GrandChild2");
+		assertPlan("/Root/Child2/../Child1", "/Root/Child2/../Child1");
+		assertPlan("/Root/Child2/../*{variant=primary}", "/Root/Child2/../*{variant=primary}");
+		assertPlan("/Root/Child2/GrandChild2/../../Child1", "/Root/Child2/GrandChild2/../../Child1");
+		assertPlan("/Root/Child1/../Child2/GrandChild2", "/Root/Child1/../Child2/./GrandChild2");
+		assertPlan("/Root/Child2/*/../*", "/Root/Child2/*/../*");
+		assertPlan("/*/*", "/./*");
+		assertPlan("/Root{type=container}/*/..", "/Root/*/..{type=container}");
+	}
+
+	@Test
+	@DisplayName("Test predicates are merged and ordered")
+	void testPredicates() {
+		assertPlan("/Root/*{type=component,visible=true}", "/Root/*{visible=true}/.{type=component}");
+		assertPlan("/Root/*{variant=primary}", "/Root/*{'type'='*',variant=primary,variant=primary}");
+		assertPlan("**/*{version=1.0.0,visible=true}", "**/*{visible=true, version=1.0.0}");
+	}
+
+	@Test
+	@DisplayName("Test the virtual parent level of the root is kept")
+	void testParentOfFirstStepIsKept() {
+		assertPlan("/Root/../*", "/Root/../*");
+		assertPlan("/Root/../Root", "/Root/../Root");
+		assertPlan("**/Child2/..", "**/Child2/..");
+		assertPlan("/Root/..{type=container}/*", "/Root/../.{type=container}/*");
+		assertPlan("/Root/~~/..", "/Root/~~/..");
+	}
+
+	@Test
+	@DisplayName("Test identical branches are evaluated once")
+	void testDuplicateBranches() {
+		CompiledSelector compiled = CompiledSelector.compile("/Root/Child1|/Root/./Child1|/Root/Child1");
+
+		assertEquals(1, compiled.getPaths().size());
+		assertEquals(1, selector.select("/Root/Child1|/Root/./Child1").size());
+	}
+
+	@Test
+	@DisplayName("Test the plan can be printed")
+	void testExplain() {
+		String explained = CompiledSelector.compile("/Root/Child2/../Child1|**/Child2").explain();
+
+		assertTrue(explained.startsWith("Selector: /Root/Child2/../Child1|**/Child2"), explained);
+		assertTrue(explained.contains("/Root[Child2]/Child1"), explained);
+		assertTrue(CompiledSelector.compile("/Root/Child2/GrandChild2/../../Child1").explain()
+				.contains("/Root[Child2[GrandChild2]]/Child1"));
+		assertTrue(CompiledSelector.compile("/Root/*/..{type=container}").explain().contains("/Root{type=container}[*]"));
+		assertTrue(explained.contains("**/Child2"), explained);
+		assertTrue(CompiledSelector.compile("/Root/{").explain().contains("invalid"));
+	}
+
+	@Test
+	@DisplayName("Test rewritten plans select the same nodes as the parsed plans")
+	void testSameResultsAsParsedPlan() {
+		TreeNode root = BytecodeEngineTests.createRandomTree(new Random(5), 300);
+		Random random = new Random(13);
+		for (int i = 0; i < 1000; i++) {
+			String expression = randomExpression(random);
+			CompiledSelector parsed = CompiledSelector.valid(expression,
+					SelectorCompiler.compileWithAntlr(expression).getPaths());
+			CompiledSelector optimized = CompiledSelector.compile(expression);
+			List<TreeNode> expected = SelectorInterpreter.evaluateStepwise(parsed, root);
+
+			assertEquals(expected, SelectorInterpreter.evaluateStepwise(optimized, root), expression);
+			assertEquals(new HashSet<>(expected), new HashSet<>(optimized.select(root)), expression);
+			assertEquals(expected.size(), optimized.select(root, SelectorEngine.BYTECODE).size(), expression);
+		}
+	}
+
+	@Test
+	@DisplayName("Test printed plans are valid selectors compiling to the same plan")
+	void testPrintedPlansCompile() {
+		for (String expression : new String[]{"/Root/Child2/GrandChild2/../../Child1", "**/*{'we ird'='a b',x=''}",
+				"/Root/*{version>=2.1,version=^3.*,variant^=button,name~='^G.*[0-9]$'}", "/Root/*/..{type=container}",
+				"**/N1{visible='true',version=1.x}/*/../~~/..{type=*}"}) {
+			CompiledSelector compiled = CompiledSelector.compile(expression);
+			String printed = compiled.getPaths().get(0).toString();
+			assertEquals(compiled.getPaths(), CompiledSelector.compile(printed).getPaths(), printed);
+		}
+	}
+
+	private static void assertPlan(String expected, String expression) {
+		assertEquals("CompiledSelector{" + expected + "}", CompiledSelector.compile(expression).toString(), expression);
+		// The printed plan is a selector with the same plan
+		assertEquals(CompiledSelector.compile(expression).getPaths(), CompiledSelector.compile(expected).getPaths(), expected);
+	}
+
+	private static String randomExpression(Random random) {
+		StringBuilder sb = new StringBuilder();
+		int branches = 1 + random.nextInt(2);
+		for (int b = 0; b < branches; b++) {
+			if (b > 0) {
+				sb.append('|');
+			}
+			boolean deep = random.nextInt(3) == 0;
+			sb.append(deep ? "**/" : "/");
+			int steps = 1 + random.nextInt(5);
+			for (int s = 0; s < steps; s++) {
+				if (s > 0) {
+					sb.append('/');
+				}
+				switch (random.nextInt(deep && s == 0 ? 2 : 6)) {
+					case 0 -> sb.append('N').append(random.nextInt(5));
+					case 1 -> sb.append('*');
+					case 2 -> sb.append("~~");
+					case 3 -> sb.append('.');
+					default -> sb.append("..");
+				}
+				if (random.nextInt(4) == 0) {
+					sb.append(random.nextBoolean() ? "{type=t" + random.nextInt(3) + "}" : "{visible=true,variant=*}");
+				}
+			}
+		}
+		return sb.toString();
+	}
+}
\ No newline at end of file
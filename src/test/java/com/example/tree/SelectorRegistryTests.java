@@ -0,0 +1,99 @@
+package com.example.tree;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for finding the registered selectors which select a node.
+ */
+public class SelectorRegistryTests extends TreeSelectorTestBase {
+
+	@Test
+	@DisplayName("Test the selectors of a node are found")
+	void testMatch() {
+		SelectorRegistry registry = new SelectorRegistry();
+		CompiledSelector children = registry.register("/Root/*");
+		CompiledSelector deep = registry.register("**/GrandChild1{type=element}");
+		CompiledSelector placeholder = registry.register("/Root/~~{variant='button-alt'}");
+		registry.register("/Root/Child1/GrandChild1");
+		CompiledSelector parent = registry.register("/Root/Child2/GrandChild2/..");
+
+		TreeNode child2 = selector.select("/Root/Child2").get(0);
+		TreeNode grandChild = selector.select("/Root/Child2/GrandChild1").get(0);
+		assertEquals(List.of(children, parent), registry.match(child2));
+		assertEquals(List.of(deep, placeholder), registry.match(grandChild));
+		assertTrue(registry.match(rootNode).isEmpty());
+		assertEquals(5, registry.size());
+		assertSame(children, registry.register("/Root/*"));
+		assertEquals(5, registry.size());
+	}
+
+	@Test
+	@DisplayName("Test lookups agree with the results of the selectors on a generated tree")
+	void testSameResultsAsSelect() {
+		TreeNode root = BytecodeEngineTests.createRandomTree(new Random(31), 1500);
+		String[] expressions = {"/N0", "/N0/*", "/N0/N1/*{type=t1}", "**/N2", "**/*{type=t0}/N3", "/N0/~~/N4/*",
+				"/~~/N1{visible=true}", "/N0/~~{type=t2}/~~/N0", "**/N1/N2/..", "/N0/~~{type=t0}/../N4",
+				"**/*{type=t1,variant=v0}", "/N0/N1|**/N3{type=t2}"};
+		SelectorRegistry registry = new SelectorRegistry();
+		List<CompiledSelector> selectors = new ArrayList<>();
+		for (String expression : expressions) {
+			selectors.add(registry.register(expression));
+		}
+
+		List<List<TreeNode>> results = new ArrayList<>();
+		for (CompiledSelector compiledSelector : selectors) {
+			results.add(compiledSelector.select(root));
+		}
+		for (TreeNode node : TreeIndex.build(root).getDescendants(root)) {
+			List<CompiledSelector> expected = new ArrayList<>();
+			for (int i = 0; i < selectors.size(); i++) {
+				if (results.get(i).contains(node)) {
+					expected.add(selectors.get(i));
+				}
+			}
+			assertEquals(expected, registry.match(node), node.toString());
+		}
+	}
+
+	@Test
+	@DisplayName("Test many selectors matching the same node are each reported once")
+	void testManyMatches() {
+		SelectorRegistry registry = new SelectorRegistry(new SelectorCache(100));
+		List<String> expected = new ArrayList<>();
+		for (int i = 0; i < 20_000; i++) {
+			String expression = "/Root/Child1/GrandChild1{type=element}|**/GrandChild" + (i % 2 + 1) + "|/Root/*/../Child" + i;
+			registry.register(expression);
+			expected.add(expression);
+		}
+		TreeNode grandChild = selector.select("/Root/Child1/GrandChild1").get(0);
+		assertEquals(expected, registry.match(grandChild).stream().map(CompiledSelector::getExpression).toList());
+	}
+
+	@Test
+	@DisplayName("Test selectors can be removed and invalid ones are rejected")
+	void testUnregister() {
+		SelectorRegistry registry = new SelectorRegistry();
+		registry.register("**/GrandChild1");
+		registry.register("**/*{type=element}");
+		TreeNode grandChild = selector.select("/Root/Child1/GrandChild1").get(0);
+		assertEquals(2, registry.match(grandChild).size());
+
+		assertTrue(registry.unregister("**/GrandChild1"));
+		assertFalse(registry.unregister("**/GrandChild1"));
+		assertEquals(List.of("**/*{type=element}"),
+				registry.match(grandChild).stream().map(CompiledSelector::getExpression).toList());
+		assertThrows(IllegalArgumentException.class, () -> registry.register("/Root/{"));
+		assertThrows(NullPointerException.class, () -> registry.register(null));
+	}
+}
\ No newline at end of file
@@ -0,0 +1,84 @@
+package com.example.tree;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for selectFirst, exists, count and select with a limit.
+ */
+public class ShortCircuitQueryTests extends TreeSelectorTestBase {
+
+	@Test
+	@DisplayName("Test selectFirst returns the first match in document order")
+	void testSelectFirst() {
+		Optional<TreeNode> first = selector.selectFirst("**/GrandChild1");
+
+		assertTrue(first.isPresent());
+		assertEquals("button", first.get().getVariant());
+		assertEquals("Child1", selector.selectFirst("/Root/Child2|/Root/Child1").orElseThrow().getName());
+		assertFalse(selector.selectFirst("/Root/NonExistent").isPresent());
+		assertFalse(selector.selectFirst("/Root/{").isPresent());
+	}
+
+	@Test
+	@DisplayName("Test exists")
+	void testExists() {
+		assertTrue(selector.exists("/Root/~~{variant=input}"));
+		assertTrue(selector.exists("/Root/../*"));
+		assertFalse(selector.exists("**/*{type=unknown}"));
+		assertFalse(selector.exists("Root"));
+	}
+
+	@Test
+	@DisplayName("Test count matches the size of the result")
+	void testCount() {
+		for (String expression : new String[]{"/Root", "**/*", "/~~", "/Root/*{type=component}", "**/GrandChild1",
+				"/Root/Child2/../*", "/Root/../*", "/Root/*|**/*", "/Root/{"}) {
+			assertEquals(selector.select(expression).size(), selector.count(expression), expression);
+		}
+	}
+
+	@Test
+	@DisplayName("Test select with a limit")
+	void testSelectWithLimit() {
+		List<TreeNode> all = selector.select("**/*");
+
+		assertEquals(all.subList(0, 3), selector.select("**/*", 3));
+		assertEquals(all, selector.select("**/*", 100));
+		assertTrue(selector.select("**/*", 0).isEmpty());
+		assertEquals(1, selector.select("/Root/../*|/Root/*", 1).size());
+		assertThrows(IllegalArgumentException.class, () -> selector.select("**/*", -1));
+		assertThrows(NullPointerException.class, () -> selector.select(null, 1));
+		assertThrows(NullPointerException.class, () -> selector.count(null));
+	}
+
+	@Test
+	@DisplayName("Test the walk stops at the first match")
+	void testWalkStopsEarly() {
+		int[] visited = new int[1];
+		StreamSelectorTests.CountingNode root = new StreamSelectorTests.CountingNode("Root", visited);
+		for (int i = 0; i < 1000; i++) {
+			StreamSelectorTests.CountingNode child = new StreamSelectorTests.CountingNode("Child", visited);
+			root.addChild(child);
+			child.addChild(new StreamSelectorTests.CountingNode("Leaf", visited));
+		}
+		TreeSelector countingSelector = new TreeSelector(root);
+
+		assertTrue(countingSelector.exists("/Root/~~/Leaf"));
+		assertTrue(visited[0] < 20, "visited " + visited[0]);
+
+		visited[0] = 0;
+		assertEquals(2, countingSelector.select("**/Leaf", 2).size());
+		assertTrue(visited[0] < 20, "visited " + visited[0]);
+
+		assertEquals(1000, countingSelector.count("**/Leaf"));
+	}
+}
\ No newline at end of file
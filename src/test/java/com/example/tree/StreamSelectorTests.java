@@ -0,0 +1,82 @@
+package com.example.tree;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for the lazy stream API.
+ */
+public class StreamSelectorTests extends TreeSelectorTestBase {
+
+	@Test
+	@DisplayName("Test streams produce the same nodes as select")
+	void testSameNodesAsSelect() {
+		for (String expression : new String[]{"/Root", "/Root/*", "**/*", "**/GrandChild1", "/~~{type=element}",
+				"/Root/Child2/~~", "/Root/Child2/../*", "/Root/../*", "/Root/*|**/GrandChild2"}) {
+			assertEquals(selector.select(expression), selector.stream(expression).collect(Collectors.toList()),
+					expression);
+		}
+	}
+
+	@Test
+	@DisplayName("Test invalid and null expressions")
+	void testInvalidExpressions() {
+		assertEquals(0, selector.stream("/Root/{").count());
+		assertEquals(0, selector.stream("").count());
+		assertThrows(NullPointerException.class, () -> selector.stream(null));
+	}
+
+	@Test
+	@DisplayName("Test the tree is only walked as far as matches are pulled")
+	void testLazyTraversal() {
+		int[] visited = new int[1];
+		CountingNode root = new CountingNode("Root", visited);
+		for (int i = 0; i < 100; i++) {
+			CountingNode child = new CountingNode("Child", visited);
+			root.addChild(child);
+			for (int j = 0; j < 100; j++) {
+				child.addChild(new CountingNode("Leaf" + j, visited));
+			}
+		}
+		TreeSelector countingSelector = new TreeSelector(root);
+
+		Optional<TreeNode> first = countingSelector.stream("**/Leaf1").findFirst();
+
+		assertTrue(first.isPresent());
+		assertEquals(root.getChildren().get(0).getChildren().get(1), first.get());
+		// Only the root, the first child and its first two leaves were expanded, out of 10101 nodes
+		assertTrue(visited[0] < 20, "visited " + visited[0]);
+
+		visited[0] = 0;
+		List<TreeNode> firstThree = countingSelector.stream("/Root/~~{'type'='*'}").limit(3).toList();
+		assertEquals(3, firstThree.size());
+		assertTrue(visited[0] < 20, "visited " + visited[0]);
+	}
+
+	/**
+	 * A node counting how often its children are requested.
+	 */
+	static final class CountingNode extends TreeNode {
+
+		private final int[] visited;
+
+		CountingNode(String name, int[] visited) {
+			super(name);
+			this.visited = visited;
+		}
+
+		@Override
+		public List<TreeNode> getChildren() {
+			visited[0]++;
+			return super.getChildren();
+		}
+	}
+}
\ No newline at end of file
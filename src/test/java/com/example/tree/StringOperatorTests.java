@@ -0,0 +1,94 @@
+package com.example.tree;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for the prefix, suffix, contains, glob and regular expression operators.
+ */
+public class StringOperatorTests extends TreeSelectorTestBase {
+
+	@Test
+	@DisplayName("Test string operators on built-in properties and attributes")
+	void testOperators() {
+		assertEquals(List.of("button", "button-alt"), variants(selector.select("**/*{variant^=button}")));
+		assertEquals(List.of("primary", "secondary"), variants(selector.select("**/*{variant$=ary}")));
+		assertEquals(List.of("button", "button-alt"), variants(selector.select("**/*{variant*='tton'}")));
+		assertEquals(List.of("Child1", "Child2"), names(selector.select("/Root/*{type%='comp*'}")));
+		assertEquals(List.of("text"), variants(selector.select("**/*{variant%='?ext'}")));
+		assertEquals(List.of("text", "input"), variants(selector.select("**/*{variant~='^(text|input)$'}")));
+		assertEquals(List.of("GrandChild1", "GrandChild2"), names(selector.select("**/*{version^=3.0,variant~='t'}")));
+		assertEquals(4, selector.select("**/*{version^=3}").size());
+		assertTrue(selector.select("**/*{variant%=butto}").isEmpty());
+
+		TreeNode child2 = selector.select("/Root/Child2").get(0);
+		child2.addAttribute("label", "Save *all* files");
+		assertEquals(List.of(child2), selector.select("**/*{label%='Save \\*all\\* *'}"));
+		assertEquals(List.of(child2), selector.select("**/*{label ~= 'files$', label^='Save'}"));
+		assertTrue(selector.select("**/*{label%='Save \\*all'}").isEmpty());
+	}
+
+	@Test
+	@DisplayName("Test patterns are compiled with the selector and invalid patterns are reported")
+	void testCompiledPatterns() {
+		AttributePredicate glob = new AttributePredicate("name", AttributePredicate.Operator.GLOB, "a.b*c?");
+		assertEquals("a.b", glob.getLiteralPrefix());
+		assertTrue(glob.matchesValue("a.bxyzcd"));
+		assertFalse(glob.matchesValue("axbcd"));
+		assertFalse(glob.isExact());
+		assertNull(new AttributePredicate("name", AttributePredicate.Operator.REGEX, "a").getLiteralPrefix());
+		assertEquals("name%='a.b*c?'", glob.toString());
+
+		CompiledSelector compiled = CompiledSelector.compile("**/*{variant~='('}");
+		assertFalse(compiled.isValid());
+		assertTrue(compiled.getErrorMessage().contains("Unclosed group"), compiled.getErrorMessage());
+		assertTrue(selector.select("**/*{variant~='('}").isEmpty());
+		assertThrows(IllegalArgumentException.class,
+				() -> new AttributePredicate("variant", AttributePredicate.Operator.REGEX, "["));
+	}
+
+	@Test
+	@DisplayName("Test engines, flat trees and the prefix index agree on generated trees")
+	void testGeneratedTree() {
+		TreeNode root = BytecodeEngineTests.createRandomTree(new Random(25), 3000);
+		TreeSelector interpreted = new TreeSelector(root);
+		TreeSelector generated = interpreted.withEngine(SelectorEngine.BYTECODE);
+		TreeSelector indexed = interpreted.withIndex(TreeIndex.build(root).withNameIndex().withAttributeIndex());
+		FlatTree tree = FlatTree.build(root);
+		List<TreeNode> documentOrder = TreeIndex.build(root).getDescendants(root);
+		String[] expressions = {"**/*{type^=t}", "**/*{type^=t1}", "**/N1{variant%='v?'}", "**/*{variant~='1$',type*=2}",
+				"/N0/*{visible^=tr}", "**/*{type%='*0'}", "**/N2{version$='.0'}/*{type%='t?'}", "**/*{type^=x}"};
+		for (String expression : expressions) {
+			List<TreeNode> expected = interpreted.select(expression);
+			assertEquals(expected, generated.select(expression), expression);
+			assertEquals(expected, indexed.select(expression), expression);
+
+			List<Integer> ordinals = new ArrayList<>();
+			for (TreeNode node : expected) {
+				ordinals.add(node == root ? 0 : documentOrder.indexOf(node) + 1);
+			}
+			assertEquals(ordinals, CompiledSelector.compile(expression).select(tree).stream().map(FlatNode::getOrdinal).toList(),
+					expression);
+		}
+		assertTrue(interpreted.select("**/*{type^=t1}").size() > 500);
+		assertEquals(interpreted.count("**/*"), interpreted.count("**/*{type^=t}"));
+	}
+
+	private static List<String> names(List<TreeNode> nodes) {
+		return nodes.stream().map(TreeNode::getName).toList();
+	}
+
+	private static List<String> variants(List<TreeNode> nodes) {
+		return nodes.stream().map(TreeNode::getVariant).toList();
+	}
+}
\ No newline at end of file
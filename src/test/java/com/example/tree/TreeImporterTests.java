@@ -0,0 +1,176 @@
+package com.example.tree;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for the streaming JSON and XML importer.
+ */
+public class TreeImporterTests extends TreeSelectorTestBase {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	@DisplayName("Test fields of a JSON document become node properties")
+	void testJson() throws IOException {
+		String json = """
+				{"name": "Root", "type": "container", "version": "1.0.0", "owner": {"team": "ui"},
+				 "children": [
+				   {"name": "Child1", "type": "component", "visible": true, "size": -1.5e3, "hint": null},
+				   {"type": "component", "tags": ["a", ["b", 3]], "label": "Say \\"hi\\"\\n\\u00e9"},
+				   7
+				 ]}""";
+		for (int parallelism : new int[]{1, 3}) {
+			TreeNode root = new TreeImporter().withParallelism(parallelism).importJson(new StringReader(json));
+
+			assertEquals("Root", root.getName());
+			assertEquals("container", root.getType());
+			assertEquals("1.0.0", root.getVersion());
+			assertEquals("7", root.getAttribute("children"));
+			assertEquals(List.of("owner", "Child1", "children"), root.getChildren().stream().map(TreeNode::getName).toList());
+			assertEquals(Map.of("team", "ui"), root.getChildren().get(0).getAttributes());
+			TreeNode child1 = root.getChildren().get(1);
+			assertEquals(Map.of("visible", "true", "size", "-1.5e3"), child1.getAttributes());
+			assertNull(child1.getVariant());
+			TreeNode child2 = root.getChildren().get(2);
+			assertEquals("a,b,3", child2.getAttribute("tags"));
+			assertEquals("Say \"hi\"\né", child2.getAttribute("label"));
+			assertEquals(1, new TreeSelector(root).select("/Root/Child1{visible=true}").size());
+		}
+	}
+
+	@Test
+	@DisplayName("Test elements and attributes of an XML document become nodes")
+	void testXml() throws IOException {
+		String xml = """
+				<?xml version="1.0" encoding="UTF-8"?>
+				<!-- the tree -->
+				<Root type="container" version="1.0.0">
+				  text <![CDATA[ <Ignored/> ]]>
+				  <Child1 type="component" visible="true" note="a > b"/>
+				  <?pi <Ignored/> ?>
+				  <Child name="Child2" type="component"><!-- <Ignored> --><GrandChild1 variant='button'>x</GrandChild1></Child>
+				</Root>""";
+		for (int parallelism : new int[]{1, 3}) {
+			TreeNode root = new TreeImporter().withParallelism(parallelism).importXml(new StringReader(xml));
+
+			assertEquals("Root", root.getName());
+			assertEquals("container", root.getType());
+			assertEquals(List.of("Child1", "Child2"), root.getChildren().stream().map(TreeNode::getName).toList());
+			assertEquals(Map.of("visible", "true", "note", "a > b"), root.getChildren().get(0).getAttributes());
+			assertEquals("button", new TreeSelector(root).select("/Root/Child2/GrandChild1").get(0).getVariant());
+		}
+	}
+
+	@Test
+	@DisplayName("Test mapping rules")
+	void testMapping() throws IOException {
+		ImportMapping mapping = ImportMapping.defaults()
+				.withNameField("id")
+				.withTypeField("kind")
+				.withVariantField(null)
+				.withChildrenField("items")
+				.withAttributeFilter(field -> !field.startsWith("_"));
+		TreeImporter importer = new TreeImporter().withMapping(mapping).withParallelism(2);
+
+		TreeNode root = importer.importJson(new StringReader(
+				"{\"id\": \"R\", \"items\": [{\"id\": \"A\", \"kind\": \"k\", \"variant\": \"v\", \"_internal\": 1}, {}]}"));
+		assertEquals("R", root.getName());
+		assertEquals(List.of("A", "items"), root.getChildren().stream().map(TreeNode::getName).toList());
+		assertEquals("k", root.getChildren().get(0).getType());
+		assertEquals(Map.of("variant", "v"), root.getChildren().get(0).getAttributes());
+
+		TreeNode xmlRoot = importer.importXml(new StringReader("<r id='R'><c kind='k' _x='1'/></r>"));
+		assertEquals("R", xmlRoot.getName());
+		assertEquals("c", xmlRoot.getChildren().get(0).getName());
+		assertTrue(xmlRoot.getChildren().get(0).getAttributes().isEmpty());
+	}
+
+	@Test
+	@DisplayName("Test large generated documents are imported the same in parallel")
+	void testGeneratedDocuments() throws IOException {
+		TreeNode original = BytecodeEngineTests.createRandomTree(new Random(59), 5000);
+		Path json = Files.writeString(directory.resolve("tree.json"), toJson(original, new StringBuilder()).toString());
+		Path xml = Files.writeString(directory.resolve("tree.xml"), toXml(original, new StringBuilder()).toString());
+		String expected = describe(original, new StringBuilder()).toString();
+
+		for (int parallelism : new int[]{1, 4}) {
+			TreeImporter importer = new TreeImporter().withParallelism(parallelism);
+			assertEquals(expected, describe(importer.importJson(json), new StringBuilder()).toString());
+			assertEquals(expected, describe(importer.importXml(xml), new StringBuilder()).toString());
+		}
+	}
+
+	@Test
+	@DisplayName("Test invalid documents are reported")
+	void testInvalidDocuments() throws IOException {
+		for (int parallelism : new int[]{1, 2}) {
+			TreeImporter importer = new TreeImporter().withParallelism(parallelism);
+			for (String json : new String[]{"[]", "{\"a\": }", "{\"a\": 1,}", "{\"children\": [{\"a\": tru}]}",
+					"{\"a\": \"open", "{} {}", "{\"children\": [{\"a\": 1}"}) {
+				IOException e = assertThrows(IOException.class, () -> importer.importJson(new StringReader(json)), json);
+				assertTrue(e.getMessage().contains("line 1"), e.getMessage());
+			}
+			for (String xml : new String[]{"", "<a>", "<a><b></a>", "<a><b x='1></b></a>", "<R><a/><b/></R><extra/>",
+					"<R><a/></X>", "<R/><extra/>", "<R><a/></R>text", "text<R><a/></R>"}) {
+				assertThrows(IOException.class, () -> importer.importXml(new StringReader(xml)), xml);
+			}
+			TreeNode root = importer.importXml(new StringReader("<!-- head --><R><a/><b/></R >\n<!-- tail --><?end?>\n"));
+			assertEquals(2, root.getChildren().size());
+		}
+		assertThrows(IllegalArgumentException.class, () -> new TreeImporter().withParallelism(0));
+	}
+
+	private static StringBuilder toJson(TreeNode node, StringBuilder out) {
+		out.append("{\"name\": \"").append(node.getName()).append("\", \"type\": \"").append(node.getType())
+				.append("\", \"variant\": \"").append(node.getVariant()).append("\", \"version\": \"")
+				.append(node.getVersion()).append('"');
+		for (Map.Entry<String, String> entry : node.getAttributes().entrySet()) {
+			out.append(", \"").append(entry.getKey()).append("\": ").append(entry.getValue());
+		}
+		out.append(",\n \"children\": [");
+		for (int i = 0; i < node.getChildren().size(); i++) {
+			toJson(node.getChildren().get(i), out.append(i > 0 ? ", " : ""));
+		}
+		return out.append("]}");
+	}
+
+	private static StringBuilder toXml(TreeNode node, StringBuilder out) {
+		out.append('<').append(node.getName()).append(" type=\"").append(node.getType()).append("\" variant=\"")
+				.append(node.getVariant()).append("\" version=\"").append(node.getVersion()).append('"');
+		for (Map.Entry<String, String> entry : node.getAttributes().entrySet()) {
+			out.append(' ').append(entry.getKey()).append("=\"").append(entry.getValue()).append('"');
+		}
+		if (node.getChildren().isEmpty()) {
+			return out.append("/>\n");
+		}
+		out.append(">\n");
+		for (TreeNode child : node.getChildren()) {
+			toXml(child, out);
+		}
+		return out.append("</").append(node.getName()).append(">\n");
+	}
+
+	private static StringBuilder describe(TreeNode node, StringBuilder out) {
+		out.append(node).append(node.getAttributes()).append('(');
+		for (TreeNode child : node.getChildren()) {
+			describe(child, out);
+		}
+		return out.append(')');
+	}
+}
\ No newline at end of file
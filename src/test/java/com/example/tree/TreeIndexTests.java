@@ -0,0 +1,104 @@
+package com.example.tree;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for the pre-order structural index.
+ */
+public class TreeIndexTests extends TreeSelectorTestBase {
+
+	@Test
+	@DisplayName("Test pre-order numbers and subtree sizes")
+	void testNumbering() {
+		TreeIndex index = TreeIndex.build(rootNode);
+		TreeNode child1 = rootNode.getChildren().get(0);
+		TreeNode child2 = rootNode.getChildren().get(1);
+
+		assertEquals(7, index.size());
+		assertSame(rootNode, index.getRoot());
+		assertEquals(0, index.getOrdinal(rootNode));
+		assertEquals(1, index.getOrdinal(child1));
+		assertEquals(3, index.getOrdinal(child2));
+		assertEquals(7, index.getSubtreeSize(0));
+		assertEquals(4, index.getSubtreeSize(3));
+		assertEquals(-1, index.getOrdinal(new TreeNode("Other")));
+		assertEquals(child2.getChildren(), index.getDescendants(child2));
+		assertTrue(index.getDescendants(child1.getChildren().get(0)).isEmpty());
+	}
+
+	@Test
+	@DisplayName("Test ancestor checks")
+	void testIsAncestor() {
+		TreeIndex index = TreeIndex.build(rootNode);
+		TreeNode child1 = rootNode.getChildren().get(0);
+		TreeNode child2 = rootNode.getChildren().get(1);
+		TreeNode grandChild2 = child2.getChildren().get(1);
+
+		assertTrue(index.isAncestor(rootNode, grandChild2));
+		assertTrue(index.isAncestor(child2, grandChild2));
+		assertFalse(index.isAncestor(child1, grandChild2));
+		assertFalse(index.isAncestor(grandChild2, child2));
+		assertFalse(index.isAncestor(child2, child2));
+		assertFalse(index.isAncestor(new TreeNode("Other"), child2));
+	}
+
+	@Test
+	@DisplayName("Test the index is only accepted for its own root")
+	void testWithIndex() {
+		TreeIndex index = TreeIndex.build(rootNode);
+
+		assertSame(index, selector.withIndex(index).getIndex());
+		assertSame(index, selector.withIndex(index).withEngine(SelectorEngine.BYTECODE).getIndex());
+		assertThrows(IllegalArgumentException.class,
+				() -> new TreeSelector(rootNode.getChildren().get(0)).withIndex(index));
+	}
+
+	@Test
+	@DisplayName("Test selecting with an index returns the same nodes")
+	void testSameResultsWithIndex() {
+		TreeNode root = BytecodeEngineTests.createRandomTree(new Random(31), 1000);
+		TreeSelector plain = new TreeSelector(root);
+		TreeSelector indexed = plain.withIndex(TreeIndex.build(root));
+		String[] expressions = {"**/N1", "/N0/~~{type=t1}", "/N0/~~/N2/~~", "/~~/..{variant=v0}", "**/*/..",
+				"/N0/*/~~/*|**/N3{visible=true}", "/N0/../~~/N4", "/N0/~~/../~~{type=t2}"};
+
+		for (String expression : expressions) {
+			List<TreeNode> expected = plain.select(expression);
+			assertEquals(expected, indexed.select(expression), expression);
+			assertEquals(expected, indexed.withEngine(SelectorEngine.BYTECODE).select(expression), expression);
+			assertEquals(expected, indexed.stream(expression).collect(Collectors.toList()), expression);
+			assertEquals(expected.size(), indexed.count(expression), expression);
+			assertEquals(expected.subList(0, Math.min(3, expected.size())), indexed.select(expression, 3), expression);
+		}
+	}
+
+	@Test
+	@DisplayName("Test building the index of a very deep tree")
+	void testDeepTree() {
+		TreeNode root = new TreeNode("Node");
+		TreeNode node = root;
+		for (int i = 0; i < 100000; i++) {
+			TreeNode child = new TreeNode("Node");
+			node.addChild(child);
+			node = child;
+		}
+
+		TreeIndex index = TreeIndex.build(root);
+
+		assertEquals(100001, index.size());
+		assertEquals(100000, index.getDescendants(root).size());
+		assertTrue(index.isAncestor(root, node));
+		assertEquals(100001, new TreeSelector(root).withIndex(index).count("**/Node"));
+	}
+}
\ No newline at end of file
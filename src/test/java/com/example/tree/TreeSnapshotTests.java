@@ -0,0 +1,87 @@
+package com.example.tree;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for memory-mapped tree snapshots.
+ */
+public class TreeSnapshotTests extends TreeSelectorTestBase {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	@DisplayName("Test a mapped snapshot is queried in place")
+	void testWriteAndMap() throws IOException {
+		Path file = directory.resolve("tree.snapshot");
+		TreeSnapshot.write(rootNode, file);
+		FlatTree tree = TreeSnapshot.map(file);
+
+		assertTrue(tree.isOffHeap());
+		assertEquals(7, tree.size());
+		assertEquals(List.of("Child1", "Child2"),
+				TreeSelector.select(tree, "/Root/*{visible=true}").stream().map(FlatNode::getName).toList());
+		assertEquals("3.2.0", TreeSelector.select(tree, "**/GrandChild1{variant='button-alt'}").get(0).getVersion());
+		assertTrue(TreeSelector.select(tree, "/Root/{").isEmpty());
+	}
+
+	@Test
+	@DisplayName("Test a snapshot gives the same results as the tree it was written from")
+	void testGeneratedTree() throws IOException {
+		TreeNode root = BytecodeEngineTests.createRandomTree(new Random(53), 3000);
+		root.addAttribute("label", "Grüße 世界 🌳");
+		Path file = directory.resolve("generated.snapshot");
+		TreeSnapshot.write(root, file);
+		// Writing again replaces the file
+		TreeSnapshot.write(root, file);
+		FlatTree mapped = TreeSnapshot.map(file);
+		FlatTree built = FlatTree.build(root);
+
+		assertEquals(root.getAttribute("label"), mapped.getRoot().getAttribute("label"));
+		assertEquals(List.of(mapped.getRoot()), TreeSelector.select(mapped, "**/*{label='Grüße 世界 🌳'}"));
+		for (String expression : new String[]{"**/N1", "/N0/~~{type=t1}/N2", "**/*{variant=v0,visible=false}/..",
+				"/N0/*/*|**/N3/.", "**/*{label='Grüße 世界 🌳'}"}) {
+			CompiledSelector compiled = CompiledSelector.compile(expression);
+			assertEquals(compiled.select(built).stream().map(FlatNode::getOrdinal).toList(),
+					compiled.select(mapped).stream().map(FlatNode::getOrdinal).toList(), expression);
+			assertEquals(compiled.select(root).size(), compiled.select(mapped).size(), expression);
+		}
+	}
+
+	@Test
+	@DisplayName("Test files of another format are rejected")
+	void testInvalidFiles() throws IOException {
+		Path file = directory.resolve("tree.snapshot");
+		TreeSnapshot.write(rootNode, file);
+		byte[] content = Files.readAllBytes(file);
+
+		Path empty = Files.write(directory.resolve("empty"), new byte[0]);
+		assertThrows(IOException.class, () -> TreeSnapshot.map(empty));
+
+		byte[] otherVersion = content.clone();
+		ByteBuffer.wrap(otherVersion).order(ByteOrder.LITTLE_ENDIAN).putInt(4, TreeSnapshot.FORMAT_VERSION + 1);
+		Path future = Files.write(directory.resolve("future"), otherVersion);
+		assertThrows(IOException.class, () -> TreeSnapshot.map(future));
+
+		Path truncated = Files.write(directory.resolve("truncated"), Arrays.copyOf(content, content.length - 1));
+		assertThrows(IOException.class, () -> TreeSnapshot.map(truncated));
+
+		Path text = Files.writeString(directory.resolve("text"), "not a snapshot at all");
+		assertThrows(IOException.class, () -> TreeSnapshot.map(text));
+	}
+}
\ No newline at end of file
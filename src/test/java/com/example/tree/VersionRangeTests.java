@@ -0,0 +1,112 @@
+package com.example.tree;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for version range filters and the version index.
+ */
+public class VersionRangeTests extends TreeSelectorTestBase {
+
+	@Test
+	@DisplayName("Test comparison, caret, tilde and wildcard ranges")
+	void testRanges() {
+		assertEquals(List.of("GrandChild1", "GrandChild1", "GrandChild2", "GrandChild3"), names(selector.select("**/*{version>=3}")));
+		assertEquals(List.of("Root", "Child1", "Child2"), names(selector.select("**/*{version<3}")));
+		assertEquals(List.of("Child2"), names(selector.select("**/*{version>2.0,version<=2.9}")));
+		assertEquals(List.of("Child1", "Child2"), names(selector.select("/Root/*{version=^2.0.0}")));
+		assertEquals(List.of("GrandChild3"), names(selector.select("**/*{version=~3.1}")));
+		assertEquals(List.of("GrandChild1", "GrandChild1", "GrandChild2", "GrandChild3"), names(selector.select("**/*{version=3.*}")));
+		assertEquals(List.of("Child2"), names(selector.select("**/*{version=2.1.x}")));
+		assertEquals(List.of("Child1", "Child2"), names(selector.select("**/*{'version'>1.0.0,version<3}")));
+		assertTrue(selector.select("**/*{version>3.2.0}").isEmpty());
+
+		// Generic attributes are compared as versions, values which are not versions never match
+		selector.select("/Root/Child1").get(0).addAttribute("api", "4.2");
+		selector.select("/Root/Child2").get(0).addAttribute("api", "latest");
+		assertEquals(List.of("Child1"), names(selector.select("**/*{api>=4}")));
+		assertEquals(List.of("Child1"), names(selector.select("**/*{api=^4.1}")));
+
+		assertTrue(selector.select("**/*{version>=latest}").isEmpty());
+		assertThrows(IllegalArgumentException.class, () -> new AttributePredicate("version", AttributePredicate.Operator.LESS, "beta"));
+	}
+
+	@Test
+	@DisplayName("Test quoted values and attributes other than version are compared literally")
+	void testLiteralPatterns() {
+		TreeNode child1 = selector.select("/Root/Child1").get(0);
+		TreeNode child2 = selector.select("/Root/Child2").get(0);
+		child1.addAttribute("label", "2.*");
+		child2.addAttribute("label", "2.7");
+		child2.setVersion("3.*");
+
+		for (TreeSelector treeSelector : new TreeSelector[]{selector, selector.withEngine(SelectorEngine.BYTECODE),
+				selector.withIndex(TreeIndex.build(rootNode).withAttributeIndex().withVersionIndex())}) {
+			assertEquals(List.of("Child1"), names(treeSelector.select("**/*{label='2.*'}")));
+			assertEquals(List.of("Child1"), names(treeSelector.select("**/*{label=2.*}")));
+			assertEquals(List.of("Child2"), names(treeSelector.select("**/*{version='3.*'}")));
+			assertEquals(List.of("GrandChild1", "GrandChild1", "GrandChild2", "GrandChild3"),
+					names(treeSelector.select("**/*{version=3.*}")));
+		}
+		assertEquals(1, CompiledSelector.compile("**/*{label='2.*'}").select(FlatTree.build(rootNode)).size());
+		assertEquals(1, CompiledSelector.compile("**/*{version='3.*'}").select(FlatTree.build(rootNode)).size());
+		assertEquals("version='3.*'", CompiledSelector.compile("/*{version='3.*'}").getPaths().get(0).getSteps().get(0)
+				.getPredicates().get(0).toString());
+		assertEquals("version=3.*", new AttributePredicate("version", AttributePredicate.Operator.EQUALS, "3.*").toString());
+	}
+
+	@Test
+	@DisplayName("Test version keys are ordered like versions")
+	void testVersionKeys() {
+		assertTrue(VersionKey.of("2.10.0") > VersionKey.of("2.9.9"));
+		assertEquals(VersionKey.of("3"), VersionKey.of("3.0.0"));
+		assertEquals(VersionKey.NONE, VersionKey.of("3.0.0.1"));
+		assertEquals(VersionKey.NONE, VersionKey.of("3.0-beta"));
+		assertEquals(VersionKey.NONE, VersionKey.of(null));
+		assertEquals(VersionKey.of("3.1.0"), rootNode.getChildren().get(1).getChildren().get(2).getVersionKey());
+
+		long[] caret = VersionKey.range(AttributePredicate.Operator.CARET, "0.2.3");
+		assertEquals(VersionKey.of("0.2.3"), caret[0]);
+		assertEquals(VersionKey.of("0.3.0"), caret[1]);
+		long[] tilde = VersionKey.range(AttributePredicate.Operator.TILDE, "1");
+		assertEquals(VersionKey.of("2.0.0"), tilde[1]);
+	}
+
+	@Test
+	@DisplayName("Test engines, flat trees and the version index agree on generated trees")
+	void testGeneratedTree() {
+		TreeNode root = BytecodeEngineTests.createRandomTree(new Random(24), 3000);
+		TreeSelector interpreted = new TreeSelector(root);
+		TreeSelector generated = interpreted.withEngine(SelectorEngine.BYTECODE);
+		TreeSelector indexed = interpreted.withIndex(TreeIndex.build(root).withAttributeIndex().withVersionIndex());
+		FlatTree tree = FlatTree.build(root);
+		List<TreeNode> documentOrder = TreeIndex.build(root).getDescendants(root);
+		String[] expressions = {"**/*{version>=1.1}", "**/N1{version<2,type=t1}", "/N0/*{version=^1.0}",
+				"**/*{version=~2.1}", "**/*{version=0.*}", "**/N2{version>0.1.0}/*{version<=1}", "**/*{version>=9}"};
+		for (String expression : expressions) {
+			List<TreeNode> expected = interpreted.select(expression);
+			assertTrue(expected.size() > 1 || expression.contains(">=9"), expression);
+			assertEquals(expected, generated.select(expression), expression);
+			assertEquals(expected, indexed.select(expression), expression);
+
+			List<Integer> ordinals = new ArrayList<>();
+			for (TreeNode node : expected) {
+				ordinals.add(node == root ? 0 : documentOrder.indexOf(node) + 1);
+			}
+			assertEquals(ordinals, CompiledSelector.compile(expression).select(tree).stream().map(FlatNode::getOrdinal).toList(),
+					expression);
+		}
+	}
+
+	private static List<String> names(List<TreeNode> nodes) {
+		return nodes.stream().map(TreeNode::getName).toList();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,71 @@
+package com.example.tree;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for the parser warm-up and the two-stage ANTLR front end.
+ */
+public class WarmUpTests extends TreeSelectorTestBase {
+
+	@Test
+	@DisplayName("Test warm-up puts expressions into the cache")
+	void testWarmUpFillsCache() {
+		SelectorCache cache = new SelectorCache(16);
+		TreeSelector cachedSelector = new TreeSelector(rootNode, cache);
+
+		List<CompiledSelector> invalid = cachedSelector.warmUp(List.of("/Root/*", "**/Child2", "/Root/~~{type=element}"));
+
+		assertTrue(invalid.isEmpty());
+		assertEquals(3, cache.size());
+		assertEquals(3, cache.getMissCount());
+
+		assertEquals(2, cachedSelector.select("/Root/*").size());
+		assertEquals(3, cache.getMissCount());
+		assertEquals(1, cache.getHitCount());
+	}
+
+	@Test
+	@DisplayName("Test warm-up reports invalid expressions")
+	void testWarmUpReportsInvalidExpressions() {
+		List<CompiledSelector> invalid = selector.withEngine(SelectorEngine.BYTECODE)
+				.warmUp(List.of("/Root", "/Root/{", "Root"));
+
+		assertEquals(2, invalid.size());
+		assertEquals("/Root/{", invalid.get(0).getExpression());
+		assertEquals("Root", invalid.get(1).getExpression());
+		assertThrows(NullPointerException.class, () -> selector.warmUp(Arrays.asList("/Root", null)));
+	}
+
+	@Test
+	@DisplayName("Test ANTLR front end reports errors from the full LL stage")
+	void testAntlrFrontEndErrorMessages() {
+		CompiledSelector compiled = SelectorCompiler.compileWithAntlr("/Root/Child1{type=}");
+
+		assertFalse(compiled.isValid());
+		assertTrue(compiled.getErrorMessage().startsWith("line 1:18"), compiled.getErrorMessage());
+
+		CompiledSelector lexerError = SelectorCompiler.compileWithAntlr("/Root/#");
+		assertFalse(lexerError.isValid());
+		assertTrue(lexerError.getErrorMessage().contains("token recognition error"), lexerError.getErrorMessage());
+	}
+
+	@Test
+	@DisplayName("Test ANTLR front end accepts valid expressions in SLL mode")
+	void testAntlrFrontEndValidExpressions() {
+		for (String expression : new String[]{"/Root/*{type=component, variant=primary}", "**/*|/~~", "/Root/../*"}) {
+			CompiledSelector compiled = SelectorCompiler.compileWithAntlr(expression);
+
+			assertTrue(compiled.isValid(), expression);
+			assertEquals(CompiledSelector.compile(expression).getPaths(), compiled.getPaths(), expression);
+		}
+	}
+}
\ No newline at end of file